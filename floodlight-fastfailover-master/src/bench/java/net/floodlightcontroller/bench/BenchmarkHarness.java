@@ -0,0 +1,97 @@
+package net.floodlightcontroller.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * What the benchmarks under src/bench share: a timing loop that warms up
+ * first and counts the bytes the measuring thread allocates, and a sink
+ * that keeps the JIT from dropping the work.
+ *
+ * The benchmarks are plain main() classes, kept out of the unit tests.
+ * Build them with "ant compile-bench" and run one at a time with
+ *   ant bench -Dbench=&lt;class&gt; [-Dargs="..."]
+ */
+public final class BenchmarkHarness {
+    /* Keeps the JIT from dropping the work */
+    public static volatile long sink;
+
+    private BenchmarkHarness() {
+    }
+
+    /**
+     * Work that can be repeated any number of rounds.
+     */
+    public interface Workload {
+        /**
+         * @return anything computed from the work, so that it isn't dropped
+         */
+        long run(int rounds) throws Exception;
+    }
+
+    public static final class Result {
+        public final long ns;
+        /* 0 if the JVM doesn't count allocations per thread */
+        public final long allocatedBytes;
+        /* What the measured rounds returned */
+        public final long value;
+
+        Result(long ns, long allocatedBytes, long value) {
+            this.ns = ns;
+            this.allocatedBytes = allocatedBytes;
+            this.value = value;
+        }
+
+        public double nsPer(long ops) {
+            return (double) ns / ops;
+        }
+
+        public double perSecond(long ops) {
+            return ops * 1e9 / ns;
+        }
+
+        public double bytesPer(long ops) {
+            return (double) allocatedBytes / ops;
+        }
+    }
+
+    /**
+     * Run the warm-up rounds, then time the measured rounds.
+     */
+    public static Result measure(Workload work, int warmupRounds, int measuredRounds) throws Exception {
+        long value = work.run(warmupRounds);
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long measured = work.run(measuredRounds);
+        long ns = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        sink += value + measured;
+        return new Result(ns, allocated, measured);
+    }
+
+    /**
+     * @return the bytes the current thread allocated so far, 0 if the JVM
+     * can't tell
+     */
+    public static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * @return the arguments as integers, or the defaults if there are none
+     */
+    public static int[] intArgs(String[] args, int[] defaults) {
+        if (args.length == 0) {
+            return defaults;
+        }
+        int[] values = new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            values[i] = Integer.parseInt(args[i]);
+        }
+        return values;
+    }
+}
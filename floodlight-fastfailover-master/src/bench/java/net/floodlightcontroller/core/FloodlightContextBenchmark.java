@@ -0,0 +1,91 @@
+package net.floodlightcontroller.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.floodlightcontroller.bench.BenchmarkHarness;
+
+/**
+ * Measures what the floodlight context costs a packet-in: the controller
+ * puts the payload, the listeners put and get the devices and the routing
+ * decision, and the context is cleared to be reused. Compares the
+ * array-backed FloodlightContext with the ConcurrentHashMap it used to
+ * keep its values in.
+ *
+ * Run it with:
+ *   ant bench -Dbench=net.floodlightcontroller.core.FloodlightContextBenchmark
+ */
+public class FloodlightContextBenchmark {
+    private static final String PAYLOAD = "net.floodlightcontroller.core.IFloodlightProvider.piPayload";
+    private static final String SRC_DEVICE = "net.floodlightcontroller.devicemanager.srcDevice";
+    private static final String DST_DEVICE = "net.floodlightcontroller.devicemanager.dstDevice";
+    private static final String DECISION = "net.floodlightcontroller.routing.decision";
+
+    private static final int PACKETS_PER_ROUND = 1000000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+
+    private static final FloodlightContextStore<Object> payloadStore =
+            new FloodlightContextStore<Object>(PAYLOAD);
+    private static final FloodlightContextStore<Object> deviceStore =
+            new FloodlightContextStore<Object>(SRC_DEVICE, DST_DEVICE);
+    private static final FloodlightContextStore<Object> decisionStore =
+            new FloodlightContextStore<Object>(DECISION);
+
+    private static long legacy(int packets, Object value) {
+        ConcurrentHashMap<String, Object> storage = new ConcurrentHashMap<String, Object>();
+        long found = 0;
+        for (int i = 0; i < packets; i++) {
+            storage.put(PAYLOAD, value);
+            found += storage.get(PAYLOAD) != null ? 1 : 0;
+            storage.put(SRC_DEVICE, value);
+            storage.put(DST_DEVICE, value);
+            found += storage.get(PAYLOAD) != null ? 1 : 0;
+            found += storage.get(SRC_DEVICE) != null ? 1 : 0;
+            found += storage.get(DECISION) != null ? 1 : 0;
+            found += storage.get(PAYLOAD) != null ? 1 : 0;
+            found += storage.get(DST_DEVICE) != null ? 1 : 0;
+            storage.clear();
+        }
+        return found;
+    }
+
+    private static long slotted(int packets, Object value) {
+        FloodlightContext cntx = new FloodlightContext();
+        long found = 0;
+        for (int i = 0; i < packets; i++) {
+            payloadStore.put(cntx, PAYLOAD, value);
+            found += payloadStore.get(cntx, PAYLOAD) != null ? 1 : 0;
+            deviceStore.put(cntx, SRC_DEVICE, value);
+            deviceStore.put(cntx, DST_DEVICE, value);
+            found += payloadStore.get(cntx, PAYLOAD) != null ? 1 : 0;
+            found += deviceStore.get(cntx, SRC_DEVICE) != null ? 1 : 0;
+            found += decisionStore.get(cntx, DECISION) != null ? 1 : 0;
+            found += payloadStore.get(cntx, PAYLOAD) != null ? 1 : 0;
+            found += deviceStore.get(cntx, DST_DEVICE) != null ? 1 : 0;
+            cntx.clear();
+        }
+        return found;
+    }
+
+    private static double nsPerPacket(final boolean legacy, final Object value) throws Exception {
+        BenchmarkHarness.Result r = BenchmarkHarness.measure(new BenchmarkHarness.Workload() {
+            @Override
+            public long run(int rounds) {
+                long found = 0;
+                for (int i = 0; i < rounds; i++) {
+                    found += legacy ? legacy(PACKETS_PER_ROUND, value) : slotted(PACKETS_PER_ROUND, value);
+                }
+                return found;
+            }
+        }, WARMUP_ROUNDS, MEASURED_ROUNDS);
+        return r.nsPer((long) PACKETS_PER_ROUND * MEASURED_ROUNDS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Object value = new Object();
+        System.out.println(String.format("%24s %10.1f ns/packet-in",
+                "ConcurrentHashMap", nsPerPacket(true, value)));
+        System.out.println(String.format("%24s %10.1f ns/packet-in",
+                "FloodlightContext", nsPerPacket(false, value)));
+    }
+}
@@ -0,0 +1,193 @@
+package net.floodlightcontroller.core.internal;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.netty.bootstrap.ClientBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.projectfloodlight.openflow.protocol.OFCapabilities;
+import org.projectfloodlight.openflow.protocol.OFEchoRequest;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFAuxId;
+
+/**
+ * Opens many simulated OpenFlow 1.3 switch sessions to a running
+ * controller at once, as happens when a fabric reconnects after a
+ * controller restart. Every session says hello and answers the features
+ * request and echo requests; reported is how long the controller took to
+ * get all of them as far as the features request, and the percentiles of
+ * that time per session.
+ *
+ * Start a controller and raise the open file limit, then run it with:
+ *   ant bench -Dbench=net.floodlightcontroller.core.internal.ConnectionStormBenchmark \
+ *     [-Dargs="host [port [sessions]]"]
+ */
+public class ConnectionStormBenchmark {
+    private static final String DEFAULT_HOST = "127.0.0.1";
+    private static final int DEFAULT_PORT = 6653;
+    private static final int DEFAULT_SESSIONS = 5000;
+    private static final long WAIT_SECONDS = 120;
+
+    private static final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+
+    private static class Session extends SimpleChannelUpstreamHandler {
+        private final DatapathId dpid;
+        private final CountDownLatch done;
+        private final long[] latencies;
+        private final int index;
+        private long connectedNs;
+        private boolean featuresRequested;
+
+        Session(int index, long[] latencies, CountDownLatch done) {
+            this.index = index;
+            this.dpid = DatapathId.of(index + 1);
+            this.latencies = latencies;
+            this.done = done;
+        }
+
+        private void send(Channel channel, OFMessage m) {
+            channel.write(Collections.singletonList(m));
+        }
+
+        @Override
+        public void channelConnected(ChannelHandlerContext ctx, ChannelStateEvent e) {
+            connectedNs = System.nanoTime();
+            send(e.getChannel(), factory.buildHello().build());
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            @SuppressWarnings("unchecked")
+            List<OFMessage> msgs = (List<OFMessage>) e.getMessage();
+            for (OFMessage m : msgs) {
+                switch (m.getType()) {
+                    case FEATURES_REQUEST:
+                        send(e.getChannel(), factory.buildFeaturesReply()
+                                .setXid(m.getXid())
+                                .setDatapathId(dpid)
+                                .setAuxiliaryId(OFAuxId.MAIN)
+                                .setNBuffers(0)
+                                .setNTables((short) 1)
+                                .setCapabilities(Collections.<OFCapabilities>emptySet())
+                                .build());
+                        if (!featuresRequested) {
+                            featuresRequested = true;
+                            latencies[index] = System.nanoTime() - connectedNs;
+                            done.countDown();
+                        }
+                        break;
+                    case ECHO_REQUEST:
+                        send(e.getChannel(), factory.buildEchoReply()
+                                .setXid(m.getXid())
+                                .setData(((OFEchoRequest) m).getData())
+                                .build());
+                        break;
+                    default:
+                        // The rest of the switch handshake is not simulated
+                        break;
+                }
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) {
+            e.getChannel().close();
+        }
+    }
+
+    private static double percentile(long[] sorted, int count, double p) {
+        if (count == 0) {
+            return 0;
+        }
+        int i = Math.min(count - 1, (int) Math.ceil(p / 100 * count) - 1);
+        return sorted[Math.max(i, 0)] / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : DEFAULT_HOST;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int sessions = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SESSIONS;
+
+        final long[] latencies = new long[sessions];
+        final CountDownLatch done = new CountDownLatch(sessions);
+        final AtomicInteger failed = new AtomicInteger();
+        final ChannelGroup channels = new DefaultChannelGroup();
+        NioClientSocketChannelFactory channelFactory = new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(), Executors.newCachedThreadPool());
+        InetSocketAddress address = new InetSocketAddress(host, port);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            final Session session = new Session(i, latencies, done);
+            ClientBootstrap bootstrap = new ClientBootstrap(channelFactory);
+            bootstrap.setOption("tcpNoDelay", true);
+            bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+                @Override
+                public ChannelPipeline getPipeline() {
+                    return Channels.pipeline(new OFMessageDecoder(OFVersion.OF_13),
+                            new OFMessageEncoder(), session);
+                }
+            });
+            bootstrap.connect(address).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) {
+                    if (future.isSuccess()) {
+                        channels.add(future.getChannel());
+                    } else {
+                        failed.incrementAndGet();
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        boolean complete = done.await(WAIT_SECONDS, TimeUnit.SECONDS);
+        long ns = System.nanoTime() - start;
+
+        List<Long> measured = new ArrayList<Long>();
+        for (long l : latencies) {
+            if (l > 0) {
+                measured.add(l);
+            }
+        }
+        long[] sorted = new long[measured.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = measured.get(i);
+        }
+        Arrays.sort(sorted);
+
+        System.out.println(String.format("%d sessions to %s, %d failed to connect%s",
+                sessions, address, failed.get(), complete ? "" : ", timed out waiting for the rest"));
+        System.out.println(String.format("%d reached the features request in %.0f ms (%.0f sessions/s)",
+                sorted.length, ns / 1e6, sorted.length * 1e9 / ns));
+        System.out.println(String.format("per session ms: p50 %.1f  p99 %.1f  max %.1f",
+                percentile(sorted, sorted.length, 50), percentile(sorted, sorted.length, 99),
+                percentile(sorted, sorted.length, 100)));
+
+        channels.close().awaitUninterruptibly();
+        channelFactory.releaseExternalResources();
+    }
+}
@@ -0,0 +1,115 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.bench.BenchmarkHarness;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Compares the encoder that started every batch in a default-sized dynamic
+ * buffer with OFMessageEncoder, which sizes it from the messages it has
+ * encoded so far. Batches of FlowMods are pushed through a Netty encoder
+ * embedder; reported are encoded MB/s and bytes allocated per batch.
+ *
+ * Run it with:
+ *   ant bench -Dbench=net.floodlightcontroller.core.internal.OFMessageEncoderBenchmark [-Dargs="batch-size ..."]
+ */
+public class OFMessageEncoderBenchmark {
+    private static final int[] DEFAULT_BATCH_SIZES = { 1, 20, 100 };
+    private static final int WARMUP_BATCHES = 20000;
+    private static final int MEASURED_BATCHES = 100000;
+
+    /* How OFMessageEncoder used to do it */
+    private static class LegacyEncoder extends OneToOneEncoder {
+        @Override
+        protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+            @SuppressWarnings("unchecked")
+            Iterable<OFMessage> msgList = (Iterable<OFMessage>) msg;
+            ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+            for (OFMessage ofm : msgList) {
+                ofm.writeTo(buf);
+            }
+            return buf;
+        }
+    }
+
+    private static List<OFMessage> flowMods(int count) {
+        OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+        List<OFMessage> msgs = new ArrayList<OFMessage>(count);
+        for (int i = 0; i < count; i++) {
+            msgs.add(factory.buildFlowAdd()
+                    .setCookie(U64.of(i))
+                    .setPriority(100)
+                    .setMatch(factory.buildMatch()
+                            .setExact(MatchField.IN_PORT, OFPort.of(1 + i % 48))
+                            .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                            .setExact(MatchField.ETH_SRC, MacAddress.of(i))
+                            .setExact(MatchField.ETH_DST, MacAddress.of(i + 1))
+                            .setExact(MatchField.IPV4_SRC, IPv4Address.of(i))
+                            .setExact(MatchField.IPV4_DST, IPv4Address.of(i + 1))
+                            .build())
+                    .setActions(Collections.<OFAction>singletonList(
+                            factory.actions().output(OFPort.of(2 + i % 48), 0xffFFffFF)))
+                    .build());
+        }
+        return msgs;
+    }
+
+    private static long encode(EncoderEmbedder<ChannelBuffer> embedder, List<OFMessage> batch, int batches) {
+        long bytes = 0;
+        for (int i = 0; i < batches; i++) {
+            embedder.offer(batch);
+            bytes += embedder.poll().readableBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return { MB/s, bytes allocated per batch }
+     */
+    private static double[] measure(OneToOneEncoder encoder, final List<OFMessage> batch) throws Exception {
+        final EncoderEmbedder<ChannelBuffer> embedder = new EncoderEmbedder<ChannelBuffer>(encoder);
+        BenchmarkHarness.Result r = BenchmarkHarness.measure(new BenchmarkHarness.Workload() {
+            @Override
+            public long run(int batches) {
+                return encode(embedder, batch, batches);
+            }
+        }, WARMUP_BATCHES, MEASURED_BATCHES);
+        embedder.finish();
+        // r.value holds the bytes encoded by the measured batches
+        return new double[] { r.value * 1e3 / r.ns, r.bytesPer(MEASURED_BATCHES) };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = BenchmarkHarness.intArgs(args, DEFAULT_BATCH_SIZES);
+
+        System.out.println(String.format("%6s %12s %12s %14s %14s",
+                "batch", "legacy MB/s", "sized MB/s", "legacy B/op", "sized B/op"));
+        for (int size : sizes) {
+            List<OFMessage> batch = flowMods(size);
+            double[] legacy = measure(new LegacyEncoder(), batch);
+            double[] sized = measure(new OFMessageEncoder(), batch);
+            System.out.println(String.format("%6d %12.1f %12.1f %14.0f %14.0f",
+                    size, legacy[0], sized[0], legacy[1], sized[1]));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.bench.BenchmarkHarness;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Echoes unbuffered packet-ins back out as packet-outs, the way reactive
+ * forwarding floods them: the packet-in is decoded from the wire, a
+ * packet-out carrying its payload is built and encoded again, all over an
+ * in-memory channel. Compares an encoder that copies every payload into the
+ * output buffer with OFMessageEncoder, which passes large payloads on
+ * without copying them; reported are packets per second and bytes allocated
+ * per packet for a range of frame sizes.
+ *
+ * Run it with:
+ *   ant bench -Dbench=net.floodlightcontroller.core.internal.PacketOutEchoBenchmark [-Dargs="frame-size ..."]
+ */
+public class PacketOutEchoBenchmark {
+    private static final int[] DEFAULT_FRAME_SIZES = { 64, 512, 1500, 9000 };
+    private static final int WARMUP_PACKETS = 200000;
+    private static final int MEASURED_PACKETS = 1000000;
+
+    private static final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+
+    /* Copies every message into the output buffer */
+    private static class CopyingEncoder extends OneToOneEncoder {
+        @Override
+        protected Object encode(ChannelHandlerContext ctx, Channel channel, Object msg) throws Exception {
+            @SuppressWarnings("unchecked")
+            Iterable<OFMessage> msgList = (Iterable<OFMessage>) msg;
+            ChannelBuffer buf = ChannelBuffers.dynamicBuffer(2048);
+            for (OFMessage ofm : msgList) {
+                ofm.writeTo(buf);
+            }
+            return buf;
+        }
+    }
+
+    private static byte[] packetIn(int frameSize) {
+        OFPacketIn pi = factory.buildPacketIn()
+                .setMatch(factory.buildMatch().setExact(MatchField.IN_PORT, OFPort.of(1)).build())
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setReason(OFPacketInReason.NO_MATCH)
+                .setData(new byte[frameSize])
+                .setTotalLen(frameSize)
+                .build();
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        pi.writeTo(buf);
+        byte[] wire = new byte[buf.readableBytes()];
+        buf.readBytes(wire);
+        return wire;
+    }
+
+    /* What Forwarding.doFlood sends back */
+    private static OFPacketOut flood(OFPacketIn pi) {
+        return factory.buildPacketOut()
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setInPort(pi.getMatch().get(MatchField.IN_PORT))
+                .setActions(Collections.<OFAction>singletonList(
+                        factory.actions().output(OFPort.FLOOD, Integer.MAX_VALUE)))
+                .setData(pi.getData())
+                .build();
+    }
+
+    private static long echo(DecoderEmbedder<List<OFMessage>> decoder,
+            EncoderEmbedder<ChannelBuffer> encoder, byte[] wire, int packets) {
+        long bytes = 0;
+        for (int i = 0; i < packets; i++) {
+            decoder.offer(ChannelBuffers.wrappedBuffer(wire));
+            OFPacketIn pi = (OFPacketIn) decoder.poll().get(0);
+            encoder.offer(Collections.<OFMessage>singletonList(flood(pi)));
+            // What a gathering write hands to the socket
+            for (java.nio.ByteBuffer b : encoder.poll().toByteBuffers()) {
+                bytes += b.remaining();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return { packets/s, bytes allocated per packet }
+     */
+    private static double[] measure(OneToOneEncoder enc, final byte[] wire) throws Exception {
+        final DecoderEmbedder<List<OFMessage>> decoder =
+                new DecoderEmbedder<List<OFMessage>>(new OFMessageDecoder(OFVersion.OF_13));
+        final EncoderEmbedder<ChannelBuffer> encoder = new EncoderEmbedder<ChannelBuffer>(enc);
+        BenchmarkHarness.Result r = BenchmarkHarness.measure(new BenchmarkHarness.Workload() {
+            @Override
+            public long run(int packets) {
+                return echo(decoder, encoder, wire, packets);
+            }
+        }, WARMUP_PACKETS, MEASURED_PACKETS);
+        decoder.finish();
+        encoder.finish();
+        return new double[] { r.perSecond(MEASURED_PACKETS), r.bytesPer(MEASURED_PACKETS) };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = BenchmarkHarness.intArgs(args, DEFAULT_FRAME_SIZES);
+
+        System.out.println(String.format("%6s %12s %12s %12s %12s",
+                "frame", "copy pkt/s", "ref pkt/s", "copy B/pkt", "ref B/pkt"));
+        for (int size : sizes) {
+            byte[] wire = packetIn(size);
+            double[] copy = measure(new CopyingEncoder(), wire);
+            double[] ref = measure(new OFMessageEncoder(), wire);
+            System.out.println(String.format("%6d %12.0f %12.0f %12.0f %12.0f",
+                    size, copy[0], ref[0], copy[1], ref[1]));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package net.floodlightcontroller.multipathrouting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import net.floodlightcontroller.bench.BenchmarkHarness;
+import net.floodlightcontroller.multipathrouting.types.LinkWithCost;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * Compares the original HashMap/PriorityQueue Dijkstra of MultiPathRouting
+ * with the CompactGraph/ShortestPathSearch one on k-ary fat-trees
+ * (5k^2/4 switches), routing between random edge switches.
+ *
+ * Run it with:
+ *   ant bench -Dbench=net.floodlightcontroller.multipathrouting.MultiPathRoutingBenchmark [-Dargs="k ..."]
+ */
+public class MultiPathRoutingBenchmark {
+    private static final int[] DEFAULT_K = { 10, 20, 32, 44, 62 };
+    private static final int WARMUP_PAIRS = 200;
+    private static final int MEASURED_PAIRS = 1000;
+
+    private static class FatTree {
+        HashMap<DatapathId, HashSet<LinkWithCost>> links = new HashMap<DatapathId, HashSet<LinkWithCost>>();
+        List<DatapathId> edgeSwitches = new ArrayList<DatapathId>();
+        int switchCount;
+
+        void link(DatapathId a, int aPort, DatapathId b, int bPort) {
+            LinkWithCost l = new LinkWithCost(a, OFPort.of(aPort), b, OFPort.of(bPort), 1);
+            add(l);
+            add(l.getInverse());
+        }
+
+        private void add(LinkWithCost l) {
+            HashSet<LinkWithCost> out = links.get(l.getSrcDpid());
+            if (out == null) {
+                out = new HashSet<LinkWithCost>();
+                links.put(l.getSrcDpid(), out);
+            }
+            out.add(l);
+        }
+    }
+
+    /*
+     * Pods 0..k-1 each have k/2 edge and k/2 aggregation switches, fully
+     * meshed; (k/2)^2 core switches each connect to one aggregation switch
+     * per pod.
+     */
+    private static FatTree buildFatTree(int k) {
+        FatTree t = new FatTree();
+        int half = k / 2;
+        long dpid = 1;
+        DatapathId[][] agg = new DatapathId[k][half];
+        for (int pod = 0; pod < k; pod++) {
+            DatapathId[] edge = new DatapathId[half];
+            for (int i = 0; i < half; i++) {
+                edge[i] = DatapathId.of(dpid++);
+                agg[pod][i] = DatapathId.of(dpid++);
+                t.edgeSwitches.add(edge[i]);
+            }
+            for (int e = 0; e < half; e++) {
+                for (int a = 0; a < half; a++) {
+                    t.link(edge[e], half + a + 1, agg[pod][a], e + 1);
+                }
+            }
+        }
+        for (int c = 0; c < half * half; c++) {
+            DatapathId core = DatapathId.of(dpid++);
+            int a = c / half;
+            for (int pod = 0; pod < k; pod++) {
+                t.link(agg[pod][a], half + (c % half) + 1, core, pod + 1);
+            }
+        }
+        t.switchCount = (int) dpid - 1;
+        return t;
+    }
+
+    /* Route between the first count pairs, round and round */
+    private static long legacy(MultiPathRouting mpr, FatTree t, DatapathId[][] pairs, int count) {
+        long found = 0;
+        for (int i = 0; i < count; i++) {
+            DatapathId[] pair = pairs[i % pairs.length];
+            HashMap<DatapathId, LinkWithCost> previous = mpr.runDijkstra(pair[0], pair[1], t.links);
+            found += previous.size();
+        }
+        return found;
+    }
+
+    private static long compact(ShortestPathSearch search, int[][] pairs, int count) {
+        long found = 0;
+        for (int i = 0; i < count; i++) {
+            int[] pair = pairs[i % pairs.length];
+            found += search.run(pair[0], pair[1], null);
+            found += search.extractPath(pair[1]);
+        }
+        return found;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] ks = BenchmarkHarness.intArgs(args, DEFAULT_K);
+
+        final MultiPathRouting mpr = new MultiPathRouting();
+        Random rand = new Random(1);
+        System.out.println(String.format("%6s %8s %10s %14s %14s %14s %14s %10s",
+                "k", "switches", "links", "legacy ns/op", "compact ns/op",
+                "legacy B/op", "compact B/op", "build ms"));
+
+        for (int k : ks) {
+            final FatTree t = buildFatTree(k);
+            int total = MEASURED_PAIRS;
+            final DatapathId[][] dpidPairs = new DatapathId[total][2];
+            for (int i = 0; i < total; i++) {
+                dpidPairs[i][0] = t.edgeSwitches.get(rand.nextInt(t.edgeSwitches.size()));
+                do {
+                    dpidPairs[i][1] = t.edgeSwitches.get(rand.nextInt(t.edgeSwitches.size()));
+                } while (dpidPairs[i][1].equals(dpidPairs[i][0]));
+            }
+
+            long buildStart = System.nanoTime();
+            CompactGraph g = CompactGraph.build(0, t.links);
+            long buildNs = System.nanoTime() - buildStart;
+            final int[][] idxPairs = new int[total][2];
+            for (int i = 0; i < total; i++) {
+                idxPairs[i][0] = g.getNodeIndex(dpidPairs[i][0]);
+                idxPairs[i][1] = g.getNodeIndex(dpidPairs[i][1]);
+            }
+            final ShortestPathSearch search = new ShortestPathSearch();
+            search.setGraph(g);
+
+            BenchmarkHarness.Result legacy = BenchmarkHarness.measure(new BenchmarkHarness.Workload() {
+                @Override
+                public long run(int count) {
+                    return legacy(mpr, t, dpidPairs, count);
+                }
+            }, WARMUP_PAIRS, MEASURED_PAIRS);
+            BenchmarkHarness.Result compact = BenchmarkHarness.measure(new BenchmarkHarness.Workload() {
+                @Override
+                public long run(int count) {
+                    return compact(search, idxPairs, count);
+                }
+            }, WARMUP_PAIRS, MEASURED_PAIRS);
+
+            System.out.println(String.format("%6d %8d %10d %14.0f %14.0f %14.0f %14.0f %10.1f",
+                    k, t.switchCount, g.getEdgeCount() / 2,
+                    legacy.nsPer(MEASURED_PAIRS), compact.nsPer(MEASURED_PAIRS),
+                    legacy.bytesPer(MEASURED_PAIRS), compact.bytesPer(MEASURED_PAIRS), buildNs / 1e6));
+        }
+    }
+}
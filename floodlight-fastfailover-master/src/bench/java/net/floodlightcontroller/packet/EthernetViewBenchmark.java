@@ -0,0 +1,122 @@
+package net.floodlightcontroller.packet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.bench.BenchmarkHarness;
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IpProtocol;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+/**
+ * Compares decoding every packet-in up front, as the controller used to,
+ * with handing the listeners an {@link EthernetView} that decodes on demand.
+ *
+ * Each packet goes through the two lookups the default listener chain does:
+ * link discovery reads the ethertype and MAC addresses of every packet and
+ * stops the ones it drops (here: those from ignored source MACs), forwarding
+ * gets the decoded packet of the rest. The share of packets link discovery
+ * stops is varied; reported are packet-ins per second for both ways.
+ *
+ * Run it with:
+ *   ant bench -Dbench=net.floodlightcontroller.packet.EthernetViewBenchmark [-Dargs="stopped% ..."]
+ */
+public class EthernetViewBenchmark {
+    private static final int[] DEFAULT_STOPPED_PERCENT = { 0, 50, 90 };
+    private static final int PACKETS = 1000;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 1000;
+    private static final MacAddress IGNORED_MAC = MacAddress.of("00:00:00:00:0d:0d");
+
+    private static List<byte[]> packets(int stoppedPercent) {
+        List<byte[]> packets = new ArrayList<byte[]>(PACKETS);
+        for (int i = 0; i < PACKETS; i++) {
+            boolean stopped = i % 100 < stoppedPercent;
+            Ethernet eth = (Ethernet) new Ethernet()
+                .setDestinationMACAddress(MacAddress.of(i + 1))
+                .setSourceMACAddress(stopped ? IGNORED_MAC : MacAddress.of(0x1000 + i))
+                .setEtherType(EthType.IPv4)
+                .setPayload(new IPv4()
+                    .setTtl((byte) 64)
+                    .setSourceAddress(0x0a000000 + i)
+                    .setDestinationAddress(0x0a010000 + i)
+                    .setProtocol(IpProtocol.UDP)
+                    .setPayload(new UDP()
+                        .setSourcePort((short) (1024 + i))
+                        .setDestinationPort((short) 53)
+                        .setPayload(new Data(new byte[64]))));
+            packets.add(eth.serialize());
+        }
+        return packets;
+    }
+
+    /* What the listeners look at */
+    private static long listeners(FloodlightContext cntx, boolean lazy) {
+        MacAddress src;
+        if (lazy) {
+            src = IFloodlightProviderService.piViewStore.get(cntx,
+                    IFloodlightProviderService.CONTEXT_PI_VIEW).getSourceMACAddress();
+        } else {
+            src = IFloodlightProviderService.bcStore.get(cntx,
+                    IFloodlightProviderService.CONTEXT_PI_PAYLOAD).getSourceMACAddress();
+        }
+        if (src.equals(IGNORED_MAC)) {
+            return 0;
+        }
+        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        return ((IPv4) eth.getPayload()).getDestinationAddress().getInt();
+    }
+
+    private static long dispatch(List<byte[]> packets, boolean lazy, int rounds) {
+        long sum = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (byte[] data : packets) {
+                FloodlightContext cntx = new FloodlightContext();
+                if (lazy) {
+                    EthernetView view = new EthernetView(data);
+                    IFloodlightProviderService.piViewStore.put(cntx,
+                            IFloodlightProviderService.CONTEXT_PI_VIEW, view);
+                    IFloodlightProviderService.bcStore.putLazy(cntx,
+                            IFloodlightProviderService.CONTEXT_PI_PAYLOAD, view);
+                } else {
+                    Ethernet eth = new Ethernet();
+                    eth.deserialize(data, 0, data.length);
+                    IFloodlightProviderService.bcStore.put(cntx,
+                            IFloodlightProviderService.CONTEXT_PI_PAYLOAD, eth);
+                }
+                sum += listeners(cntx, lazy);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @return packet-ins per second
+     */
+    private static double measure(final List<byte[]> packets, final boolean lazy) throws Exception {
+        BenchmarkHarness.Result r = BenchmarkHarness.measure(new BenchmarkHarness.Workload() {
+            @Override
+            public long run(int rounds) {
+                return dispatch(packets, lazy, rounds);
+            }
+        }, WARMUP_ROUNDS, MEASURED_ROUNDS);
+        return r.perSecond((long) packets.size() * MEASURED_ROUNDS);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] percents = BenchmarkHarness.intArgs(args, DEFAULT_STOPPED_PERCENT);
+
+        System.out.println(String.format("%9s %14s %14s",
+                "stopped %", "eager pkt/s", "lazy pkt/s"));
+        for (int percent : percents) {
+            List<byte[]> packets = packets(percent);
+            double eager = measure(packets, false);
+            double lazy = measure(packets, true);
+            System.out.println(String.format("%9d %14.0f %14.0f", percent, eager, lazy));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package net.floodlightcontroller.topology;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import net.floodlightcontroller.bench.BenchmarkHarness;
+import net.floodlightcontroller.routing.Link;
+
+/**
+ * Computes the topology of a large synthetic network from scratch with
+ * the trees computed on 1, 2, 4, ... threads, up to the number of cores,
+ * and reports the time a computation takes. The network is a ring of
+ * switches with random chords, so most of it forms one cluster.
+ *
+ * Run it with, optionally, the number of switches:
+ *   ant bench -Dbench=net.floodlightcontroller.topology.TopologyComputeBenchmark [-Dargs=1000]
+ */
+public class TopologyComputeBenchmark {
+    private static final int DEFAULT_SWITCHES = 1000;
+    private static final int CHORDS_PER_SWITCH = 2;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    private static void run(final int switchCount, final Set<Link> links, int threads) throws Exception {
+        final ForkJoinPool pool = (threads > 1) ? new ForkJoinPool(threads) : null;
+        try {
+            BenchmarkHarness.Result r = BenchmarkHarness.measure(new BenchmarkHarness.Workload() {
+                @Override
+                public long run(int rounds) {
+                    long clusters = 0;
+                    for (int i = 0; i < rounds; i++) {
+                        clusters += TopologyInstanceTest.createInstance(switchCount, links, null, pool).getClusters().size();
+                    }
+                    return clusters;
+                }
+            }, WARMUP_ROUNDS, MEASURED_ROUNDS);
+            System.out.println(String.format("%3d threads %10.1f ms/compute",
+                    threads, r.nsPer(MEASURED_ROUNDS) / 1e6));
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int switchCount = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SWITCHES;
+        Random random = new Random(1);
+        Set<Link> links = new HashSet<Link>();
+        for (int a = 1; a <= switchCount; a++) {
+            int b = (a % switchCount) + 1;
+            links.add(TopologyInstanceTest.link(a, b));
+            links.add(TopologyInstanceTest.link(b, a));
+            for (int i = 0; i < CHORDS_PER_SWITCH; i++) {
+                int c = 1 + random.nextInt(switchCount);
+                if (c == a) continue;
+                links.add(TopologyInstanceTest.link(a, c));
+                links.add(TopologyInstanceTest.link(c, a));
+            }
+        }
+        System.out.println(switchCount + " switches, " + links.size() + " links");
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            run(switchCount, links, threads);
+        }
+        run(switchCount, links, cores);
+    }
+}
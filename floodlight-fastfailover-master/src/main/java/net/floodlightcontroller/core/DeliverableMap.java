@@ -0,0 +1,187 @@
+package net.floodlightcontroller.core;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The deliverables of a connection's outstanding requests by xid, each
+ * with the time it expires at.
+ *
+ * Xids are kept unboxed in an open-addressing table with linear probing,
+ * so that registering and completing a request allocates nothing unless
+ * the table has to grow. Entries that expire are found by a sweep over the
+ * table ({@link #removeExpired}) rather than by a timer task per request.
+ *
+ * This class is thread-safe; every method holds the map's lock only for
+ * the table operation itself.
+ */
+class DeliverableMap {
+    /* The deadline of a deliverable that never expires */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] xids;
+    /* null marks a free slot */
+    private Deliverable<?>[] deliverables;
+    private long[] deadlines;
+    private int size;
+
+    DeliverableMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        xids = new long[capacity];
+        deliverables = new Deliverable<?>[capacity];
+        deadlines = new long[capacity];
+    }
+
+    private static int hash(long xid) {
+        int h = (int) (xid ^ (xid >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /* The slot of xid, or of the free slot it would go into */
+    private int find(long xid) {
+        int mask = xids.length - 1;
+        int i = hash(xid) & mask;
+        while (deliverables[i] != null && xids[i] != xid) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Add a deliverable, replacing the one for the same xid if there is one.
+     * @param deadlineNs when it expires in {@link System#nanoTime()} terms,
+     * or {@link #NO_DEADLINE}
+     */
+    synchronized void put(long xid, Deliverable<?> deliverable, long deadlineNs) {
+        int i = find(xid);
+        if (deliverables[i] == null) {
+            if ((size + 1) * 2 > xids.length) {
+                grow();
+                i = find(xid);
+            }
+            size++;
+        }
+        xids[i] = xid;
+        deliverables[i] = deliverable;
+        deadlines[i] = deadlineNs;
+    }
+
+    synchronized Deliverable<?> get(long xid) {
+        return deliverables[find(xid)];
+    }
+
+    synchronized Deliverable<?> remove(long xid) {
+        int i = find(xid);
+        Deliverable<?> removed = deliverables[i];
+        if (removed != null) {
+            delete(i);
+        }
+        return removed;
+    }
+
+    /**
+     * Remove the deliverables that expired by nowNs.
+     * @param expiredXids gets the xids of the expired deliverables
+     * @param expired gets the expired deliverables, in the same order
+     * @return the earliest deadline of those left, {@link #NO_DEADLINE} if
+     * none of them expires
+     */
+    synchronized long removeExpired(long nowNs, List<Long> expiredXids, List<Deliverable<?>> expired) {
+        long earliest = NO_DEADLINE;
+        int i = 0;
+        while (i < xids.length) {
+            if (deliverables[i] != null && deadlines[i] != NO_DEADLINE) {
+                if (deadlines[i] - nowNs <= 0) {
+                    expiredXids.add(xids[i]);
+                    expired.add(deliverables[i]);
+                    delete(i);
+                    // Another entry may have moved into the slot
+                    continue;
+                }
+                if (earliest == NO_DEADLINE || deadlines[i] - earliest < 0) {
+                    earliest = deadlines[i];
+                }
+            }
+            i++;
+        }
+        return earliest;
+    }
+
+    /**
+     * Remove all deliverables.
+     * @return the deliverables removed
+     */
+    synchronized List<Deliverable<?>> removeAll() {
+        List<Deliverable<?>> removed = new ArrayList<Deliverable<?>>(size);
+        for (Deliverable<?> d : deliverables) {
+            if (d != null) {
+                removed.add(d);
+            }
+        }
+        allocate(INITIAL_CAPACITY);
+        size = 0;
+        return removed;
+    }
+
+    synchronized Set<Long> getXids() {
+        Set<Long> result = new HashSet<Long>();
+        for (int i = 0; i < xids.length; i++) {
+            if (deliverables[i] != null) {
+                result.add(xids[i]);
+            }
+        }
+        return result;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /*
+     * Free slot i, moving back any entry further along its probe sequence
+     * that could no longer be found once the slot is free
+     */
+    private void delete(int i) {
+        int mask = xids.length - 1;
+        int free = i;
+        int j = i;
+        for (;;) {
+            j = (j + 1) & mask;
+            if (deliverables[j] == null) {
+                break;
+            }
+            int home = hash(xids[j]) & mask;
+            // Entry j may only move back if its home is not in (free, j]
+            if (((j - home) & mask) >= ((j - free) & mask)) {
+                xids[free] = xids[j];
+                deliverables[free] = deliverables[j];
+                deadlines[free] = deadlines[j];
+                free = j;
+            }
+        }
+        deliverables[free] = null;
+        size--;
+    }
+
+    private void grow() {
+        long[] oldXids = xids;
+        Deliverable<?>[] oldDeliverables = deliverables;
+        long[] oldDeadlines = deadlines;
+        allocate(oldXids.length * 2);
+        for (int i = 0; i < oldXids.length; i++) {
+            if (oldDeliverables[i] != null) {
+                int j = find(oldXids[i]);
+                xids[j] = oldXids[i];
+                deliverables[j] = oldDeliverables[i];
+                deadlines[j] = oldDeadlines[i];
+            }
+        }
+    }
+}
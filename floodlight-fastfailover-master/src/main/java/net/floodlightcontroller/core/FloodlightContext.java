@@ -17,19 +17,94 @@
 
 package net.floodlightcontroller.core;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is a context object where floodlight listeners can register 
  * and later retrieve context information associated with an
  * event
+ *
+ * Every key gets a slot in a process-wide registry the first time it is
+ * used, and a context keeps its values in an array indexed by slot. Access
+ * values through a {@link FloodlightContextStore}, which remembers the slots
+ * of its keys. A context is only ever used by one thread at a time and is
+ * not thread-safe.
  * @author readams
  */
 public class FloodlightContext {
-    protected ConcurrentHashMap<String, Object> storage =
-            new ConcurrentHashMap<String, Object>();
+    private static final ConcurrentHashMap<String, Integer> slots =
+            new ConcurrentHashMap<String, Integer>();
+    /* The key of every slot; guarded by slots */
+    private static final List<String> keys = new ArrayList<String>();
 
-    public ConcurrentHashMap<String, Object> getStorage() {
+    private Object[] values = new Object[Math.max(slots.size(), 8)];
+    /* One past the highest slot set since the last clear */
+    private int used = 0;
+
+    /**
+     * @return the slot of a key, given one if it has none yet
+     */
+    public static int getSlot(String key) {
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (slots) {
+            slot = slots.get(key);
+            if (slot == null) {
+                slot = keys.size();
+                keys.add(key);
+                slots.put(key, slot);
+            }
+            return slot;
+        }
+    }
+
+    protected Object get(int slot) {
+        return slot < values.length ? values[slot] : null;
+    }
+
+    protected void put(int slot, Object value) {
+        if (slot >= values.length) {
+            values = Arrays.copyOf(values, Math.max(slot + 1, values.length * 2));
+        }
+        values[slot] = value;
+        if (slot >= used) {
+            used = slot + 1;
+        }
+    }
+
+    protected void remove(int slot) {
+        if (slot < values.length) {
+            values[slot] = null;
+        }
+    }
+
+    /**
+     * Remove all values, e.g. to reuse the context for another event
+     */
+    public void clear() {
+        Arrays.fill(values, 0, used, null);
+        used = 0;
+    }
+
+    /**
+     * @return a copy of the values in this context by key
+     */
+    public Map<String, Object> getStorage() {
+        Map<String, Object> storage = new HashMap<String, Object>();
+        synchronized (slots) {
+            for (int i = 0; i < used; i++) {
+                if (values[i] != null) {
+                    storage.put(keys.get(i), values[i]);
+                }
+            }
+        }
         return storage;
     }
 }
@@ -17,18 +17,93 @@
 
 package net.floodlightcontroller.core;
 
+/**
+ * Typed access to values in a {@link FloodlightContext}. The store
+ * remembers the slots of the keys it is used with, so finding a value only
+ * costs an identity comparison of key constants and an array index. Pass
+ * the keys a store is used with to its constructor to have them slotted
+ * when the store is created.
+ */
 public class FloodlightContextStore<V> {
+
+    /**
+     * A value that is only computed when it is first retrieved from a
+     * context. Put it with {@link FloodlightContextStore#putLazy}; get
+     * returns what it computes.
+     *
+     * A class rather than an interface: every get checks whether the value
+     * is one, and a failed instanceof against an interface is far slower.
+     */
+    public static abstract class Lazy<V> {
+        public abstract V get();
+    }
+
+    private static class KeySlot {
+        final String key;
+        final int slot;
+
+        KeySlot(String key) {
+            this.key = key;
+            this.slot = FloodlightContext.getSlot(key);
+        }
+    }
+
+    /* Keys this store has seen, copied on write; it only ever sees a few */
+    private static final int MAX_CACHED_KEYS = 8;
+    private volatile KeySlot[] keySlots;
+
+    public FloodlightContextStore(String... keys) {
+        KeySlot[] ks = new KeySlot[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            ks[i] = new KeySlot(keys[i]);
+        }
+        keySlots = ks;
+    }
+
+    private int getSlot(String key) {
+        KeySlot[] ks = keySlots;
+        for (KeySlot k : ks) {
+            if (k.key == key) {
+                return k.slot;
+            }
+        }
+        // Keys built at run time rather than taken from a constant
+        for (KeySlot k : ks) {
+            if (k.key.equals(key)) {
+                return k.slot;
+            }
+        }
+        KeySlot k = new KeySlot(key);
+        if (ks.length < MAX_CACHED_KEYS) {
+            KeySlot[] grown = new KeySlot[ks.length + 1];
+            System.arraycopy(ks, 0, grown, 0, ks.length);
+            grown[ks.length] = k;
+            keySlots = grown;
+        }
+        return k.slot;
+    }
     
     @SuppressWarnings("unchecked")
     public V get(FloodlightContext bc, String key) {
-        return (V)bc.storage.get(key);
+        Object value = bc.get(getSlot(key));
+        if (value instanceof Lazy) {
+            return ((Lazy<V>)value).get();
+        }
+        return (V)value;
     }
     
     public void put(FloodlightContext bc, String key, V value) {
-        bc.storage.put(key, value);
+        bc.put(getSlot(key), value);
+    }
+
+    /**
+     * Put a value that is computed on the first {@link #get}
+     */
+    public void putLazy(FloodlightContext bc, String key, Lazy<? extends V> value) {
+        bc.put(getSlot(key), value);
     }
     
     public void remove(FloodlightContext bc, String key) {
-        bc.storage.remove(key);
+        bc.remove(getSlot(key));
     }
 }
@@ -23,6 +23,7 @@ import java.util.Map;
 
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 
 import org.jboss.netty.util.Timer;
 
@@ -61,7 +62,23 @@ public interface IFloodlightProviderService extends
      * packet-in payload
      */
     public static final FloodlightContextStore<Ethernet> bcStore =
-            new FloodlightContextStore<Ethernet>();
+            new FloodlightContextStore<Ethernet>(CONTEXT_PI_PAYLOAD);
+
+    /**
+     * A value stored in the floodlight context containing a view of the
+     * packet-in payload that reads its Ethernet header without decoding
+     * the rest. The parsed packet under {@link #CONTEXT_PI_PAYLOAD} is only
+     * decoded when it is first retrieved.
+     */
+    public static final String CONTEXT_PI_VIEW =
+            "net.floodlightcontroller.core.IFloodlightProvider.piView";
+
+    /**
+     * A FloodlightContextStore object that can be used to retrieve the
+     * packet-in payload view
+     */
+    public static final FloodlightContextStore<EthernetView> piViewStore =
+            new FloodlightContextStore<EthernetView>(CONTEXT_PI_VIEW);
 
     /**
      * Service name used in the service directory representing
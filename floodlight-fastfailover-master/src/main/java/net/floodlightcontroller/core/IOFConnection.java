@@ -3,10 +3,19 @@ package net.floodlightcontroller.core;
 import java.net.SocketAddress;
 
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFRequest;
+import org.projectfloodlight.openflow.protocol.OFStatsReply;
+import org.projectfloodlight.openflow.protocol.OFStatsRequest;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFAuxId;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 
 /** Contract for an openflow connection to a switch.
  *  Provides message write and request/response handling capabilities.
@@ -58,5 +67,20 @@ public interface IOFConnection extends IOFMessageWriter {
      */
     boolean isConnected();
 
+    /**
+     * Like {@link #writeRequest(OFRequest)}, but the future fails with a
+     * {@link java.util.concurrent.TimeoutException} if the reply has not
+     * arrived within the timeout.
+     */
+    <R extends OFMessage> ListenableFuture<R> writeRequest(OFRequest<R> request,
+            long timeout, TimeUnit unit);
+
+    /**
+     * Like {@link #writeStatsRequest(OFStatsRequest)}, but with a timeout of
+     * its own instead of the connection's default one.
+     */
+    <REPLY extends OFStatsReply> ListenableFuture<List<REPLY>> writeStatsRequest(
+            OFStatsRequest<REPLY> request, long timeout, TimeUnit unit);
+
 
 }
@@ -1,5 +1,7 @@
 package net.floodlightcontroller.core;
 
+import java.util.concurrent.TimeUnit;
+
 import net.floodlightcontroller.core.internal.IOFConnectionListener;
 
 public interface IOFConnectionBackend extends IOFConnection {
@@ -18,6 +20,18 @@ public interface IOFConnectionBackend extends IOFConnection {
      */
     boolean isWritable();
 
+    /**
+     * Suspend or resume reading from the connection, e.g. while the messages
+     * already read have not been processed yet
+     */
+    void setReadable(boolean readable);
+
+    /**
+     * Set how long stats requests written without a timeout of their own
+     * wait for their replies
+     */
+    void setRequestTimeout(long timeout, TimeUnit unit);
+
     /** set the message/closing listener for this connection */
     void setListener(IOFConnectionListener listener);
 }
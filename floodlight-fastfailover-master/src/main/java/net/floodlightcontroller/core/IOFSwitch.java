@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import org.projectfloodlight.openflow.protocol.OFActionType;
 import org.projectfloodlight.openflow.protocol.OFCapabilities;
@@ -340,6 +341,13 @@ public interface IOFSwitch extends IOFMessageWriter {
      *         return a Future that immediately fails with a @link{SwitchDisconnectedException}.
      */
     <R extends OFMessage> ListenableFuture<R> writeRequest(OFRequest<R> request, LogicalOFMessageCategory category);
+
+    /**
+     * Like {@link #writeRequest(OFRequest)}, but the future fails with a
+     * {@link java.util.concurrent.TimeoutException} if the reply has not
+     * arrived within the timeout.
+     */
+    <R extends OFMessage> ListenableFuture<R> writeRequest(OFRequest<R> request, long timeout, TimeUnit unit);
     
     /**
      * Get the features of a particular switch table. The features are cached from
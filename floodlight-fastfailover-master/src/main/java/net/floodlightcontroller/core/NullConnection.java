@@ -2,6 +2,7 @@ package net.floodlightcontroller.core;
 
 import java.net.SocketAddress;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import java.util.Date;
 import net.floodlightcontroller.core.internal.IOFConnectionListener;
@@ -68,6 +69,12 @@ public class NullConnection implements IOFConnectionBackend, IOFMessageWriter {
         return Futures.immediateFailedFuture(new SwitchDisconnectedException(getDatapathId()));
     }
 
+    @Override
+    public <REPLY extends OFStatsReply> ListenableFuture<List<REPLY>> writeStatsRequest(
+            OFStatsRequest<REPLY> request, long timeout, TimeUnit unit) {
+        return writeStatsRequest(request);
+    }
+
     @Override
     public void cancelAllPendingRequests() {
         // noop
@@ -83,6 +90,12 @@ public class NullConnection implements IOFConnectionBackend, IOFMessageWriter {
         return Futures.immediateFailedFuture(new SwitchDisconnectedException(getDatapathId()));
     }
 
+    @Override
+    public <R extends OFMessage> ListenableFuture<R> writeRequest(OFRequest<R> request,
+            long timeout, TimeUnit unit) {
+        return writeRequest(request);
+    }
+
     @Override
     public void disconnect(){
         // noop
@@ -97,6 +110,16 @@ public class NullConnection implements IOFConnectionBackend, IOFMessageWriter {
         return false;
     }
 
+    @Override
+    public void setReadable(boolean readable) {
+        // noop
+    }
+
+    @Override
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        // noop
+    }
+
     @Override
     public DatapathId getDatapathId() {
         return DatapathId.NONE;
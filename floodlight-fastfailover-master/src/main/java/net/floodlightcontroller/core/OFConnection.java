@@ -20,10 +20,10 @@ package net.floodlightcontroller.core;
 import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -44,11 +44,11 @@ import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import org.projectfloodlight.openflow.protocol.OFErrorMsg;
 import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
 import org.projectfloodlight.openflow.protocol.OFRequest;
 import org.projectfloodlight.openflow.protocol.OFStatsReply;
 import org.projectfloodlight.openflow.protocol.OFStatsReplyFlags;
 import org.projectfloodlight.openflow.protocol.OFStatsRequest;
-import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFAuxId;
 import org.slf4j.Logger;
@@ -77,13 +77,52 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
 
     private final Date connectedSince;
 
-    private final Map<Long, Deliverable<?>> xidDeliverableMap;
+    private final DeliverableMap xidDeliverableMap;
+    /* The next sweep for expired requests, if one is due; guarded by xidDeliverableMap */
+    private Timeout sweep;
+    private long sweepAtNs;
+    private final TimerTask sweepTask = new TimeOutDeliverables();
+    private volatile long requestTimeoutNs = DEFAULT_REQUEST_TIMEOUT_UNIT.toNanos(DEFAULT_REQUEST_TIMEOUT);
+
+    /*
+     * Messages a thread writes inside a write batch (see beginWriteBatch)
+     * are held back per connection, to go out in as few channel writes as
+     * possible. Outside a batch every write goes out at once.
+     */
+    private static class PendingWrites {
+        final List<OFMessage> msgs = new ArrayList<OFMessage>();
+        /* Packet-out payloads are the only part of a message that can be large */
+        int bytes;
+
+        void add(OFMessage m) {
+            msgs.add(m);
+            if (m instanceof OFPacketOut) {
+                bytes += ((OFPacketOut) m).getData().length;
+            }
+        }
+
+        boolean isFull() {
+            return msgs.size() >= Controller.BATCH_MAX_SIZE || bytes >= Controller.BATCH_MAX_BYTES;
+        }
+    }
 
-    protected final static ThreadLocal<List<OFMessage>> localMsgBuffer =
-            new ThreadLocal<List<OFMessage>>();
+    private static class WriteBatch {
+        int depth;
+        final Map<OFConnection, PendingWrites> pending = new IdentityHashMap<OFConnection, PendingWrites>();
+    }
 
-    private static final long DELIVERABLE_TIME_OUT = 60;
-    private static final TimeUnit DELIVERABLE_TIME_OUT_UNIT = TimeUnit.SECONDS;
+    protected final static ThreadLocal<WriteBatch> localWriteBatch =
+            new ThreadLocal<WriteBatch>() {
+                @Override
+                protected WriteBatch initialValue() {
+                    return new WriteBatch();
+                }
+            };
+
+    public static final long DEFAULT_REQUEST_TIMEOUT = 60;
+    public static final TimeUnit DEFAULT_REQUEST_TIMEOUT_UNIT = TimeUnit.SECONDS;
+    /* However soon requests expire, they are not swept for more often than this */
+    private static final long MIN_SWEEP_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(100);
 
 
     private final OFConnectionCounters counters;
@@ -107,7 +146,7 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
         this.channel = channel;
         this.auxId = auxId;
         this.connectedSince = new Date();
-        this.xidDeliverableMap = new ConcurrentHashMap<>();
+        this.xidDeliverableMap = new DeliverableMap();
         this.counters = new OFConnectionCounters(debugCounters, dpid, this.auxId);
         this.timer = timer;
     }
@@ -121,28 +160,34 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
         }
         if (logger.isDebugEnabled())
             logger.debug("{}: send {}", this, m);
-        List<OFMessage> msgBuffer = localMsgBuffer.get();
-        if (msgBuffer == null) {
-            msgBuffer = new ArrayList<OFMessage>();
-            localMsgBuffer.set(msgBuffer);
-        }
-
         counters.updateWriteStats(m);
-        msgBuffer.add(m);
 
-        if ((msgBuffer.size() >= Controller.BATCH_MAX_SIZE) || ((m.getType() != OFType.PACKET_OUT) && (m.getType() != OFType.FLOW_MOD))) {
-            this.write(msgBuffer);
-            localMsgBuffer.set(null);
+        PendingWrites pending = getPendingWrites();
+        if (pending == null) {
+            send(Collections.singletonList(m));
+            return;
+        }
+        pending.add(m);
+        // Whoever waits for the reply to a request must not wait for the batch
+        if (pending.isFull() || m instanceof OFRequest) {
+            flush();
         }
     }
 
     @Override
     public <R extends OFMessage> ListenableFuture<R> writeRequest(OFRequest<R> request) {
+        // Waits for its reply for as long as the connection lasts
+        return writeRequest(request, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <R extends OFMessage> ListenableFuture<R> writeRequest(OFRequest<R> request,
+            long timeout, TimeUnit unit) {
         if (!isConnected())
             return Futures.immediateFailedFuture(new SwitchDisconnectedException(getDatapathId()));
 
         DeliverableListenableFuture<R> future = new DeliverableListenableFuture<R>();
-        xidDeliverableMap.put(request.getXid(), future);
+        registerDeliverable(request.getXid(), future, unit.toNanos(timeout));
         listener.messageWritten(this, request);
         write(request);
         return future;
@@ -163,24 +208,83 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
                         String.valueOf(msglist).substring(0, 80));
             return;
         }
+        PendingWrites pending = getPendingWrites();
+        boolean hasRequest = false;
         for (OFMessage m : msglist) {
             if (logger.isTraceEnabled())
                 logger.trace("{}: send {}", this, m);
             counters.updateWriteStats(m);
+            if (pending != null) {
+                pending.add(m);
+                hasRequest |= m instanceof OFRequest;
+            }
+        }
+        if (pending == null) {
+            send(msglist);
+        } else if (pending.isFull() || hasRequest) {
+            flush();
+        }
+    }
+
+    private void send(Iterable<OFMessage> msglist) {
+        if (!isConnected()) {
+            if (logger.isDebugEnabled())
+                logger.debug("{}: not connected - dropping {} held back messages",
+                        this, Iterables.size(msglist));
+            return;
         }
         this.channel.write(msglist);
     }
 
+    /**
+     * @return where to hold back what the current thread writes to this
+     * connection, null if it is not in a write batch
+     */
+    private PendingWrites getPendingWrites() {
+        WriteBatch batch = localWriteBatch.get();
+        if (batch.depth == 0) {
+            return null;
+        }
+        PendingWrites pending = batch.pending.get(this);
+        if (pending == null) {
+            pending = new PendingWrites();
+            batch.pending.put(this, pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Hold back what the current thread writes to any connection until the
+     * matching {@link #endWriteBatch()}, so that every switch gets it in as
+     * few channel writes as possible. Requests, and a connection's
+     * {@link #flush()}, still write out what was held back for it so far.
+     * Batches nest; only the outermost one writes out when it ends.
+     */
+    public static void beginWriteBatch() {
+        localWriteBatch.get().depth++;
+    }
+
+    /**
+     * End a batch started with {@link #beginWriteBatch()}.
+     */
+    public static void endWriteBatch() {
+        WriteBatch batch = localWriteBatch.get();
+        if (batch.depth == 0 || --batch.depth > 0) {
+            return;
+        }
+        for (Map.Entry<OFConnection, PendingWrites> entry : batch.pending.entrySet()) {
+            if (!entry.getValue().msgs.isEmpty()) {
+                entry.getKey().send(entry.getValue().msgs);
+            }
+        }
+        batch.pending.clear();
+    }
+
     // Notifies the connection object that the channel has been disconnected
     public void disconnected() {
         SwitchDisconnectedException exception = new SwitchDisconnectedException(getDatapathId());
-        for (Long xid : xidDeliverableMap.keySet()) {
-            // protect against other mechanisms running at the same time
-            // (timeout)
-            Deliverable<?> removed = xidDeliverableMap.remove(xid);
-            if (removed != null) {
-                removed.deliverError(exception);
-            }
+        for (Deliverable<?> removed : removeAllDeliverables()) {
+            removed.deliverError(exception);
         }
     }
 
@@ -196,6 +300,10 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
         return "OFConnection [" + getDatapathId() + "(" + getAuxId() + ")" + "@" + channelString + "]";
     }
 
+    public OFConnectionCounters getCounters() {
+        return counters;
+    }
+
     @Override
     public Date getConnectedSince() {
         return connectedSince;
@@ -204,6 +312,12 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
     @Override
     public <REPLY extends OFStatsReply> ListenableFuture<List<REPLY>> writeStatsRequest(
             OFStatsRequest<REPLY> request) {
+        return writeStatsRequest(request, requestTimeoutNs, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <REPLY extends OFStatsReply> ListenableFuture<List<REPLY>> writeStatsRequest(
+            OFStatsRequest<REPLY> request, long timeout, TimeUnit unit) {
         if (!isConnected())
             return Futures.immediateFailedFuture(new SwitchDisconnectedException(getDatapathId()));
 
@@ -239,14 +353,61 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
             }
         };
 
-        registerDeliverable(request.getXid(), deliverable);
+        registerDeliverable(request.getXid(), deliverable, unit.toNanos(timeout));
         this.write(request);
         return future;
     }
 
-    private void registerDeliverable(long xid, Deliverable<?> deliverable) {
-        this.xidDeliverableMap.put(xid, deliverable);
-        timer.newTimeout(new TimeOutDeliverable(xid), DELIVERABLE_TIME_OUT, DELIVERABLE_TIME_OUT_UNIT);
+    /**
+     * @param timeoutNs how long to wait for the reply; 0 or less for as long
+     * as it takes
+     */
+    private void registerDeliverable(long xid, Deliverable<?> deliverable, long timeoutNs) {
+        if (timeoutNs <= 0) {
+            xidDeliverableMap.put(xid, deliverable, DeliverableMap.NO_DEADLINE);
+            return;
+        }
+        long deadlineNs = System.nanoTime() + timeoutNs;
+        synchronized (xidDeliverableMap) {
+            xidDeliverableMap.put(xid, deliverable, deadlineNs);
+            scheduleSweep(deadlineNs);
+        }
+    }
+
+    /*
+     * Make sure a sweep for expired requests runs by deadlineNs. Requests
+     * mostly share one timeout, so a sweep that is already due sooner
+     * covers most of them. Must hold the xidDeliverableMap lock.
+     */
+    private void scheduleSweep(long deadlineNs) {
+        if (sweep != null) {
+            if (deadlineNs - sweepAtNs >= 0) {
+                return;
+            }
+            sweep.cancel();
+        }
+        long now = System.nanoTime();
+        long delayNs = Math.max(deadlineNs - now, MIN_SWEEP_INTERVAL_NS);
+        sweepAtNs = now + delayNs;
+        sweep = timer.newTimeout(sweepTask, delayNs, TimeUnit.NANOSECONDS);
+    }
+
+    private List<Deliverable<?>> removeAllDeliverables() {
+        synchronized (xidDeliverableMap) {
+            if (sweep != null) {
+                sweep.cancel();
+                sweep = null;
+            }
+            return xidDeliverableMap.removeAll();
+        }
+    }
+
+    @Override
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Request timeout must be positive, not " + timeout);
+        }
+        requestTimeoutNs = unit.toNanos(timeout);
     }
 
     public boolean handleGenericDeliverable(OFMessage reply) {
@@ -275,10 +436,9 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
          * modifies the map while we're cleaning up the future will eventually
          * timeout
          */
-        for (Deliverable<?> d : xidDeliverableMap.values()) {
+        for (Deliverable<?> d : removeAllDeliverables()) {
             d.cancel(true);
         }
-        xidDeliverableMap.clear();
     }
 
     @Override
@@ -288,10 +448,9 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
 
     @Override
     public void flush() {
-        List<OFMessage> msglist = localMsgBuffer.get();
-        if ((msglist != null) && (msglist.size() > 0)) {
-            this.write(msglist);
-            localMsgBuffer.set(null);
+        PendingWrites pending = localWriteBatch.get().pending.remove(this);
+        if (pending != null && !pending.msgs.isEmpty()) {
+            send(pending.msgs);
         }
     }
 
@@ -317,6 +476,11 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
         return channel.isWritable();
     }
 
+    @Override
+    public void setReadable(boolean readable) {
+        channel.setReadable(readable);
+    }
+
     @Override
     public DatapathId getDatapathId() {
         return dpid;
@@ -328,7 +492,7 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
     }
 
     Set<Long> getPendingRequestIds() {
-        return ImmutableSet.copyOf(xidDeliverableMap.keySet());
+        return ImmutableSet.copyOf(xidDeliverableMap.getXids());
     }
 
     @Override
@@ -337,25 +501,32 @@ public class OFConnection implements IOFConnection, IOFConnectionBackend{
     }
 
     /**
-     * Timeout class instantiated for deliverables. Will throw a timeout exception
-     * if proper responses are not received in time.
-     *
+     * Sweep for the deliverables that have expired. Will throw a timeout
+     * exception for those whose proper responses were not received in time.
      */
-    private class TimeOutDeliverable implements TimerTask {
-        private final long xid;
-
-        public TimeOutDeliverable(long xid) {
-            this.xid = xid;
-        }
-
+    private class TimeOutDeliverables implements TimerTask {
         @Override
         public void run(Timeout timeout) throws Exception {
-            Deliverable<?> removed = xidDeliverableMap.remove(xid);
-            if (removed != null && !removed.isDone()) {
-                removed.deliverError(new TimeoutException(
-                        "timeout - did not receive answer for xid " + xid));
+            List<Long> xids = new ArrayList<Long>();
+            List<Deliverable<?>> expired = new ArrayList<Deliverable<?>>();
+            synchronized (xidDeliverableMap) {
+                if (sweep != timeout) {
+                    // Superseded by a sweep that is due sooner
+                    return;
+                }
+                sweep = null;
+                long nextDeadlineNs = xidDeliverableMap.removeExpired(System.nanoTime(), xids, expired);
+                if (nextDeadlineNs != DeliverableMap.NO_DEADLINE) {
+                    scheduleSweep(nextDeadlineNs);
+                }
+            }
+            for (int i = 0; i < expired.size(); i++) {
+                Deliverable<?> removed = expired.get(i);
+                if (!removed.isDone()) {
+                    removed.deliverError(new TimeoutException(
+                            "timeout - did not receive answer for xid " + xids.get(i)));
+                }
             }
-
         }
     }
 
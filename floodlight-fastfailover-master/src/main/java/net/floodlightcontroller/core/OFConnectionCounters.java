@@ -100,6 +100,12 @@ public class OFConnectionCounters {
     private final IDebugCounter ctrReadBundleControl;
     private final IDebugCounter ctrReadRequestForward;
 
+    // Encoder Counters
+    //
+    private final IDebugCounter ctrEncodeBuffers;
+    private final IDebugCounter ctrEncodeBytes;
+    private final IDebugCounter ctrEncodeRegrown;
+
     private static final Logger logger =
             LoggerFactory.getLogger(OFConnectionCounters.class);
 
@@ -516,6 +522,22 @@ public class OFConnectionCounters {
                                      hierarchy,
                                      stringId,
                                      OFType.TABLE_STATUS.toString());
+
+        // Register Encoder Counters
+        //
+        hierarchy = stringId + "/encode";
+
+        counters.registerCounter(COUNTER_MODULE, hierarchy,
+                                 "Buffers the messages of this connection were encoded into");
+        ctrEncodeBuffers =
+                counters.registerCounter(COUNTER_MODULE, hierarchy + "/buffers",
+                                         "Number of buffers allocated to encode messages");
+        ctrEncodeBytes =
+                counters.registerCounter(COUNTER_MODULE, hierarchy + "/bytes",
+                                         "Number of bytes of messages encoded");
+        ctrEncodeRegrown =
+                counters.registerCounter(COUNTER_MODULE, hierarchy + "/regrown",
+                                         "Number of buffers that had to grow while messages were encoded into them");
     }
     
     /**
@@ -681,6 +703,19 @@ public class OFConnectionCounters {
          }
     }
 
+   /**
+    * Update Encoder counters for a buffer messages were encoded into
+    * @param bytes the number of bytes encoded
+    * @param regrown true if the buffer had to grow to take them
+    */
+   public void updateEncodeStats(int bytes, boolean regrown) {
+       ctrEncodeBuffers.increment();
+       ctrEncodeBytes.add(bytes);
+       if (regrown) {
+           ctrEncodeRegrown.increment();
+       }
+   }
+
    /**
     * Update Read openflow counters for this connection
     * @param ofm Open Flow Message
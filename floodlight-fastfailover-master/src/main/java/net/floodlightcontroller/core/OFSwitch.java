@@ -33,6 +33,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nonnull;
@@ -776,6 +777,11 @@ public class OFSwitch implements IOFSwitchBackend {
 		return connections.get(OFAuxId.MAIN).writeRequest(request);
 	}
 
+	@Override
+	public <R extends OFMessage> ListenableFuture<R> writeRequest(OFRequest<R> request, long timeout, TimeUnit unit) {
+		return connections.get(OFAuxId.MAIN).writeRequest(request, timeout, unit);
+	}
+
 	@Override
 	@LogMessageDoc(level="WARN",
 	message="Sending OF message that modifies switch " +
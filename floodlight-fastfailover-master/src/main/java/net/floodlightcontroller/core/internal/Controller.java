@@ -50,6 +50,7 @@ import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitchListener;
 import net.floodlightcontroller.core.LogicalOFMessageCategory;
+import net.floodlightcontroller.core.OFConnection;
 import net.floodlightcontroller.core.PortChangeType;
 import net.floodlightcontroller.core.RoleInfo;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
@@ -69,7 +70,7 @@ import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.types.DatapathId;
 
-import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.perfmon.IPktInProcessingTimeService;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.storage.IResultSet;
@@ -181,8 +182,10 @@ public class Controller implements IFloodlightProviderService, IStorageSourceLis
     
     // Perf. related configuration
     protected static final int SEND_BUFFER_SIZE = 128 * 1024;
-    public static final int BATCH_MAX_SIZE = 1; //TODO @Ryan this was 100. Causes packet_out messages to stall until 100 accumulated...
-    protected static final boolean ALWAYS_DECODE_ETH = true;
+    // Messages written while a message is dispatched go out when the
+    // dispatch ends, or as soon as a switch has this many held back
+    public static final int BATCH_MAX_SIZE = 100;
+    public static final int BATCH_MAX_BYTES = 64 * 1024;
 
     // Set of port name prefixes that will be classified as uplink ports,
     // hence will not be autoportfast.
@@ -400,7 +403,7 @@ public class Controller implements IFloodlightProviderService, IStorageSourceLis
      * @param flcontext
      */
     protected void flcontext_free(FloodlightContext flcontext) {
-        flcontext.getStorage().clear();
+        flcontext.clear();
         flcontext_cache.get().push(flcontext);
     }
 
@@ -437,7 +440,7 @@ public class Controller implements IFloodlightProviderService, IStorageSourceLis
     @Override
     public void handleMessage(IOFSwitch sw, OFMessage m,
                                  FloodlightContext bContext) {
-        Ethernet eth = null;
+        EthernetView eth = null;
         log.trace("Dispatching OFMessage to listeners.");
         if (this.notifiedRole == HARole.STANDBY) {
             counters.dispatchMessageWhileStandby.increment();
@@ -456,10 +459,8 @@ public class Controller implements IFloodlightProviderService, IStorageSourceLis
                     return;
                 }
 
-                if (Controller.ALWAYS_DECODE_ETH) {
-                    eth = new Ethernet();
-                    eth.deserialize(pi.getData(), 0, pi.getData().length);
-                }
+                // Decoded past the Ethernet header only if a listener asks
+                eth = new EthernetView(pi.getData());
                 // fall through to default case...
 
             default:
@@ -480,7 +481,10 @@ public class Controller implements IFloodlightProviderService, IStorageSourceLis
                         bc = bContext;
                     }
                     if (eth != null) {
-                        IFloodlightProviderService.bcStore.put(bc,
+                        IFloodlightProviderService.piViewStore.put(bc,
+                                IFloodlightProviderService.CONTEXT_PI_VIEW,
+                                eth);
+                        IFloodlightProviderService.bcStore.putLazy(bc,
                                 IFloodlightProviderService.CONTEXT_PI_PAYLOAD,
                                 eth);
                     }
@@ -491,14 +495,20 @@ public class Controller implements IFloodlightProviderService, IStorageSourceLis
                     pktinProcTimeService.bootstrap(listeners);
                     pktinProcTimeService.recordStartTimePktIn();
                     Command cmd;
-                    for (IOFMessageListener listener : listeners) {
-                        pktinProcTimeService.recordStartTimeComp(listener);
-                        cmd = listener.receive(sw, m, bc);
-                        pktinProcTimeService.recordEndTimeComp(listener);
-
-                        if (Command.STOP.equals(cmd)) {
-                            break;
+                    // Whatever the listeners send goes out in one write per switch
+                    OFConnection.beginWriteBatch();
+                    try {
+                        for (IOFMessageListener listener : listeners) {
+                            pktinProcTimeService.recordStartTimeComp(listener);
+                            cmd = listener.receive(sw, m, bc);
+                            pktinProcTimeService.recordEndTimeComp(listener);
+
+                            if (Command.STOP.equals(cmd)) {
+                                break;
+                            }
                         }
+                    } finally {
+                        OFConnection.endWriteBatch();
                     }
                     pktinProcTimeService.recordEndTimePktIn(sw, m, bc);
                 } else {
@@ -0,0 +1,88 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Bounds how many switch handshakes run at once. When every switch
+ * reconnects at the same time, e.g. after a controller restart, the
+ * handshakes beyond the bound wait for earlier ones to finish instead of
+ * all holding their replies, switch objects and pending requests at once.
+ *
+ * A handshake counts until it completes or its connection closes; the
+ * handshake handler reports either through {@link #finished}.
+ *
+ * This class is thread-safe.
+ */
+public class HandshakeThrottle {
+	private final int maxConcurrent;
+	private final SwitchManagerCounters counters;
+	private final Set<OFSwitchHandshakeHandler> running =
+			Collections.newSetFromMap(new IdentityHashMap<OFSwitchHandshakeHandler, Boolean>());
+	private final Deque<OFSwitchHandshakeHandler> waiting = new ArrayDeque<OFSwitchHandshakeHandler>();
+
+	/**
+	 * @param maxConcurrent how many handshakes may run at once
+	 * @param counters where handshakes that had to wait are counted
+	 */
+	public HandshakeThrottle(int maxConcurrent, SwitchManagerCounters counters) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException("Concurrent handshakes must be at least 1, not " + maxConcurrent);
+		}
+		this.maxConcurrent = maxConcurrent;
+		this.counters = counters;
+	}
+
+	/**
+	 * Begin the handshake now if few enough are running, else once enough
+	 * have finished.
+	 */
+	public void begin(OFSwitchHandshakeHandler handler) {
+		synchronized (this) {
+			if (running.size() >= maxConcurrent) {
+				waiting.add(handler);
+				counters.handshakeQueued.increment();
+				return;
+			}
+			running.add(handler);
+		}
+		handler.beginHandshake();
+	}
+
+	/**
+	 * The handshake of handler completed or was abandoned; begin the next
+	 * one waiting, if any. Reporting the same handler again does nothing.
+	 */
+	public void finished(OFSwitchHandshakeHandler handler) {
+		OFSwitchHandshakeHandler next;
+		synchronized (this) {
+			if (!running.remove(handler)) {
+				waiting.remove(handler);
+				return;
+			}
+			next = waiting.poll();
+			if (next == null) {
+				return;
+			}
+			running.add(next);
+		}
+		next.beginHandshake();
+	}
+
+	/**
+	 * @return the number of handshakes running
+	 */
+	public synchronized int getRunning() {
+		return running.size();
+	}
+
+	/**
+	 * @return the number of handshakes waiting to begin
+	 */
+	public synchronized int getWaiting() {
+		return waiting.size();
+	}
+}
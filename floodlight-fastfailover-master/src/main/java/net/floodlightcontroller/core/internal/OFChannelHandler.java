@@ -376,6 +376,7 @@ class OFChannelHandler extends IdleStateAwareChannelHandler {
 					setAuxChannelIdle();
 				}
 			}
+			pipeline.get(OFMessageEncoder.class).setCounters(connection.getCounters());
 			// Notify the connection broker
 			notifyConnectionOpened(connection);
 
@@ -0,0 +1,207 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFConnection;
+import net.floodlightcontroller.core.IOFConnectionBackend;
+import net.floodlightcontroller.core.IOFSwitchBackend;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands the messages received from switches to the controller's listeners on
+ * a pool of worker threads instead of the Netty I/O thread that read them.
+ *
+ * Each switch is pinned to one worker by its DPID, so the messages of a
+ * switch are still dispatched one at a time and in the order they arrived.
+ * A worker's queue has a soft capacity: once it holds more messages than
+ * that, reads are suspended on all connections of the switch that overfilled
+ * it, and resumed when the worker has drained the queue to half its capacity.
+ */
+public class OFMessageDispatcher {
+	private static final Logger log = LoggerFactory.getLogger(OFMessageDispatcher.class);
+
+	protected static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	private static class Task {
+		final IOFSwitchBackend sw;
+		final OFMessage m;
+		final FloodlightContext bContext;
+		final long enqueuedNs;
+
+		Task(IOFSwitchBackend sw, OFMessage m, FloodlightContext bContext) {
+			this.sw = sw;
+			this.m = m;
+			this.bContext = bContext;
+			this.enqueuedNs = System.nanoTime();
+		}
+	}
+
+	private class Worker extends Thread {
+		private final BlockingQueue<Task> queue = new LinkedBlockingQueue<Task>();
+		/* Switches whose reads this worker suspended; guarded by this */
+		private final Set<IOFSwitchBackend> throttled = new HashSet<IOFSwitchBackend>();
+		private volatile boolean throttling = false;
+		/* The deepest the queue has been; only written when that grows */
+		private final IDebugCounter queuePeak;
+
+		Worker(int index, IDebugCounter queuePeak) {
+			super("OFMessageDispatcher-" + index);
+			this.queuePeak = queuePeak;
+			setDaemon(true);
+		}
+
+		void offer(Task task) {
+			queue.offer(task);
+			counters.dispatchQueued.increment();
+			if (queue.size() > queueCapacity) {
+				throttle(task.sw);
+			}
+		}
+
+		private synchronized void throttle(IOFSwitchBackend sw) {
+			/*
+			 * Raise the flag before looking at the queue: either the worker
+			 * sees it after its next take and unthrottles once it has caught
+			 * up, or it has caught up already and we see that here. The
+			 * other way round it could drain the queue between our check
+			 * and the flag and leave the switch unread for good.
+			 */
+			throttling = true;
+			if (queue.size() <= queueCapacity / 2) {
+				throttling = !throttled.isEmpty();
+				return;
+			}
+			if (throttled.add(sw)) {
+				setReadable(sw, false);
+				counters.dispatchThrottled.increment();
+				log.debug("Dispatch queue of {} is full, suspending reads from switch {}",
+						getName(), sw.getId());
+			}
+		}
+
+		private synchronized void unthrottle() {
+			if (queue.size() > queueCapacity / 2) {
+				return;
+			}
+			for (IOFSwitchBackend sw : throttled) {
+				setReadable(sw, true);
+			}
+			throttled.clear();
+			throttling = false;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Task task;
+				try {
+					task = queue.take();
+				} catch (InterruptedException e) {
+					log.warn("{} interrupted, no longer dispatching messages", getName());
+					return;
+				}
+				// A counter can only grow, so keep the high-water mark; the
+				// current depth is getQueueDepth()
+				int depth = queue.size();
+				long peak = queuePeak.getCounterValue();
+				if (depth > peak) {
+					queuePeak.add(depth - peak);
+				}
+				if (throttling) {
+					unthrottle();
+				}
+				counters.dispatchQueueWaitUs.add(
+						TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - task.enqueuedNs));
+				try {
+					floodlightProvider.handleMessage(task.sw, task.m, task.bContext);
+				} catch (Exception e) {
+					log.error("Error dispatching " + task.m.getType() + " from switch " + task.sw.getId(), e);
+				}
+			}
+		}
+	}
+
+	private final IFloodlightProviderService floodlightProvider;
+	private final SwitchManagerCounters counters;
+	private final int queueCapacity;
+	private final Worker[] workers;
+
+	/**
+	 * @param floodlightProvider dispatches the messages to the listeners
+	 * @param debugCounterService registers the per-worker queue depth counters
+	 * @param counters the switch manager's counters, under which they go
+	 * @param threads the number of workers, at least 1
+	 * @param queueCapacity the number of messages a worker may hold before
+	 * it suspends reads from the switches that send it more
+	 */
+	public OFMessageDispatcher(IFloodlightProviderService floodlightProvider,
+			IDebugCounterService debugCounterService, SwitchManagerCounters counters,
+			int threads, int queueCapacity) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one dispatcher thread, not " + threads);
+		}
+		if (queueCapacity < 2) {
+			throw new IllegalArgumentException("Dispatch queue capacity must be at least 2, not " + queueCapacity);
+		}
+		this.floodlightProvider = floodlightProvider;
+		this.counters = counters;
+		this.queueCapacity = queueCapacity;
+		this.workers = new Worker[threads];
+		for (int i = 0; i < threads; i++) {
+			String hierarchy = SwitchManagerCounters.DISPATCH + "/worker-" + i;
+			debugCounterService.registerCounter(counters.getPrefix(), hierarchy,
+					"Parent counter of dispatcher worker " + i);
+			workers[i] = new Worker(i, debugCounterService.registerCounter(
+					counters.getPrefix(), hierarchy + "/queue-peak",
+					"Most messages seen waiting in the queue of dispatcher worker " + i));
+		}
+	}
+
+	/**
+	 * Start the workers. Messages dispatched before are queued.
+	 */
+	public void start() {
+		for (Worker w : workers) {
+			w.start();
+		}
+	}
+
+	/**
+	 * Queue a message for the listeners on the worker of the switch that
+	 * sent it.
+	 */
+	public void dispatch(IOFSwitchBackend sw, OFMessage m, FloodlightContext bContext) {
+		getWorker(sw).offer(new Task(sw, m, bContext));
+	}
+
+	/**
+	 * @return the number of messages waiting on the switch's worker, including
+	 * those of the other switches pinned to it
+	 */
+	public int getQueueDepth(IOFSwitchBackend sw) {
+		return getWorker(sw).queue.size();
+	}
+
+	private Worker getWorker(IOFSwitchBackend sw) {
+		return workers[(sw.getId().hashCode() & Integer.MAX_VALUE) % workers.length];
+	}
+
+	private static void setReadable(IOFSwitchBackend sw, boolean readable) {
+		for (IOFConnection c : sw.getConnections()) {
+			if (c instanceof IOFConnectionBackend) {
+				((IOFConnectionBackend) c).setReadable(readable);
+			}
+		}
+	}
+}
@@ -17,19 +17,62 @@
 
 package net.floodlightcontroller.core.internal;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import net.floodlightcontroller.core.OFConnectionCounters;
+
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketOut;
+import org.projectfloodlight.openflow.protocol.OFType;
+
+import com.google.common.collect.Iterables;
 
 /**
  * Encode an openflow message for output into a ChannelBuffer, for use in a
- * netty pipeline
+ * netty pipeline.
+ *
+ * The messages of a list are written into a single buffer. It is sized up
+ * front from the number of messages and a running average of their
+ * encoded size on this channel, so that it rarely has to grow (which
+ * means reallocating and copying it) while the messages are written.
+ *
+ * The payload of a packet-out is not copied into that buffer when it is
+ * large: the packet-out is written without it, and the payload array itself
+ * is handed to the channel as part of a gathering buffer. Reactive
+ * forwarding sends the payload of a packet-in back out this way without
+ * another copy, so the data of a packet-out must not be changed after it
+ * has been written.
+ *
  * @author readams
  */
 public class OFMessageEncoder extends OneToOneEncoder {
+    /* What a message is assumed to take before any went out on the channel */
+    protected static final int INITIAL_MESSAGE_SIZE = 128;
+    /* Smaller payloads are cheaper to copy than to send as a buffer of their own */
+    protected static final int ZERO_COPY_MIN_BYTES = 256;
+    /* Offset of the length in the openflow header */
+    private static final int LENGTH_OFFSET = 2;
+    private static final byte[] NO_DATA = new byte[0];
+
+    /*
+     * Writes to a channel may come from any thread; a lost update of the
+     * average only makes one estimate a little worse.
+     */
+    private volatile int averageMessageSize = INITIAL_MESSAGE_SIZE;
+    private volatile OFConnectionCounters counters;
+
+    /**
+     * Count the buffers allocated from now on against a connection.
+     */
+    public void setCounters(OFConnectionCounters counters) {
+        this.counters = counters;
+    }
 
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel,
@@ -40,10 +83,72 @@ public class OFMessageEncoder extends OneToOneEncoder {
         @SuppressWarnings("unchecked")
         Iterable<OFMessage> msgList = (Iterable<OFMessage>)msg;
 
-        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        int count = Iterables.size(msgList);
+        int estimate = count * averageMessageSize;
+        // A quarter more, so that a batch a little above average still fits
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer(Math.max(estimate + estimate / 4, 1));
+        int capacity = buf.capacity();
+        /* The parts of a gathering buffer, once a payload is not copied */
+        List<ChannelBuffer> parts = null;
+        int partStart = 0;
         for (OFMessage ofm :  msgList) {
+            if (ofm.getType() == OFType.PACKET_OUT) {
+                byte[] data = ((OFPacketOut) ofm).getData();
+                if (data.length >= ZERO_COPY_MIN_BYTES && writeWithoutData((OFPacketOut) ofm, data.length, buf)) {
+                    if (parts == null) {
+                        parts = new ArrayList<ChannelBuffer>();
+                    }
+                    // A slice of a dynamic buffer stays valid when it grows
+                    parts.add(buf.slice(partStart, buf.writerIndex() - partStart));
+                    parts.add(ChannelBuffers.wrappedBuffer(data));
+                    partStart = buf.writerIndex();
+                    continue;
+                }
+            }
             ofm.writeTo(buf);
         }
-        return buf;
+
+        // Only what was copied counts towards the size of the next buffer
+        int copied = buf.readableBytes();
+        if (count > 0) {
+            int average = averageMessageSize;
+            averageMessageSize = Math.max(average + (copied / count - average) / 8, 1);
+        }
+        ChannelBuffer out = buf;
+        if (parts != null) {
+            if (buf.writerIndex() > partStart) {
+                parts.add(buf.slice(partStart, buf.writerIndex() - partStart));
+            }
+            out = ChannelBuffers.wrappedBuffer(true, parts.toArray(new ChannelBuffer[parts.size()]));
+        }
+        OFConnectionCounters c = counters;
+        if (c != null) {
+            c.updateEncodeStats(out.readableBytes(), buf.capacity() > capacity);
+        }
+        return out;
+    }
+
+    /**
+     * Write a packet-out as if it had its data, but without the data.
+     * @return false if it is too long for that; nothing is written then
+     */
+    private static boolean writeWithoutData(OFPacketOut po, int dataLength, ChannelBuffer buf) {
+        OFPacketOut header = po.createBuilder().setData(NO_DATA).build();
+        int start = buf.writerIndex();
+        header.writeTo(buf);
+        int length = buf.writerIndex() - start + dataLength;
+        if (length > 0xffff) {
+            buf.writerIndex(start);
+            return false;
+        }
+        buf.setShort(start + LENGTH_OFFSET, length);
+        return true;
+    }
+
+    /**
+     * @return the encoded size a message is currently expected to have
+     */
+    public int getAverageMessageSize() {
+        return averageMessageSize;
     }
 }
@@ -3,6 +3,7 @@ package net.floodlightcontroller.core.internal;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +25,7 @@ import net.floodlightcontroller.core.SwitchDescription;
 import net.floodlightcontroller.core.annotations.LogMessageDoc;
 import net.floodlightcontroller.core.annotations.LogMessageDocs;
 import net.floodlightcontroller.core.internal.OFSwitchAppHandshakePlugin.PluginResultType;
+import net.floodlightcontroller.debugcounter.IDebugCounter;
 
 import org.projectfloodlight.openflow.protocol.OFBadRequestCode;
 import org.projectfloodlight.openflow.protocol.OFBarrierReply;
@@ -120,6 +122,24 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 
 	protected OFPortDescStatsReply portDescStats;
 
+	/*
+	 * With a pipelined handshake the requests for port descriptions,
+	 * config, description and table features all go out at once. Each
+	 * state still handles the reply to its own request; replies that
+	 * arrive before the handshake gets to their state wait in earlyReplies.
+	 */
+	private final boolean pipelined;
+	/* The state that handles the replies to each pipelined request, by xid */
+	private final Map<Long, Class<? extends OFSwitchHandshakeState>> pipelinedXids =
+			new HashMap<Long, Class<? extends OFSwitchHandshakeState>>();
+	private final List<OFMessage> earlyReplies = new ArrayList<OFMessage>();
+
+	/* Null if handshakes are not throttled */
+	private final HandshakeThrottle throttle;
+	private long handshakeStartNs;
+	private long stateEnteredNs;
+	private boolean handshakeFinished;
+
 	/**
 	 * When we remove a pending role request and set the role on the switch
 	 * we use this enum to indicate how we arrived at the decision.
@@ -896,7 +916,9 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 
 		@Override
 		void enterState(){
-			sendPortDescRequest();
+			if (!pipelined) {
+				sendPortDescRequest();
+			}
 		}
 
 		@Override
@@ -975,7 +997,9 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 
 		@Override
 		void enterState() {
-			sendHandshakeSetConfig();
+			if (!pipelined) {
+				sendHandshakeSetConfig();
+			}
 		}
 	}
 
@@ -1042,7 +1066,9 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 
 		@Override
 		void enterState() {
-			sendHandshakeDescriptionStatsRequest();
+			if (!pipelined) {
+				sendHandshakeDescriptionStatsRequest();
+			}
 		}
 	}
 	
@@ -1110,7 +1136,7 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 		void enterState() {
 			if (sw.getOFFactory().getVersion().compareTo(OFVersion.OF_13) < 0) {
 				nextState();
-			} else {
+			} else if (!pipelined) {
 				sendHandshakeTableFeaturesRequest();
 			}
 		}
@@ -1571,6 +1597,22 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 			@Nonnull IOFSwitchManager switchManager,
 			@Nonnull RoleManager roleManager,
 			@Nonnull Timer timer) {
+		this(connection, featuresReply, switchManager, roleManager, timer, false, null);
+	}
+
+	/**
+	 * @param pipelined whether to send the handshake requests that don't
+	 * depend on each other at once
+	 * @param throttle to report to when the handshake completes or is
+	 * abandoned; null if handshakes are not throttled
+	 */
+	OFSwitchHandshakeHandler(@Nonnull IOFConnectionBackend connection,
+			@Nonnull OFFeaturesReply featuresReply,
+			@Nonnull IOFSwitchManager switchManager,
+			@Nonnull RoleManager roleManager,
+			@Nonnull Timer timer,
+			boolean pipelined,
+			HandshakeThrottle throttle) {
 		Preconditions.checkNotNull(connection, "connection");
 		Preconditions.checkNotNull(featuresReply, "featuresReply");
 		Preconditions.checkNotNull(switchManager, "switchManager");
@@ -1588,6 +1630,8 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 		this.switchManagerCounters = switchManager.getCounters();
 		this.factory = OFFactories.getFactory(featuresReply.getVersion());
 		this.roleChanger = new RoleChanger(DEFAULT_ROLE_TIMEOUT_NS);
+		this.pipelined = pipelined;
+		this.throttle = throttle;
 		setState(new InitState());
 		this.pendingPortStatusMsg = new ArrayList<OFPortStatus>();
 
@@ -1606,6 +1650,11 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 					getSwitchInfoString());
 		}
 
+		handshakeStartNs = System.nanoTime();
+		if (pipelined) {
+			sendPipelinedHandshakeRequests();
+		}
+
 		if (this.featuresReply.getVersion().compareTo(OFVersion.OF_13) < 0) {
 			setState(new WaitConfigReplyState());
 		} else {
@@ -1712,15 +1761,104 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 	 * @param state
 	 */
 	private void setState(OFSwitchHandshakeState state) {
+		recordStateTime(state);
 		this.state = state;
 		state.logState();
 		state.enterState();
+		if (!pipelinedXids.isEmpty()) {
+			processEarlyReplies();
+		}
+	}
+
+	/*
+	 * Count the time spent in the state being left against its phase, and
+	 * the whole handshake once it is complete
+	 */
+	private void recordStateTime(OFSwitchHandshakeState next) {
+		long now = System.nanoTime();
+		IDebugCounter phase = getPhaseCounter(this.state);
+		if (phase != null) {
+			phase.add(TimeUnit.NANOSECONDS.toMicros(now - stateEnteredNs));
+		}
+		stateEnteredNs = now;
+		if (next.isHandshakeComplete() && handshakeStartNs != 0 && !handshakeFinished) {
+			switchManagerCounters.handshakeCompleted.increment();
+			switchManagerCounters.handshakeUs.add(TimeUnit.NANOSECONDS.toMicros(now - handshakeStartNs));
+			finishHandshake();
+		}
+	}
+
+	private IDebugCounter getPhaseCounter(OFSwitchHandshakeState s) {
+		if (s instanceof WaitPortDescStatsReplyState) {
+			return switchManagerCounters.handshakePortDescUs;
+		} else if (s instanceof WaitConfigReplyState) {
+			return switchManagerCounters.handshakeConfigUs;
+		} else if (s instanceof WaitDescriptionStatReplyState) {
+			return switchManagerCounters.handshakeDescriptionUs;
+		} else if (s instanceof WaitTableFeaturesReplyState) {
+			return switchManagerCounters.handshakeTableFeaturesUs;
+		} else if (s instanceof WaitSwitchDriverSubHandshakeState) {
+			return switchManagerCounters.handshakeDriverUs;
+		} else if (s instanceof WaitAppHandshakeState) {
+			return switchManagerCounters.handshakeAppUs;
+		} else if (s instanceof WaitInitialRoleState) {
+			return switchManagerCounters.handshakeRoleUs;
+		}
+		return null;
+	}
+
+	/* Let the throttle begin another handshake; only the first call counts */
+	private void finishHandshake() {
+		if (handshakeFinished) {
+			return;
+		}
+		handshakeFinished = true;
+		if (throttle != null) {
+			throttle.finished(this);
+		}
 	}
 
 	public void processOFMessage(OFMessage m) {
+		if (!pipelinedXids.isEmpty()) {
+			Class<? extends OFSwitchHandshakeState> target = pipelinedXids.get(m.getXid());
+			if (target != null && !target.isInstance(state)) {
+				// The handshake has not got to this reply's state yet
+				earlyReplies.add(m);
+				return;
+			}
+		}
 		state.processOFMessage(m);
 	}
 
+	/*
+	 * Hand the state just entered the replies that arrived for it before,
+	 * in the order they arrived. Once past the pipelined states, forget
+	 * about pipelining.
+	 */
+	private void processEarlyReplies() {
+		if (!pipelinedXids.containsValue(state.getClass())) {
+			pipelinedXids.clear();
+			earlyReplies.clear();
+			return;
+		}
+		OFMessage m;
+		while ((m = takeEarlyReply()) != null) {
+			state.processOFMessage(m);
+		}
+	}
+
+	private OFMessage takeEarlyReply() {
+		Iterator<OFMessage> it = earlyReplies.iterator();
+		while (it.hasNext()) {
+			OFMessage m = it.next();
+			if (pipelinedXids.get(m.getXid()).isInstance(state)) {
+				it.remove();
+				return m;
+			}
+		}
+		return null;
+	}
+
 	public void processWrittenOFMessage(OFMessage m) {
 		state.processWrittenOFMessage(m);
 	}
@@ -1731,6 +1869,10 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 	 * @throws IOException
 	 */
 	private void sendHandshakeSetConfig() {
+		mainConnection.write(buildHandshakeSetConfig());
+	}
+
+	private List<OFMessage> buildHandshakeSetConfig() {
 		// Ensure we receive the full packet via PacketIn
 		// FIXME: We don't set the reassembly flags.
 		OFSetConfig configSet = factory.buildSetConfig()
@@ -1747,8 +1889,7 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 		OFGetConfigRequest configReq = factory.buildGetConfigRequest()
 				.setXid(handshakeTransactionIds--)
 				.build();
-		List<OFMessage> msgList = ImmutableList.<OFMessage>of(configSet, barrier, configReq);
-		mainConnection.write(msgList);
+		return ImmutableList.<OFMessage>of(configSet, barrier, configReq);
 	}
 
 	protected void sendPortDescRequest() {
@@ -1759,22 +1900,59 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 	 * send a description state request
 	 */
 	private void sendHandshakeDescriptionStatsRequest() {
+		mainConnection.write(buildHandshakeDescriptionStatsRequest());
+	}
+
+	private OFDescStatsRequest buildHandshakeDescriptionStatsRequest() {
 		// Send description stats request to set switch-specific flags
-		OFDescStatsRequest descStatsRequest = factory.buildDescStatsRequest()
+		return factory.buildDescStatsRequest()
 				.setXid(handshakeTransactionIds--)
 				.build();
-		mainConnection.write(descStatsRequest);
 	}
 	
 	/**
 	 * send a table features request
 	 */
 	private void sendHandshakeTableFeaturesRequest() {
-		OFTableFeaturesStatsRequest tfsr = factory.buildTableFeaturesStatsRequest()
+		mainConnection.write(buildHandshakeTableFeaturesRequest());
+	}
+
+	private OFTableFeaturesStatsRequest buildHandshakeTableFeaturesRequest() {
+		return factory.buildTableFeaturesStatsRequest()
 				/* leave entries blank --> just ask, don't set */
 				.setXid(handshakeTransactionIds--)
 				.build();
-		mainConnection.write(tfsr);
+	}
+
+	/**
+	 * Send every request of the handshake up to the table features in one
+	 * write, and remember which state handles the replies to each. The
+	 * requests only ask for the switch's description, so none depends on
+	 * the reply to another.
+	 */
+	private void sendPipelinedHandshakeRequests() {
+		List<OFMessage> msgs = new ArrayList<OFMessage>();
+		boolean of13 = factory.getVersion().compareTo(OFVersion.OF_13) >= 0;
+		if (of13) {
+			OFMessage portDesc = factory.buildPortDescStatsRequest()
+					.setXid(handshakeTransactionIds--)
+					.build();
+			pipelinedXids.put(portDesc.getXid(), WaitPortDescStatsReplyState.class);
+			msgs.add(portDesc);
+		}
+		for (OFMessage m : buildHandshakeSetConfig()) {
+			pipelinedXids.put(m.getXid(), WaitConfigReplyState.class);
+			msgs.add(m);
+		}
+		OFMessage desc = buildHandshakeDescriptionStatsRequest();
+		pipelinedXids.put(desc.getXid(), WaitDescriptionStatReplyState.class);
+		msgs.add(desc);
+		if (of13) {
+			OFMessage tableFeatures = buildHandshakeTableFeaturesRequest();
+			pipelinedXids.put(tableFeatures.getXid(), WaitTableFeaturesReplyState.class);
+			msgs.add(tableFeatures);
+		}
+		mainConnection.write(msgs);
 	}
 
 	OFSwitchHandshakeState getStateForTesting() {
@@ -1877,6 +2055,10 @@ public class OFSwitchHandshakeHandler implements IOFConnectionListener {
 		// Disconnect handler's remaining connections
 		cleanup();
 
+		if (connection == this.mainConnection) {
+			finishHandshake();
+		}
+
 		// Only remove the switch handler when the main connection is
 		// closed
 		if (connection == this.mainConnection) {
@@ -13,6 +13,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.channel.ChannelPipelineFactory;
@@ -32,6 +33,7 @@ import net.floodlightcontroller.core.IOFSwitchBackend;
 import net.floodlightcontroller.core.IOFSwitchDriver;
 import net.floodlightcontroller.core.IOFSwitchListener;
 import net.floodlightcontroller.core.LogicalOFMessageCategory;
+import net.floodlightcontroller.core.OFConnection;
 import net.floodlightcontroller.core.PortChangeType;
 import net.floodlightcontroller.core.SwitchDescription;
 import net.floodlightcontroller.core.SwitchSyncRepresentation;
@@ -49,12 +51,15 @@ import net.floodlightcontroller.debugevent.IDebugEventService;
 import net.floodlightcontroller.debugevent.IDebugEventService.EventType;
 import net.floodlightcontroller.debugevent.IEventCategory;
 import net.floodlightcontroller.debugevent.MockDebugEventService;
+import net.floodlightcontroller.failovermon.IFailoverLatencyService;
 
 import org.projectfloodlight.openflow.protocol.OFControllerRole;
 import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFFeaturesReply;
 import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
 import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFAuxId;
 import org.sdnplatform.sync.IStoreClient;
@@ -87,6 +92,7 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 	private SwitchManagerCounters counters;
 
 	private ISyncService syncService;
+	private IFailoverLatencyService failoverLatency;
 	private IStoreClient<DatapathId, SwitchSyncRepresentation> storeClient;
 	public static final String SWITCH_SYNC_STORE_NAME = OFSwitchManager.class.getCanonicalName() + ".stateStore";
 
@@ -107,6 +113,34 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 	private Set<LogicalOFMessageCategory> logicalOFMessageCategories = new CopyOnWriteArraySet<LogicalOFMessageCategory>();
 	private final List<IAppHandshakePluginFactory> handshakePlugins = new CopyOnWriteArrayList<IAppHandshakePluginFactory>();
 	private int numRequiredConnections = -1;
+
+	/* Null unless workerthreads is configured, then messages are dispatched inline */
+	private OFMessageDispatcher dispatcher;
+	private int dispatchQueueCapacity = OFMessageDispatcher.DEFAULT_QUEUE_CAPACITY;
+
+	/* Null if packet-ins aren't rate limited, which is the default */
+	private PacketInAdmission packetInAdmission;
+	protected static final double DEFAULT_PACKET_IN_RATE = 0;
+	protected static final double DEFAULT_PACKET_IN_BURST = 1000;
+
+	/* Netty I/O threads; 0 for twice the number of cores */
+	private int ioThreads = 0;
+	private boolean tcpNoDelay = true;
+	private int sendBufferSize = Controller.SEND_BUFFER_SIZE;
+	/* 0 leaves it to the OS */
+	private int receiveBufferSize = 0;
+	/* Connections the OS queues before they are accepted; the JDK default of 50 overflows when many switches reconnect at once */
+	protected static final int DEFAULT_ACCEPT_BACKLOG = 1024;
+	private int acceptBacklog = DEFAULT_ACCEPT_BACKLOG;
+
+	/* Send the independent handshake requests at once; off until proven on real switches */
+	private boolean pipelineHandshake = false;
+	/* Null if any number of handshakes may run at once */
+	private HandshakeThrottle handshakeThrottle;
+	protected static final int DEFAULT_MAX_CONCURRENT_HANDSHAKES = 512;
+
+	/* How long stats requests wait for their replies unless they say otherwise */
+	private long requestTimeoutSecs = OFConnection.DEFAULT_REQUEST_TIMEOUT_UNIT.toSeconds(OFConnection.DEFAULT_REQUEST_TIMEOUT);
 	// Event IDs for debug events
 	protected IEventCategory<SwitchEvent> evSwitch;
 
@@ -247,6 +281,9 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 
 		counters.switchDisconnected.increment();
 		this.switches.remove(dpid);
+		if (packetInAdmission != null) {
+			packetInAdmission.removeSwitch(dpid);
+		}
 	}
 
 	@Override public void handshakeDisconnected(DatapathId dpid) {
@@ -405,13 +442,15 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 		OFAuxId auxId = connection.getAuxId();
 
 		log.debug("{} opened", connection);
+		connection.setRequestTimeout(requestTimeoutSecs, TimeUnit.SECONDS);
 
 		if(auxId.equals(OFAuxId.MAIN)) {
 
 			// Create a new switch handshake handler
 			OFSwitchHandshakeHandler handler =
 					new OFSwitchHandshakeHandler(connection, featuresReply, this,
-							floodlightProvider.getRoleManager(), floodlightProvider.getTimer());
+							floodlightProvider.getRoleManager(), floodlightProvider.getTimer(),
+							pipelineHandshake, handshakeThrottle);
 
 			OFSwitchHandshakeHandler oldHandler = switchHandlers.put(dpid, handler);
 
@@ -421,7 +460,11 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 				oldHandler.cleanup();
 			}
 
-			handler.beginHandshake();
+			if (handshakeThrottle != null) {
+				handshakeThrottle.begin(handler);
+			} else {
+				handler.beginHandshake();
+			}
 
 		} else {
 			OFSwitchHandshakeHandler handler = switchHandlers.get(dpid);
@@ -463,6 +506,10 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 		}
 
 		if(sw.getStatus().isVisible()) {
+			if (failoverLatency != null &&
+					(changeType == PortChangeType.DOWN || changeType == PortChangeType.DELETE)) {
+				failoverLatency.recordPortDown(sw.getId(), port.getPortNo());
+			}
 			// no need to count here. SwitchUpdate.dispatch will count
 			// the portchanged
 			SwitchUpdate update = new SwitchUpdate(sw.getId(),
@@ -481,7 +528,15 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 
 	@Override
 	public void handleMessage(IOFSwitchBackend sw, OFMessage m, FloodlightContext bContext) {
-		floodlightProvider.handleMessage(sw, m, bContext);
+		if (packetInAdmission != null && m.getType() == OFType.PACKET_IN
+				&& !packetInAdmission.admit(sw, (OFPacketIn) m)) {
+			return;
+		}
+		if (dispatcher != null) {
+			dispatcher.dispatch(sw, m, bContext);
+		} else {
+			floodlightProvider.handleMessage(sw, m, bContext);
+		}
 	}
 
 	@Override
@@ -633,6 +688,7 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 		debugEventService = context.getServiceImpl(IDebugEventService.class);
 		debugCounterService = context.getServiceImpl(IDebugCounterService.class);
 		syncService = context.getServiceImpl(ISyncService.class);
+		failoverLatency = context.getServiceImpl(IFailoverLatencyService.class);
 
 		// Module variables
 		switchHandlers = new ConcurrentHashMap<DatapathId, OFSwitchHandshakeHandler>();
@@ -720,6 +776,112 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 		if (tablesToGetFTCFlow == null || tablesToGetFTCFlow.isEmpty()) {
 			
 		}
+
+		/*
+		 * How many messages a dispatcher worker may hold before it stops reading
+		 * from the switches that send it more. Only used with workerthreads set.
+		 */
+		String capacity = configParams.get("dispatchQueueCapacity");
+		if (capacity != null && !capacity.isEmpty()) {
+			try {
+				dispatchQueueCapacity = Integer.parseInt(capacity.trim());
+			} catch (NumberFormatException e) {
+				throw new FloodlightModuleException("Invalid dispatchQueueCapacity " + capacity, e);
+			}
+		}
+
+		/*
+		 * Packet-ins a switch port may send per second, and at once, before
+		 * the rest are dropped. A rate of 0, the default, turns rate limiting
+		 * off. LLDP and BDDP packet-ins are never limited. With
+		 * packetInDropRuleSeconds set, a source that exceeds the rate has its
+		 * traffic dropped on the switch for that long.
+		 */
+		try {
+			double rate = parseDouble(configParams.get("packetInRate"), DEFAULT_PACKET_IN_RATE);
+			double burst = parseDouble(configParams.get("packetInBurst"), DEFAULT_PACKET_IN_BURST);
+			int dropRuleSecs = (int) parseDouble(configParams.get("packetInDropRuleSeconds"), 0);
+			if (rate > 0) {
+				packetInAdmission = new PacketInAdmission(counters, this, rate, burst, dropRuleSecs);
+				log.info("Limiting packet-ins to {}/s per switch port, bursts of {}", rate, burst);
+			} else {
+				log.info("Packet-in rate limiting disabled");
+			}
+		} catch (IllegalArgumentException e) {
+			throw new FloodlightModuleException("Invalid packet-in rate limit", e);
+		}
+
+		/*
+		 * The OpenFlow listener: a fixed number of I/O threads shared by all
+		 * switch connections, and the options of its sockets.
+		 */
+		ioThreads = parseInt(configParams, "ioThreads", ioThreads);
+		acceptBacklog = parseInt(configParams, "acceptBacklog", acceptBacklog);
+		sendBufferSize = parseInt(configParams, "sendBufferSize", sendBufferSize);
+		receiveBufferSize = parseInt(configParams, "receiveBufferSize", receiveBufferSize);
+		String noDelay = configParams.get("tcpNoDelay");
+		if (noDelay != null && !noDelay.isEmpty()) {
+			tcpNoDelay = Boolean.parseBoolean(noDelay.trim());
+		}
+
+		/*
+		 * Switch handshakes: whether to send the requests that don't depend
+		 * on each other at once, and how many may run at the same time (0
+		 * for any number). Handshakes beyond that wait to begin; one that
+		 * waits past the switch handshake timeout is dropped like any other
+		 * handshake that takes too long.
+		 */
+		String pipeline = configParams.get("pipelineHandshake");
+		if (pipeline != null && !pipeline.isEmpty()) {
+			pipelineHandshake = Boolean.parseBoolean(pipeline.trim());
+		}
+		int maxHandshakes = parseInt(configParams, "maxConcurrentHandshakes", DEFAULT_MAX_CONCURRENT_HANDSHAKES);
+		if (maxHandshakes > 0) {
+			handshakeThrottle = new HandshakeThrottle(maxHandshakes, counters);
+		}
+		log.info("Switch handshakes {}pipelined, at most {} at once", pipelineHandshake ? "" : "not ",
+				maxHandshakes > 0 ? maxHandshakes : "any number");
+
+		/*
+		 * Seconds a stats request waits for its replies before it fails,
+		 * unless it was written with a timeout of its own.
+		 */
+		String requestTimeout = configParams.get("requestTimeoutSeconds");
+		if (requestTimeout != null && !requestTimeout.isEmpty()) {
+			try {
+				requestTimeoutSecs = Long.parseLong(requestTimeout.trim());
+			} catch (NumberFormatException e) {
+				throw new FloodlightModuleException("Invalid requestTimeoutSeconds " + requestTimeout, e);
+			}
+			if (requestTimeoutSecs <= 0) {
+				throw new FloodlightModuleException("requestTimeoutSeconds must be positive, not " + requestTimeout);
+			}
+		}
+	}
+
+	private static int parseInt(Map<String, String> configParams, String key, int defaultValue)
+			throws FloodlightModuleException {
+		String value = configParams.get(key);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		int i;
+		try {
+			i = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new FloodlightModuleException("Invalid " + key + " " + value, e);
+		}
+		if (i < 0) {
+			throw new FloodlightModuleException(key + " must not be negative, not " + value);
+		}
+		return i;
+	}
+
+	private static double parseDouble(String value, double defaultValue) {
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return Double.parseDouble(value.trim());
 	}
 
 	@Override
@@ -744,6 +906,15 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 		loadLogicalCategories();
 
 		registerDebugEvents();
+
+		// Take the listeners off the Netty I/O threads
+		int threads = floodlightProvider.getWorkerThreads();
+		if (threads > 0) {
+			dispatcher = new OFMessageDispatcher(floodlightProvider, debugCounterService,
+					counters, threads, dispatchQueueCapacity);
+			dispatcher.start();
+			log.info("Dispatching switch messages on {} worker threads", threads);
+		}
 	}
 
 	/**
@@ -754,9 +925,15 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 			final ServerBootstrap bootstrap = createServerBootStrap();
 
 			bootstrap.setOption("reuseAddr", true);
+			bootstrap.setOption("backlog", acceptBacklog);
 			bootstrap.setOption("child.keepAlive", true);
-			bootstrap.setOption("child.tcpNoDelay", true);
-			bootstrap.setOption("child.sendBufferSize", Controller.SEND_BUFFER_SIZE);
+			bootstrap.setOption("child.tcpNoDelay", tcpNoDelay);
+			if (sendBufferSize > 0) {
+				bootstrap.setOption("child.sendBufferSize", sendBufferSize);
+			}
+			if (receiveBufferSize > 0) {
+				bootstrap.setOption("child.receiveBufferSize", receiveBufferSize);
+			}
 
 			ChannelPipelineFactory pfact = useSsl ? new OpenflowPipelineFactory(this, floodlightProvider.getTimer(), this, debugCounterService, keyStore, keyStorePassword) :
 				new OpenflowPipelineFactory(this, floodlightProvider.getTimer(), this, debugCounterService);
@@ -777,17 +954,14 @@ public class OFSwitchManager implements IOFSwitchManager, INewOFConnectionListen
 	 * @return
 	 */
 	private ServerBootstrap createServerBootStrap() {
-		if (floodlightProvider.getWorkerThreads() == 0) {
-			return new ServerBootstrap(
-					new NioServerSocketChannelFactory(
-							Executors.newCachedThreadPool(),
-							Executors.newCachedThreadPool()));
-		} else {
-			return new ServerBootstrap(
-					new NioServerSocketChannelFactory(
-							Executors.newCachedThreadPool(),
-							Executors.newCachedThreadPool(), floodlightProvider.getWorkerThreads()));
-		}
+		// The I/O workers only decode and encode now; workerthreads sizes the dispatcher
+		int workers = ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors() * 2;
+		log.info("Serving switch connections on {} I/O threads", workers);
+		return new ServerBootstrap(
+				new NioServerSocketChannelFactory(
+						Executors.newCachedThreadPool(),
+						Executors.newCachedThreadPool(),
+						workers));
 	}
 
 	/**
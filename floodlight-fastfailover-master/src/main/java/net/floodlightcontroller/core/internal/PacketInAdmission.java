@@ -0,0 +1,231 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.util.AppCookie;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
+import net.floodlightcontroller.util.FlowModUtils;
+
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowAdd;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides which packet-ins are dispatched to the listeners at all.
+ *
+ * Every switch port gets a token bucket that refills at a fixed rate of
+ * packet-ins per second up to a burst size. A packet-in that finds its
+ * port's bucket empty is dropped. Optionally, the source MAC of that packet
+ * is then kept from reaching the controller through the port for a while,
+ * by a flow that drops its traffic on the switch; this is done at most once
+ * per port for as long as such a flow lasts.
+ *
+ * LLDP and BDDP frames are always admitted and never count against a
+ * bucket: dropping them would time out the links they discover and fail
+ * over flows whose paths are fine.
+ *
+ * This class is thread-safe.
+ */
+public class PacketInAdmission {
+	private static final Logger log = LoggerFactory.getLogger(PacketInAdmission.class);
+
+	public static final int PACKET_IN_ADMISSION_APP_ID = 12;
+
+	static {
+		AppCookie.registerApp(PACKET_IN_ADMISSION_APP_ID, "PacketInAdmission");
+	}
+
+	/*
+	 * A storm is made of packets that miss every flow, so the drop rule only
+	 * has to beat the table-miss entry and whatever else sends traffic to the
+	 * controller. It stays below the flow dispatcher's per-flow rules, at
+	 * PRIORITY_MAX, so it never overlaps them at equal priority and traffic
+	 * that already has a flow keeps being forwarded.
+	 */
+	protected static final int DROP_RULE_PRIORITY = FlowModUtils.PRIORITY_VERY_HIGH;
+
+	private static final EthType BDDP = EthType.of(Ethernet.TYPE_BSN & 0xffff);
+
+	private static class PortKey {
+		private final DatapathId dpid;
+		private final OFPort port;
+
+		PortKey(DatapathId dpid, OFPort port) {
+			this.dpid = dpid;
+			this.port = port;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * dpid.hashCode() + port.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof PortKey))
+				return false;
+			PortKey other = (PortKey) obj;
+			return dpid.equals(other.dpid) && port.equals(other.port);
+		}
+	}
+
+	private static class Bucket {
+		double tokens;
+		long lastNs;
+		/* No drop rule is installed for the port before this */
+		long nextDropRuleNs;
+
+		Bucket(double tokens, long nowNs) {
+			this.tokens = tokens;
+			this.lastNs = nowNs;
+			this.nextDropRuleNs = nowNs;
+		}
+	}
+
+	private final SwitchManagerCounters counters;
+	private final IOFSwitchService switchService;
+	private final double rate;
+	private final double burst;
+	private final int dropRuleSecs;
+	private final ConcurrentHashMap<PortKey, Bucket> buckets = new ConcurrentHashMap<PortKey, Bucket>();
+
+	/**
+	 * @param counters where dropped packet-ins and installed drop rules are counted
+	 * @param switchService the switches, whose port addresses are never dropped
+	 * @param rate the packet-ins per second a port may sustain
+	 * @param burst the packet-ins a port may send at once after a quiet spell
+	 * @param dropRuleSecs how long a flow dropping a suppressed source lasts;
+	 * 0 to only drop its packet-ins at the controller
+	 */
+	public PacketInAdmission(SwitchManagerCounters counters, IOFSwitchService switchService,
+			double rate, double burst, int dropRuleSecs) {
+		if (rate <= 0) {
+			throw new IllegalArgumentException("Packet-in rate must be positive, not " + rate);
+		}
+		if (burst < 1) {
+			throw new IllegalArgumentException("Packet-in burst must be at least 1, not " + burst);
+		}
+		if (dropRuleSecs < 0 || dropRuleSecs > 0xffff) {
+			throw new IllegalArgumentException("Invalid drop rule timeout " + dropRuleSecs);
+		}
+		this.counters = counters;
+		this.switchService = switchService;
+		this.rate = rate;
+		this.burst = burst;
+		this.dropRuleSecs = dropRuleSecs;
+	}
+
+	/**
+	 * @return whether the packet-in may be dispatched to the listeners
+	 */
+	public boolean admit(IOFSwitch sw, OFPacketIn pi) {
+		return admit(sw, pi, System.nanoTime());
+	}
+
+	protected boolean admit(IOFSwitch sw, OFPacketIn pi, long nowNs) {
+		EthType ethType = new EthernetView(pi.getData()).getEtherType();
+		if (EthType.LLDP.equals(ethType) || BDDP.equals(ethType)) {
+			return true;
+		}
+
+		OFPort inPort = (pi.getVersion().compareTo(OFVersion.OF_12) < 0 ? pi.getInPort() : pi.getMatch().get(MatchField.IN_PORT));
+		PortKey key = new PortKey(sw.getId(), inPort);
+		Bucket bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = new Bucket(burst, nowNs);
+			Bucket existing = buckets.putIfAbsent(key, bucket);
+			if (existing != null) {
+				bucket = existing;
+			}
+		}
+
+		boolean installDropRule = false;
+		synchronized (bucket) {
+			if (nowNs > bucket.lastNs) {
+				bucket.tokens = Math.min(burst, bucket.tokens + (nowNs - bucket.lastNs) * rate / 1e9);
+				bucket.lastNs = nowNs;
+			}
+			if (bucket.tokens >= 1) {
+				bucket.tokens -= 1;
+				return true;
+			}
+			if (dropRuleSecs > 0 && nowNs - bucket.nextDropRuleNs >= 0) {
+				bucket.nextDropRuleNs = nowNs + TimeUnit.SECONDS.toNanos(dropRuleSecs);
+				installDropRule = true;
+			}
+		}
+
+		counters.packetInDropped.increment();
+		if (installDropRule) {
+			installDropRule(sw, inPort, pi);
+		}
+		return false;
+	}
+
+	private void installDropRule(IOFSwitch sw, OFPort inPort, OFPacketIn pi) {
+		// Only the offending host, so the rest of the port keeps working
+		MacAddress src = new EthernetView(pi.getData()).getSourceMACAddress();
+		if (src == null || src.isMulticast() || isSwitchPortAddress(src)) {
+			return;
+		}
+		OFFactory factory = sw.getOFFactory();
+		OFFlowAdd drop = factory.buildFlowAdd()
+				.setMatch(factory.buildMatch()
+						.setExact(MatchField.IN_PORT, inPort)
+						.setExact(MatchField.ETH_SRC, src)
+						.build())
+				.setPriority(DROP_RULE_PRIORITY)
+				.setHardTimeout(dropRuleSecs)
+				.setIdleTimeout(0)
+				.setBufferId(OFBufferId.NO_BUFFER)
+				.setCookie(AppCookie.makeCookie(PACKET_IN_ADMISSION_APP_ID, 0))
+				.build();
+		sw.write(drop);
+		counters.packetInDropRules.increment();
+		log.warn("Packet-in storm from {} on switch {} port {}, dropping its traffic for {}s",
+				new Object[] { src, sw.getId(), inPort, dropRuleSecs });
+	}
+
+	/*
+	 * Link discovery frames are sent from the switch ports' addresses; a
+	 * rule dropping one of them would drop the discovery frames too
+	 */
+	private boolean isSwitchPortAddress(MacAddress mac) {
+		for (IOFSwitch sw : switchService.getAllSwitchMap().values()) {
+			for (OFPortDesc port : sw.getPorts()) {
+				if (mac.equals(port.getHwAddr())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Forget the buckets of a switch's ports, e.g. because it disconnected.
+	 */
+	public void removeSwitch(DatapathId dpid) {
+		Iterator<PortKey> it = buckets.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().dpid.equals(dpid)) {
+				it.remove();
+			}
+		}
+	}
+}
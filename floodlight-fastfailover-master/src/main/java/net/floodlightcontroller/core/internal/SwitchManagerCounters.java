@@ -7,6 +7,8 @@ import net.floodlightcontroller.debugcounter.IDebugCounterService.MetaData;
 public class SwitchManagerCounters {
 
     public final String prefix = OFSwitchManager.class.getSimpleName();
+    public static final String DISPATCH = "dispatch";
+    public static final String HANDSHAKE = "handshake";
     public final IDebugCounter invalidPortsChanged;
     public final IDebugCounter switchConnected;
     public final IDebugCounter invalidSwitchActivatedWhileSlave;
@@ -32,6 +34,21 @@ public class SwitchManagerCounters {
     public final IDebugCounter roleReplyReceived;
     public final IDebugCounter roleReplyErrorUnsupported;
     public final IDebugCounter switchSslConfigurationError;
+    public final IDebugCounter dispatchQueued;
+    public final IDebugCounter dispatchQueueWaitUs;
+    public final IDebugCounter dispatchThrottled;
+    public final IDebugCounter packetInDropped;
+    public final IDebugCounter packetInDropRules;
+    public final IDebugCounter handshakeQueued;
+    public final IDebugCounter handshakeCompleted;
+    public final IDebugCounter handshakeUs;
+    public final IDebugCounter handshakePortDescUs;
+    public final IDebugCounter handshakeConfigUs;
+    public final IDebugCounter handshakeDescriptionUs;
+    public final IDebugCounter handshakeTableFeaturesUs;
+    public final IDebugCounter handshakeDriverUs;
+    public final IDebugCounter handshakeAppUs;
+    public final IDebugCounter handshakeRoleUs;
 
     public SwitchManagerCounters(IDebugCounterService debugCounters) {
         debugCounters.registerModule(prefix);
@@ -209,6 +226,110 @@ public class SwitchManagerCounters {
                                         "IllegalArgumentException, which is likely " +
                                         "due to the switch trying to speak SSL whereas " +
                                         "the controller wants to use vanilla TCP.");
+
+                    debugCounters.registerCounter(
+                                prefix, DISPATCH,
+                                "Parent counter of the message dispatcher's counters");
+
+                    dispatchQueued =
+                        debugCounters.registerCounter(
+                                    prefix, DISPATCH + "/queued",
+                                    "Number of messages from switches queued for " +
+                                    "the dispatcher's worker threads");
+
+                    dispatchQueueWaitUs =
+                        debugCounters.registerCounter(
+                                    prefix, DISPATCH + "/queue-wait-us",
+                                    "Total time in microseconds messages waited in " +
+                                    "the dispatcher's queues; divide by queued for " +
+                                    "the average wait");
+
+                    dispatchThrottled =
+                        debugCounters.registerCounter(
+                                    prefix, DISPATCH + "/throttled",
+                                    "Number of times reads from a switch were " +
+                                    "suspended because its dispatcher queue was full",
+                                    MetaData.WARN);
+
+                    packetInDropped =
+                        debugCounters.registerCounter(
+                                    prefix, "packet-in-dropped",
+                                    "Number of packet-ins dropped before dispatch " +
+                                    "because their switch port exceeded its " +
+                                    "packet-in rate",
+                                    MetaData.WARN);
+
+                    packetInDropRules =
+                        debugCounters.registerCounter(
+                                    prefix, "packet-in-drop-rules",
+                                    "Number of flows installed to drop the traffic " +
+                                    "of a source that exceeded its port's packet-in " +
+                                    "rate",
+                                    MetaData.WARN);
+
+                    debugCounters.registerCounter(
+                                prefix, HANDSHAKE,
+                                "Parent counter of the switch handshake counters");
+
+                    handshakeQueued =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/queued",
+                                    "Number of switch handshakes that waited for " +
+                                    "others to finish before they began");
+
+                    handshakeCompleted =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/completed",
+                                    "Number of switch handshakes completed");
+
+                    handshakeUs =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/total-us",
+                                    "Total time in microseconds of the completed " +
+                                    "switch handshakes; divide by completed for " +
+                                    "the average");
+
+                    handshakePortDescUs =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/port-desc-us",
+                                    "Total time in microseconds switch handshakes " +
+                                    "waited for port descriptions");
+
+                    handshakeConfigUs =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/config-us",
+                                    "Total time in microseconds switch handshakes " +
+                                    "waited for config replies");
+
+                    handshakeDescriptionUs =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/description-us",
+                                    "Total time in microseconds switch handshakes " +
+                                    "waited for description stats");
+
+                    handshakeTableFeaturesUs =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/table-features-us",
+                                    "Total time in microseconds switch handshakes " +
+                                    "waited for table features");
+
+                    handshakeDriverUs =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/driver-us",
+                                    "Total time in microseconds switch handshakes " +
+                                    "spent in switch driver sub-handshakes");
+
+                    handshakeAppUs =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/app-us",
+                                    "Total time in microseconds switch handshakes " +
+                                    "spent in application handshake plugins");
+
+                    handshakeRoleUs =
+                        debugCounters.registerCounter(
+                                    prefix, HANDSHAKE + "/role-us",
+                                    "Total time in microseconds switch handshakes " +
+                                    "waited for the initial role reply");
     }
 
     public String getPrefix(){
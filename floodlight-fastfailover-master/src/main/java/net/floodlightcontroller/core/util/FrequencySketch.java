@@ -0,0 +1,134 @@
+package net.floodlightcontroller.core.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count-min sketch of how often keys were seen recently.
+ *
+ * Each key has a counter in every row of a fixed table, picked by a hash
+ * of its own per row; its estimate is the smallest of them, which may be
+ * too high when keys collide but is never too low. The table does not grow
+ * with the number of keys. Once sampleSize keys were counted every counter
+ * is halved, so old counts fade and the estimates follow what is seen now.
+ *
+ * The sketch cannot list its keys; {@link #getHottest} ranks the keys the
+ * caller knows of. Counting is lock-free. This class is thread-safe, and
+ * estimates are approximate while counters are being halved.
+ */
+public class FrequencySketch<K> {
+    private static final int ROWS = 4;
+    /* Odd multipliers giving each row its own hash */
+    private static final int[] SEEDS = { 0x9e3779b1, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+
+    private final AtomicIntegerArray counters;
+    private final int mask;
+    private final long sampleSize;
+    private final AtomicLong counted = new AtomicLong();
+
+    /**
+     * @param width the counters per row; rounded up to a power of two,
+     * and best a few times the number of keys usually seen
+     * @param sampleSize the keys counted between halvings
+     */
+    public FrequencySketch(int width, long sampleSize) {
+        if (width < 1 || width > (1 << 28)) {
+            throw new IllegalArgumentException("Width must be between 1 and 2^28, not " + width);
+        }
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("Sample size must be positive, not " + sampleSize);
+        }
+        int w = Integer.highestOneBit(width);
+        if (w < width) w <<= 1;
+        this.mask = w - 1;
+        this.counters = new AtomicIntegerArray(ROWS * w);
+        this.sampleSize = sampleSize;
+    }
+
+    private int index(int row, int hash) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        return row * (mask + 1) + (h & mask);
+    }
+
+    /**
+     * Count one more sighting of key.
+     */
+    public void increment(K key) {
+        int hash = key.hashCode();
+        for (int row = 0; row < ROWS; row++) {
+            int i = index(row, hash);
+            // Saturate rather than wrap
+            if (counters.get(i) < Integer.MAX_VALUE) {
+                counters.incrementAndGet(i);
+            }
+        }
+        if (counted.incrementAndGet() % sampleSize == 0) {
+            halve();
+        }
+    }
+
+    /**
+     * @return about how often key was seen recently, never less
+     */
+    public int estimate(K key) {
+        int hash = key.hashCode();
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            min = Math.min(min, counters.get(index(row, hash)));
+        }
+        return min;
+    }
+
+    private void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            int c;
+            do {
+                c = counters.get(i);
+            } while (!counters.compareAndSet(i, c, c >>> 1));
+        }
+    }
+
+    /**
+     * @param keys the keys to rank
+     * @param n how many to return at most
+     * @return those of keys seen recently, the most often seen first
+     */
+    public List<K> getHottest(Iterable<K> keys, int n) {
+        final List<K> seen = new ArrayList<K>();
+        final List<Integer> estimates = new ArrayList<Integer>();
+        for (K key : keys) {
+            int estimate = estimate(key);
+            if (estimate > 0) {
+                seen.add(key);
+                estimates.add(estimate);
+            }
+        }
+        List<Integer> order = new ArrayList<Integer>(seen.size());
+        for (int i = 0; i < seen.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return estimates.get(b).compareTo(estimates.get(a));
+            }
+        });
+        List<K> hottest = new ArrayList<K>(Math.min(n, order.size()));
+        for (int i = 0; i < n && i < order.size(); i++) {
+            hottest.add(seen.get(order.get(i)));
+        }
+        return hottest;
+    }
+
+    public void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        counted.set(0);
+    }
+}
@@ -0,0 +1,129 @@
+package net.floodlightcontroller.core.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hashed timing wheel of keys by the time they are due.
+ *
+ * Time is cut into ticks, and a key due in a tick goes into the bucket of
+ * that tick modulo the number of buckets. Finding the keys that are due
+ * only looks at the buckets of the ticks that passed since the last look,
+ * so its cost grows with the number of keys due (and the keys of later
+ * rounds sharing their buckets) rather than with the number of keys.
+ *
+ * A key is in the wheel at most once. Scheduling it again only moves it if
+ * the new time is earlier: keys whose time keeps being pushed back, like a
+ * link refreshed by every LLDP, are left where they are and looked at again
+ * once they come due, when the caller decides whether they really expired.
+ *
+ * Times are in milliseconds of whatever clock the caller passes in. This
+ * class is thread-safe.
+ */
+public class TimeoutWheel<K> {
+    private final long tickMs;
+    private final Set<K>[] buckets;
+    private final Map<K, Long> ticks = new HashMap<K, Long>();
+    /* The last tick looked at; its bucket is looked at again next time */
+    private long lastTick;
+
+    /**
+     * @param tickMs the length of a tick
+     * @param bucketCount the number of buckets; ideally covers the usual
+     * timeout, so that keys rarely share a bucket with later rounds
+     * @param nowMs the current time
+     */
+    @SuppressWarnings("unchecked")
+    public TimeoutWheel(long tickMs, int bucketCount, long nowMs) {
+        if (tickMs <= 0) {
+            throw new IllegalArgumentException("Tick must be positive, not " + tickMs);
+        }
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("Need at least one bucket, not " + bucketCount);
+        }
+        this.tickMs = tickMs;
+        this.buckets = new Set[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new LinkedHashSet<K>();
+        }
+        this.lastTick = nowMs / tickMs;
+    }
+
+    private Set<K> bucket(long tick) {
+        return buckets[(int) (tick % buckets.length)];
+    }
+
+    /**
+     * Have key come due at dueMs, unless it is already due earlier.
+     */
+    public synchronized void schedule(K key, long dueMs) {
+        // Anything due in the past is due at the next look
+        long tick = Math.max(dueMs / tickMs, lastTick);
+        Long current = ticks.get(key);
+        if (current != null) {
+            if (current <= tick) {
+                return;
+            }
+            bucket(current).remove(key);
+        }
+        ticks.put(key, tick);
+        bucket(tick).add(key);
+    }
+
+    /**
+     * Forget key, e.g. because what it stands for was removed.
+     */
+    public synchronized void remove(K key) {
+        Long tick = ticks.remove(key);
+        if (tick != null) {
+            bucket(tick).remove(key);
+        }
+    }
+
+    /**
+     * Remove the keys due by nowMs. They are due by the tick, so some may
+     * be up to a tick early.
+     * @return the keys removed
+     */
+    public synchronized List<K> removeDue(long nowMs) {
+        List<K> due = new ArrayList<K>();
+        long nowTick = nowMs / tickMs;
+        if (nowTick < lastTick) {
+            return due;
+        }
+        // Every bucket holds the ticks passed if the wheel went round
+        long count = Math.min(nowTick - lastTick + 1, buckets.length);
+        for (long tick = lastTick; tick < lastTick + count; tick++) {
+            Iterator<K> it = bucket(tick).iterator();
+            while (it.hasNext()) {
+                K key = it.next();
+                if (ticks.get(key) <= nowTick) {
+                    it.remove();
+                    ticks.remove(key);
+                    due.add(key);
+                }
+            }
+        }
+        lastTick = nowTick;
+        return due;
+    }
+
+    /**
+     * @return the number of keys in the wheel
+     */
+    public synchronized int size() {
+        return ticks.size();
+    }
+
+    public synchronized void clear() {
+        for (Set<K> bucket : buckets) {
+            bucket.clear();
+        }
+        ticks.clear();
+    }
+}
@@ -69,7 +69,8 @@ public interface IDeviceService extends IFloodlightService {
      * FloodlightContext information created by BVS manager.
      */
     public static final FloodlightContextStore<IDevice> fcStore = 
-        new FloodlightContextStore<IDevice>();
+        new FloodlightContextStore<IDevice>(CONTEXT_SRC_DEVICE, CONTEXT_DST_DEVICE,
+                CONTEXT_ORIG_DST_DEVICE);
 
     /**
      * Get the device with the given device key.
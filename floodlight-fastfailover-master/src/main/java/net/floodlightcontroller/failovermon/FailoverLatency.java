@@ -0,0 +1,225 @@
+package net.floodlightcontroller.failovermon;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.module.FloodlightModuleException;
+import net.floodlightcontroller.core.module.IFloodlightModule;
+import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.restserver.IRestApiService;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+/**
+ * Times the controller's reaction to ports going down, from the port
+ * status the switch sends to each {@link IFailoverLatencyService.Stage}
+ * of the reaction. The modules taking part report their own stages when
+ * this service is loaded.
+ *
+ * A failure usually takes a port down at both ends of a link; the two
+ * ports are counted as one event, started by the earlier report, as soon
+ * as a reaction to the link ties them together. An event ends once every
+ * stage has been seen, or after the event window if some never happen.
+ */
+public class FailoverLatency implements IFloodlightModule, IFailoverLatencyService {
+    protected static Logger logger = LoggerFactory.getLogger(FailoverLatency.class);
+
+    private IRestApiService restApi;
+
+    protected long eventWindowNs = TimeUnit.SECONDS.toNanos(10);
+
+    protected static class FailoverEvent {
+        final long startNs;
+        final Set<Stage> seen = EnumSet.noneOf(Stage.class);
+
+        FailoverEvent(long startNs) {
+            this.startNs = startNs;
+        }
+    }
+
+    /* Events in progress by port; ports of the same failure share an event */
+    protected Map<NodePortTuple, FailoverEvent> events;
+    protected Map<Stage, LatencyHistogram> histograms;
+
+    /**
+     * @return the current time in nanoseconds
+     */
+    protected long now() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void recordPortDown(DatapathId sw, OFPort port) {
+        long now = now();
+        NodePortTuple npt = new NodePortTuple(sw, port);
+        synchronized (events) {
+            expireEvents(now);
+            if (!events.containsKey(npt)) {
+                events.put(npt, new FailoverEvent(now));
+            }
+        }
+    }
+
+    @Override
+    public void recordReaction(Stage stage, DatapathId src, OFPort srcPort,
+            DatapathId dst, OFPort dstPort) {
+        long now = now();
+        NodePortTuple srcNpt = new NodePortTuple(src, srcPort);
+        NodePortTuple dstNpt = new NodePortTuple(dst, dstPort);
+        synchronized (events) {
+            expireEvents(now);
+            FailoverEvent e = events.get(srcNpt);
+            FailoverEvent other = events.get(dstNpt);
+            if (e == null) {
+                e = other;
+            } else if (other != null && other != e) {
+                if (other.startNs < e.startNs) {
+                    FailoverEvent tmp = e;
+                    e = other;
+                    other = tmp;
+                }
+                e.seen.addAll(other.seen);
+                replaceEvent(other, e);
+            }
+            if (e != null) {
+                record(stage, e, now);
+            }
+        }
+    }
+
+    /**
+     * Count a stage once per event, and end the event once it has seen
+     * them all. Called with events held.
+     */
+    private void record(Stage stage, FailoverEvent e, long now) {
+        if (!e.seen.add(stage)) {
+            return;
+        }
+        histograms.get(stage).add(now - e.startNs);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Failover stage {} after {} us", stage, (now - e.startNs) / 1000);
+        }
+        if (e.seen.size() == Stage.values().length) {
+            replaceEvent(e, null);
+        }
+    }
+
+    /**
+     * Point the ports of one event at another, or drop them if there is
+     * none. Called with events held.
+     */
+    private void replaceEvent(FailoverEvent from, FailoverEvent to) {
+        Iterator<Map.Entry<NodePortTuple, FailoverEvent>> it = events.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<NodePortTuple, FailoverEvent> entry = it.next();
+            if (entry.getValue() == from) {
+                if (to == null) {
+                    it.remove();
+                } else {
+                    entry.setValue(to);
+                }
+            }
+        }
+    }
+
+    /**
+     * Give up on the stages that didn't happen within the event window.
+     * Called with events held.
+     */
+    private void expireEvents(long now) {
+        Iterator<FailoverEvent> it = events.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().startNs > eventWindowNs) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public Map<Stage, LatencyHistogram> getHistograms() {
+        Map<Stage, LatencyHistogram> m = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+        for (Map.Entry<Stage, LatencyHistogram> entry : histograms.entrySet()) {
+            m.put(entry.getKey(), entry.getValue().copy());
+        }
+        return m;
+    }
+
+    @Override
+    public void reset() {
+        synchronized (events) {
+            events.clear();
+            for (LatencyHistogram h : histograms.values()) {
+                h.reset();
+            }
+        }
+    }
+
+    // IFloodlightModule methods
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleServices() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IFailoverLatencyService.class);
+        return l;
+    }
+
+    @Override
+    public Map<Class<? extends IFloodlightService>, IFloodlightService>
+            getServiceImpls() {
+        Map<Class<? extends IFloodlightService>, IFloodlightService> m =
+                new HashMap<Class<? extends IFloodlightService>, IFloodlightService>();
+        m.put(IFailoverLatencyService.class, this);
+        return m;
+    }
+
+    @Override
+    public Collection<Class<? extends IFloodlightService>> getModuleDependencies() {
+        Collection<Class<? extends IFloodlightService>> l =
+                new ArrayList<Class<? extends IFloodlightService>>();
+        l.add(IRestApiService.class);
+        return l;
+    }
+
+    @Override
+    public void init(FloodlightModuleContext context)
+            throws FloodlightModuleException {
+        restApi = context.getServiceImpl(IRestApiService.class);
+        events = new HashMap<NodePortTuple, FailoverEvent>();
+        histograms = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+
+        Map<String, String> configParameters = context.getConfigParams(this);
+        String tmp = configParameters.get("event-window-ms");
+        if (tmp != null) {
+            try {
+                eventWindowNs = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(tmp.trim()));
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid event-window-ms {}, using {} ms", tmp,
+                        TimeUnit.NANOSECONDS.toMillis(eventWindowNs));
+            }
+        }
+    }
+
+    @Override
+    public void startUp(FloodlightModuleContext context)
+            throws FloodlightModuleException {
+        if (restApi != null) {
+            restApi.addRestletRoutable(new FailoverLatencyWebRoutable());
+        }
+    }
+}
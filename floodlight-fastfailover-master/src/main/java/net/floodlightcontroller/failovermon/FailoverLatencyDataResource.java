@@ -0,0 +1,28 @@
+package net.floodlightcontroller.failovermon;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+import net.floodlightcontroller.failovermon.IFailoverLatencyService.Stage;
+
+/**
+ * Return the failover latency histograms, keyed by stage
+ */
+public class FailoverLatencyDataResource extends ServerResource {
+
+    @Get("json")
+    public Map<String, LatencyHistogram> retrieve() {
+        IFailoverLatencyService failoverLatency =
+                (IFailoverLatencyService)getContext().getAttributes().
+                    get(IFailoverLatencyService.class.getCanonicalName());
+
+        Map<String, LatencyHistogram> result = new HashMap<String, LatencyHistogram>();
+        for (Map.Entry<Stage, LatencyHistogram> entry : failoverLatency.getHistograms().entrySet()) {
+            result.put(entry.getKey().toString(), entry.getValue());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,19 @@
+package net.floodlightcontroller.failovermon;
+
+import org.restlet.data.Status;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+public class FailoverLatencyResetResource extends ServerResource {
+
+    @Get("json")
+    public String retrieve() {
+        IFailoverLatencyService failoverLatency =
+                (IFailoverLatencyService)getContext().getAttributes().
+                    get(IFailoverLatencyService.class.getCanonicalName());
+
+        failoverLatency.reset();
+        setStatus(Status.SUCCESS_OK, "OK");
+        return "{ \"reset\" : true }";
+    }
+}
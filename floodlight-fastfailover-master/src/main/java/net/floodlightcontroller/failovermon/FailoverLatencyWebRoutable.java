@@ -0,0 +1,23 @@
+package net.floodlightcontroller.failovermon;
+
+import org.restlet.Context;
+import org.restlet.Restlet;
+import org.restlet.routing.Router;
+
+import net.floodlightcontroller.restserver.RestletRoutable;
+
+public class FailoverLatencyWebRoutable implements RestletRoutable {
+
+    @Override
+    public Restlet getRestlet(Context context) {
+        Router router = new Router(context);
+        router.attach("/data/json", FailoverLatencyDataResource.class);
+        router.attach("/reset/json", FailoverLatencyResetResource.class);
+        return router;
+    }
+
+    @Override
+    public String basePath() {
+        return "/wm/failover-latency";
+    }
+}
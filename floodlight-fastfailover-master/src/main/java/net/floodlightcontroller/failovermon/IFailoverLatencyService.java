@@ -0,0 +1,64 @@
+package net.floodlightcontroller.failovermon;
+
+import java.util.Map;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+import net.floodlightcontroller.core.module.IFloodlightService;
+
+/**
+ * Measures how long the controller takes to react to a port going down.
+ * A failover event starts when the switch reports the port down; each
+ * {@link Stage} of the reaction is timed from there, once per event, into
+ * a latency histogram of its own.
+ */
+public interface IFailoverLatencyService extends IFloodlightService {
+
+    /**
+     * The steps of the controller's reaction to a failure, in the order
+     * they normally happen.
+     */
+    public enum Stage {
+        /** Link discovery deleted a link attached to the port */
+        LINK_REMOVED("link-removed"),
+        /** Multipath routing dropped the cached routes over that link */
+        ROUTES_INVALIDATED("routes-invalidated"),
+        /** The flow dispatcher re-protected the flows that crossed that link */
+        FLOWS_REPROGRAMMED("flows-reprogrammed");
+
+        private final String name;
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Start a failover event for a switch port that went down. A port
+     * already part of an event in progress keeps its original start time.
+     */
+    public void recordPortDown(DatapathId sw, OFPort port);
+
+    /**
+     * Record a stage of the reaction to a link going away, for the events
+     * in progress at either end of the link.
+     */
+    public void recordReaction(Stage stage, DatapathId src, OFPort srcPort,
+            DatapathId dst, OFPort dstPort);
+
+    /**
+     * @return the latencies measured so far, by stage
+     */
+    public Map<Stage, LatencyHistogram> getHistograms();
+
+    /**
+     * Clear the histograms and forget the events in progress.
+     */
+    public void reset();
+}
@@ -0,0 +1,111 @@
+package net.floodlightcontroller.failovermon;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Latencies counted into fixed buckets, finer around the tens of
+ * milliseconds a fast failover is expected to take.
+ */
+@JsonSerialize(using=LatencyHistogramJSONSerializer.class)
+public class LatencyHistogram {
+    /* Upper bound of each bucket in microseconds; one more bucket holds the rest */
+    protected static final long[] BUCKET_BOUNDS_US = {
+        100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+        100000, 250000, 500000, 1000000
+    };
+
+    private final long[] counts = new long[BUCKET_BOUNDS_US.length + 1];
+    private long count;
+    private long totalNs;
+    private long minNs;
+    private long maxNs;
+
+    public synchronized void add(long latencyNs) {
+        long us = TimeUnit.NANOSECONDS.toMicros(latencyNs);
+        int i = 0;
+        while (i < BUCKET_BOUNDS_US.length && us > BUCKET_BOUNDS_US[i]) {
+            i++;
+        }
+        counts[i]++;
+        if (count == 0 || latencyNs < minNs) {
+            minNs = latencyNs;
+        }
+        if (latencyNs > maxNs) {
+            maxNs = latencyNs;
+        }
+        count++;
+        totalNs += latencyNs;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        totalNs = 0;
+        minNs = 0;
+        maxNs = 0;
+    }
+
+    /**
+     * @return a copy that won't change as latencies are added
+     */
+    public synchronized LatencyHistogram copy() {
+        LatencyHistogram h = new LatencyHistogram();
+        System.arraycopy(counts, 0, h.counts, 0, counts.length);
+        h.count = count;
+        h.totalNs = totalNs;
+        h.minNs = minNs;
+        h.maxNs = maxNs;
+        return h;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMinNs() {
+        return minNs;
+    }
+
+    public synchronized long getMaxNs() {
+        return maxNs;
+    }
+
+    public synchronized long getAverageNs() {
+        return count == 0 ? 0 : totalNs / count;
+    }
+
+    /**
+     * @return the number of latencies in each bucket, the last one holding
+     * those above the highest bound
+     */
+    public synchronized long[] getBucketCounts() {
+        return counts.clone();
+    }
+
+    public static long[] getBucketBoundsUs() {
+        return BUCKET_BOUNDS_US.clone();
+    }
+
+    /**
+     * @param fraction between 0 and 1, e.g. 0.99
+     * @return an upper bound on the given fraction of the latencies, as
+     * precise as the buckets allow, or 0 if there are none
+     */
+    public synchronized long getPercentileNs(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_US.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(TimeUnit.MICROSECONDS.toNanos(BUCKET_BOUNDS_US[i]), maxNs);
+            }
+        }
+        return maxNs;
+    }
+}
@@ -0,0 +1,43 @@
+package net.floodlightcontroller.failovermon;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+public class LatencyHistogramJSONSerializer
+                                extends JsonSerializer<LatencyHistogram> {
+    /**
+     * Latencies in microseconds, buckets keyed by their upper bound
+     */
+    @Override
+    public void serialize(LatencyHistogram h,
+                    JsonGenerator jGen,
+                    SerializerProvider serializer)
+                    throws IOException, JsonProcessingException {
+        h = h.copy();
+        jGen.writeStartObject();
+        jGen.writeNumberField("count", h.getCount());
+        jGen.writeNumberField("min-us", h.getMinNs() / 1000);
+        jGen.writeNumberField("max-us", h.getMaxNs() / 1000);
+        jGen.writeNumberField("average-us", h.getAverageNs() / 1000);
+        jGen.writeNumberField("p50-us", h.getPercentileNs(0.5) / 1000);
+        jGen.writeNumberField("p99-us", h.getPercentileNs(0.99) / 1000);
+        jGen.writeObjectFieldStart("buckets");
+        long[] bounds = LatencyHistogram.getBucketBoundsUs();
+        long[] counts = h.getBucketCounts();
+        for (int i = 0; i < bounds.length; i++) {
+            jGen.writeNumberField("<=" + bounds[i], counts[i]);
+        }
+        jGen.writeNumberField(">" + bounds[bounds.length - 1], counts[bounds.length]);
+        jGen.writeEndObject();
+        jGen.writeEndObject();
+    }
+
+    @Override
+    public Class<LatencyHistogram> handledType() {
+        return LatencyHistogram.class;
+    }
+}
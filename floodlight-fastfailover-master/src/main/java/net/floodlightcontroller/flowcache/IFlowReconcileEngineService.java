@@ -37,7 +37,7 @@ public interface IFlowReconcileEngineService extends IFloodlightService {
      * FloodlightContext information about flowCache.
      */
     public static final FloodlightContextStore<String> fcStore =
-        new FloodlightContextStore<String>();
+        new FloodlightContextStore<String>(IFlowReconcileEngineService.FLOWRECONCILE_APP_INSTANCE_NAME);
     public static final String FLOWRECONCILE_APP_INSTANCE_NAME = "net.floodlightcontroller.flowcache.appInstanceName";
     /**
      * Submit a network flow query with query parameters specified in ReconcileQueryObj
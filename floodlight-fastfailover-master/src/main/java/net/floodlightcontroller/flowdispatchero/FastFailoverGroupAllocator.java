@@ -0,0 +1,324 @@
+package net.floodlightcontroller.flowdispatchero;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFGroup;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out fast-failover group IDs on a per-switch basis.
+ *
+ * A fast-failover group is identified by the switch it lives on and the
+ * primary and backup ports its two buckets watch. Every protected flow that
+ * leaves a switch over the same pair of next-hops therefore shares a single
+ * group, no matter how many host pairs ride on it. Groups are reference
+ * counted: {@link #acquire} takes a reference and tells the caller whether
+ * the group still has to be pushed to the switch, and {@link #release}
+ * drops it and tells the caller when the group can be deleted. IDs freed on
+ * a switch are recycled before new ones are minted.
+ *
+ * This class is thread-safe.
+ */
+public class FastFailoverGroupAllocator {
+	private static final Logger log = LoggerFactory.getLogger(FastFailoverGroupAllocator.class);
+
+	/* Group 0 is what buckets use to say "no watch group", so never hand it out */
+	protected static final long MIN_GROUP_ID = 1;
+	/* Group numbers are unsigned 32-bit on the wire */
+	protected static final long MAX_GROUP_ID = OFGroup.MAX.getGroupNumber() & 0xffffffffL;
+
+	/**
+	 * A fast-failover group as handed out by the allocator. Two instances
+	 * are equal if they refer to the same group on the same switch; the
+	 * {@link #isNew()} flag only describes the acquire call that returned it.
+	 */
+	public static class FailoverGroup {
+		private final DatapathId switchId;
+		private final OFPort primaryPort;
+		private final OFPort backupPort;
+		private final OFGroup group;
+		private final boolean isNew;
+
+		protected FailoverGroup(DatapathId switchId, OFPort primaryPort, OFPort backupPort,
+				OFGroup group, boolean isNew) {
+			this.switchId = switchId;
+			this.primaryPort = primaryPort;
+			this.backupPort = backupPort;
+			this.group = group;
+			this.isNew = isNew;
+		}
+
+		public DatapathId getSwitchId() {
+			return switchId;
+		}
+
+		public OFPort getPrimaryPort() {
+			return primaryPort;
+		}
+
+		public OFPort getBackupPort() {
+			return backupPort;
+		}
+
+		public OFGroup getGroup() {
+			return group;
+		}
+
+		/**
+		 * @return true if the acquire that returned this group allocated it,
+		 * i.e. the group does not exist on the switch yet and must be added
+		 */
+		public boolean isNew() {
+			return isNew;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + switchId.hashCode();
+			result = prime * result + primaryPort.hashCode();
+			result = prime * result + backupPort.hashCode();
+			result = prime * result + group.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			FailoverGroup other = (FailoverGroup) obj;
+			return switchId.equals(other.switchId)
+					&& primaryPort.equals(other.primaryPort)
+					&& backupPort.equals(other.backupPort)
+					&& group.equals(other.group);
+		}
+
+		@Override
+		public String toString() {
+			return "FailoverGroup [switch=" + switchId.toString()
+					+ ", group=" + group.toString()
+					+ ", primary=" + primaryPort.toString()
+					+ ", backup=" + backupPort.toString() + "]";
+		}
+	}
+
+	/*
+	 * Identity of a group on a switch: the ports watched by its two buckets.
+	 */
+	private static class PortPair {
+		private final OFPort primary;
+		private final OFPort backup;
+
+		PortPair(OFPort primary, OFPort backup) {
+			this.primary = primary;
+			this.backup = backup;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * primary.hashCode() + backup.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof PortPair))
+				return false;
+			PortPair other = (PortPair) obj;
+			return primary.equals(other.primary) && backup.equals(other.backup);
+		}
+	}
+
+	private static class GroupEntry {
+		private final OFGroup group;
+		private int refCount;
+
+		GroupEntry(OFGroup group) {
+			this.group = group;
+			this.refCount = 0;
+		}
+	}
+
+	/*
+	 * Allocation state for a single switch.
+	 */
+	private static class SwitchGroups {
+		private final Map<PortPair, GroupEntry> groups = new HashMap<PortPair, GroupEntry>();
+		private final Deque<Integer> freeIds = new ArrayDeque<Integer>();
+		private long nextId = MIN_GROUP_ID;
+
+		/* Returns -1 if the switch's group ID space is exhausted. IDs above
+		 * 2^31 come back negative; they are only ever handed to OFGroup.of() */
+		int nextGroupId() {
+			if (!freeIds.isEmpty()) {
+				return freeIds.pop();
+			}
+			if (nextId > MAX_GROUP_ID) {
+				return -1;
+			}
+			return (int) nextId++;
+		}
+	}
+
+	private final Map<DatapathId, SwitchGroups> switches = new HashMap<DatapathId, SwitchGroups>();
+
+	/**
+	 * Take a reference on the fast-failover group that watches the given
+	 * primary and backup ports on a switch, allocating a fresh group ID if no
+	 * such group exists yet.
+	 * @param switchId the switch the group is installed on
+	 * @param primaryPort the port watched and used by the first bucket
+	 * @param backupPort the port watched and used by the second bucket
+	 * @return the group, with {@link FailoverGroup#isNew()} set if the caller
+	 * must push it to the switch; null if the switch has no group IDs left
+	 */
+	public synchronized FailoverGroup acquire(DatapathId switchId, OFPort primaryPort, OFPort backupPort) {
+		SwitchGroups sg = switches.get(switchId);
+		if (sg == null) {
+			sg = new SwitchGroups();
+			switches.put(switchId, sg);
+		}
+
+		PortPair key = new PortPair(primaryPort, backupPort);
+		GroupEntry entry = sg.groups.get(key);
+		boolean isNew = false;
+		if (entry == null) {
+			int id = sg.nextGroupId();
+			if (id == -1) {
+				log.error("Out of fast-failover group IDs on switch {}", switchId);
+				return null;
+			}
+			entry = new GroupEntry(OFGroup.of(id));
+			sg.groups.put(key, entry);
+			isNew = true;
+		}
+		entry.refCount++;
+
+		return new FailoverGroup(switchId, primaryPort, backupPort, entry.group, isNew);
+	}
+
+	/**
+	 * Drop a reference previously taken with {@link #acquire}. Releasing a
+	 * group that is not (or no longer) known to the allocator is a no-op.
+	 * @param fg the group to release
+	 * @return true if this was the last reference and the group should now
+	 * be deleted from the switch
+	 */
+	public synchronized boolean release(FailoverGroup fg) {
+		SwitchGroups sg = switches.get(fg.getSwitchId());
+		if (sg == null) {
+			return false;
+		}
+
+		PortPair key = new PortPair(fg.getPrimaryPort(), fg.getBackupPort());
+		GroupEntry entry = sg.groups.get(key);
+		if (entry == null || !entry.group.equals(fg.getGroup())) {
+			return false;
+		}
+
+		if (--entry.refCount > 0) {
+			return false;
+		}
+
+		sg.groups.remove(key);
+		sg.freeIds.push(entry.group.getGroupNumber());
+		if (sg.groups.isEmpty()) {
+			switches.remove(fg.getSwitchId());
+		}
+		return true;
+	}
+
+	/**
+	 * @param fg a group returned by {@link #acquire}
+	 * @return the number of references held on the group, 0 if it is not
+	 * (or no longer) known to the allocator
+	 */
+	public synchronized int getUsers(FailoverGroup fg) {
+		GroupEntry entry = getEntry(fg);
+		return entry == null ? 0 : entry.refCount;
+	}
+
+	/**
+	 * Make a group watch another pair of ports, keeping its ID and the
+	 * references held on it, e.g. because its buckets are about to be
+	 * rewritten in place.
+	 * @param fg the group to move
+	 * @param primaryPort the port the first bucket will watch and use
+	 * @param backupPort the port the second bucket will watch and use
+	 * @return the moved group; null if the switch already has a group for
+	 * the new ports or fg is not known to the allocator
+	 */
+	public synchronized FailoverGroup reassign(FailoverGroup fg, OFPort primaryPort, OFPort backupPort) {
+		GroupEntry entry = getEntry(fg);
+		PortPair key = new PortPair(primaryPort, backupPort);
+		if (entry == null) {
+			return null;
+		}
+		SwitchGroups sg = switches.get(fg.getSwitchId());
+		if (sg.groups.containsKey(key)) {
+			return null;
+		}
+		sg.groups.remove(new PortPair(fg.getPrimaryPort(), fg.getBackupPort()));
+		sg.groups.put(key, entry);
+		return new FailoverGroup(fg.getSwitchId(), primaryPort, backupPort, entry.group, false);
+	}
+
+	private GroupEntry getEntry(FailoverGroup fg) {
+		SwitchGroups sg = switches.get(fg.getSwitchId());
+		if (sg == null) {
+			return null;
+		}
+		GroupEntry entry = sg.groups.get(new PortPair(fg.getPrimaryPort(), fg.getBackupPort()));
+		if (entry == null || !entry.group.equals(fg.getGroup())) {
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Forget every group allocated on a switch, e.g. because it disconnected
+	 * and its group table is gone.
+	 * @param switchId the switch to forget
+	 */
+	public synchronized void releaseSwitch(DatapathId switchId) {
+		switches.remove(switchId);
+	}
+
+	/**
+	 * @param switchId the switch to query
+	 * @return the number of distinct fast-failover groups in use on the switch
+	 */
+	public synchronized int getGroupCount(DatapathId switchId) {
+		SwitchGroups sg = switches.get(switchId);
+		return sg == null ? 0 : sg.groups.size();
+	}
+
+	/**
+	 * @param switchId the switch to query
+	 * @return the set of group IDs currently allocated on the switch
+	 */
+	public synchronized Set<OFGroup> getGroups(DatapathId switchId) {
+		Set<OFGroup> result = new HashSet<OFGroup>();
+		SwitchGroups sg = switches.get(switchId);
+		if (sg != null) {
+			for (GroupEntry entry : sg.groups.values()) {
+				result.add(entry.group);
+			}
+		}
+		return result;
+	}
+}
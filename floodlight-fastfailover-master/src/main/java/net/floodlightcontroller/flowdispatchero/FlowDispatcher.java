@@ -1,29 +1,34 @@
 package net.floodlightcontroller.flowdispatchero;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.projectfloodlight.openflow.protocol.OFBarrierReply;
-import org.projectfloodlight.openflow.protocol.OFBarrierRequest;
 import org.projectfloodlight.openflow.protocol.OFBucket;
 import org.projectfloodlight.openflow.protocol.OFFlowAdd;
 import org.projectfloodlight.openflow.protocol.OFFlowDelete;
+import org.projectfloodlight.openflow.protocol.OFFlowModFlags;
+import org.projectfloodlight.openflow.protocol.OFFlowModifyStrict;
+import org.projectfloodlight.openflow.protocol.OFFlowRemoved;
 import org.projectfloodlight.openflow.protocol.OFGroupAdd;
 import org.projectfloodlight.openflow.protocol.OFGroupDelete;
+import org.projectfloodlight.openflow.protocol.OFGroupModify;
 import org.projectfloodlight.openflow.protocol.OFGroupType;
+import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFPortConfig;
 import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFPortMod;
+import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.protocol.match.Match;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
 
 import org.projectfloodlight.openflow.protocol.ver10.OFPortConfigSerializerVer10;
@@ -32,15 +37,19 @@ import org.projectfloodlight.openflow.protocol.ver12.OFPortConfigSerializerVer12
 import org.projectfloodlight.openflow.protocol.ver13.OFPortConfigSerializerVer13;
 import org.projectfloodlight.openflow.protocol.ver14.OFPortConfigSerializerVer14;
 import org.projectfloodlight.openflow.types.DatapathId;
-import org.projectfloodlight.openflow.types.EthType;
 import org.projectfloodlight.openflow.types.OFGroup;
 import org.projectfloodlight.openflow.types.OFPort;
 import org.projectfloodlight.openflow.types.U64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import net.floodlightcontroller.routing.*;
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitchListener;
 import net.floodlightcontroller.core.PortChangeType;
@@ -49,25 +58,50 @@ import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.core.util.AppCookie;
+import net.floodlightcontroller.failovermon.IFailoverLatencyService;
+import net.floodlightcontroller.flowdispatchero.FastFailoverGroupAllocator.FailoverGroup;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.UpdateOperation;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
+import net.floodlightcontroller.multipathrouting.IMultiPathRoutingService;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.util.FlowModUtils;
+import net.floodlightcontroller.util.MatchUtils;
 import net.floodlightcontroller.topology.*;
 
 
-public class FlowDispatcher implements IFloodlightModule, IOFSwitchListener, IFlowDispatcherService {
+public class FlowDispatcher implements IFloodlightModule, IOFSwitchListener, IOFMessageListener, ITopologyListener, IFlowDispatcherService {
+	private static final Logger log = LoggerFactory.getLogger(FlowDispatcher.class);
+
 	/*
 	 * The pre-defined services that we use.
 	 */
 	private static IOFSwitchService switchService;
 	private static IRestApiService restApiService;
 	private static ILinkDiscoveryService linkDiscoveryService;
+	private static IFloodlightProviderService floodlightProviderService;
+	private static IMultiPathRoutingService multipathService;
+	private static ITopologyService topologyService;
+	private static IFailoverLatencyService failoverLatency;
 
 	
 	/*
-	 * To more easily identify our flows, we will use a cookie.
+	 * To more easily identify our flows, we will use a cookie. Every flow
+	 * gets one of its own, so its rules can be told apart from those of the
+	 * other flows crossing the same switches and be removed together.
+	 */
+	public static final int FLOWDISPATCHER_APP_ID = 11;
+	static {
+		AppCookie.registerApp(FLOWDISPATCHER_APP_ID, "FlowDispatcher");
+	}
+	private static final AtomicInteger nextFlowCookie = new AtomicInteger();
+
+	/*
+	 * The rules that take traffic in from the hosts expire once their flow
+	 * has been idle this long (seconds); the rest of the flow goes with them.
 	 */
-	private static final U64 cookie = U64.ofRaw(0x11223344);
+	private static int FLOW_IDLE_TIMEOUT = 5;
 
 		/*
 	 * Maintain an active Map of all the switches we care about and whether or not they
@@ -77,6 +111,48 @@ public class FlowDispatcher implements IFloodlightModule, IOFSwitchListener, IFl
 	private static Map<DatapathId, Boolean> switchConnected;
 	private static boolean allSwitchesConnected;
 
+	/*
+	 * Fast-failover group IDs are shared by every protected flow that leaves
+	 * a switch over the same primary/backup pair of ports.
+	 */
+	private static FastFailoverGroupAllocator groupAllocator;
+
+	/*
+	 * The flows we have rules for, by the match of their first packet and by
+	 * cookie, and how many of them run between each pair of attachment
+	 * points. A flow's rules and groups are released when the flow is
+	 * re-pushed, when it ends or when one of its switches goes away.
+	 */
+	private static Map<Match, InstalledFlow> installedFlows;
+	private static Map<U64, InstalledFlow> flowsByCookie;
+	private static Map<List<NodePortTuple>, Integer> routeUsers;
+
+	private static class InstalledFlow {
+		final Match match;
+		final Match reverseMatch;
+		final U64 cookie;
+		final List<NodePortTuple> endpoints;
+		final Set<DatapathId> switches = new HashSet<DatapathId>();
+		/* The paths the flow takes; a flow without a backup is unprotected */
+		List<NodePortTuple> primary;
+		List<NodePortTuple> backup;
+		/* The groups at the source and destination switches of a protected flow */
+		List<FailoverGroup> groups = Collections.emptyList();
+		/* rules at the host ports that have not expired yet */
+		int entryRules = 0;
+
+		InstalledFlow(Match match, List<NodePortTuple> path) {
+			/* As seen at the source host's port, wherever the packet was punted from */
+			this.match = MatchUtils.createRetentiveBuilder(match)
+					.setExact(MatchField.IN_PORT, path.get(0).getPortId())
+					.build();
+			this.reverseMatch = MatchUtils.createReverse(this.match);
+			this.cookie = AppCookie.makeCookie(FLOWDISPATCHER_APP_ID, nextFlowCookie.incrementAndGet());
+			this.endpoints = Arrays.asList(path.get(0), path.get(path.size() - 1));
+			this.primary = path;
+		}
+	}
+
 	@Override
 	public Collection<Class<? extends IFloodlightService>> getModuleServices() {
 		/*
@@ -115,6 +191,9 @@ public class FlowDispatcher implements IFloodlightModule, IOFSwitchListener, IFl
 		deps.add(IOFSwitchService.class);
 		deps.add(IRestApiService.class);
 		deps.add(ILinkDiscoveryService.class);
+		deps.add(IFloodlightProviderService.class);
+		deps.add(IMultiPathRoutingService.class);
+		deps.add(ITopologyService.class);
 		return deps;
 	}
 
@@ -131,6 +210,23 @@ public class FlowDispatcher implements IFloodlightModule, IOFSwitchListener, IFl
 		switchService = context.getServiceImpl(IOFSwitchService.class);
 		restApiService = context.getServiceImpl(IRestApiService.class);
 		linkDiscoveryService = context.getServiceImpl(ILinkDiscoveryService.class);
+		floodlightProviderService = context.getServiceImpl(IFloodlightProviderService.class);
+		multipathService = context.getServiceImpl(IMultiPathRoutingService.class);
+		topologyService = context.getServiceImpl(ITopologyService.class);
+		/* Optional, times our part in recovering from failures when loaded */
+		failoverLatency = context.getServiceImpl(IFailoverLatencyService.class);
+
+		groupAllocator = new FastFailoverGroupAllocator();
+		installedFlows = new HashMap<Match, InstalledFlow>();
+		flowsByCookie = new HashMap<U64, InstalledFlow>();
+		routeUsers = new HashMap<List<NodePortTuple>, Integer>();
+
+		Map<String, String> configParameters = context.getConfigParams(this);
+		String tmp = configParameters.get("idle-timeout");
+		if (tmp != null) {
+			FLOW_IDLE_TIMEOUT = Integer.parseInt(tmp);
+		}
+		log.info("Flows expire after {} seconds idle", FLOW_IDLE_TIMEOUT);
 
 		/*
 		 * Note, at this point, it still is not safe to call any functions defined
@@ -151,7 +247,10 @@ public class FlowDispatcher implements IFloodlightModule, IOFSwitchListener, IFl
 		 * IOFSwitchService will call when a switch event occurs (e.g. switchAdded).
 		 */
 		switchService.addOFSwitchListener(this);
-
+		/* Expiring entry rules tell us when a flow has ended */
+		floodlightProviderService.addOFMessageListener(OFType.FLOW_REMOVED, this);
+		/* Failed links leave protected flows to be given a new backup */
+		topologyService.addListener(this);
 
 	}
 
@@ -160,13 +259,21 @@ public class FlowDispatcher implements IFloodlightModule, IOFSwitchListener, IFl
 
 	}
 
-	//@Override
+	@Override
 	public void switchRemoved(DatapathId switchId) {
 		/*
-		 * Set the switch as disconnected and remove all
-		 * associated links. The port might change if/when
-		 * the switch comes back up.
-		*/
+		 * The switch's group table is gone with it. Drop the flows that had
+		 * rules there, along with their rules and groups elsewhere, and
+		 * forget the group IDs allocated on this one.
+		 */
+		synchronized (installedFlows) {
+			for (InstalledFlow flow : new ArrayList<InstalledFlow>(installedFlows.values())) {
+				if (flow.switches.contains(switchId)) {
+					removeFlow(flow);
+				}
+			}
+			groupAllocator.releaseSwitch(switchId);
+		}
 	}
 
 	@Override
@@ -207,429 +314,646 @@ public class FlowDispatcher implements IFloodlightModule, IOFSwitchListener, IFl
 	
 	
 	@Override
-	public Map<String, String>pushRoutes(Route r1, Route r2, boolean isQos, boolean isIPv4){
-		Map<String, String> message = new HashMap<String, String>();
-		boolean isInserted  = false;
+	public ListenableFuture<Boolean> pushRoutes(Route r1, Route r2, Match match, boolean isQos, boolean isIPv4) {
 		Route main_route = r1;
 		Route backup_route = r2;
+		if (main_route == null) {
+			return Futures.immediateFuture(false);
+		}
 		List<NodePortTuple> path_main = main_route.getPath();
-		
-		
-	if(!isIPv4){
+		InstalledFlow flow = new InstalledFlow(match, path_main);
+		FlowInstallTransaction tx = new FlowInstallTransaction();
+
+		if (!isIPv4) {
 			// Non IPv4 packet, probably an ARP.
-			System.out.println("------------Log----------- Inserting one time flow for non IPv4 packet.");
-			if(main_route != null)
-				insertArpFlow(path_main);
-			} 
-	else{
-	
-	//Route backup_route = r2;
-		
-	DatapathId src_main = main_route.getId().getSrc();
-	//System.out.println("----------LOG-----------main_route src"+ src_main.toString());
-	DatapathId dst_main = main_route.getId().getDst();
-	//System.out.println("----------LOG-----------main_route dst"+ dst_main.toString());
-	
-	//List<NodePortTuple> path_main = main_route.getPath();
-	//System.out.println("----------LOG-----------main_path"+ path_main.toString());
-	
-	if (isQos == true && backup_route != null) {
-		DatapathId src_backup = backup_route.getId().getSrc();
-		//System.out.println("----------LOG-----------backup_route src"+ src_backup.toString());
-		DatapathId dst_backup = backup_route.getId().getDst();
-		//System.out.println("----------LOG-----------backup_route dst"+ dst_backup.toString());
-		List<NodePortTuple> path_backup = backup_route.getPath();
-		//System.out.println("----------LOG-----------backup_path"+ path_backup.toString());
-		
-		ArrayList<NodePortTuple> start_bucket= new ArrayList<NodePortTuple>();
-		start_bucket.add(path_main.get(0));
-		start_bucket.add(path_main.get(1));
-		start_bucket.add(path_backup.get(1));
-		
-		//System.out.println("----------LOG-----------start_bucket"+ start_bucket.toString());		
-		
-		ArrayList<NodePortTuple> end_bucket = new ArrayList<NodePortTuple>();
-		end_bucket.add(path_main.get(path_main.size()-1));
-		end_bucket.add(path_main.get(path_main.size()-2));
-		end_bucket.add(path_backup.get(path_backup.size()-2));
-		
-		//System.out.println("----------LOG-----------end_bucket"+ end_bucket.toString());
-		
-	
+			log.debug("Inserting one time flow for non IPv4 packet");
+			if (!insertFlows(tx, flow, path_main, false)) {
+				return Futures.immediateFuture(false);
+			}
+			return install(tx, flow, null, null);
+		}
+
+		if (isQos && backup_route != null) {
+			DatapathId src_main = main_route.getId().getSrc();
+			DatapathId dst_main = main_route.getId().getDst();
+			List<NodePortTuple> path_backup = backup_route.getPath();
+
 			//Check main route and backup route have same source and destination switch
-		if(src_main == src_backup && dst_main==dst_backup){
-		 				
-					insertFlows(path_main, true);
-					insertFlows(path_backup, true);
-				
-					isInserted=insertGroups(start_bucket);
-		 				//System.out.println("Start_bucket has been inserted ");
-		 				//sendBarrier();
-		 			if(isInserted)
-		 				isInserted=insertGroups(end_bucket);
-		 			//System.out.println("end_bucket has been inserted ");
-		 			//insertFlows(path_main, true);
-		 			//insertFlows(path_backup, true);
-		 			if(isInserted)
-		 			message.put("FlowInsert","True");
-				}
-			else
-				System.out.println("source and destination doesn't match");
-		
+			if (!src_main.equals(backup_route.getId().getSrc()) || !dst_main.equals(backup_route.getId().getDst())) {
+				log.warn("Main route {} and backup route {} don't connect the same switches", main_route, backup_route);
+				return Futures.immediateFuture(false);
+			}
+
+			ArrayList<NodePortTuple> start_bucket = new ArrayList<NodePortTuple>();
+			start_bucket.add(path_main.get(0));
+			start_bucket.add(path_main.get(1));
+			start_bucket.add(path_backup.get(1));
+
+			ArrayList<NodePortTuple> end_bucket = new ArrayList<NodePortTuple>();
+			end_bucket.add(path_main.get(path_main.size()-1));
+			end_bucket.add(path_main.get(path_main.size()-2));
+			end_bucket.add(path_backup.get(path_backup.size()-2));
+
+			if (!insertFlows(tx, flow, path_main, true) || !insertFlows(tx, flow, path_backup, true)) {
+				return Futures.immediateFuture(false);
+			}
+			flow.backup = path_backup;
+			return install(tx, flow, start_bucket, end_bucket);
+		}
 
-	} else {
 		// Not QoS or No Backup Route.
-		System.out.println("------------Log----------- No bakcup route for isQoS="+ isQos);
-		if(main_route != null)
-			insertFlows(path_main,false);
+		log.debug("No backup route for isQoS={}", isQos);
+		if (!insertFlows(tx, flow, path_main, false)) {
+			return Futures.immediateFuture(false);
 		}
-	
+		return install(tx, flow, null, null);
+	}
+
+	/**
+	 * Take the fast-failover groups a protected flow needs at its ingress and
+	 * egress switches, if any, add them and the rules that point at them to
+	 * the transaction and commit it. Whatever the flow had installed before
+	 * is removed once the transaction completes; if it fails, so is what it
+	 * managed to install.
+	 * @param tx the transaction holding the rules of the flow's paths
+	 * @param flow the flow
+	 * @param start_bucket ingress port, primary and backup next-hop ports at
+	 * the source switch, or null for an unprotected flow
+	 * @param end_bucket egress port, primary and backup next-hop ports at
+	 * the destination switch, or null for an unprotected flow
+	 * @return the result of the commit; false if the groups could not be allocated
+	 */
+	private ListenableFuture<Boolean> install(FlowInstallTransaction tx, final InstalledFlow flow,
+			ArrayList<NodePortTuple> start_bucket, ArrayList<NodePortTuple> end_bucket) {
+		final InstalledFlow previous;
+		ListenableFuture<Boolean> result;
+		synchronized (installedFlows) {
+			if (start_bucket != null) {
+				List<FailoverGroup> acquired = new ArrayList<FailoverGroup>(2);
+				/* Traffic from the source leaves through the first group, traffic from the destination through the second */
+				Match[][] matches = { { flow.match, flow.reverseMatch }, { flow.reverseMatch, flow.match } };
+				int i = 0;
+				for (ArrayList<NodePortTuple> S : Arrays.asList(start_bucket, end_bucket)) {
+					FailoverGroup fg = groupAllocator.acquire(S.get(0).getNodeId(), S.get(1).getPortId(), S.get(2).getPortId());
+					if (fg == null || !insertGroups(tx, flow, S, fg, matches[i][0], matches[i][1])) {
+						if (fg != null) {
+							acquired.add(fg);
+						}
+						// Nothing has been sent yet, so there is nothing to delete either
+						for (FailoverGroup taken : acquired) {
+							groupAllocator.release(taken);
+						}
+						return Futures.immediateFuture(false);
+					}
+					acquired.add(fg);
+					i++;
+				}
+				flow.groups = acquired;
+			}
+			previous = installedFlows.put(flow.match, flow);
+			flowsByCookie.put(flow.cookie, flow);
+			Integer users = routeUsers.get(flow.endpoints);
+			routeUsers.put(flow.endpoints, users == null ? 1 : users + 1);
+			result = tx.commit(switchService);
 		}
 
-		return message;
+		/*
+		 * Remove the old rules and groups only after the new entry rules are
+		 * in place, so a group shared by the old and new paths is never deleted
+		 * in between and packets never hit a deleted group. Rules the new flow
+		 * shares with the old one were overwritten and carry the new cookie.
+		 */
+		final ListenableFuture<Boolean> installed = result;
+		result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				boolean success = Futures.getUnchecked(installed);
+				synchronized (installedFlows) {
+					if (previous != null) {
+						removeFlow(previous);
+					}
+					if (!success) {
+						removeFlow(flow);
+					}
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
+		return result;
 	}
-	
 
-	
-private boolean insertGroups(ArrayList<NodePortTuple> S){
-	System.out.println("Entering InsertGroups");
-			boolean pushed =false;
-			DatapathId swId = S.get(0).getNodeId();
-			IOFSwitch curr_sw = switchService.getSwitch(swId);
-			OFFlowDelete flowDelete = curr_sw.getOFFactory().buildFlowDelete()
-					.setCookie(cookie)
+	/**
+	 * Delete every rule of a flow and give back its groups. Must be called
+	 * with installedFlows held.
+	 */
+	private void removeFlow(InstalledFlow flow) {
+		if (flowsByCookie.remove(flow.cookie) == null) {
+			return;
+		}
+		if (installedFlows.get(flow.match) == flow) {
+			installedFlows.remove(flow.match);
+		}
+		for (DatapathId swId : flow.switches) {
+			IOFSwitch sw = switchService.getSwitch(swId);
+			if (sw == null) {
+				continue;
+			}
+			OFFlowDelete flowDelete = sw.getOFFactory().buildFlowDelete()
+					.setCookie(flow.cookie)
 					.setCookieMask(U64.NO_MASK)
 					.build();
-			curr_sw.write(flowDelete);
+			sw.write(flowDelete);
+		}
+		for (FailoverGroup fg : flow.groups) {
+			releaseGroup(fg);
+		}
 
-			OFGroupDelete groupDelete = curr_sw.getOFFactory().buildGroupDelete()
-					.setGroup(OFGroup.ANY)
-					.setGroupType(OFGroupType.FF)
-					.build();
-			curr_sw.write(groupDelete);
+		/* The route is only worth caching while flows are using it */
+		Integer users = routeUsers.remove(flow.endpoints);
+		if (users != null && users > 1) {
+			routeUsers.put(flow.endpoints, users - 1);
+		} else {
+			NodePortTuple src = flow.endpoints.get(0);
+			NodePortTuple dst = flow.endpoints.get(1);
+			multipathService.releaseRoute(src.getNodeId(), src.getPortId(), dst.getNodeId(), dst.getPortId());
+		}
+	}
 
-			//sendBarrier(curr_sw);
+	/**
+	 * Drop a reference on a fast-failover group and delete it from its
+	 * switch once nobody uses it anymore. Deleting the group also removes
+	 * any flow still pointing at it. Must be called with installedFlows
+	 * held, so the delete goes out before a recycled ID can be added again.
+	 */
+	private void releaseGroup(FailoverGroup fg) {
+		if (!groupAllocator.release(fg)) {
+			return;
+		}
+		IOFSwitch sw = switchService.getSwitch(fg.getSwitchId());
+		if (sw == null) {
+			return;
+		}
+		OFGroupDelete groupDelete = sw.getOFFactory().buildGroupDelete()
+				.setGroup(fg.getGroup())
+				.setGroupType(OFGroupType.FF)
+				.build();
+		sw.write(groupDelete);
+	}
 
-			/* Add the group: fast-failover watching ports leading to dpid2a and dpid2b */
-			ArrayList<OFBucket> buckets = new ArrayList<OFBucket>(2);
-			buckets.add(curr_sw.getOFFactory().buildBucket()
-					.setWatchPort(S.get(1).getPortId())
-					.setWatchGroup(OFGroup.ZERO)
-					.setActions(Collections.singletonList((OFAction) curr_sw.getOFFactory().actions().buildOutput()
-							.setMaxLen(0xffFFffFF)
-							.setPort(S.get(1).getPortId())
-							.build()))
-							.build());
-							
-			buckets.add(curr_sw.getOFFactory().buildBucket()
-					.setWatchPort(S.get(2).getPortId())
+	/**
+	 * @return the stage a flow matching inPort on a switch belongs in: flows
+	 * that take traffic in from the hosts at either end of the path go last
+	 */
+	private static int stageOf(List<NodePortTuple> path, DatapathId swId, OFPort inPort) {
+		NodePortTuple in = new NodePortTuple(swId, inPort);
+		if (in.equals(path.get(0)) || in.equals(path.get(path.size() - 1))) {
+			return FlowInstallTransaction.STAGE_ENTRY;
+		}
+		return FlowInstallTransaction.STAGE_PATH;
+	}
+
+	/**
+	 * Add a rule of a flow to the transaction. The rules that take traffic in
+	 * from the hosts (those of the entry stage) expire once the flow has been
+	 * idle for a while and report it; the flow's other rules never expire on
+	 * their own, so a backup path stays in place however long it is unused,
+	 * and are removed along with them.
+	 * @param inPort the port the rule matches traffic coming in on
+	 * @param match the match of the direction of the flow the rule is for
+	 */
+	private static void addRule(FlowInstallTransaction tx, InstalledFlow flow, int stage, IOFSwitch sw,
+			OFPort inPort, Match match, OFAction action) {
+		OFFlowAdd.Builder fab = sw.getOFFactory().buildFlowAdd()
+				.setCookie(flow.cookie)
+				.setHardTimeout(0)
+				.setIdleTimeout(0)
+				.setPriority(FlowModUtils.PRIORITY_MAX)
+				.setMatch(ruleMatch(match, inPort))
+				.setActions(Collections.singletonList(action));
+		if (stage == FlowInstallTransaction.STAGE_ENTRY) {
+			fab.setIdleTimeout(FLOW_IDLE_TIMEOUT)
+			.setFlags(Collections.singleton(OFFlowModFlags.SEND_FLOW_REM));
+			flow.entryRules++;
+		}
+		tx.add(stage, sw.getId(), fab.build());
+		flow.switches.add(sw.getId());
+	}
+
+	private static Match ruleMatch(Match match, OFPort inPort) {
+		return MatchUtils.createRetentiveBuilder(match)
+				.setExact(MatchField.IN_PORT, inPort)
+				.build();
+	}
+
+	private static OFAction output(IOFSwitch sw, OFPort port) {
+		return sw.getOFFactory().actions().buildOutput()
+				.setMaxLen(0xffFFffFF)
+				.setPort(port)
+				.build();
+	}
+
+	/**
+	 * Add a fast-failover group at one end of a protected flow, and the
+	 * rules that send the flow into it and back to the host, to the transaction.
+	 * @param S the host port, primary and backup next-hop ports on the switch
+	 * @param outMatch the direction of the flow coming from the host
+	 * @param inMatch the direction of the flow going to the host
+	 */
+	private boolean insertGroups(FlowInstallTransaction tx, InstalledFlow flow, ArrayList<NodePortTuple> S,
+			FailoverGroup fg, Match outMatch, Match inMatch) {
+		DatapathId swId = S.get(0).getNodeId();
+		IOFSwitch curr_sw = switchService.getSwitch(swId);
+		if (curr_sw == null) {
+			log.warn("Switch {} disconnected, not installing group {}", swId, fg);
+			return false;
+		}
+
+		/* Add the group: fast-failover watching the primary and backup next-hop ports */
+		if (fg.isNew()) {
+			addGroup(tx, curr_sw, fg);
+		}
+
+		/* Traffic from the host goes into the group, once everything behind it is ready */
+		OFAction toGroup = curr_sw.getOFFactory().actions().buildGroup()
+				.setGroup(fg.getGroup())
+				.build();
+		addRule(tx, flow, FlowInstallTransaction.STAGE_ENTRY, curr_sw, S.get(0).getPortId(), outMatch, toGroup);
+
+		/* Traffic from either path goes to the host */
+		for (OFPort inPort : Arrays.asList(S.get(1).getPortId(), S.get(2).getPortId())) {
+			addRule(tx, flow, FlowInstallTransaction.STAGE_PATH, curr_sw, inPort, inMatch,
+					output(curr_sw, S.get(0).getPortId()));
+		}
+		return true;
+	}
+
+	/**
+	 * @return the buckets of a fast-failover group that watch and use the
+	 * primary and backup ports, in that order; only one if they are the same
+	 */
+	private static List<OFBucket> buckets(IOFSwitch sw, OFPort primaryPort, OFPort backupPort) {
+		List<OFBucket> buckets = new ArrayList<OFBucket>(2);
+		for (OFPort port : primaryPort.equals(backupPort) ?
+				Collections.singletonList(primaryPort) : Arrays.asList(primaryPort, backupPort)) {
+			buckets.add(sw.getOFFactory().buildBucket()
+					.setWatchPort(port)
 					.setWatchGroup(OFGroup.ZERO)
-					.setActions(Collections.singletonList((OFAction) curr_sw.getOFFactory().actions().buildOutput()
-							.setMaxLen(0xffFFffFF)
-							.setPort(S.get(2).getPortId())
-							.build()))
-							.build());
-							
-			OFGroupAdd groupAdd = curr_sw.getOFFactory().buildGroupAdd()
-					.setGroup(OFGroup.of(1))
-					.setGroupType(OFGroupType.FF)
-					.setBuckets(buckets)
-					.build();
-			curr_sw.write(groupAdd);
-			
-		
-			
-			/*OFFlowAdd flowAdd = curr_sw.getOFFactory().buildFlowAdd()
-					.setCookie(cookie)
-					.setHardTimeout(0)
-					.setIdleTimeout(0)
-					.setPriority(FlowModUtils.PRIORITY_MAX)
-					.setMatch(curr_sw.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.ARP)
-							.setExact(MatchField.IN_PORT, S.get(0).getPortId())
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_sw.getOFFactory().actions().buildGroup()
-									.setGroup(OFGroup.of(1))
-									.build()))
-									.build();
-
-			curr_sw.write(flowAdd);*/
-
-			OFFlowAdd flowAdd = curr_sw.getOFFactory().buildFlowAdd()
-					.setCookie(cookie)
-					.setHardTimeout(0)
-					.setIdleTimeout(0)
-					.setPriority(FlowModUtils.PRIORITY_MAX)
-					.setMatch(curr_sw.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.IPv4)
-							.setExact(MatchField.IN_PORT,  S.get(0).getPortId())
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_sw.getOFFactory().actions().buildGroup()
-							.setGroup(OFGroup.of(1))
-							.build()))
-							.build();
-			curr_sw.write(flowAdd);
-
-		
-			/*flowAdd = flowAdd.createBuilder()
-					.setMatch(curr_sw.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.ARP)
-							.setExact(MatchField.IN_PORT, S.get(1).getPortId())
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_sw.getOFFactory().actions().buildOutput()
-									.setMaxLen(0xffFFffFF)
-									.setPort( S.get(0).getPortId())
-									.build()))
-									.build();
-			curr_sw.write(flowAdd);*/
-
-			flowAdd = flowAdd.createBuilder()
-					.setMatch(curr_sw.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.IPv4)
-							.setExact(MatchField.IN_PORT, S.get(1).getPortId())
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_sw.getOFFactory().actions().buildOutput()
-							.setMaxLen(0xffFFffFF)
-							.setPort( S.get(0).getPortId())
-							.build()))
-							.build();
-			curr_sw.write(flowAdd);
-
-			
-			/*flowAdd = flowAdd.createBuilder()
-					.setMatch(curr_sw.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.ARP)
-							.setExact(MatchField.IN_PORT, S.get(2).getPortId())
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_sw.getOFFactory().actions().buildOutput()
-							.setMaxLen(0xffFFffFF)
-							.setPort( S.get(0).getPortId())
-							.build()))
-							.build();
-			curr_sw.write(flowAdd);*/
-
-			flowAdd = flowAdd.createBuilder()
-					.setMatch(curr_sw.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.IPv4)
-							.setExact(MatchField.IN_PORT, S.get(2).getPortId())
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_sw.getOFFactory().actions().buildOutput()
-							.setMaxLen(0xffFFffFF)
-							.setPort( S.get(0).getPortId())
-							.build()))
-							.build();
-			curr_sw.write(flowAdd);
+					.setActions(Collections.singletonList(output(sw, port)))
+					.build());
+		}
+		return buckets;
+	}
 
-			pushed = true;
-			
-			System.out.println("exit InsertGroups");
-			return pushed;
-}
-	
+	private static void addGroup(FlowInstallTransaction tx, IOFSwitch sw, FailoverGroup fg) {
+		OFGroupAdd groupAdd = sw.getOFFactory().buildGroupAdd()
+				.setGroup(fg.getGroup())
+				.setGroupType(OFGroupType.FF)
+				.setBuckets(buckets(sw, fg.getPrimaryPort(), fg.getBackupPort()))
+				.build();
+		tx.add(FlowInstallTransaction.STAGE_PATH, sw.getId(), groupAdd);
+	}
 
-	private boolean insertArpFlow(List<NodePortTuple> path){
-		int index;
-		boolean pushed = true;
-		HashMap<DatapathId,ArrayList<OFPort>> LinksById= new HashMap<DatapathId,ArrayList<OFPort>>();
-		for(index = 0; index< path.size();index+=2){
-			DatapathId curr_switch=path.get(index).getNodeId();
-			//System.out.println("DatapathId of current_switch:"+curr_switch.toString());
-			OFPort port1 = path.get(index).getPortId();
-			//System.out.println("Value of 1st port in link:"+port1.toString());
-			OFPort port2 = path.get(index+1).getPortId();
-			//System.out.println("Value of 2nd port in link:"+port2.toString());
-			ArrayList<OFPort> list_port= new ArrayList<OFPort>(2);
-			list_port.add(port1);
-			list_port.add(port2);
-			//System.out.println("Link is"+list_port.toString());
-			LinksById.put(curr_switch,list_port);
+	/*
+	 * Map every switch on a path to its [in, out] ports, in the direction
+	 * from the first to the last switch port of the path.
+	 */
+	private static Map<DatapathId, ArrayList<OFPort>> portsBySwitch(List<NodePortTuple> path) {
+		Map<DatapathId, ArrayList<OFPort>> LinksById = new LinkedHashMap<DatapathId, ArrayList<OFPort>>();
+		for (int index = 0; index < path.size(); index += 2) {
+			ArrayList<OFPort> list_port = new ArrayList<OFPort>(2);
+			list_port.add(path.get(index).getPortId());
+			list_port.add(path.get(index+1).getPortId());
+			LinksById.put(path.get(index).getNodeId(), list_port);
 		}
-	
-		for(DatapathId switch_temp : LinksById.keySet()){
+		return LinksById;
+	}
+
+	/**
+	 * Add the rules for both directions of a flow along a path to a transaction.
+	 * @param qos_value true for one path of a protected pair: the switches at
+	 * either end are left to insertGroups()
+	 * @return false if a switch on the path is not connected
+	 */
+	private boolean insertFlows(FlowInstallTransaction tx, InstalledFlow flow, List<NodePortTuple> path, boolean qos_value) {
+		Map<DatapathId, ArrayList<OFPort>> LinksById = portsBySwitch(path);
+		DatapathId first = path.get(0).getNodeId();
+		DatapathId last = path.get(path.size()-1).getNodeId();
+
+		for (Map.Entry<DatapathId, ArrayList<OFPort>> entry : LinksById.entrySet()) {
+			DatapathId switch_temp = entry.getKey();
+			boolean edge = switch_temp.equals(first) || switch_temp.equals(last);
+			if (edge && qos_value) {
+				continue;
+			}
 			IOFSwitch curr_switch = switchService.getSwitch(switch_temp);
-			//System.out.println(curr_switch.toString());
-			OFFlowDelete flowDelete = curr_switch.getOFFactory().buildFlowDelete()
-				.setCookie(cookie)
-				.setCookieMask(U64.NO_MASK)
-				.setMatch(curr_switch.getOFFactory().buildMatch().setExact(MatchField.ETH_TYPE, EthType.ARP).build())
-				.build();
-			curr_switch.write(flowDelete);
-		
-			OFFlowAdd flowAdd = curr_switch.getOFFactory().buildFlowAdd()
-				.setCookie(cookie)
-				.setHardTimeout(65535)
-				.setIdleTimeout(5)
-				.setPriority(FlowModUtils.PRIORITY_MAX)
-				.setMatch(curr_switch.getOFFactory().buildMatch()
-						.setExact(MatchField.ETH_TYPE, EthType.ARP)
-						.setExact(MatchField.IN_PORT, LinksById.get(curr_switch.getId()).get(0))
-						.build())
-						.setActions(Collections.singletonList((OFAction) curr_switch.getOFFactory().actions().buildOutput()
-								.setMaxLen(0xffFFffFF)
-								.setPort(LinksById.get(curr_switch.getId()).get(1))
-								.build()))
-								.build();
-			curr_switch.write(flowAdd);
-			System.out.println("[LOG]-----------Writing FlowAdd for ARP :"+curr_switch.toString());
-		
-			flowAdd = curr_switch.getOFFactory().buildFlowAdd()
-					.setCookie(cookie)
-					.setHardTimeout(65535)
-					.setIdleTimeout(1)
-					.setPriority(FlowModUtils.PRIORITY_MAX)
-					.setMatch(curr_switch.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.ARP)
-							.setExact(MatchField.IN_PORT, LinksById.get(curr_switch.getId()).get(1))
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_switch.getOFFactory().actions().buildOutput()
-									.setMaxLen(0xffFFffFF)
-									.setPort(LinksById.get(curr_switch.getId()).get(0))
-									.build()))
-									.build();
-				curr_switch.write(flowAdd);
-			System.out.println("[LOG]-----------Writing FlowAdd for ARP :"+curr_switch.toString());
-		}
-		
-	return pushed;
+			if (curr_switch == null) {
+				log.warn("Switch {} disconnected, not installing flows", switch_temp);
+				return false;
+			}
+
+			ArrayList<OFPort> ports = entry.getValue();
+			addRule(tx, flow, stageOf(path, switch_temp, ports.get(0)), curr_switch,
+					ports.get(0), flow.match, output(curr_switch, ports.get(1)));
+			addRule(tx, flow, stageOf(path, switch_temp, ports.get(1)), curr_switch,
+					ports.get(1), flow.reverseMatch, output(curr_switch, ports.get(0)));
+		}
+		return true;
 	}
 
-	
-	private boolean insertFlows(List<NodePortTuple> path, boolean qos_value){
-		int index;
-		boolean pushed =true;
-		HashMap<DatapathId,ArrayList<OFPort>> LinksById= new HashMap<DatapathId,ArrayList<OFPort>>();
-		for(index = 0; index< path.size();index+=2){
-				DatapathId curr_switch=path.get(index).getNodeId();
-				//System.out.println("DatapathId of current_switch:"+curr_switch.toString());
-				OFPort port1 = path.get(index).getPortId();
-				//System.out.println("Value of 1st port in link:"+port1.toString());
-				OFPort port2 = path.get(index+1).getPortId();
-				//System.out.println("Value of 2nd port in link:"+port2.toString());
-				ArrayList<OFPort> list_port= new ArrayList<OFPort>(2);
-				list_port.add(port1);
-				list_port.add(port2);
-				//System.out.println("Link is"+list_port.toString());
-				LinksById.put(curr_switch,list_port);
-		}
-		
-		for(DatapathId switch_temp : LinksById.keySet())
-		{
-		if(switch_temp == path.get(0).getNodeId() || switch_temp == path.get(path.size()-1).getNodeId()){
-			if(!qos_value){
-					IOFSwitch curr_switch = switchService.getSwitch(switch_temp);
-					OFFlowDelete flowDelete = curr_switch.getOFFactory().buildFlowDelete()
-					.setCookie(cookie)
-					.setCookieMask(U64.NO_MASK)
-					.setMatch(curr_switch.getOFFactory().buildMatch().setExact(MatchField.ETH_TYPE, EthType.IPv4).build())
-					.build();
-			curr_switch.write(flowDelete);
+	//
+	// ITopologyListener
+	//
 
-			//sendBarrier(curr_switch);
+	@Override
+	public void topologyChanged(List<LDUpdate> linkUpdates) {
+		Set<List<NodePortTuple>> removed = new HashSet<List<NodePortTuple>>();
+		for (LDUpdate update : linkUpdates) {
+			if (update.getOperation() == UpdateOperation.LINK_REMOVED) {
+				NodePortTuple src = new NodePortTuple(update.getSrc(), update.getSrcPort());
+				NodePortTuple dst = new NodePortTuple(update.getDst(), update.getDstPort());
+				removed.add(Arrays.asList(src, dst));
+				removed.add(Arrays.asList(dst, src));
+			}
+		}
+		if (!removed.isEmpty()) {
+			reprotect(removed);
+		}
+	}
 
-			OFFlowAdd flowAdd = curr_switch.getOFFactory().buildFlowAdd()
-					.setCookie(cookie)
-					.setHardTimeout(5)
-					.setIdleTimeout(5)
-					.setPriority(FlowModUtils.PRIORITY_MAX)
-					.setMatch(curr_switch.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.IPv4)
-							.setExact(MatchField.IN_PORT, LinksById.get(curr_switch.getId()).get(0))
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_switch.getOFFactory().actions().buildOutput()
-									.setMaxLen(0xffFFffFF)
-									.setPort(LinksById.get(curr_switch.getId()).get(1))
-									.build()))
-							.build();
-			System.out.println("[LOG]-----------Writing FlowAdd for:"+curr_switch.toString());
-			curr_switch.write(flowAdd);
-			
-			 flowAdd = curr_switch.getOFFactory().buildFlowAdd()
-					.setCookie(cookie)
-					.setHardTimeout(5)
-					.setIdleTimeout(5)
-					.setPriority(FlowModUtils.PRIORITY_MAX)
-					.setMatch(curr_switch.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.IPv4)
-							.setExact(MatchField.IN_PORT, LinksById.get(curr_switch.getId()).get(1))
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_switch.getOFFactory().actions().buildOutput()
-									.setMaxLen(0xffFFffFF)
-									.setPort(LinksById.get(curr_switch.getId()).get(0))
-									.build()))
-							.build();
-			System.out.println("[LOG]-----------Writing FlowAdd for:"+curr_switch.toString());
-			curr_switch.write(flowAdd);
-
-					
-						}
+	/*
+	 * A flow leaving the group it uses at one end of its paths for the group
+	 * watching a new pair of ports.
+	 */
+	private static class GroupMove {
+		final InstalledFlow flow;
+		/* 0 at the source switch, 1 at the destination switch */
+		final int end;
+		final OFPort primaryPort;
+		final OFPort backupPort;
+
+		GroupMove(InstalledFlow flow, int end, OFPort primaryPort, OFPort backupPort) {
+			this.flow = flow;
+			this.end = end;
+			this.primaryPort = primaryPort;
+			this.backupPort = backupPort;
+		}
+	}
+
+	/**
+	 * @param links switch port pairs, in both directions
+	 * @return the first of the links the path crosses, or null if none
+	 */
+	private static List<NodePortTuple> traverses(List<NodePortTuple> path, Set<List<NodePortTuple>> links) {
+		for (int i = 1; i + 2 < path.size(); i += 2) {
+			List<NodePortTuple> link = Arrays.asList(path.get(i), path.get(i + 1));
+			if (links.contains(link)) {
+				return link;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isConnected(List<NodePortTuple> path) {
+		for (NodePortTuple npt : path) {
+			if (switchService.getSwitch(npt.getNodeId()) == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Protect again the flows that lost their primary or backup path to
+	 * failed links. Once its group has failed over, a flow runs unprotected
+	 * on what is left, so that becomes its primary and it gets a new backup
+	 * next to it. Only the groups at either end of the flow change; the
+	 * rules of the new backup path go out first. Everything goes out in a
+	 * single transaction, batched per switch however many flows moved.
+	 * Flows that lost both paths are removed, to be routed afresh.
+	 */
+	private void reprotect(Set<List<NodePortTuple>> removed) {
+		FlowInstallTransaction tx = new FlowInstallTransaction();
+		/* Flows leaving a group, by the group they leave */
+		Map<FailoverGroup, List<GroupMove>> moves = new HashMap<FailoverGroup, List<GroupMove>>();
+		/* Backups by the switch-to-switch part of the path they protect */
+		Map<List<NodePortTuple>, List<NodePortTuple>> backups = new HashMap<List<NodePortTuple>, List<NodePortTuple>>();
+		final List<InstalledFlow> reprotected = new ArrayList<InstalledFlow>();
+		/* The failed links the reprotected flows crossed */
+		final Set<List<NodePortTuple>> crossed = new HashSet<List<NodePortTuple>>();
+		final List<FailoverGroup> left = new ArrayList<FailoverGroup>();
+		ListenableFuture<Boolean> result;
+
+		synchronized (installedFlows) {
+			for (InstalledFlow flow : new ArrayList<InstalledFlow>(installedFlows.values())) {
+				if (flow.backup == null) {
+					continue;
 				}
-			else if(switch_temp != path.get(0).getNodeId() && switch_temp != path.get(path.size()-1).getNodeId()){
-							IOFSwitch curr_switch = switchService.getSwitch(switch_temp);
-							System.out.println("[LOG]-----------Current switch value is:"+curr_switch.toString());
-								OFFlowDelete flowDelete = curr_switch.getOFFactory().buildFlowDelete()
-					.setCookie(cookie)
-					.setCookieMask(U64.NO_MASK)
-					.setMatch(curr_switch.getOFFactory().buildMatch().setExact(MatchField.ETH_TYPE, EthType.IPv4).build())
-					.build();
-			curr_switch.write(flowDelete);
-
-		
-			/* ARP and IPv4 from sw2a to sw3 */
-			OFFlowAdd flowAdd = curr_switch.getOFFactory().buildFlowAdd()
-					.setCookie(cookie)
-					.setHardTimeout(0)
-					.setIdleTimeout(5)
-					.setPriority(FlowModUtils.PRIORITY_MAX)
-					.setMatch(curr_switch.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.IPv4)
-							.setExact(MatchField.IN_PORT, LinksById.get(curr_switch.getId()).get(0))
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_switch.getOFFactory().actions().buildOutput()
-									.setMaxLen(0xffFFffFF)
-									.setPort(LinksById.get(curr_switch.getId()).get(1))
-									.build()))
-									.build();
-			System.out.println("[LOG]-----------Writing FlowAdd for:"+curr_switch.toString());
-			curr_switch.write(flowAdd);
-
-		    flowAdd = curr_switch.getOFFactory().buildFlowAdd()
-					.setCookie(cookie)
-					.setHardTimeout(0)
-					.setIdleTimeout(5)
-					.setPriority(FlowModUtils.PRIORITY_MAX)
-					.setMatch(curr_switch.getOFFactory().buildMatch()
-							.setExact(MatchField.ETH_TYPE, EthType.IPv4)
-							.setExact(MatchField.IN_PORT, LinksById.get(curr_switch.getId()).get(1))
-							.build())
-							.setActions(Collections.singletonList((OFAction) curr_switch.getOFFactory().actions().buildOutput()
-									.setMaxLen(0xffFFffFF)
-									.setPort(LinksById.get(curr_switch.getId()).get(0))
-									.build()))
-									.build();
-		    System.out.println("[LOG]-----------Writing FlowAdd for:"+curr_switch.toString());
-			curr_switch.write(flowAdd);
+				List<NodePortTuple> primaryLink = traverses(flow.primary, removed);
+				List<NodePortTuple> backupLink = traverses(flow.backup, removed);
+				boolean primaryLost = primaryLink != null;
+				boolean backupLost = backupLink != null;
+				if (!primaryLost && !backupLost) {
+					continue;
+				}
+				if (primaryLost && backupLost) {
+					log.info("Both paths of flow {} failed, removing it", flow.match);
+					removeFlow(flow);
+					continue;
+				}
+
+				List<NodePortTuple> survivor = primaryLost ? flow.backup : flow.primary;
+				List<NodePortTuple> trunk = survivor.subList(1, survivor.size() - 1);
+				if (!backups.containsKey(trunk)) {
+					NodePortTuple first = survivor.get(0);
+					NodePortTuple last = survivor.get(survivor.size() - 1);
+					Route route = multipathService.getBackupRoute(
+							new Route(new RouteId(first.getNodeId(), last.getNodeId()), survivor));
+					List<NodePortTuple> backupTrunk = null;
+					if (route != null && isConnected(route.getPath())) {
+						backupTrunk = route.getPath().subList(1, route.getPath().size() - 1);
+					}
+					backups.put(trunk, backupTrunk);
+				}
+				List<NodePortTuple> backup = null;
+				if (backups.get(trunk) != null) {
+					backup = new ArrayList<NodePortTuple>(backups.get(trunk));
+					backup.add(0, survivor.get(0));
+					backup.add(survivor.get(survivor.size() - 1));
+					insertFlows(tx, flow, backup, true);
+				} else {
+					log.warn("No new backup for flow {}, it stays unprotected", flow.match);
 				}
-		
-		
+				flow.primary = survivor;
+				flow.backup = backup;
+				reprotected.add(flow);
+				crossed.add(primaryLost ? primaryLink : backupLink);
+
+				/* Without a backup, the group is left with the primary bucket */
+				List<NodePortTuple> other = backup == null ? survivor : backup;
+				OFPort[][] ports = {
+						{ survivor.get(1).getPortId(), other.get(1).getPortId() },
+						{ survivor.get(survivor.size() - 2).getPortId(), other.get(other.size() - 2).getPortId() } };
+				for (int end = 0; end < 2; end++) {
+					FailoverGroup fg = flow.groups.get(end);
+					if (fg.getPrimaryPort().equals(ports[end][0]) && fg.getBackupPort().equals(ports[end][1])) {
+						continue;
+					}
+					List<GroupMove> l = moves.get(fg);
+					if (l == null) {
+						l = new ArrayList<GroupMove>();
+						moves.put(fg, l);
+					}
+					l.add(new GroupMove(flow, end, ports[end][0], ports[end][1]));
+				}
+			}
+
+			for (Map.Entry<FailoverGroup, List<GroupMove>> entry : moves.entrySet()) {
+				moveGroup(tx, entry.getKey(), entry.getValue(), left);
+			}
+			if (!reprotected.isEmpty()) {
+				log.info("Reprotecting {} flows with {} messages", reprotected.size(), tx.getMessageCount());
+			}
+			result = tx.commit(switchService);
 		}
-	
-	return pushed;
+
+		/* The groups flows have left can go once nothing points at them anymore */
+		final ListenableFuture<Boolean> installed = result;
+		result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				boolean success = Futures.getUnchecked(installed);
+				if (success && failoverLatency != null) {
+					for (List<NodePortTuple> link : crossed) {
+						failoverLatency.recordReaction(IFailoverLatencyService.Stage.FLOWS_REPROGRAMMED,
+								link.get(0).getNodeId(), link.get(0).getPortId(),
+								link.get(1).getNodeId(), link.get(1).getPortId());
+					}
+				}
+				synchronized (installedFlows) {
+					for (FailoverGroup fg : left) {
+						releaseGroup(fg);
+					}
+					if (!success) {
+						for (InstalledFlow flow : reprotected) {
+							removeFlow(flow);
+						}
+					}
+				}
+			}
+		}, MoreExecutors.sameThreadExecutor());
 	}
-	
-	
-	private void sendBarrier(IOFSwitch sw) {
-		OFBarrierRequest barrierRequest = sw.getOFFactory().buildBarrierRequest()
-				.build();
-		ListenableFuture<OFBarrierReply> future = sw.writeRequest(barrierRequest);
-		try {
-			future.get(1, TimeUnit.SECONDS); /* If successful, we can discard the reply. */
-		} catch (InterruptedException | ExecutionException
-				| TimeoutException e) {
-			//log.error("Switch {} doesn't support barrier messages? OVS should.", sw.toString());
+
+	/**
+	 * Move the flows leaving a group to the groups for their new ports. If
+	 * they are all of the group's users and agree on the new ports, only the
+	 * group's buckets are rewritten. Otherwise each flow's entry rule is
+	 * pointed at the group for its new ports, and the old group is added to
+	 * left, to be released once that is done. Must be called with
+	 * installedFlows held.
+	 */
+	private void moveGroup(FlowInstallTransaction tx, FailoverGroup fg, List<GroupMove> moves,
+			List<FailoverGroup> left) {
+		IOFSwitch sw = switchService.getSwitch(fg.getSwitchId());
+		if (sw == null) {
+			// Its flows go with it in switchRemoved()
+			return;
 		}
+
+		GroupMove first = moves.get(0);
+		boolean agree = true;
+		for (GroupMove m : moves) {
+			agree &= m.primaryPort.equals(first.primaryPort) && m.backupPort.equals(first.backupPort);
+		}
+		if (agree && moves.size() == groupAllocator.getUsers(fg)) {
+			FailoverGroup moved = groupAllocator.reassign(fg, first.primaryPort, first.backupPort);
+			if (moved != null) {
+				OFGroupModify groupModify = sw.getOFFactory().buildGroupModify()
+						.setGroup(moved.getGroup())
+						.setGroupType(OFGroupType.FF)
+						.setBuckets(buckets(sw, moved.getPrimaryPort(), moved.getBackupPort()))
+						.build();
+				tx.add(FlowInstallTransaction.STAGE_ENTRY, sw.getId(), groupModify);
+				for (GroupMove m : moves) {
+					m.flow.groups.set(m.end, moved);
+				}
+				return;
+			}
+		}
+
+		for (GroupMove m : moves) {
+			FailoverGroup to = groupAllocator.acquire(sw.getId(), m.primaryPort, m.backupPort);
+			if (to == null) {
+				log.warn("Flow {} keeps group {}", m.flow.match, fg);
+				continue;
+			}
+			if (to.isNew()) {
+				addGroup(tx, sw, to);
+			}
+			NodePortTuple host = m.flow.endpoints.get(m.end);
+			OFFlowModifyStrict flowModify = sw.getOFFactory().buildFlowModifyStrict()
+					.setPriority(FlowModUtils.PRIORITY_MAX)
+					.setMatch(ruleMatch(m.end == 0 ? m.flow.match : m.flow.reverseMatch, host.getPortId()))
+					.setActions(Collections.singletonList((OFAction) sw.getOFFactory().actions().buildGroup()
+							.setGroup(to.getGroup())
+							.build()))
+					.build();
+			tx.add(FlowInstallTransaction.STAGE_ENTRY, sw.getId(), flowModify);
+			m.flow.groups.set(m.end, to);
+			left.add(fg);
+		}
+	}
+
+	//
+	// IOFMessageListener
+	//
+
+	@Override
+	public String getName() {
+		return FlowDispatcher.class.getSimpleName();
+	}
+
+	@Override
+	public boolean isCallbackOrderingPrereq(OFType type, String name) {
+		return false;
 	}
 
+	@Override
+	public boolean isCallbackOrderingPostreq(OFType type, String name) {
+		return false;
+	}
 
+	@Override
+	public Command receive(IOFSwitch sw, OFMessage msg, FloodlightContext cntx) {
+		if (msg.getType() == OFType.FLOW_REMOVED) {
+			processFlowRemovedMessage(sw, (OFFlowRemoved) msg);
+		}
+		return Command.CONTINUE;
+	}
+
+	/**
+	 * An entry rule of one of our flows has expired or been deleted. Once
+	 * the flow has stopped in both directions, remove the rest of it.
+	 */
+	private void processFlowRemovedMessage(IOFSwitch sw, OFFlowRemoved flowRemovedMessage) {
+		U64 flowCookie = flowRemovedMessage.getCookie();
+		if (AppCookie.extractApp(flowCookie) != FLOWDISPATCHER_APP_ID) {
+			return;
+		}
+		synchronized (installedFlows) {
+			InstalledFlow flow = flowsByCookie.get(flowCookie);
+			if (flow == null) {
+				// Removed by us, or by an earlier notification
+				return;
+			}
+			if (--flow.entryRules > 0) {
+				return;
+			}
+			if (log.isDebugEnabled()) {
+				log.debug("Flow {} has ended ({} on {}), removing it",
+						new Object[] { flow.match, flowRemovedMessage.getReason(), sw.getId() });
+			}
+			removeFlow(flow);
+		}
+	}
 
 	private long portDown(IOFSwitch sw) {
 		long config = 0;
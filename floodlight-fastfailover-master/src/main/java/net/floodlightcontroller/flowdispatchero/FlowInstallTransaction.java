@@ -0,0 +1,184 @@
+package net.floodlightcontroller.flowdispatchero;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.projectfloodlight.openflow.protocol.OFBarrierReply;
+import org.projectfloodlight.openflow.protocol.OFBarrierRequest;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
+
+/**
+ * Collects the flow and group mods that install a set of routes and pushes
+ * them to the switches in fenced stages.
+ *
+ * Every message is added to a stage. On {@link #commit}, the messages of a
+ * stage are written to each switch as a single batch followed by a barrier,
+ * all switches of the stage in parallel. The next stage only starts once
+ * every switch has answered the barriers of the previous one.
+ *
+ * Routes use two stages: {@link #STAGE_PATH} for everything that cannot
+ * carry traffic on its own (transit flows, groups, flows towards hosts) and
+ * {@link #STAGE_ENTRY} for the flows that take traffic in from the hosts.
+ * A packet can therefore never enter a path whose downstream rules are not
+ * in place yet, at the cost of two round trips rather than one per hop.
+ *
+ * A barrier reply only says that the switch has processed the batch; mods
+ * it rejected are reported asynchronously as OFErrorMsgs. A switch that
+ * does not answer a barrier in time fails the transaction like one that
+ * disconnected.
+ *
+ * Not thread-safe; build and commit a transaction from one thread.
+ */
+public class FlowInstallTransaction {
+	private static final Logger log = LoggerFactory.getLogger(FlowInstallTransaction.class);
+
+	public static final int STAGE_PATH = 0;
+	public static final int STAGE_ENTRY = 1;
+
+	/* How long a switch may take to answer a barrier by default */
+	public static final long DEFAULT_BARRIER_TIMEOUT_MS = 5000;
+
+	/* stage -> switch -> messages, in the order they were added */
+	private final TreeMap<Integer, Map<DatapathId, List<OFMessage>>> stages =
+			new TreeMap<Integer, Map<DatapathId, List<OFMessage>>>();
+	private int messageCount = 0;
+	private boolean committed = false;
+	private long barrierTimeoutMs = DEFAULT_BARRIER_TIMEOUT_MS;
+
+	/**
+	 * Queue a message for a switch.
+	 * @param stage the stage to send the message in, see {@link #STAGE_PATH}
+	 * and {@link #STAGE_ENTRY}
+	 * @param switchId the switch to send the message to
+	 * @param m the message
+	 */
+	public void add(int stage, DatapathId switchId, OFMessage m) {
+		if (committed) {
+			throw new IllegalStateException("Transaction already committed");
+		}
+		Map<DatapathId, List<OFMessage>> batches = stages.get(stage);
+		if (batches == null) {
+			batches = new LinkedHashMap<DatapathId, List<OFMessage>>();
+			stages.put(stage, batches);
+		}
+		List<OFMessage> batch = batches.get(switchId);
+		if (batch == null) {
+			batch = new ArrayList<OFMessage>();
+			batches.put(switchId, batch);
+		}
+		batch.add(m);
+		messageCount++;
+	}
+
+	/**
+	 * @return true if the transaction has a message for the switch in any stage
+	 */
+	public boolean contains(DatapathId switchId) {
+		for (Map<DatapathId, List<OFMessage>> batches : stages.values()) {
+			if (batches.containsKey(switchId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the switches the transaction writes to in a stage
+	 */
+	public Set<DatapathId> getSwitches(int stage) {
+		Map<DatapathId, List<OFMessage>> batches = stages.get(stage);
+		return batches == null ? Collections.<DatapathId>emptySet() : batches.keySet();
+	}
+
+	public int getMessageCount() {
+		return messageCount;
+	}
+
+	public boolean isEmpty() {
+		return messageCount == 0;
+	}
+
+	/**
+	 * Send the transaction, stage by stage, with the default barrier timeout.
+	 * @see #commit(IOFSwitchService, long)
+	 */
+	public ListenableFuture<Boolean> commit(IOFSwitchService switchService) {
+		return commit(switchService, DEFAULT_BARRIER_TIMEOUT_MS);
+	}
+
+	/**
+	 * Send the transaction, stage by stage.
+	 * @param switchService used to look up the switches
+	 * @param barrierTimeoutMs how long each switch may take to answer the
+	 * barrier of a stage
+	 * @return a future that is set to true once every switch has answered
+	 * the barrier of the last stage, or to false as soon as a switch turns
+	 * out to be disconnected, fails a barrier or does not answer it in
+	 * time; later stages are not sent in that case
+	 */
+	public ListenableFuture<Boolean> commit(IOFSwitchService switchService, long barrierTimeoutMs) {
+		if (committed) {
+			throw new IllegalStateException("Transaction already committed");
+		}
+		if (barrierTimeoutMs <= 0) {
+			throw new IllegalArgumentException("Barrier timeout must be positive, not " + barrierTimeoutMs);
+		}
+		committed = true;
+		this.barrierTimeoutMs = barrierTimeoutMs;
+		SettableFuture<Boolean> result = SettableFuture.create();
+		commitStage(switchService, stages.values().iterator(), result);
+		return result;
+	}
+
+	private void commitStage(final IOFSwitchService switchService,
+			final Iterator<Map<DatapathId, List<OFMessage>>> remaining, final SettableFuture<Boolean> result) {
+		if (!remaining.hasNext()) {
+			result.set(true);
+			return;
+		}
+
+		List<ListenableFuture<OFBarrierReply>> barriers = new ArrayList<ListenableFuture<OFBarrierReply>>();
+		for (Map.Entry<DatapathId, List<OFMessage>> batch : remaining.next().entrySet()) {
+			IOFSwitch sw = switchService.getSwitch(batch.getKey());
+			if (sw == null) {
+				log.warn("Switch {} disconnected, aborting flow installation", batch.getKey());
+				result.set(false);
+				return;
+			}
+			OFBarrierRequest barrier = sw.getOFFactory().buildBarrierRequest().build();
+			sw.write(batch.getValue());
+			barriers.add(sw.writeRequest(barrier, barrierTimeoutMs, TimeUnit.MILLISECONDS));
+		}
+
+		Futures.addCallback(Futures.allAsList(barriers), new FutureCallback<List<OFBarrierReply>>() {
+			@Override
+			public void onSuccess(List<OFBarrierReply> replies) {
+				commitStage(switchService, remaining, result);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				log.warn("Barrier failed, aborting flow installation: {}", t.toString());
+				result.set(false);
+			}
+		});
+	}
+}
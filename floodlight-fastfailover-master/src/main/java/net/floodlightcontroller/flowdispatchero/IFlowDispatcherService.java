@@ -1,12 +1,28 @@
 package net.floodlightcontroller.flowdispatchero;
 
 
-import java.util.Map;
+import org.projectfloodlight.openflow.protocol.match.Match;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.routing.*;
 
 public interface IFlowDispatcherService extends IFloodlightService {
-	Map<String, String> pushRoutes(Route r1, Route r2, boolean isQos, boolean isIPv4);
-	
-	
+	/**
+	 * Install the rules (and, for a protected route pair, the fast-failover
+	 * groups) for both directions of a flow along a route. Nothing admits
+	 * traffic from the hosts before the rest of the path has been
+	 * acknowledged by its switches. The flow is removed again once it has
+	 * been idle in both directions.
+	 * @param r1 the route to install
+	 * @param r2 the backup route, only used if isQos
+	 * @param match the flow, as matched on a packet of it; the rules match
+	 * the same fields, on the ports of the route
+	 * @param isQos protect r1 with r2 using fast-failover groups
+	 * @param isIPv4 false for a non-IPv4 (ARP) flow, which is never protected
+	 * @return a future that is set to true once every switch has confirmed
+	 * the installation, or to false if it could not be completed
+	 */
+	ListenableFuture<Boolean> pushRoutes(Route r1, Route r2, Match match, boolean isQos, boolean isIPv4);
 }
@@ -23,6 +23,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -71,15 +73,37 @@ import org.projectfloodlight.openflow.types.OFVlanVidMatch;
 import org.projectfloodlight.openflow.types.U64;
 import org.projectfloodlight.openflow.types.VlanVid;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
 @LogMessageCategory("Flow Programming")
 public class Forwarding extends ForwardingBase implements IFloodlightModule {
 	protected static Logger log = LoggerFactory.getLogger(Forwarding.class);
     protected IMultiPathRoutingService  multipathService;
     protected IFlowDispatcherService flowdispatcherService;
 
+	/**
+	 * Route installations that have been started but not confirmed yet, keyed
+	 * by the match of the packet that triggered them. The packets of a burst
+	 * that reach the controller before the flows are in place wait for the
+	 * installation already under way instead of starting one each. An entry
+	 * is only removed once its installation has completed; the flow
+	 * dispatcher fails installations whose barriers go unanswered, so that
+	 * always happens.
+	 */
+	protected ConcurrentMap<Match, PendingInstall> pendingInstalls =
+			new ConcurrentHashMap<Match, PendingInstall>();
+
+	protected static class PendingInstall {
+		final SettableFuture<Boolean> future = SettableFuture.create();
+	}
+
 	@Override
 	@LogMessageDoc(level="ERROR",
 	message="Unexpected decision made for this packet-in={}",
@@ -214,100 +238,185 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
 				return;
 			}
 
-			// Install all the routes where both src and dst have attachment
-			// points.  Since the lists are stored in sorted order we can
-			// traverse the attachment points in O(m+n) time
-			SwitchPort[] srcDaps = srcDevice.getAttachmentPoints();
-			Arrays.sort(srcDaps, clusterIdComparator);
-			SwitchPort[] dstDaps = dstDevice.getAttachmentPoints();
-			Arrays.sort(dstDaps, clusterIdComparator);
-
-			int iSrcDaps = 0, iDstDaps = 0;
-
-			while ((iSrcDaps < srcDaps.length) && (iDstDaps < dstDaps.length)) {
-				SwitchPort srcDap = srcDaps[iSrcDaps];
-				SwitchPort dstDap = dstDaps[iDstDaps];
-
-				// srcCluster and dstCluster here cannot be null as
-				// every switch will be at least in its own L2 domain.
-				DatapathId srcCluster = topologyService.getL2DomainId(srcDap.getSwitchDPID());
-				DatapathId dstCluster = topologyService.getL2DomainId(dstDap.getSwitchDPID());
-
-				int srcVsDest = srcCluster.compareTo(dstCluster);
-				if (srcVsDest == 0) {
-					if (!srcDap.equals(dstDap)) {
-						// Added by Jie
-						// for debugging
-						Ethernet eth = IFloodlightProviderService.bcStore.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
-						if (eth.getEtherType() == EthType.IPv4) {
-							IPv4 ipv4 = (IPv4) eth.getPayload();
-							IPv4Address srcIPv4Ad = ipv4.getSourceAddress();
-							IPv4Address dstIPv4Ad = ipv4.getDestinationAddress();
-							IpProtocol type = ipv4.getProtocol();
-							short id = ipv4.getIdentification();
-							System.out.println("################IP Packet Details in PacketIn###################");
-							System.out.println("From "+srcIPv4Ad.toString()+" to "+dstIPv4Ad.toString());
-							System.out.println("Type of Payload: "+type.toString());
-							System.out.println(id);
-							System.out.println("#####################IP Packet Details Ends#####################");
-						}
+			Match m = createMatchFromPacket(sw, inPort, cntx);
+			PendingInstall install = new PendingInstall();
+			PendingInstall pending = pendingInstalls.putIfAbsent(m, install);
+			if (pending != null) {
+				if (log.isTraceEnabled()) {
+					log.trace("Routes for {} are being installed, holding packet-in {}", m, pi);
+				}
+				releasePacketAfter(pending.future, sw, pi);
+				return;
+			}
+
+			List<ListenableFuture<Boolean>> installs = new ArrayList<ListenableFuture<Boolean>>();
+			// Always complete the installation, even when a route cannot be
+			// pushed, or later packet-ins of the flow would wait on it forever
+			try {
+				// Install all the routes where both src and dst have attachment
+				// points.  Since the lists are stored in sorted order we can
+				// traverse the attachment points in O(m+n) time
+				SwitchPort[] srcDaps = srcDevice.getAttachmentPoints();
+				Arrays.sort(srcDaps, clusterIdComparator);
+				SwitchPort[] dstDaps = dstDevice.getAttachmentPoints();
+				Arrays.sort(dstDaps, clusterIdComparator);
+
+				int iSrcDaps = 0, iDstDaps = 0;
+
+				while ((iSrcDaps < srcDaps.length) && (iDstDaps < dstDaps.length)) {
+					SwitchPort srcDap = srcDaps[iSrcDaps];
+					SwitchPort dstDap = dstDaps[iDstDaps];
+
+					// srcCluster and dstCluster here cannot be null as
+					// every switch will be at least in its own L2 domain.
+					DatapathId srcCluster = topologyService.getL2DomainId(srcDap.getSwitchDPID());
+					DatapathId dstCluster = topologyService.getL2DomainId(dstDap.getSwitchDPID());
+
+					int srcVsDest = srcCluster.compareTo(dstCluster);
+					if (srcVsDest == 0) {
+						if (!srcDap.equals(dstDap)) {
+							// Added by Jie
+							// for debugging
+							Ethernet eth = IFloodlightProviderService.bcStore.get(cntx, IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+							if (eth.getEtherType() == EthType.IPv4) {
+								IPv4 ipv4 = (IPv4) eth.getPayload();
+								IPv4Address srcIPv4Ad = ipv4.getSourceAddress();
+								IPv4Address dstIPv4Ad = ipv4.getDestinationAddress();
+								IpProtocol type = ipv4.getProtocol();
+								short id = ipv4.getIdentification();
+								System.out.println("################IP Packet Details in PacketIn###################");
+								System.out.println("From "+srcIPv4Ad.toString()+" to "+dstIPv4Ad.toString());
+								System.out.println("Type of Payload: "+type.toString());
+								System.out.println(id);
+								System.out.println("#####################IP Packet Details Ends#####################");
+							}
 						
-						Route route = 
-								multipathService.getRoute(srcDap.getSwitchDPID(),
-                                                       srcDap.getPort(),
-                                                       dstDap.getSwitchDPID(),
-                                                       dstDap.getPort());
-						// Debugging, remove later
-						System.out.print(isQoS(cntx));
-						System.out.print("Route from "+srcDap.getSwitchDPID()+" to "+dstDap.getSwitchDPID()+".\n");
-						System.out.print("RouteInUse in Forwarding: "+route.toString()+".\n");
+							Route route = 
+									multipathService.getRoute(srcDap.getSwitchDPID(),
+	                                                       srcDap.getPort(),
+	                                                       dstDap.getSwitchDPID(),
+	                                                       dstDap.getPort());
+							if (route == null) {
+								// No path between the attachment points (yet)
+								log.debug("No route from {} to {}, skipping", srcDap, dstDap);
+								iSrcDaps++;
+								iDstDaps++;
+								continue;
+							}
+							// Debugging, remove later
+							System.out.print(isQoS(cntx));
+							System.out.print("Route from "+srcDap.getSwitchDPID()+" to "+dstDap.getSwitchDPID()+".\n");
+							System.out.print("RouteInUse in Forwarding: "+route.toString()+".\n");
 						
-                        Route backupRoute = null;
-                        if (isQoS(cntx) == true){
-                        	backupRoute = multipathService.getBackupRoute(route);
-                        	System.out.print("BackupRoute in Forwarding: "+backupRoute.toString()+".\n");
-                        }
-					    // End
+	                        Route backupRoute = null;
+	                        if (isQoS(cntx) == true){
+	                        	backupRoute = multipathService.getBackupRoute(route);
+	                        	log.debug("Backup route in Forwarding: {}", backupRoute);
+	                        }
+						    // End
 						
-	/*					Route route =
-								routingEngineService.getRoute(srcDap.getSwitchDPID(), 
-										srcDap.getPort(),
-										dstDap.getSwitchDPID(),
-										dstDap.getPort(), U64.of(0)); //cookie = 0, i.e., default route*/
-									/*	if (route != null) {
-											if (log.isTraceEnabled()) {
-												log.trace("pushRoute inPort={} route={} " +
-														"destination={}:{}",
-														new Object[] { inPort, route,
-														dstDap.getSwitchDPID(),
-														dstDap.getPort()});
-											}
-											U64 cookie = AppCookie.makeCookie(FORWARDING_APP_ID, 0);*/
-
-						//	Match m = createMatchFromPacket(sw, inPort, cntx);
-
-											/*pushRoute(route, routeMatch, pi, sw.getId(), cookie,
-													cntx, requestFlowRemovedNotifn, false,
-													OFFlowModCommand.ADD);*/
+		/*					Route route =
+									routingEngineService.getRoute(srcDap.getSwitchDPID(), 
+											srcDap.getPort(),
+											dstDap.getSwitchDPID(),
+											dstDap.getPort(), U64.of(0)); //cookie = 0, i.e., default route*/
+										/*	if (route != null) {
+												if (log.isTraceEnabled()) {
+													log.trace("pushRoute inPort={} route={} " +
+															"destination={}:{}",
+															new Object[] { inPort, route,
+															dstDap.getSwitchDPID(),
+															dstDap.getPort()});
+												}
+												U64 cookie = AppCookie.makeCookie(FORWARDING_APP_ID, 0);*/
+
+							//	Match m = createMatchFromPacket(sw, inPort, cntx);
+
+												/*pushRoute(route, routeMatch, pi, sw.getId(), cookie,
+														cntx, requestFlowRemovedNotifn, false,
+														OFFlowModCommand.ADD);*/
 											
-											Map<String, String> message=flowdispatcherService.pushRoutes(route, backupRoute, isQoS(cntx), isIPv4(cntx));
-											System.out.println(message);
-										}
+												installs.add(flowdispatcherService.pushRoutes(route, backupRoute, m, isQoS(cntx), isIPv4(cntx)));
+											}
 					
-					iSrcDaps++;
-					iDstDaps++;
-				} else if (srcVsDest < 0) {
-					iSrcDaps++;
-				} else {
-					iDstDaps++;
+						iSrcDaps++;
+						iDstDaps++;
+					} else if (srcVsDest < 0) {
+						iSrcDaps++;
+					} else {
+						iDstDaps++;
+					}
 				}
+			} finally {
+				completeInstall(m, install, installs);
 			}
+			releasePacketAfter(install.future, sw, pi);
 		} else {
 			// Flood since we don't know the dst device
 			doFlood(sw, pi, cntx);
 		}
 	}
 
+	/**
+	 * Complete a pending installation once every route it pushed has been
+	 * confirmed, and forget it so that the next packet-in of the flow, if
+	 * any, is handled afresh.
+	 * @param m the match the installation is registered under
+	 * @param install the pending installation
+	 * @param installs the route installations it is made of
+	 */
+	private void completeInstall(final Match m, final PendingInstall install,
+			List<ListenableFuture<Boolean>> installs) {
+		if (installs.isEmpty()) {
+			pendingInstalls.remove(m, install);
+			install.future.set(false);
+			return;
+		}
+		Futures.addCallback(Futures.allAsList(installs), new FutureCallback<List<Boolean>>() {
+			@Override
+			public void onSuccess(List<Boolean> installed) {
+				pendingInstalls.remove(m, install);
+				install.future.set(!installed.contains(Boolean.FALSE));
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				log.warn("Route installation for {} failed: {}", m, t.toString());
+				pendingInstalls.remove(m, install);
+				install.future.set(false);
+			}
+		});
+	}
+
+	/**
+	 * Send a packet that is waiting for a route installation back through the
+	 * flow table of its switch once every switch involved has confirmed the
+	 * new flows. Sending it any earlier races it against the installation.
+	 * The packet-in's context is not kept: it is reused for other packets
+	 * once the packet-in has been dispatched.
+	 * @param install the pending installation
+	 * @param sw the switch the packet-in came from
+	 * @param pi the packet-in
+	 */
+	protected void releasePacketAfter(ListenableFuture<Boolean> install, final IOFSwitch sw,
+			final OFPacketIn pi) {
+		Futures.addCallback(install, new FutureCallback<Boolean>() {
+			@Override
+			public void onSuccess(Boolean installed) {
+				if (!installed) {
+					log.debug("Route installation for {} failed, dropping packet", pi);
+					return;
+				}
+				pushPacket(sw, pi, true, OFPort.TABLE, null);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				log.warn("Route installation failed, dropping packet: {}", t.toString());
+			}
+		});
+	}
+
 	/**
 	 * Instead of using the Firewall's routing decision Match, which might be as general
 	 * as "in_port" and inadvertently Match packets erroneously, construct a more
@@ -420,16 +529,17 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
 		pob.setBufferId(OFBufferId.NO_BUFFER);
 		pob.setInPort(inPort);
 		pob.setData(pi.getData());
+		OFPacketOut po = pob.build();
 
 		try {
 			if (log.isTraceEnabled()) {
 				log.trace("Writing flood PacketOut switch={} packet-in={} packet-out={}",
-						new Object[] {sw, pi, pob.build()});
+						new Object[] {sw, pi, po});
 			}
-			messageDamper.write(sw, pob.build());
+			messageDamper.write(sw, po);
 		} catch (IOException e) {
 			log.error("Failure writing PacketOut switch={} packet-in={} packet-out={}",
-					new Object[] {sw, pi, pob.build()}, e);
+					new Object[] {sw, pi, po}, e);
 		}
 
 		return;
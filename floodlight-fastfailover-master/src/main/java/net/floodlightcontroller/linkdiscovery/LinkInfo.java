@@ -23,10 +23,27 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 
 public class LinkInfo {
 
+    /* The value of a time that is not set */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
     public LinkInfo(Date firstSeenTime,
                     Date lastLldpReceivedTime,
                     Date lastBddpReceivedTime) {
         super();
+        this.firstSeenTime = toMillis(firstSeenTime);
+        this.lastLldpReceivedTime = toMillis(lastLldpReceivedTime);
+        this.lastBddpReceivedTime = toMillis(lastBddpReceivedTime);
+    }
+
+    /**
+     * @param firstSeenTime when the link was first seen, in milliseconds
+     * @param lastLldpReceivedTime when a standard LLDP was last received
+     * over the link, in milliseconds, or {@link #NO_TIME}
+     * @param lastBddpReceivedTime likewise for a modified LLDP
+     */
+    public LinkInfo(long firstSeenTime,
+                    long lastLldpReceivedTime,
+                    long lastBddpReceivedTime) {
         this.firstSeenTime = firstSeenTime;
         this.lastLldpReceivedTime = lastLldpReceivedTime;
         this.lastBddpReceivedTime = lastBddpReceivedTime;
@@ -37,20 +54,21 @@ public class LinkInfo {
      * Serialization/Deserialization
      */
     public LinkInfo() {
-        this.firstSeenTime = null;
-        this.lastLldpReceivedTime = null;
-        this.lastBddpReceivedTime = null;
+        this.firstSeenTime = NO_TIME;
+        this.lastLldpReceivedTime = NO_TIME;
+        this.lastBddpReceivedTime = NO_TIME;
     }
 
     public LinkInfo(LinkInfo fromLinkInfo) {
-        this.firstSeenTime = fromLinkInfo.getFirstSeenTime();
-        this.lastLldpReceivedTime = fromLinkInfo.getUnicastValidTime();
-        this.lastBddpReceivedTime = fromLinkInfo.getMulticastValidTime();
+        this.firstSeenTime = fromLinkInfo.firstSeenTime;
+        this.lastLldpReceivedTime = fromLinkInfo.lastLldpReceivedTime;
+        this.lastBddpReceivedTime = fromLinkInfo.lastBddpReceivedTime;
     }
 
-    protected Date firstSeenTime;
-    protected Date lastLldpReceivedTime; /* Standard LLLDP received time */
-    protected Date lastBddpReceivedTime; /* Modified LLDP received time  */
+    /* Times in milliseconds, NO_TIME if not set */
+    protected long firstSeenTime;
+    protected long lastLldpReceivedTime; /* Standard LLLDP received time */
+    protected long lastBddpReceivedTime; /* Modified LLDP received time  */
 
     /** The port states stored here are topology's last knowledge of
      * the state of the port. This mostly mirrors the state
@@ -62,35 +80,70 @@ public class LinkInfo {
      * requires the new state to be written to storage.
      */
 
+    private static long toMillis(Date time) {
+        return (time == null) ? NO_TIME : time.getTime();
+    }
+
+    private static Date toDate(long time) {
+        return (time == NO_TIME) ? null : new Date(time);
+    }
+
     public Date getFirstSeenTime() {
-        return firstSeenTime;
+        return toDate(firstSeenTime);
     }
 
     public void setFirstSeenTime(Date firstSeenTime) {
-        this.firstSeenTime = firstSeenTime;
+        this.firstSeenTime = toMillis(firstSeenTime);
     }
 
     public Date getUnicastValidTime() {
-        return lastLldpReceivedTime;
+        return toDate(lastLldpReceivedTime);
     }
 
     public void setUnicastValidTime(Date unicastValidTime) {
-        this.lastLldpReceivedTime = unicastValidTime;
+        this.lastLldpReceivedTime = toMillis(unicastValidTime);
     }
 
     public Date getMulticastValidTime() {
-        return lastBddpReceivedTime;
+        return toDate(lastBddpReceivedTime);
     }
 
     public void setMulticastValidTime(Date multicastValidTime) {
+        this.lastBddpReceivedTime = toMillis(multicastValidTime);
+    }
+
+    @JsonIgnore
+    public long getFirstSeenTimeMillis() {
+        return firstSeenTime;
+    }
+
+    public void setFirstSeenTimeMillis(long firstSeenTime) {
+        this.firstSeenTime = firstSeenTime;
+    }
+
+    @JsonIgnore
+    public long getUnicastValidTimeMillis() {
+        return lastLldpReceivedTime;
+    }
+
+    public void setUnicastValidTimeMillis(long unicastValidTime) {
+        this.lastLldpReceivedTime = unicastValidTime;
+    }
+
+    @JsonIgnore
+    public long getMulticastValidTimeMillis() {
+        return lastBddpReceivedTime;
+    }
+
+    public void setMulticastValidTimeMillis(long multicastValidTime) {
         this.lastBddpReceivedTime = multicastValidTime;
     }
 
     @JsonIgnore
     public LinkType getLinkType() {
-        if (lastLldpReceivedTime != null) {
+        if (lastLldpReceivedTime != NO_TIME) {
             return LinkType.DIRECT_LINK;
-        } else if (lastBddpReceivedTime != null) {
+        } else if (lastBddpReceivedTime != NO_TIME) {
             return LinkType.MULTIHOP_LINK;
         }
         return LinkType.INVALID_LINK;
@@ -103,9 +156,9 @@ public class LinkInfo {
     public int hashCode() {
         final int prime = 5557;
         int result = 1;
-        result = prime * result + ((firstSeenTime == null) ? 0 : firstSeenTime.hashCode());
-        result = prime * result + ((lastLldpReceivedTime == null) ? 0 : lastLldpReceivedTime.hashCode());
-        result = prime * result + ((lastBddpReceivedTime == null) ? 0 : lastBddpReceivedTime.hashCode());
+        result = prime * result + (int) (firstSeenTime ^ (firstSeenTime >>> 32));
+        result = prime * result + (int) (lastLldpReceivedTime ^ (lastLldpReceivedTime >>> 32));
+        result = prime * result + (int) (lastBddpReceivedTime ^ (lastBddpReceivedTime >>> 32));
         return result;
     }
 
@@ -122,25 +175,9 @@ public class LinkInfo {
             return false;
         LinkInfo other = (LinkInfo) obj;
 
-        if (firstSeenTime == null) {
-            if (other.firstSeenTime != null)
-                return false;
-        } else if (!firstSeenTime.equals(other.firstSeenTime))
-            return false;
-
-        if (lastLldpReceivedTime == null) {
-            if (other.lastLldpReceivedTime != null)
-                return false;
-        } else if (!lastLldpReceivedTime.equals(other.lastLldpReceivedTime))
-            return false;
-
-        if (lastBddpReceivedTime == null) {
-            if (other.lastBddpReceivedTime != null)
-                return false;
-        } else if (!lastBddpReceivedTime.equals(other.lastBddpReceivedTime))
-            return false;
-
-        return true;
+        return firstSeenTime == other.firstSeenTime
+                && lastLldpReceivedTime == other.lastLldpReceivedTime
+                && lastBddpReceivedTime == other.lastBddpReceivedTime;
     }
 
 
@@ -149,8 +186,8 @@ public class LinkInfo {
      */
     @Override
     public String toString() {
-        return "LinkInfo [unicastValidTime=" + ((lastLldpReceivedTime == null) ? "null" : lastLldpReceivedTime.getTime())
-                + ", multicastValidTime=" + ((lastBddpReceivedTime == null) ? "null" : lastBddpReceivedTime.getTime())
+        return "LinkInfo [unicastValidTime=" + ((lastLldpReceivedTime == NO_TIME) ? "null" : lastLldpReceivedTime)
+                + ", multicastValidTime=" + ((lastBddpReceivedTime == NO_TIME) ? "null" : lastBddpReceivedTime)
                 + "]";
     }
 }
@@ -0,0 +1,146 @@
+package net.floodlightcontroller.linkdiscovery.internal;
+
+import java.util.Arrays;
+
+import net.floodlightcontroller.packet.BSN;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.LLDP;
+import net.floodlightcontroller.packet.LLDPTLV;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * The LLDP and BDDP frames link discovery sends out of switch ports.
+ *
+ * The frames differ between ports only in the source MAC, chassis ID, port
+ * ID, DPID and direction, so each kind is serialized once per controller
+ * identity. A port's frame is a copy of it with those fields written in
+ * place, rather than an Ethernet/LLDP object graph serialized anew.
+ *
+ * This class is immutable and thread-safe.
+ */
+public class LLDPTemplate {
+	private static final byte[] LLDP_STANDARD_DST_MAC =
+			MacAddress.of("01:80:c2:00:00:0e").getBytes();
+	private static final byte[] LLDP_BSN_DST_MAC =
+			MacAddress.of("ff:ff:ff:ff:ff:ff").getBytes();
+
+	// Direction TLVs are used to indicate if the LLDPs were sent
+	// periodically or in response to a recieved LLDP
+	private static final byte TLV_DIRECTION_TYPE = 0x73;
+	private static final byte TLV_DIRECTION_VALUE_FORWARD = 0x01;
+	private static final byte TLV_DIRECTION_VALUE_REVERSE = 0x02;
+
+	/* Where fields are in the frame; the ethernet header is untagged */
+	private static final int SRC_MAC_OFFSET = 6;
+	private static final int STANDARD_LLDP_OFFSET = 14;
+	private static final int BDDP_LLDP_OFFSET = STANDARD_LLDP_OFFSET + 8; // BSN header
+
+	/* Where fields are in the LLDPDU */
+	private static final int CHASSIS_MAC_OFFSET = 2 + 1; // TLV header, subtype
+	private static final int PORT_ID_TLV_OFFSET = CHASSIS_MAC_OFFSET + 6;
+	private static final int PORT_OFFSET = PORT_ID_TLV_OFFSET + 2 + 1;
+	private static final int TTL_TLV_OFFSET = PORT_OFFSET + 2;
+	private static final int DPID_TLV_OFFSET = TTL_TLV_OFFSET + 2 + 2;
+	private static final int DPID_OFFSET = DPID_TLV_OFFSET + 2 + 4; // TLV header, OUI, subtype
+	private static final int CONTROLLER_TLV_OFFSET = DPID_OFFSET + 8;
+
+	private final byte[] standard;
+	private final byte[] bddp;
+	private final int directionOffset;
+
+	/**
+	 * @param controllerTLV the TLV identifying this controller
+	 */
+	public LLDPTemplate(LLDPTLV controllerTLV) {
+		this.standard = serialize(controllerTLV, true);
+		this.bddp = serialize(controllerTLV, false);
+		this.directionOffset = CONTROLLER_TLV_OFFSET + 2 + controllerTLV.getLength() + 2;
+	}
+
+	/*
+	 * Build the frame the way it is sent, with the fields that differ
+	 * between ports zeroed
+	 */
+	private static byte[] serialize(LLDPTLV controllerTLV, boolean isStandard) {
+		// using "nearest customer bridge" MAC address for broadest possible
+		// propagation through provider and TPMR bridges (see IEEE
+		// 802.1AB-2009 and 802.1Q-2011), in particular the Linux bridge
+		// which behaves mostly like a provider bridge
+		byte[] chassisId = new byte[] { 4, 0, 0, 0, 0, 0, 0 };
+		byte[] portId = new byte[] { 2, 0, 0 };
+		byte[] ttlValue = new byte[] { 0, 0x78 };
+		// OpenFlow OUI - 00-26-E1
+		byte[] dpidTLVValue = new byte[] { 0x0, 0x26, (byte) 0xe1, 0, 0, 0,
+				0, 0, 0, 0, 0, 0 };
+
+		LLDP lldp = new LLDP();
+		lldp.setChassisId(new LLDPTLV().setType((byte) 1)
+				.setLength((short) chassisId.length)
+				.setValue(chassisId));
+		lldp.setPortId(new LLDPTLV().setType((byte) 2)
+				.setLength((short) portId.length)
+				.setValue(portId));
+		lldp.setTtl(new LLDPTLV().setType((byte) 3)
+				.setLength((short) ttlValue.length)
+				.setValue(ttlValue));
+		lldp.getOptionalTLVList().add(new LLDPTLV().setType((byte) 127)
+				.setLength((short) dpidTLVValue.length)
+				.setValue(dpidTLVValue));
+		lldp.getOptionalTLVList().add(controllerTLV);
+		lldp.getOptionalTLVList().add(new LLDPTLV().setType(TLV_DIRECTION_TYPE)
+				.setLength((short) 1)
+				.setValue(new byte[] { TLV_DIRECTION_VALUE_FORWARD }));
+
+		Ethernet ethernet;
+		if (isStandard) {
+			ethernet = new Ethernet().setSourceMACAddress(MacAddress.NONE)
+					.setDestinationMACAddress(LLDP_STANDARD_DST_MAC)
+					.setEtherType(EthType.LLDP);
+			ethernet.setPayload(lldp);
+		} else {
+			BSN bsn = new BSN(BSN.BSN_TYPE_BDDP);
+			bsn.setPayload(lldp);
+
+			ethernet = new Ethernet().setSourceMACAddress(MacAddress.NONE)
+					.setDestinationMACAddress(LLDP_BSN_DST_MAC)
+					.setEtherType(EthType.of(Ethernet.TYPE_BSN & 0xffff)); /* treat as unsigned */
+			ethernet.setPayload(bsn);
+		}
+		return ethernet.serialize();
+	}
+
+	/**
+	 * Build the frame to send out of a switch port.
+	 * @param srcMac the source MAC; the port's hardware address
+	 * @param isStandard LLDP if true, BDDP if false
+	 * @param isReverse whether it is sent in response to a received LLDP
+	 * @return a new frame, which the caller may keep
+	 */
+	public byte[] build(DatapathId dpid, OFPort port, MacAddress srcMac,
+			boolean isStandard, boolean isReverse) {
+		byte[] template = isStandard ? standard : bddp;
+		byte[] frame = Arrays.copyOf(template, template.length);
+		int lldp = isStandard ? STANDARD_LLDP_OFFSET : BDDP_LLDP_OFFSET;
+		long dpidValue = dpid.getLong();
+
+		putLong(frame, SRC_MAC_OFFSET, srcMac.getLong(), 6);
+		// the chassis id is the last 6 bytes of the dpid
+		putLong(frame, lldp + CHASSIS_MAC_OFFSET, dpidValue, 6);
+		putLong(frame, lldp + PORT_OFFSET, port.getShortPortNumber(), 2);
+		putLong(frame, lldp + DPID_OFFSET, dpidValue, 8);
+		frame[lldp + directionOffset] = isReverse ? TLV_DIRECTION_VALUE_REVERSE : TLV_DIRECTION_VALUE_FORWARD;
+		return frame;
+	}
+
+	/* Write the low length bytes of value big-endian */
+	private static void putLong(byte[] frame, int offset, long value, int length) {
+		for (int i = offset + length - 1; i >= offset; i--) {
+			frame[i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+}
@@ -21,10 +21,8 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -60,6 +58,7 @@ import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.core.util.SingletonTask;
+import net.floodlightcontroller.core.util.TimeoutWheel;
 import net.floodlightcontroller.debugcounter.IDebugCounter;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.debugevent.IDebugEventService;
@@ -67,6 +66,7 @@ import net.floodlightcontroller.debugevent.IDebugEventService.EventColumn;
 import net.floodlightcontroller.debugevent.IDebugEventService.EventFieldType;
 import net.floodlightcontroller.debugevent.IEventCategory;
 import net.floodlightcontroller.debugevent.IDebugEventService.EventType;
+import net.floodlightcontroller.failovermon.IFailoverLatencyService;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscovery;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LinkType;
@@ -80,6 +80,7 @@ import net.floodlightcontroller.notification.INotificationManager;
 import net.floodlightcontroller.notification.NotificationManagerFactory;
 import net.floodlightcontroller.packet.BSN;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.LLDP;
 import net.floodlightcontroller.packet.LLDPTLV;
 import net.floodlightcontroller.restserver.IRestApiService;
@@ -103,7 +104,6 @@ import org.projectfloodlight.openflow.types.EthType;
 import org.projectfloodlight.openflow.types.MacAddress;
 import org.projectfloodlight.openflow.types.OFBufferId;
 import org.projectfloodlight.openflow.types.OFPort;
-import org.projectfloodlight.openflow.util.HexString;
 import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
 import org.projectfloodlight.openflow.protocol.match.MatchField;
@@ -163,40 +163,30 @@ IFloodlightModule, IInfoProvider {
 	protected IDebugCounterService debugCounterService;
 	protected IDebugEventService debugEventService;
 	protected IShutdownService shutdownService;
+	protected IFailoverLatencyService failoverLatency;
 
 	// Role
 	protected HARole role;
 
 	// LLDP and BDDP fields
-	private static final byte[] LLDP_STANDARD_DST_MAC_STRING =
-			HexString.fromHexString("01:80:c2:00:00:0e");
 	private static final long LINK_LOCAL_MASK = 0xfffffffffff0L;
 	private static final long LINK_LOCAL_VALUE = 0x0180c2000000L;
 	protected static int EVENT_HISTORY_SIZE = 1024; // in seconds
 
-	// BigSwitch OUI is 5C:16:C7, so 5D:16:C7 is the multicast version
-	// private static final String LLDP_BSN_DST_MAC_STRING =
-	// "5d:16:c7:00:00:01";
-	private static final String LLDP_BSN_DST_MAC_STRING = "ff:ff:ff:ff:ff:ff";
-
 	// Direction TLVs are used to indicate if the LLDPs were sent
 	// periodically or in response to a recieved LLDP
 	private static final byte TLV_DIRECTION_TYPE = 0x73;
 	private static final short TLV_DIRECTION_LENGTH = 1; // 1 byte
 	private static final byte TLV_DIRECTION_VALUE_FORWARD[] = { 0x01 };
 	private static final byte TLV_DIRECTION_VALUE_REVERSE[] = { 0x02 };
-	private static final LLDPTLV forwardTLV = new LLDPTLV().setType(TLV_DIRECTION_TYPE)
-			.setLength(TLV_DIRECTION_LENGTH)
-			.setValue(TLV_DIRECTION_VALUE_FORWARD);
-
-	private static final LLDPTLV reverseTLV = new LLDPTLV().setType(TLV_DIRECTION_TYPE)
-			.setLength(TLV_DIRECTION_LENGTH)
-			.setValue(TLV_DIRECTION_VALUE_REVERSE);
 
 	// Link discovery task details.
 	protected SingletonTask discoveryTask;
 	protected final int DISCOVERY_TASK_INTERVAL = 1;
 	protected final int LINK_TIMEOUT = 35; // timeout as part of LLDP process.
+	// Buckets of the link timeout wheel, a tick each; more than LINK_TIMEOUT
+	// so that links rarely share a bucket with those of later rounds.
+	protected final int LINK_TIMEOUT_BUCKETS = 64;
 	protected final int LLDP_TO_ALL_INTERVAL = 15; // 15 seconds.
 	protected long lldpClock = 0;
 	// This value is intentionally kept higher than LLDP_TO_ALL_INTERVAL.
@@ -206,6 +196,7 @@ IFloodlightModule, IInfoProvider {
 	// links
 
 	protected LLDPTLV controllerTLV;
+	protected LLDPTemplate lldpTemplate;
 	protected ReentrantReadWriteLock lock;
 	int lldpTimeCount = 0;
 
@@ -221,6 +212,11 @@ IFloodlightModule, IInfoProvider {
 	 */
 	protected Map<Link, LinkInfo> links;
 
+	/**
+	 * Links by when their unicast or multicast valid time next expires
+	 */
+	protected TimeoutWheel<Link> linkTimeouts;
+
 	/**
 	 * Map from switch id to a set of all links with it as an endpoint
 	 */
@@ -294,105 +290,43 @@ IFloodlightModule, IInfoProvider {
 		IOFSwitch iofSwitch = switchService.getSwitch(sw);
 		OFPortDesc ofpPort = iofSwitch.getPort(port);
 
-		if (log.isTraceEnabled()) {
-			log.trace("Sending LLDP packet out of swich: {}, port: {}",
-					sw.toString(), port);
-		}
-
-		// using "nearest customer bridge" MAC address for broadest possible
-		// propagation
-		// through provider and TPMR bridges (see IEEE 802.1AB-2009 and
-		// 802.1Q-2011),
-		// in particular the Linux bridge which behaves mostly like a provider
-		// bridge
-		byte[] chassisId = new byte[] { 4, 0, 0, 0, 0, 0, 0 }; // filled in
-		// later
-		byte[] portId = new byte[] { 2, 0, 0 }; // filled in later
-		byte[] ttlValue = new byte[] { 0, 0x78 };
-		// OpenFlow OUI - 00-26-E1
-		byte[] dpidTLVValue = new byte[] { 0x0, 0x26, (byte) 0xe1, 0, 0, 0,
-				0, 0, 0, 0, 0, 0 };
-		LLDPTLV dpidTLV = new LLDPTLV().setType((byte) 127)
-				.setLength((short) dpidTLVValue.length)
-				.setValue(dpidTLVValue);
-
-		byte[] dpidArray = new byte[8];
-		ByteBuffer dpidBB = ByteBuffer.wrap(dpidArray);
-		ByteBuffer portBB = ByteBuffer.wrap(portId, 1, 2);
-
-		DatapathId dpid = sw;
-		dpidBB.putLong(dpid.getLong());
-		// set the chassis id's value to last 6 bytes of dpid
-		System.arraycopy(dpidArray, 2, chassisId, 1, 6);
-		// set the optional tlv to the full dpid
-		System.arraycopy(dpidArray, 0, dpidTLVValue, 4, 8);
-
-		// TODO: Consider remove this block of code.
-		// It's evil to overwrite port object. The the old code always
-		// overwrote mac address, we now only overwrite zero macs and
-		// log a warning, mostly for paranoia.
-		byte[] srcMac = ofpPort.getHwAddr().getBytes();
-		byte[] zeroMac = { 0, 0, 0, 0, 0, 0 };
-		if (Arrays.equals(srcMac, zeroMac)) {
-			log.warn("Port {}/{} has zero hareware address"
-					+ "overwrite with lower 6 bytes of dpid",
-					dpid.toString(), ofpPort.getPortNo().getPortNumber());
-			System.arraycopy(dpidArray, 2, srcMac, 0, 6);
-		}
-
-		// set the portId to the outgoing port
-		portBB.putShort(port.getShortPortNumber());
+		OFPacketOut.Builder pob = iofSwitch.getOFFactory().buildPacketOut();
+		pob.setBufferId(OFBufferId.NO_BUFFER);
+		pob.setInPort(OFPort.ANY);
+		pob.setData(generateLLDPFrame(sw, ofpPort, isStandard, isReverse));
+
+		return pob.build();
+	}
+
+	/**
+	 * Build the LLDP or BDDP frame sent out of a port, from the template
+	 * for this controller.
+	 */
+	@LogMessageDoc(level = "WARN",
+			message = "Port {switch}/{port} has zero hardware address, "
+					+ "using the lower 6 bytes of the dpid",
+			explanation = "The switch reported no hardware address for the port, "
+					+ "so the LLDPs sent out of it carry one made up from the dpid.",
+			recommendation = LogMessageDoc.CHECK_SWITCH)
+	private byte[] generateLLDPFrame(DatapathId sw, OFPortDesc ofpPort,
+			boolean isStandard, boolean isReverse) {
 		if (log.isTraceEnabled()) {
 			log.trace("Sending LLDP out of interface: {}/{}",
-					sw.toString(), port);
-		}
-
-		LLDP lldp = new LLDP();
-		lldp.setChassisId(new LLDPTLV().setType((byte) 1)
-				.setLength((short) chassisId.length)
-				.setValue(chassisId));
-		lldp.setPortId(new LLDPTLV().setType((byte) 2)
-				.setLength((short) portId.length)
-				.setValue(portId));
-		lldp.setTtl(new LLDPTLV().setType((byte) 3)
-				.setLength((short) ttlValue.length)
-				.setValue(ttlValue));
-		lldp.getOptionalTLVList().add(dpidTLV);
-
-		// Add the controller identifier to the TLV value.
-		lldp.getOptionalTLVList().add(controllerTLV);
-		if (isReverse) {
-			lldp.getOptionalTLVList().add(reverseTLV);
-		} else {
-			lldp.getOptionalTLVList().add(forwardTLV);
+					sw.toString(), ofpPort.getPortNo());
 		}
 
-		Ethernet ethernet;
-		if (isStandard) {
-			ethernet = new Ethernet().setSourceMACAddress(ofpPort.getHwAddr())
-					.setDestinationMACAddress(LLDP_STANDARD_DST_MAC_STRING)
-					.setEtherType(EthType.LLDP);
-			ethernet.setPayload(lldp);
-		} else {
-			BSN bsn = new BSN(BSN.BSN_TYPE_BDDP);
-			bsn.setPayload(lldp);
-
-			ethernet = new Ethernet().setSourceMACAddress(ofpPort.getHwAddr())
-					.setDestinationMACAddress(LLDP_BSN_DST_MAC_STRING)
-					.setEtherType(EthType.of(Ethernet.TYPE_BSN & 0xffff)); /* treat as unsigned */
-			ethernet.setPayload(bsn);
+		// We never overwrite the port's address, but send zero macs
+		// from the lower 6 bytes of the dpid instead and log a warning,
+		// mostly for paranoia.
+		MacAddress srcMac = ofpPort.getHwAddr();
+		if (MacAddress.NONE.equals(srcMac)) {
+			log.warn("Port {}/{} has zero hardware address, "
+					+ "using the lower 6 bytes of the dpid",
+					sw.toString(), ofpPort.getPortNo().getPortNumber());
+			srcMac = MacAddress.of(sw.getLong() & 0xffffffffffffL);
 		}
 
-		// serialize and wrap in a packet out
-		byte[] data = ethernet.serialize();
-		OFPacketOut.Builder pob = switchService.getSwitch(sw).getOFFactory().buildPacketOut();
-		pob.setBufferId(OFBufferId.NO_BUFFER);
-		pob.setInPort(OFPort.ANY);
-
-		// set data and data length
-		pob.setData(data);
-
-		return pob.build();
+		return lldpTemplate.build(sw, ofpPort.getPortNo(), srcMac, isStandard, isReverse);
 	}
 
 	/**
@@ -456,9 +390,9 @@ IFloodlightModule, IInfoProvider {
 
 	@Override
 	public ILinkDiscovery.LinkType getLinkType(Link lt, LinkInfo info) {
-		if (info.getUnicastValidTime() != null) {
+		if (info.getUnicastValidTimeMillis() != LinkInfo.NO_TIME) {
 			return ILinkDiscovery.LinkType.DIRECT_LINK;
-		} else if (info.getMulticastValidTime() != null) {
+		} else if (info.getMulticastValidTimeMillis() != LinkInfo.NO_TIME) {
 			return ILinkDiscovery.LinkType.MULTIHOP_LINK;
 		}
 		return ILinkDiscovery.LinkType.INVALID_LINK;
@@ -569,22 +503,41 @@ IFloodlightModule, IInfoProvider {
 
 	protected Command handlePacketIn(DatapathId sw, OFPacketIn pi,
 			FloodlightContext cntx) {
-		Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
-				IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
 		OFPort inPort = (pi.getVersion().compareTo(OFVersion.OF_12) < 0 ? pi.getInPort() : pi.getMatch().get(MatchField.IN_PORT));
-		if (eth.getPayload() instanceof BSN) {
-			BSN bsn = (BSN) eth.getPayload();
-			if (bsn == null) return Command.STOP;
-			if (bsn.getPayload() == null) return Command.STOP;
-			// It could be a packet other than BSN LLDP, therefore
-			// continue with the regular processing.
-			if (bsn.getPayload() instanceof LLDP == false)
-				return Command.CONTINUE;
-			return handleLldp((LLDP) bsn.getPayload(), sw, inPort, false, cntx);
-		} else if (eth.getPayload() instanceof LLDP) {
-			return handleLldp((LLDP) eth.getPayload(), sw, inPort, true, cntx);
-		} else if (eth.getEtherType().getValue() < 1536 && eth.getEtherType().getValue() >= 17) {
-	        long destMac = eth.getDestinationMACAddress().getLong();
+		EthType etherType;
+		MacAddress srcMac;
+		MacAddress dstMac;
+		// Most packet-ins aren't for us: don't decode them beyond the header
+		EthernetView view = IFloodlightProviderService.piViewStore.get(cntx,
+				IFloodlightProviderService.CONTEXT_PI_VIEW);
+		if (view != null && view.getEtherType() != null
+				&& view.getEtherType().getValue() != (Ethernet.TYPE_LLDP & 0xffff)
+				&& view.getEtherType().getValue() != (Ethernet.TYPE_BSN & 0xffff)) {
+			etherType = view.getEtherType();
+			srcMac = view.getSourceMACAddress();
+			dstMac = view.getDestinationMACAddress();
+		} else {
+			Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
+					IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+			if (eth.getPayload() instanceof BSN) {
+				BSN bsn = (BSN) eth.getPayload();
+				if (bsn == null) return Command.STOP;
+				if (bsn.getPayload() == null) return Command.STOP;
+				// It could be a packet other than BSN LLDP, therefore
+				// continue with the regular processing.
+				if (bsn.getPayload() instanceof LLDP == false)
+					return Command.CONTINUE;
+				return handleLldp((LLDP) bsn.getPayload(), sw, inPort, false, cntx);
+			} else if (eth.getPayload() instanceof LLDP) {
+				return handleLldp((LLDP) eth.getPayload(), sw, inPort, true, cntx);
+			}
+			etherType = eth.getEtherType();
+			srcMac = eth.getSourceMACAddress();
+			dstMac = eth.getDestinationMACAddress();
+		}
+
+		if (etherType.getValue() < 1536 && etherType.getValue() >= 17) {
+	        long destMac = dstMac.getLong();
 	        if ((destMac & LINK_LOCAL_MASK) == LINK_LOCAL_VALUE) {
 	            ctrLinkLocalDrops.increment();
 	            if (log.isTraceEnabled()) {
@@ -593,12 +546,12 @@ IFloodlightModule, IInfoProvider {
 	            }
 	            return Command.STOP;
 	        }
-	    } else if (eth.getEtherType().getValue() < 17) {
-	        log.error("Received invalid ethertype of {}.", eth.getEtherType());
+	    } else if (etherType.getValue() < 17) {
+	        log.error("Received invalid ethertype of {}.", etherType);
 	        return Command.STOP;
 	    }
 
-		if (ignorePacketInFromSource(eth.getSourceMACAddress())) {
+		if (ignorePacketInFromSource(srcMac)) {
 			ctrIgnoreSrcMacDrops.increment();
 			return Command.STOP;
 		}
@@ -744,15 +697,15 @@ IFloodlightModule, IInfoProvider {
 			return Command.STOP;
 
 		// Continue only if link is allowed.
-		Date lastLldpTime = null;
-		Date lastBddpTime = null;
+		long lastLldpTime = LinkInfo.NO_TIME;
+		long lastBddpTime = LinkInfo.NO_TIME;
 
-		Date firstSeenTime = new Date(System.currentTimeMillis());
+		long firstSeenTime = System.currentTimeMillis();
 
 		if (isStandard)
-			lastLldpTime = new Date(System.currentTimeMillis());
+			lastLldpTime = firstSeenTime;
 		else
-			lastBddpTime = new Date(System.currentTimeMillis());
+			lastBddpTime = firstSeenTime;
 
 		LinkInfo newLinkInfo = new LinkInfo(firstSeenTime, lastLldpTime,
 				lastBddpTime);
@@ -770,7 +723,7 @@ IFloodlightModule, IInfoProvider {
 			LinkInfo reverseInfo = links.get(reverseLink);
 			if (reverseInfo == null) {
 				// the reverse link does not exist.
-				if (newLinkInfo.getFirstSeenTime().getTime() > System.currentTimeMillis()
+				if (newLinkInfo.getFirstSeenTimeMillis() > System.currentTimeMillis()
 						- LINK_TIMEOUT) {
 					this.sendDiscoveryMessage(lt.getDst(), lt.getDstPort(),
 							isStandard, true);
@@ -891,11 +844,19 @@ IFloodlightModule, IInfoProvider {
 		// increment LLDP clock
 		lldpClock = (lldpClock + 1) % LLDP_TO_ALL_INTERVAL;
 
-		if (lldpClock == 0) {
-			if (log.isTraceEnabled())
-				log.trace("Sending LLDP out on all ports.");
-			discoverOnAllPorts();
-		}
+		// Each switch has its own tick of the interval, so that the LLDPs
+		// of a round go out a share at a time rather than all at once.
+		if (log.isTraceEnabled())
+			log.trace("Sending LLDP out on all ports of the switches at tick {}.", lldpClock);
+		discoverOnPorts((int) lldpClock);
+	}
+
+	/**
+	 * The tick of the LLDP clock at which the periodic LLDPs of a switch
+	 * are sent.
+	 */
+	protected int getDiscoveryTick(DatapathId sw) {
+		return (sw.hashCode() & Integer.MAX_VALUE) % LLDP_TO_ALL_INTERVAL;
 	}
 
 	/**
@@ -1166,14 +1127,14 @@ IFloodlightModule, IInfoProvider {
 			log.trace("Sending LLDP packet out of swich: {}, port: {}",
 					sw.toString(), port.getPortNumber());
 		}
-		OFPacketOut po = generateLLDPMessage(sw, port, isStandard, isReverse);
-		OFPacketOut.Builder pob = po.createBuilder();
+		OFPacketOut.Builder pob = iofSwitch.getOFFactory().buildPacketOut();
+		pob.setBufferId(OFBufferId.NO_BUFFER);
+		pob.setInPort(OFPort.ANY);
+		pob.setData(generateLLDPFrame(sw, ofpPort, isStandard, isReverse));
 
 		// Add actions
 		List<OFAction> actions = getDiscoveryActions(iofSwitch, ofpPort.getPortNo());
 		pob.setActions(actions);
-		
-		// no need to set length anymore
 
 		// send
 		// no more try-catch. switch will silently fail
@@ -1186,8 +1147,17 @@ IFloodlightModule, IInfoProvider {
 	 */
 	protected void discoverOnAllPorts() {
 		log.info("Sending LLDP packets out of all the enabled ports");
+		discoverOnPorts(-1);
+	}
+
+	/**
+	 * Send LLDPs to the ports of the switches at a tick of the LLDP clock
+	 * @param tick the tick, or -1 for all switches
+	 */
+	protected void discoverOnPorts(int tick) {
 		// Send standard LLDPs
 		for (DatapathId sw : switchService.getAllSwitchDpids()) {
+			if (tick >= 0 && getDiscoveryTick(sw) != tick) continue;
 			IOFSwitch iofSwitch = switchService.getSwitch(sw);
 			if (iofSwitch == null) continue;
 			if (!iofSwitch.isActive()) continue; /* can't do anything if the switch is SLAVE */
@@ -1276,28 +1246,22 @@ IFloodlightModule, IInfoProvider {
 		boolean linkChanged = false;
 		// Since the link info is already there, we need to
 		// update the right fields.
-		if (newInfo.getUnicastValidTime() == null) {
+		if (newInfo.getUnicastValidTimeMillis() == LinkInfo.NO_TIME) {
 			// This is due to a multicast LLDP, so copy the old unicast
 			// value.
-			if (oldInfo.getUnicastValidTime() != null) {
-				newInfo.setUnicastValidTime(oldInfo.getUnicastValidTime());
-			}
-		} else if (newInfo.getMulticastValidTime() == null) {
+			newInfo.setUnicastValidTimeMillis(oldInfo.getUnicastValidTimeMillis());
+		} else if (newInfo.getMulticastValidTimeMillis() == LinkInfo.NO_TIME) {
 			// This is due to a unicast LLDP, so copy the old multicast
 			// value.
-			if (oldInfo.getMulticastValidTime() != null) {
-				newInfo.setMulticastValidTime(oldInfo.getMulticastValidTime());
-			}
+			newInfo.setMulticastValidTimeMillis(oldInfo.getMulticastValidTimeMillis());
 		}
 
-		Date oldTime = oldInfo.getUnicastValidTime();
-		Date newTime = newInfo.getUnicastValidTime();
+		boolean oldUnicast = oldInfo.getUnicastValidTimeMillis() != LinkInfo.NO_TIME;
+		boolean newUnicast = newInfo.getUnicastValidTimeMillis() != LinkInfo.NO_TIME;
 		// the link has changed its state between openflow and
 		// non-openflow
 		// if the unicastValidTimes are null or not null
-		if (oldTime != null & newTime == null) {
-			linkChanged = true;
-		} else if (oldTime == null & newTime != null) {
+		if (oldUnicast != newUnicast) {
 			linkChanged = true;
 		}
 
@@ -1321,13 +1285,13 @@ IFloodlightModule, IInfoProvider {
 			// put the new info. if an old info exists, it will be returned.
 			LinkInfo oldInfo = links.put(lt, newInfo);
 			if (oldInfo != null
-					&& oldInfo.getFirstSeenTime().getTime() < newInfo.getFirstSeenTime().getTime())
-				newInfo.setFirstSeenTime(oldInfo.getFirstSeenTime());
+					&& oldInfo.getFirstSeenTimeMillis() < newInfo.getFirstSeenTimeMillis())
+				newInfo.setFirstSeenTimeMillis(oldInfo.getFirstSeenTimeMillis());
 
 			if (log.isTraceEnabled()) {
 				log.trace("addOrUpdateLink: {} {}",
 						lt,
-						(newInfo.getMulticastValidTime() != null) ? "multicast"
+						(newInfo.getMulticastValidTimeMillis() != LinkInfo.NO_TIME) ? "multicast"
 								: "unicast");
 			}
 
@@ -1363,6 +1327,8 @@ IFloodlightModule, IInfoProvider {
 				}
 			}
 
+			linkTimeouts.schedule(lt, getLinkExpiry(newInfo));
+
 			// Write changes to storage. This will always write the updated
 			// valid time, plus the port states if they've changed (i.e. if
 			// they weren't set to null in the previous block of code.
@@ -1450,6 +1416,7 @@ IFloodlightModule, IInfoProvider {
 				}
 
 				LinkInfo info = this.links.remove(lt);
+				linkTimeouts.remove(lt);
 				LinkType linkType = getLinkType(lt, info);
 				linkUpdateList.add(new LDUpdate(lt.getSrc(),
 						lt.getSrcPort(),
@@ -1482,6 +1449,12 @@ IFloodlightModule, IInfoProvider {
 			updates.addAll(linkUpdateList);
 			lock.writeLock().unlock();
 		}
+		if (failoverLatency != null) {
+			for (Link lt : links) {
+				failoverLatency.recordReaction(IFailoverLatencyService.Stage.LINK_REMOVED,
+						lt.getSrc(), lt.getSrcPort(), lt.getDst(), lt.getDstPort());
+			}
+		}
 	}
 
 	/**
@@ -1511,44 +1484,73 @@ IFloodlightModule, IInfoProvider {
 	 * message reception time exceeds timeout values.
 	 */
 	protected void timeoutLinks() {
+		long curTime = System.currentTimeMillis();
+
+		// Only the links whose valid times may have expired by now; those
+		// refreshed since they were scheduled go back into the wheel.
+		List<Link> dueList = linkTimeouts.removeDue(curTime);
+		if (dueList.isEmpty()) {
+			return;
+		}
+
+		List<Link> expiredList = new ArrayList<Link>();
+		lock.readLock().lock();
+		try {
+			for (Link lt : dueList) {
+				LinkInfo info = this.links.get(lt);
+				if (info == null) {
+					continue;
+				}
+				if (getLinkExpiry(info) < curTime) {
+					expiredList.add(lt);
+				} else {
+					linkTimeouts.schedule(lt, getLinkExpiry(info));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		if (expiredList.isEmpty()) {
+			return;
+		}
+
 		List<Link> eraseList = new ArrayList<Link>();
-		Long curTime = System.currentTimeMillis();
 		boolean linkChanged = false;
 
 		// reentrant required here because deleteLink also write locks
 		lock.writeLock().lock();
 		try {
-			Iterator<Entry<Link, LinkInfo>> it = this.links.entrySet()
-					.iterator();
-			while (it.hasNext()) {
-				Entry<Link, LinkInfo> entry = it.next();
-				Link lt = entry.getKey();
-				LinkInfo info = entry.getValue();
+			for (Link lt : expiredList) {
+				// An LLDP may have refreshed the link since
+				LinkInfo info = this.links.get(lt);
+				if (info == null) {
+					continue;
+				}
 
 				// Timeout the unicast and multicast LLDP valid times
 				// independently.
-				if ((info.getUnicastValidTime() != null)
-						&& (info.getUnicastValidTime().getTime()
-								+ (this.LINK_TIMEOUT * 1000) < curTime)) {
-					info.setUnicastValidTime(null);
+				if (isLinkTimeExpired(info.getUnicastValidTimeMillis(), curTime)) {
+					info.setUnicastValidTimeMillis(LinkInfo.NO_TIME);
 					linkChanged = true;
 				}
-				if ((info.getMulticastValidTime() != null)
-						&& (info.getMulticastValidTime().getTime()
-								+ (this.LINK_TIMEOUT * 1000) < curTime)) {
-					info.setMulticastValidTime(null);
+				if (isLinkTimeExpired(info.getMulticastValidTimeMillis(), curTime)) {
+					info.setMulticastValidTimeMillis(LinkInfo.NO_TIME);
 					linkChanged = true;
 				}
 				// Add to the erase list only if the unicast
 				// time is null.
-				if (info.getUnicastValidTime() == null
-						&& info.getMulticastValidTime() == null) {
-					eraseList.add(entry.getKey());
-				} else if (linkChanged) {
-					updates.add(new LDUpdate(lt.getSrc(), lt.getSrcPort(),
-							lt.getDst(), lt.getDstPort(),
-							getLinkType(lt, info),
-							UpdateOperation.LINK_UPDATED));
+				if (info.getUnicastValidTimeMillis() == LinkInfo.NO_TIME
+						&& info.getMulticastValidTimeMillis() == LinkInfo.NO_TIME) {
+					eraseList.add(lt);
+				} else {
+					linkTimeouts.schedule(lt, getLinkExpiry(info));
+					if (linkChanged) {
+						updates.add(new LDUpdate(lt.getSrc(), lt.getSrcPort(),
+								lt.getDst(), lt.getDstPort(),
+								getLinkType(lt, info),
+								UpdateOperation.LINK_UPDATED));
+					}
 				}
 			}
 
@@ -1561,6 +1563,31 @@ IFloodlightModule, IInfoProvider {
 		}
 	}
 
+	private boolean isLinkTimeExpired(long validTime, long curTime) {
+		return validTime != LinkInfo.NO_TIME
+				&& validTime + (this.LINK_TIMEOUT * 1000) < curTime;
+	}
+
+	/**
+	 * @return when the first of the link's valid times expires, or
+	 * Long.MIN_VALUE if it has none left and is to be removed now
+	 */
+	private long getLinkExpiry(LinkInfo info) {
+		long unicast = info.getUnicastValidTimeMillis();
+		long multicast = info.getMulticastValidTimeMillis();
+		if (unicast == LinkInfo.NO_TIME && multicast == LinkInfo.NO_TIME) {
+			return Long.MIN_VALUE;
+		}
+		long expiry = Long.MAX_VALUE;
+		if (unicast != LinkInfo.NO_TIME) {
+			expiry = unicast + (this.LINK_TIMEOUT * 1000);
+		}
+		if (multicast != LinkInfo.NO_TIME) {
+			expiry = Math.min(expiry, multicast + (this.LINK_TIMEOUT * 1000));
+		}
+		return expiry;
+	}
+
 	//******************
 	// Internal Helper Methods
 	//******************
@@ -1608,6 +1635,7 @@ IFloodlightModule, IInfoProvider {
 		this.controllerTLV = new LLDPTLV().setType((byte) 0x0c)
 				.setLength((short) controllerTLVValue.length)
 				.setValue(controllerTLVValue);
+		this.lldpTemplate = new LLDPTemplate(controllerTLV);
 	}
 
 	//******************
@@ -1907,6 +1935,7 @@ IFloodlightModule, IInfoProvider {
 		debugCounterService = context.getServiceImpl(IDebugCounterService.class);
 		debugEventService = context.getServiceImpl(IDebugEventService.class);
 		shutdownService = context.getServiceImpl(IShutdownService.class);
+		failoverLatency = context.getServiceImpl(IFailoverLatencyService.class);
 
 		// read our config options
 		Map<String, String> configOptions = context.getConfigParams(this);
@@ -1928,6 +1957,8 @@ IFloodlightModule, IInfoProvider {
 		this.lock = new ReentrantReadWriteLock();
 		this.updates = new LinkedBlockingQueue<LDUpdate>();
 		this.links = new HashMap<Link, LinkInfo>();
+		this.linkTimeouts = new TimeoutWheel<Link>(DISCOVERY_TASK_INTERVAL * 1000L,
+				LINK_TIMEOUT_BUCKETS, System.currentTimeMillis());
 		this.portLinks = new HashMap<NodePortTuple, Set<Link>>();
 		this.suppressLinkDiscovery = Collections.synchronizedSet(new HashSet<NodePortTuple>());
 		this.switchLinks = new HashMap<DatapathId, Set<Link>>();
@@ -0,0 +1,246 @@
+package net.floodlightcontroller.multipathrouting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.floodlightcontroller.multipathrouting.types.LinkWithCost;
+import net.floodlightcontroller.routing.Route;
+import net.floodlightcontroller.routing.RouteId;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+/**
+ * An immutable, primitive-indexed snapshot of the multipath link graph.
+ *
+ * Switches are numbered densely from 0 to {@link #getNodeCount()}-1 in DPID
+ * order, and the directed links leaving a switch are stored contiguously in
+ * compressed sparse row (CSR) form: the links of node n are the edge indices
+ * in [getEdgeStart(n), getEdgeEnd(n)). Path searches over the snapshot only
+ * touch int arrays, so they can run without allocating; see
+ * {@link ShortestPathSearch}.
+ *
+ * A snapshot is built once per topology version and shared by every thread
+ * that computes paths on that version.
+ */
+public class CompactGraph {
+    private final long version;
+    private final DatapathId[] nodes;
+    private final Map<DatapathId, Integer> nodeIndex;
+    private final int[] edgeStart;
+    private final int[] edgeSource;
+    private final int[] edgeTarget;
+    private final int[] edgeCost;
+    private final int[] edgeReverse;
+    private final OFPort[] edgeSrcPort;
+    private final OFPort[] edgeDstPort;
+
+    private CompactGraph(long version, DatapathId[] nodes, Map<DatapathId, Integer> nodeIndex,
+            int[] edgeStart, int[] edgeSource, int[] edgeTarget, int[] edgeCost,
+            int[] edgeReverse, OFPort[] edgeSrcPort, OFPort[] edgeDstPort) {
+        this.version = version;
+        this.nodes = nodes;
+        this.nodeIndex = nodeIndex;
+        this.edgeStart = edgeStart;
+        this.edgeSource = edgeSource;
+        this.edgeTarget = edgeTarget;
+        this.edgeCost = edgeCost;
+        this.edgeReverse = edgeReverse;
+        this.edgeSrcPort = edgeSrcPort;
+        this.edgeDstPort = edgeDstPort;
+    }
+
+    /**
+     * Build a snapshot of the given adjacency.
+     * @param version the topology version the adjacency corresponds to
+     * @param links the links leaving every switch, keyed by source DPID
+     * @return the snapshot
+     */
+    public static CompactGraph build(long version, Map<DatapathId, ? extends Collection<LinkWithCost>> links) {
+        TreeSet<DatapathId> dpids = new TreeSet<DatapathId>();
+        int edgeCount = 0;
+        for (Map.Entry<DatapathId, ? extends Collection<LinkWithCost>> entry : links.entrySet()) {
+            dpids.add(entry.getKey());
+            for (LinkWithCost link : entry.getValue()) {
+                dpids.add(link.getDstDpid());
+                edgeCount++;
+            }
+        }
+
+        DatapathId[] nodes = dpids.toArray(new DatapathId[dpids.size()]);
+        Map<DatapathId, Integer> nodeIndex = new HashMap<DatapathId, Integer>(nodes.length * 2);
+        for (int i = 0; i < nodes.length; i++) {
+            nodeIndex.put(nodes[i], i);
+        }
+
+        int[] edgeStart = new int[nodes.length + 1];
+        int[] edgeSource = new int[edgeCount];
+        int[] edgeTarget = new int[edgeCount];
+        int[] edgeCost = new int[edgeCount];
+        OFPort[] edgeSrcPort = new OFPort[edgeCount];
+        OFPort[] edgeDstPort = new OFPort[edgeCount];
+
+        int e = 0;
+        for (int n = 0; n < nodes.length; n++) {
+            edgeStart[n] = e;
+            Collection<LinkWithCost> out = links.get(nodes[n]);
+            if (out == null) {
+                continue;
+            }
+            for (LinkWithCost link : out) {
+                edgeSource[e] = n;
+                edgeTarget[e] = nodeIndex.get(link.getDstDpid());
+                edgeCost[e] = link.getWeight();
+                edgeSrcPort[e] = link.getSrcPort();
+                edgeDstPort[e] = link.getDstPort();
+                e++;
+            }
+        }
+        edgeStart[nodes.length] = e;
+
+        /* Pair every edge with the edge going the opposite way over the same ports */
+        int[] edgeReverse = new int[edgeCount];
+        Arrays.fill(edgeReverse, -1);
+        for (int i = 0; i < edgeCount; i++) {
+            if (edgeReverse[i] >= 0) {
+                continue;
+            }
+            int t = edgeTarget[i];
+            for (int j = edgeStart[t]; j < edgeStart[t + 1]; j++) {
+                if (edgeTarget[j] == edgeSource[i]
+                        && edgeSrcPort[j].equals(edgeDstPort[i])
+                        && edgeDstPort[j].equals(edgeSrcPort[i])) {
+                    edgeReverse[i] = j;
+                    edgeReverse[j] = i;
+                    break;
+                }
+            }
+        }
+
+        return new CompactGraph(version, nodes, nodeIndex, edgeStart, edgeSource, edgeTarget,
+                edgeCost, edgeReverse, edgeSrcPort, edgeDstPort);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    public int getEdgeCount() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * @return the dense index of a switch, or -1 if it has no links
+     */
+    public int getNodeIndex(DatapathId dpid) {
+        Integer idx = nodeIndex.get(dpid);
+        return idx == null ? -1 : idx;
+    }
+
+    public DatapathId getNode(int node) {
+        return nodes[node];
+    }
+
+    /**
+     * @return the index of the first link leaving a node
+     */
+    public int getEdgeStart(int node) {
+        return edgeStart[node];
+    }
+
+    /**
+     * @return one past the index of the last link leaving a node
+     */
+    public int getEdgeEnd(int node) {
+        return edgeStart[node + 1];
+    }
+
+    public int getEdgeSource(int edge) {
+        return edgeSource[edge];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    public int getEdgeCost(int edge) {
+        return edgeCost[edge];
+    }
+
+    /**
+     * @return the edge going the opposite way over the same pair of ports,
+     * or -1 if the link is only known in one direction
+     */
+    public int getEdgeReverse(int edge) {
+        return edgeReverse[edge];
+    }
+
+    /**
+     * @return the edge for the link between two switch ports, or -1 if the
+     * snapshot doesn't have it
+     */
+    public int findEdge(DatapathId srcDpid, OFPort srcPort, DatapathId dstDpid, OFPort dstPort) {
+        int src = getNodeIndex(srcDpid);
+        if (src < 0) {
+            return -1;
+        }
+        for (int e = edgeStart[src]; e < edgeStart[src + 1]; e++) {
+            if (edgeSrcPort[e].equals(srcPort) && nodes[edgeTarget[e]].equals(dstDpid)
+                    && edgeDstPort[e].equals(dstPort)) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    public OFPort getEdgeSrcPort(int edge) {
+        return edgeSrcPort[edge];
+    }
+
+    public OFPort getEdgeDstPort(int edge) {
+        return edgeDstPort[edge];
+    }
+
+    /**
+     * The link costs of this snapshot. The array is shared, callers that
+     * want to re-weight edges must work on {@link #copyEdgeCosts()}.
+     */
+    int[] getEdgeCosts() {
+        return edgeCost;
+    }
+
+    /**
+     * @return a private copy of the link costs, indexed by edge
+     */
+    public int[] copyEdgeCosts() {
+        return Arrays.copyOf(edgeCost, edgeCost.length);
+    }
+
+    /**
+     * Turn a sequence of edges into a Route in the usual
+     * [out-port, in-port, out-port, in-port, ...] switch-port form.
+     * @param edges the edges of the path, from source to destination
+     * @param length the number of edges used from the array
+     * @return the route
+     */
+    public Route toRoute(int[] edges, int length) {
+        NodePortTuple[] switchPorts = new NodePortTuple[length * 2];
+        for (int i = 0; i < length; i++) {
+            int e = edges[i];
+            switchPorts[2 * i] = new NodePortTuple(nodes[edgeSource[e]], edgeSrcPort[e]);
+            switchPorts[2 * i + 1] = new NodePortTuple(nodes[edgeTarget[e]], edgeDstPort[e]);
+        }
+        DatapathId src = nodes[edgeSource[edges[0]]];
+        DatapathId dst = nodes[edgeTarget[edges[length - 1]]];
+        return new Route(new RouteId(src, dst), new ArrayList<NodePortTuple>(Arrays.asList(switchPorts)));
+    }
+}
@@ -10,8 +10,38 @@ import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFPort;
 
 public interface IMultiPathRoutingService extends IFloodlightService  {
+    /**
+     * What a backup route must not share with the route it protects.
+     */
+    public enum DisjointMode {
+        /** Any route other than the protected one will do */
+        NONE,
+        /** No link in common */
+        LINK,
+        /** No link and no intermediate switch in common */
+        NODE
+    }
+
     public void modifyLinkCost(DatapathId srcDpid,DatapathId dstDpid,short cost);
     public Route getRoute(DatapathId srcDpid,OFPort srcPort,DatapathId dstDpid,OFPort dstPort);
 	public MultiRoute getMultiRoute(DatapathId srcDpid, DatapathId dstDpid);
+	/**
+	 * @param route a route returned by {@link #getRoute}
+	 * @return a route between the same switch ports that is disjoint from
+	 * route as required by the current {@link DisjointMode}, or null if
+	 * there is none
+	 */
 	public Route getBackupRoute(Route route);
+	/**
+	 * Forget the route cached between two switch ports, typically once the
+	 * last flow installed over it has ended. It is computed afresh the next
+	 * time it is asked for.
+	 */
+	public void releaseRoute(DatapathId srcDpid, OFPort srcPort, DatapathId dstDpid, OFPort dstPort);
+	public DisjointMode getDisjointMode();
+	/**
+	 * Change the disjointness required of backup routes. Cached routes are
+	 * recomputed.
+	 */
+	public void setDisjointMode(DisjointMode mode);
 }
@@ -0,0 +1,147 @@
+package net.floodlightcontroller.multipathrouting;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int elements in [0, capacity) keyed by int priorities,
+ * with O(log n) decrease-key. Each element can be in the heap at most once.
+ *
+ * The heap never allocates after construction (or after a {@link #ensureCapacity}
+ * that grows it), which lets a Dijkstra search reuse it from call to call.
+ * Not thread-safe.
+ */
+public class IndexedMinHeap {
+    private int[] heap;     // heap position -> element
+    private int[] position; // element -> heap position, -1 if not queued
+    private int[] key;      // element -> priority
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        key = new int[capacity];
+        Arrays.fill(position, -1);
+        size = 0;
+    }
+
+    /**
+     * Make room for elements in [0, capacity). Empties the heap if it has
+     * to grow.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= position.length) {
+            return;
+        }
+        heap = new int[capacity];
+        position = new int[capacity];
+        key = new int[capacity];
+        Arrays.fill(position, -1);
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int element) {
+        return position[element] >= 0;
+    }
+
+    /**
+     * Queue an element, or lower its priority if it is already queued with
+     * a higher one.
+     * @return true if the element was queued or its priority lowered
+     */
+    public boolean offer(int element, int priority) {
+        int pos = position[element];
+        if (pos < 0) {
+            pos = size++;
+            heap[pos] = element;
+            position[element] = pos;
+            key[element] = priority;
+        } else if (priority < key[element]) {
+            key[element] = priority;
+        } else {
+            return false;
+        }
+        siftUp(pos);
+        return true;
+    }
+
+    /**
+     * @return the priority of the head of the heap
+     */
+    public int peekKey() {
+        return key[heap[0]];
+    }
+
+    /**
+     * Remove and return the element with the lowest priority.
+     */
+    public int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Empty the heap in O(size).
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int pos) {
+        int element = heap[pos];
+        int k = key[element];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            int p = heap[parent];
+            if (key[p] <= k) {
+                break;
+            }
+            heap[pos] = p;
+            position[p] = pos;
+            pos = parent;
+        }
+        heap[pos] = element;
+        position[element] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int element = heap[pos];
+        int k = key[element];
+        int half = size >>> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int c = heap[child];
+            int right = child + 1;
+            if (right < size && key[heap[right]] < key[c]) {
+                child = right;
+                c = heap[child];
+            }
+            if (k <= key[c]) {
+                break;
+            }
+            heap[pos] = c;
+            position[c] = pos;
+            pos = child;
+        }
+        heap[pos] = element;
+        position[element] = pos;
+    }
+}
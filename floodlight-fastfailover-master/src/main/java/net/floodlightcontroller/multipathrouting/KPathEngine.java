@@ -0,0 +1,352 @@
+package net.floodlightcontroller.multipathrouting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import net.floodlightcontroller.multipathrouting.IMultiPathRoutingService.DisjointMode;
+
+/**
+ * Multi-path computations over a {@link CompactGraph} snapshot.
+ *
+ * Paths are returned as arrays of edge indices from source to destination.
+ * The snapshot is never modified; every re-weighting happens on private
+ * copies of its cost array.
+ *
+ * Not thread-safe, as it drives the given {@link ShortestPathSearch}.
+ */
+public class KPathEngine {
+    private final CompactGraph graph;
+    private final ShortestPathSearch search;
+
+    /*
+     * A candidate path of Yen's algorithm. Two candidates are equal if they
+     * take the same edges, whatever their recorded cost.
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        private final int[] edges;
+        private final int cost;
+
+        Candidate(int[] edges, int cost) {
+            this.edges = edges;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            if (cost != o.cost) {
+                return cost < o.cost ? -1 : 1;
+            }
+            return edges.length - o.edges.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(edges);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Candidate))
+                return false;
+            return Arrays.equals(edges, ((Candidate) obj).edges);
+        }
+    }
+
+    public KPathEngine(CompactGraph graph, ShortestPathSearch search) {
+        this.graph = graph;
+        this.search = search;
+        search.setGraph(graph);
+    }
+
+    /**
+     * @return the cost of a path under the snapshot's link costs
+     */
+    public int pathCost(int[] path) {
+        int cost = 0;
+        for (int e : path) {
+            cost += graph.getEdgeCost(e);
+        }
+        return cost;
+    }
+
+    /**
+     * Yen's algorithm: the k cheapest loopless paths from src to dst, in
+     * order of increasing cost.
+     * @param src the dense index of the source node
+     * @param dst the dense index of the destination node
+     * @param k the maximum number of paths to return
+     * @return up to k distinct paths; empty if dst is unreachable
+     */
+    public List<int[]> shortestPaths(int src, int dst, int k) {
+        List<int[]> result = new ArrayList<int[]>();
+        if (k <= 0 || src == dst || search.run(src, dst, null) == ShortestPathSearch.UNREACHABLE) {
+            return result;
+        }
+        int[] first = Arrays.copyOf(search.getPath(), search.extractPath(dst));
+        result.add(first);
+
+        PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+        Set<Candidate> seen = new HashSet<Candidate>();
+        seen.add(new Candidate(first, 0));
+
+        int[] base = graph.getEdgeCosts();
+        int[] costs = graph.copyEdgeCosts();
+        int[] blocked = new int[costs.length];
+
+        while (result.size() < k) {
+            int[] prev = result.get(result.size() - 1);
+            int rootCost = 0;
+            for (int i = 0; i < prev.length; i++) {
+                int spur = graph.getEdgeSource(prev[i]);
+                int blockedCount = 0;
+
+                // Don't find the paths we already have that share this root again
+                for (int[] p : result) {
+                    if (p.length > i && costs[p[i]] >= 0 && samePrefix(p, prev, i)) {
+                        costs[p[i]] = -1;
+                        blocked[blockedCount++] = p[i];
+                    }
+                }
+                // Make the root's switches dead ends, so the spur can't loop back
+                for (int j = 0; j < i; j++) {
+                    int node = graph.getEdgeSource(prev[j]);
+                    for (int e = graph.getEdgeStart(node), end = graph.getEdgeEnd(node); e < end; e++) {
+                        if (costs[e] >= 0) {
+                            costs[e] = -1;
+                            blocked[blockedCount++] = e;
+                        }
+                    }
+                }
+
+                int spurCost = search.run(spur, dst, costs);
+                if (spurCost != ShortestPathSearch.UNREACHABLE) {
+                    int length = search.extractPath(dst);
+                    int[] path = new int[i + length];
+                    System.arraycopy(prev, 0, path, 0, i);
+                    System.arraycopy(search.getPath(), 0, path, i, length);
+                    Candidate c = new Candidate(path, rootCost + spurCost);
+                    if (seen.add(c)) {
+                        candidates.add(c);
+                    }
+                }
+
+                for (int j = 0; j < blockedCount; j++) {
+                    costs[blocked[j]] = base[blocked[j]];
+                }
+                rootCost += base[prev[i]];
+            }
+
+            Candidate next = candidates.poll();
+            if (next == null) {
+                break;
+            }
+            result.add(next.edges);
+        }
+        return result;
+    }
+
+    private static boolean samePrefix(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Suurballe's algorithm: the pair of disjoint paths from src to dst with
+     * the lowest total cost. Note that the cheapest path overall need not be
+     * part of that pair.
+     *
+     * This is run as a min-cost flow of two units on the snapshot with
+     * every switch split into an in and an out half, using Dijkstra with
+     * node potentials for both augmentations. Links are treated as
+     * undirected: a path never uses a link the other one takes in either
+     * direction. In {@link DisjointMode#NODE} mode the halves of every
+     * intermediate switch are joined with capacity one.
+     * @param src the dense index of the source node
+     * @param dst the dense index of the destination node
+     * @param mode LINK or NODE; NONE is treated like LINK
+     * @return two disjoint paths, the cheaper first; a single shortest path
+     * if no disjoint pair exists; nothing if dst is unreachable
+     */
+    public List<int[]> disjointPaths(int src, int dst, DisjointMode mode) {
+        List<int[]> result = new ArrayList<int[]>();
+        if (src == dst) {
+            return result;
+        }
+
+        /*
+         * Flow network: node v is split into v (in) and v+n (out). Arc 2e is
+         * the link edge e from out(source) to in(target), arc 2E+2v joins the
+         * halves of v; arc a^1 is always the residual of arc a.
+         */
+        int n = graph.getNodeCount();
+        int edges = graph.getEdgeCount();
+        int arcs = 2 * (edges + n);
+        int[] head = new int[arcs];
+        int[] cap = new int[arcs];
+        int[] cost = new int[arcs];
+        int[] next = new int[arcs];
+        int[] first = new int[2 * n];
+        Arrays.fill(first, -1);
+
+        for (int e = 0; e < edges; e++) {
+            int c = graph.getEdgeCost(e);
+            addArc(2 * e, graph.getEdgeSource(e) + n, graph.getEdgeTarget(e), c < 0 ? 0 : 1, c,
+                    head, cap, cost, next, first);
+        }
+        for (int v = 0; v < n; v++) {
+            int c = (mode == DisjointMode.NODE && v != src && v != dst) ? 1 : 2;
+            addArc(2 * edges + 2 * v, v, v + n, c, 0, head, cap, cost, next, first);
+        }
+
+        int source = src;
+        int sink = dst + n;
+        int[] potential = new int[2 * n];
+        int[] dist = new int[2 * n];
+        int[] prevArc = new int[2 * n];
+        IndexedMinHeap heap = new IndexedMinHeap(2 * n);
+
+        int units = 0;
+        for (; units < 2; units++) {
+            Arrays.fill(dist, ShortestPathSearch.UNREACHABLE);
+            dist[source] = 0;
+            prevArc[source] = -1;
+            heap.offer(source, 0);
+            while (!heap.isEmpty()) {
+                int u = heap.poll();
+                for (int a = first[u]; a >= 0; a = next[a]) {
+                    int v = head[a];
+                    if (cap[a] == 0 || potential[v] == ShortestPathSearch.UNREACHABLE) {
+                        continue;
+                    }
+                    // Reduced costs are non-negative on every residual arc
+                    int d = dist[u] + cost[a] + potential[u] - potential[v];
+                    if (d < dist[v]) {
+                        dist[v] = d;
+                        prevArc[v] = a;
+                        heap.offer(v, d);
+                    }
+                }
+            }
+            if (dist[sink] == ShortestPathSearch.UNREACHABLE) {
+                break;
+            }
+            for (int v = 0; v < 2 * n; v++) {
+                if (dist[v] == ShortestPathSearch.UNREACHABLE) {
+                    // Can't become reachable through the residuals of this path either
+                    potential[v] = ShortestPathSearch.UNREACHABLE;
+                } else if (potential[v] != ShortestPathSearch.UNREACHABLE) {
+                    potential[v] += dist[v];
+                }
+            }
+            for (int v = sink; v != source; v = head[prevArc[v] ^ 1]) {
+                cap[prevArc[v]]--;
+                cap[prevArc[v] ^ 1]++;
+            }
+        }
+
+        // Flow on a link edge is the capacity its residual picked up
+        int[] flow = new int[edges];
+        for (int e = 0; e < edges; e++) {
+            flow[e] = cap[2 * e + 1];
+        }
+        // Only zero-cost links can carry flow both ways; that's no path at all
+        for (int e = 0; e < edges; e++) {
+            int r = graph.getEdgeReverse(e);
+            if (r >= 0 && flow[e] > 0 && flow[r] > 0) {
+                flow[e] = 0;
+                flow[r] = 0;
+            }
+        }
+
+        for (int u = 0; u < units; u++) {
+            int[] path = new int[edges];
+            int length = 0;
+            int at = src;
+            while (at != dst && length < edges) {
+                int e = graph.getEdgeStart(at);
+                int end = graph.getEdgeEnd(at);
+                while (e < end && flow[e] == 0) {
+                    e++;
+                }
+                if (e == end) {
+                    break;
+                }
+                flow[e] = 0;
+                path[length++] = e;
+                at = graph.getEdgeTarget(e);
+            }
+            if (at == dst) {
+                result.add(Arrays.copyOf(path, length));
+            }
+        }
+        if (result.size() == 2 && pathCost(result.get(1)) < pathCost(result.get(0))) {
+            result.add(result.remove(0));
+        }
+        return result;
+    }
+
+    private static void addArc(int a, int from, int to, int capacity, int c,
+            int[] head, int[] cap, int[] cost, int[] next, int[] first) {
+        head[a] = to;
+        cap[a] = capacity;
+        cost[a] = c;
+        next[a] = first[from];
+        first[from] = a;
+
+        head[a + 1] = from;
+        cap[a + 1] = 0;
+        cost[a + 1] = -c;
+        next[a + 1] = first[to];
+        first[to] = a + 1;
+    }
+
+    /**
+     * The shortest path from src to dst that is disjoint from a given path.
+     * @param avoid the edges of the path to avoid
+     * @param mode LINK avoids the path's links in both directions, NODE
+     * also its intermediate switches, NONE only requires a different path
+     * @return the path, or null if there is none
+     */
+    public int[] shortestPathAvoiding(int src, int dst, int[] avoid, DisjointMode mode) {
+        if (src == dst) {
+            return null;
+        }
+        if (mode == DisjointMode.NONE) {
+            for (int[] p : shortestPaths(src, dst, 2)) {
+                if (!Arrays.equals(p, avoid)) {
+                    return p;
+                }
+            }
+            return null;
+        }
+
+        int[] costs = graph.copyEdgeCosts();
+        for (int i = 0; i < avoid.length; i++) {
+            int e = avoid[i];
+            costs[e] = -1;
+            if (graph.getEdgeReverse(e) >= 0) {
+                costs[graph.getEdgeReverse(e)] = -1;
+            }
+            int node = graph.getEdgeTarget(e);
+            if (mode == DisjointMode.NODE && node != dst) {
+                for (int o = graph.getEdgeStart(node), end = graph.getEdgeEnd(node); o < end; o++) {
+                    costs[o] = -1;
+                }
+            }
+        }
+        if (search.run(src, dst, costs) == ShortestPathSearch.UNREACHABLE) {
+            return null;
+        }
+        return Arrays.copyOf(search.getPath(), search.extractPath(dst));
+    }
+}
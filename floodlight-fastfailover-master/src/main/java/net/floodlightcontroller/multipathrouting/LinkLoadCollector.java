@@ -0,0 +1,160 @@
+package net.floodlightcontroller.multipathrouting;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFPortStatsEntry;
+import org.projectfloodlight.openflow.protocol.OFPortStatsReply;
+import org.projectfloodlight.openflow.protocol.OFPortStatsRequest;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Tracks how busy every switch port is from its transmit byte counter.
+ *
+ * Each {@link #poll()} asks all switches for their port statistics. The rate
+ * between two consecutive replies for a port, as a fraction of the port's
+ * current speed, is folded into an exponentially weighted moving average
+ * (EWMA) with weight alpha for the newest sample. A link is as busy as the
+ * busier of its two directions.
+ *
+ * This class is thread-safe; replies are processed on whatever thread
+ * completes them.
+ */
+public class LinkLoadCollector {
+    protected static final Logger log = LoggerFactory.getLogger(LinkLoadCollector.class);
+
+    /* Assumed for ports that don't report their speed (e.g. OpenFlow 1.0), 1 Gb/s */
+    protected static final long DEFAULT_PORT_SPEED_KBPS = 1000000;
+
+    private static class PortLoad {
+        long txBytes;
+        long timeNs;
+        boolean sampled;
+        volatile double utilization;
+    }
+
+    private final IOFSwitchService switchService;
+    private final double alpha;
+    private final ConcurrentHashMap<NodePortTuple, PortLoad> ports =
+            new ConcurrentHashMap<NodePortTuple, PortLoad>();
+
+    /**
+     * @param switchService where to find the switches to poll
+     * @param alpha the weight of the newest sample, in (0, 1]
+     */
+    public LinkLoadCollector(IOFSwitchService switchService, double alpha) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("EWMA weight must be in (0, 1], not " + alpha);
+        }
+        this.switchService = switchService;
+        this.alpha = alpha;
+    }
+
+    /**
+     * Ask every active switch for the statistics of all its ports. Returns
+     * at once; the replies are accounted for as they come in.
+     */
+    public void poll() {
+        for (DatapathId dpid : switchService.getAllSwitchDpids()) {
+            final IOFSwitch sw = switchService.getSwitch(dpid);
+            if (sw == null || !sw.isActive()) {
+                continue;
+            }
+            OFPortStatsRequest request = sw.getOFFactory().buildPortStatsRequest()
+                    .setPortNo(OFPort.ANY)
+                    .build();
+            final ListenableFuture<List<OFPortStatsReply>> future = sw.writeStatsRequest(request);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        update(sw, future.get());
+                    } catch (Exception e) {
+                        log.debug("No port statistics from switch {}: {}", sw.getId(), e.toString());
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+    }
+
+    protected void update(IOFSwitch sw, List<OFPortStatsReply> replies) {
+        long now = System.nanoTime();
+        for (OFPortStatsReply reply : replies) {
+            for (OFPortStatsEntry entry : reply.getEntries()) {
+                update(sw.getId(), entry.getPortNo(), entry.getTxBytes().getValue(),
+                        getSpeedKbps(sw, entry.getPortNo()), now);
+            }
+        }
+    }
+
+    private static long getSpeedKbps(IOFSwitch sw, OFPort port) {
+        OFPortDesc desc = sw.getPort(port);
+        try {
+            if (desc != null && desc.getCurrSpeed() > 0) {
+                return desc.getCurrSpeed();
+            }
+        } catch (UnsupportedOperationException e) {
+            // Only OpenFlow 1.1 and later describe the speed in kbps
+        }
+        return DEFAULT_PORT_SPEED_KBPS;
+    }
+
+    /**
+     * Account for a reading of a port's transmit byte counter.
+     * @param speedKbps the port's current speed
+     * @param nowNs when the reading was taken, in System.nanoTime() terms
+     */
+    protected void update(DatapathId dpid, OFPort port, long txBytes, long speedKbps, long nowNs) {
+        NodePortTuple npt = new NodePortTuple(dpid, port);
+        PortLoad load = ports.get(npt);
+        if (load == null) {
+            load = new PortLoad();
+            PortLoad existing = ports.putIfAbsent(npt, load);
+            if (existing != null) {
+                load = existing;
+            }
+        }
+
+        synchronized (load) {
+            // The first reading, or a counter that went back (e.g. the switch
+            // restarted), only gives a new baseline
+            if (load.sampled && nowNs > load.timeNs && txBytes >= load.txBytes) {
+                double bitsPerSec = (txBytes - load.txBytes) * 8e9 / (nowNs - load.timeNs);
+                double utilization = bitsPerSec / (speedKbps * 1000.0);
+                load.utilization = alpha * utilization + (1 - alpha) * load.utilization;
+            }
+            load.txBytes = txBytes;
+            load.timeNs = nowNs;
+            load.sampled = true;
+        }
+    }
+
+    /**
+     * @return the averaged fraction of the port's speed it transmits at, 0 if
+     * nothing is known about the port yet
+     */
+    public double getUtilization(DatapathId dpid, OFPort port) {
+        PortLoad load = ports.get(new NodePortTuple(dpid, port));
+        return load == null ? 0 : load.utilization;
+    }
+
+    /**
+     * @return the utilization of the link between two switch ports, i.e. of
+     * its busier direction
+     */
+    public double getUtilization(NodePortTuple src, NodePortTuple dst) {
+        return Math.max(getUtilization(src.getNodeId(), src.getPortId()),
+                getUtilization(dst.getNodeId(), dst.getPortId()));
+    }
+}
@@ -1,22 +1,32 @@
 package net.floodlightcontroller.multipathrouting;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.List;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.PriorityQueue;
 import java.util.LinkedList;
 
 import net.floodlightcontroller.core.FloodlightContext;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.core.util.SingletonTask;
+import net.floodlightcontroller.failovermon.IFailoverLatencyService;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscovery;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
 import net.floodlightcontroller.topology.ITopologyListener;
@@ -25,12 +35,14 @@ import net.floodlightcontroller.topology.NodePortTuple;
 import net.floodlightcontroller.routing.Route;
 import net.floodlightcontroller.routing.RouteId;
 import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.multipathrouting.IMultiPathRoutingService.DisjointMode;
 import net.floodlightcontroller.multipathrouting.types.LinkWithCost;
 import net.floodlightcontroller.multipathrouting.types.MultiRoute;
 import net.floodlightcontroller.multipathrouting.types.NodeCost;
 import net.floodlightcontroller.multipathrouting.types.FlowId;
 
 import net.floodlightcontroller.restserver.IRestApiService;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
 
 import org.projectfloodlight.openflow.util.HexString;
 
@@ -40,6 +52,8 @@ import org.slf4j.LoggerFactory;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFPort;
@@ -49,11 +63,42 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
     protected IFloodlightProviderService floodlightProvider;
     protected ITopologyService topologyService;
     protected IRestApiService restApi;
+    protected IFailoverLatencyService failoverLatency;
+    protected IOFSwitchService switchService;
+    protected IThreadPoolService threadPoolService;
+
+    /**
+     * How the route for a new flow is picked among the precomputed paths.
+     */
+    public enum PathSelection {
+        /** Take turns */
+        ROUND_ROBIN,
+        /** The path whose busiest link is the least busy */
+        LEAST_LOADED,
+        /** As LEAST_LOADED, and busy links also cost more to compute paths over */
+        LOAD_WEIGHTED
+    }
 
     protected final int ROUTE_LIMITATION = 10;
+    protected volatile DisjointMode disjointMode = DisjointMode.LINK;
+    protected PathSelection pathSelection = PathSelection.LEAST_LOADED;
     protected HashMap<DatapathId, HashSet<LinkWithCost>> dpidLinks;
     protected int pathCount = 0;
 
+    /*
+     * Paths are computed on a compact, immutable snapshot of dpidLinks that
+     * is rebuilt lazily whenever topologyVersion moves on. Each thread keeps
+     * its own Dijkstra workspace so searches don't allocate.
+     */
+    protected final AtomicLong topologyVersion = new AtomicLong();
+    protected volatile CompactGraph graph;
+    private final ThreadLocal<ShortestPathSearch> searches = new ThreadLocal<ShortestPathSearch>() {
+        @Override
+        protected ShortestPathSearch initialValue() {
+            return new ShortestPathSearch();
+        }
+    };
+
     protected class FlowCacheLoader extends CacheLoader<FlowId,Route> {
         MultiPathRouting mpr;
         FlowCacheLoader(MultiPathRouting mpr) {
@@ -83,6 +128,36 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
     private final PathCacheLoader pathCacheLoader = new PathCacheLoader(this);
     protected LoadingCache<RouteId,MultiRoute> pathcache;
 
+    /*
+     * Reverse indices over the caches so that a link event only throws
+     * away what it can actually affect:
+     *   linkRoutes - the cached multiroutes that traverse a (directed) link
+     *   routeFlows - the cached flow routes built from a multiroute
+     *   routeCosts - the cost of the most expensive path of a cached
+     *                multiroute, used to decide whether a new or cheaper
+     *                link could improve it
+     */
+    protected ConcurrentHashMap<LinkWithCost, Set<RouteId>> linkRoutes;
+    protected ConcurrentHashMap<RouteId, Set<FlowId>> routeFlows;
+    protected ConcurrentHashMap<RouteId, Integer> routeCosts;
+    /*
+     * Multiroutes invalidated while they were being loaded. Guava doesn't
+     * cancel a load in progress, so they are dropped again once stored.
+     */
+    protected Set<RouteId> staleRoutes;
+
+    /*
+     * Link utilization, polled from the port statistics unless paths are
+     * picked round-robin. Utilizations are compared in steps of
+     * 1/LOAD_LEVELS so that near-equal paths still take turns; in
+     * LOAD_WEIGHTED mode each step also adds 1 to the link's cost.
+     */
+    protected static final int LOAD_LEVELS = 10;
+    protected long loadPollIntervalMs = 5000;
+    protected double loadEwmaAlpha = 0.3;
+    protected LinkLoadCollector loadCollector;
+    protected SingletonTask loadTask;
+
     //
     //
     //ITopologyListener
@@ -98,11 +173,18 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
                 if (update.getOperation().equals(ILinkDiscovery.UpdateOperation.LINK_REMOVED)) {
                     removeLink(srcLink);
                     removeLink(dstLink);
-                    clearRoutingCache();
+                    invalidateRoutesUsing(srcLink);
+                    if (failoverLatency != null) {
+                        failoverLatency.recordReaction(IFailoverLatencyService.Stage.ROUTES_INVALIDATED,
+                                update.getSrc(), update.getSrcPort(), update.getDst(), update.getDstPort());
+                    }
                 } else if (update.getOperation().equals(ILinkDiscovery.UpdateOperation.LINK_UPDATED)) {
-                    addLink(srcLink);
-                    addLink(dstLink);
-                    clearRoutingCache();
+                    boolean added = addLink(srcLink);
+                    added |= addLink(dstLink);
+                    // An update for a link we already know doesn't change any path
+                    if (added) {
+                        invalidateRoutesImprovedBy(srcLink);
+                    }
                 }
             }
         }
@@ -112,27 +194,224 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
          flowcache.invalidateAll();
          pathcache.invalidateAll();
     }
-    public void removeLink(LinkWithCost link) {
+
+    /**
+     * Invalidate the cached multiroutes that traverse a link in either
+     * direction, along with the flow routes built from them. Everything
+     * else stays cached.
+     * @param link the link that went away or became more expensive
+     */
+    protected void invalidateRoutesUsing(LinkWithCost link) {
+        Set<RouteId> affected = new HashSet<RouteId>();
+        Set<RouteId> rids = linkRoutes.get(link);
+        if (rids != null) {
+            affected.addAll(rids);
+        }
+        rids = linkRoutes.get(link.getInverse());
+        if (rids != null) {
+            affected.addAll(rids);
+        }
+        for (RouteId rid : affected) {
+            invalidateRoute(rid);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Link {} invalidated {} of {} cached multiroutes",
+                    new Object[] { link, affected.size(), routeCosts.size() });
+        }
+    }
+
+    /**
+     * Invalidate the cached multiroutes that a new or cheaper link could
+     * improve. A path from s to d over the link (u,v) costs at least
+     * dist(s,u) + cost + dist(v,d), so only multiroutes whose most expensive
+     * path is dearer than that (in either direction of the link) need to be
+     * recomputed. Multiroutes holding fewer than ROUTE_LIMITATION paths may
+     * be missing any path, so they are dropped as soon as the link connects
+     * their endpoints.
+     * @param link the link that was added or became cheaper; its current
+     * cost must already be reflected in dpidLinks
+     */
+    protected void invalidateRoutesImprovedBy(LinkWithCost link) {
+        if (routeCosts.isEmpty()) {
+            return;
+        }
+        CompactGraph g = getGraph();
+        int[] fromSrc = computeCosts(g, g.getNodeIndex(link.getSrcDpid()));
+        int[] fromDst = computeCosts(g, g.getNodeIndex(link.getDstDpid()));
+        long cost = link.getWeight();
+
+        int count = 0;
+        for (Map.Entry<RouteId, Integer> entry : routeCosts.entrySet()) {
+            RouteId rid = entry.getKey();
+            long worst = entry.getValue();
+            // Links are symmetric, so dist(x,u) == dist(u,x)
+            int s = g.getNodeIndex(rid.getSrc());
+            int d = g.getNodeIndex(rid.getDst());
+            long viaForward = pathCost(fromSrc, s) + cost + pathCost(fromDst, d);
+            long viaReverse = pathCost(fromDst, s) + cost + pathCost(fromSrc, d);
+            if (Math.min(viaForward, viaReverse) < worst) {
+                invalidateRoute(rid);
+                count++;
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Link {} invalidated {} of {} cached multiroutes",
+                    new Object[] { link, count, routeCosts.size() + count });
+        }
+    }
+
+    private static long pathCost(int[] costs, int node) {
+        return (costs == null || node < 0) ? Integer.MAX_VALUE : costs[node];
+    }
+
+    /**
+     * @return the cost of the cheapest path from root to every node of the
+     * graph, {@link ShortestPathSearch#UNREACHABLE} for unreachable nodes;
+     * null if root is not in the graph
+     */
+    protected int[] computeCosts(CompactGraph g, int root) {
+        if (root < 0) {
+            return null;
+        }
+        ShortestPathSearch search = getSearch(g);
+        search.run(root, -1, null);
+        int[] costs = new int[g.getNodeCount()];
+        for (int n = 0; n < costs.length; n++) {
+            costs[n] = search.getDistance(n);
+        }
+        return costs;
+    }
+
+    /**
+     * Drop a multiroute and the flow routes derived from it from the caches.
+     */
+    protected void invalidateRoute(RouteId rid) {
+        // Indexed but not cached yet means it is still being loaded
+        if (routeCosts.containsKey(rid) && pathcache.getIfPresent(rid) == null) {
+            staleRoutes.add(rid);
+        }
+        pathcache.invalidate(rid);
+        Set<FlowId> fids = routeFlows.remove(rid);
+        if (fids != null) {
+            flowcache.invalidateAll(fids);
+        }
+    }
+
+    /**
+     * Record which links a freshly computed multiroute traverses and how
+     * expensive its worst path is.
+     */
+    protected void indexMultiRoute(RouteId rid, MultiRoute routes) {
+        int worst = 0;
+        if (routes.getRouteSize() < ROUTE_LIMITATION) {
+            // Not every path made it in, so a link of any cost can add one
+            worst = Integer.MAX_VALUE;
+        }
+        for (Route r : routes.getRoutes()) {
+            List<NodePortTuple> path = r.getPath();
+            int cost = 0;
+            for (int idx = 0; idx + 1 < path.size(); idx += 2) {
+                LinkWithCost link = getLink(path.get(idx), path.get(idx + 1));
+                if (link == null) {
+                    // Raced with a link removal; drop the route once it is stored
+                    staleRoutes.add(rid);
+                    cost = Integer.MAX_VALUE;
+                    link = new LinkWithCost(path.get(idx).getNodeId(), path.get(idx).getPortId(),
+                            path.get(idx + 1).getNodeId(), path.get(idx + 1).getPortId(), 0);
+                } else if (cost != Integer.MAX_VALUE) {
+                    cost += link.getWeight();
+                }
+                Set<RouteId> rids = linkRoutes.get(link);
+                if (rids == null) {
+                    rids = Collections.newSetFromMap(new ConcurrentHashMap<RouteId, Boolean>());
+                    Set<RouteId> existing = linkRoutes.putIfAbsent(link, rids);
+                    if (existing != null) {
+                        rids = existing;
+                    }
+                }
+                rids.add(rid);
+            }
+            worst = Math.max(worst, cost);
+        }
+        routeCosts.put(rid, worst);
+    }
+
+    /**
+     * Undo {@link #indexMultiRoute} once a multiroute leaves the cache.
+     */
+    protected void unindexMultiRoute(RouteId rid, MultiRoute routes) {
+        routeCosts.remove(rid);
+        if (routes == null) {
+            return;
+        }
+        MultiRoute live = pathcache.getIfPresent(rid);
+        for (Route r : routes.getRoutes()) {
+            List<NodePortTuple> path = r.getPath();
+            for (int idx = 0; idx + 1 < path.size(); idx += 2) {
+                LinkWithCost link = new LinkWithCost(path.get(idx).getNodeId(), path.get(idx).getPortId(),
+                        path.get(idx + 1).getNodeId(), path.get(idx + 1).getPortId(), 0);
+                Set<RouteId> rids = linkRoutes.get(link);
+                if (rids != null) {
+                    rids.remove(rid);
+                    if (rids.isEmpty()) {
+                        linkRoutes.remove(link, rids);
+                    }
+                }
+            }
+        }
+        // The notification may trail a reload of the same multiroute
+        if (live != null && live != routes) {
+            indexMultiRoute(rid, live);
+        }
+    }
+
+    /**
+     * @return the link from src to dst in dpidLinks, or null if there is none
+     */
+    private synchronized LinkWithCost getLink(NodePortTuple src, NodePortTuple dst) {
+        HashSet<LinkWithCost> links = dpidLinks.get(src.getNodeId());
+        if (links == null) {
+            return null;
+        }
+        for (LinkWithCost link : links) {
+            if (link.getSrcPort().equals(src.getPortId())
+                    && link.getDstDpid().equals(dst.getNodeId())
+                    && link.getDstPort().equals(dst.getPortId())) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void removeLink(LinkWithCost link) {
         DatapathId dpid = link.getSrcDpid();
 
         if (null == dpidLinks.get(dpid)) {
             return;
         }
 
-		dpidLinks.get(dpid).remove(link);
+		if (dpidLinks.get(dpid).remove(link))
+            topologyVersion.incrementAndGet();
         if (0 == dpidLinks.get(dpid).size())
        		dpidLinks.remove(dpid);
     }
-    public void addLink(LinkWithCost link) {
+    /**
+     * @return true if the link was not known before
+     */
+    public synchronized boolean addLink(LinkWithCost link) {
         DatapathId dpid = link.getSrcDpid();
 
         if (null == dpidLinks.get(dpid)) {
             HashSet<LinkWithCost> links = new HashSet<LinkWithCost>();
             links.add(link);
             dpidLinks.put(dpid,links);
-        } else {
-            dpidLinks.get(dpid).add(link);
+            topologyVersion.incrementAndGet();
+            return true;
+        } else if (dpidLinks.get(dpid).add(link)) {
+            topologyVersion.incrementAndGet();
+            return true;
         }
+        return false;
     }
     public Route buildFlowRoute(FlowId fid) {
         DatapathId srcDpid = fid.getSrc();
@@ -146,7 +425,7 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
         Route result = null;
 
         try {
-            routes = pathcache.get(new RouteId(srcDpid,dstDpid));
+            routes = getCachedMultiRoute(new RouteId(srcDpid,dstDpid));
         } catch (Exception e) {
             logger.error("error {}",e.toString());
         }
@@ -154,7 +433,7 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
         if (0 == routes.getRouteSize()) {
             result = null;
 		} else {
-            result = routes.getRoute();
+            result = selectRoute(routes);
 		}
 
         if (result != null) {
@@ -168,50 +447,187 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
         npt = new NodePortTuple(dstDpid, dstPort);
         nptList.add(npt);
 
-        result = new Route(new RouteId(srcDpid,dstDpid), nptList);
+        RouteId rid = new RouteId(srcDpid,dstDpid);
+        Set<FlowId> fids = routeFlows.get(rid);
+        if (fids == null) {
+            fids = Collections.newSetFromMap(new ConcurrentHashMap<FlowId, Boolean>());
+            Set<FlowId> existing = routeFlows.putIfAbsent(rid, fids);
+            if (existing != null) {
+                fids = existing;
+            }
+        }
+        fids.add(fid);
+
+        result = new Route(rid, nptList);
         return result;
     }
 
+    /**
+     * @return the route a new flow should take among the paths of routes,
+     * which must not be empty
+     */
+    protected Route selectRoute(MultiRoute routes) {
+        LinkLoadCollector collector = loadCollector;
+        if (collector == null) {
+            return routes.getRoute();
+        }
+        List<Route> paths = routes.getRoutes();
+        int[] loads = new int[paths.size()];
+        for (int i = 0; i < loads.length; i++) {
+            List<NodePortTuple> path = paths.get(i).getPath();
+            for (int idx = 0; idx + 1 < path.size(); idx += 2) {
+                loads[i] = Math.max(loads[i],
+                        loadLevel(collector.getUtilization(path.get(idx), path.get(idx + 1))));
+            }
+        }
+        return routes.getLeastLoadedRoute(loads);
+    }
+
+    private static int loadLevel(double utilization) {
+        return (int) Math.min(LOAD_LEVELS, utilization * LOAD_LEVELS);
+    }
+
+    /**
+     * Charge every link a load cost of its current load level, and drop the
+     * cached routes that this could make or break.
+     */
+    protected void updateLoadCosts() {
+        List<LinkWithCost> dearer = new ArrayList<LinkWithCost>();
+        List<LinkWithCost> cheaper = new ArrayList<LinkWithCost>();
+        synchronized (this) {
+            for (HashSet<LinkWithCost> links : dpidLinks.values()) {
+                for (LinkWithCost link : links) {
+                    int level = loadLevel(loadCollector.getUtilization(
+                            new NodePortTuple(link.getSrcDpid(), link.getSrcPort()),
+                            new NodePortTuple(link.getDstDpid(), link.getDstPort())));
+                    if (level != link.getLoadCost()) {
+                        (level > link.getLoadCost() ? dearer : cheaper).add(link);
+                        link.setLoadCost(level);
+                    }
+                }
+            }
+            if (dearer.isEmpty() && cheaper.isEmpty()) {
+                return;
+            }
+            topologyVersion.incrementAndGet();
+        }
+
+        for (LinkWithCost link : dearer) {
+            invalidateRoutesUsing(link);
+        }
+        for (LinkWithCost link : cheaper) {
+            invalidateRoutesUsing(link);
+            invalidateRoutesImprovedBy(link);
+        }
+        logger.debug("Load costs of {} links changed", dearer.size() + cheaper.size());
+    }
+
     public MultiRoute buildMultiRoute(RouteId rid) {
-        return computeMultiPath(rid);
+        // Compute again if the topology changed under the search
+        MultiRoute routes;
+        long version;
+        do {
+            version = topologyVersion.get();
+            routes = computeMultiPath(rid);
+        } while (version != topologyVersion.get());
+        indexMultiRoute(rid, routes);
+        return routes;
+    }
+
+    /**
+     * Get a multiroute from the cache, loading it again if it went stale
+     * while it was being loaded.
+     */
+    protected MultiRoute getCachedMultiRoute(RouteId rid) throws ExecutionException {
+        MultiRoute routes = pathcache.get(rid);
+        while (staleRoutes.remove(rid)) {
+            invalidateRoute(rid);
+            routes = pathcache.get(rid);
+        }
+        return routes;
     }
 
     public MultiRoute computeMultiPath(RouteId rid) {
         DatapathId srcDpid = rid.getSrc();
         DatapathId dstDpid = rid.getDst();
         MultiRoute routes = new MultiRoute();
-        
-        HashMap<DatapathId, HashSet<LinkWithCost>> links = new HashMap<DatapathId, HashSet<LinkWithCost>>();
-        //keep a deep cloned copy because we will change the costs in calculation but don't want to affect the real ones.
-        for(DatapathId dpid : dpidLinks.keySet()){
-        	links.put(dpid, dpidLinks.get(dpid));
-        }
 
-        if (srcDpid == dstDpid) {
+        if (srcDpid.equals(dstDpid)) {
             return routes;
 		}
 
-        if (null == dpidLinks.get(srcDpid) || null == dpidLinks.get(dstDpid)) {
+        CompactGraph graph = getGraph();
+        int src = graph.getNodeIndex(srcDpid);
+        int dst = graph.getNodeIndex(dstDpid);
+        if (src < 0 || dst < 0) {
             return routes;
 		}
-        pathCount = 0;
-        
-        Route route1 = buildShortestPath(srcDpid, dstDpid, links);
-        //System.out.print("Route: "+route1.toString()+".\n");
-        routes.addRoute(route1);
-        HashMap<DatapathId, HashSet<LinkWithCost>> modifiedLinks = neglectLinks(links, route1);
-        Route backupRoute = buildShortestPath(srcDpid, dstDpid, modifiedLinks);
-        //System.out.print("BackupRoute: "+backupRoute.toString()+".\n");
-        routes.addRoute(backupRoute);
-        ////Do again. Just in case.
-        //HashMap<DatapathId, HashSet<LinkWithCost>> modifiedLinks2 = neglectLinks(links, backupRoute);
-        //Route backupRoute2 = buildShortestPath(srcDpid, dstDpid, modifiedLinks2);
-        //System.out.print("BackupRoute: "+backupRoute.toString()+".\n");
-        //routes.addRoute(backupRoute2);
-        
+        KPathEngine engine = new KPathEngine(graph, getSearch(graph));
+        List<int[]> paths = new ArrayList<int[]>();
+        // Lead with the cheapest disjoint pair: the shortest path alone may
+        // have no disjoint backup at all...
+        if (disjointMode != DisjointMode.NONE) {
+            paths.addAll(engine.disjointPaths(src, dst, disjointMode));
+        }
+        // ...then fill up with the k shortest paths
+        for (int[] path : engine.shortestPaths(src, dst, ROUTE_LIMITATION)) {
+            if (paths.size() >= ROUTE_LIMITATION) {
+                break;
+            }
+            if (!containsPath(paths, path)) {
+                paths.add(path);
+            }
+        }
+
+        for (int[] path : paths) {
+            routes.addRoute(graph.toRoute(path, path.length));
+        }
+        pathCount = routes.getRouteSize();
         return routes;
     }
-    
+
+    private static boolean containsPath(List<int[]> paths, int[] path) {
+        for (int[] p : paths) {
+            if (Arrays.equals(p, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the graph snapshot for the current topology version, rebuilt
+     * from dpidLinks if the topology changed since the last snapshot
+     */
+    protected CompactGraph getGraph() {
+        CompactGraph g = graph;
+        long version = topologyVersion.get();
+        if (g != null && g.getVersion() == version) {
+            return g;
+        }
+        synchronized (this) {
+            g = graph;
+            if (g == null || g.getVersion() != version) {
+                g = CompactGraph.build(version, dpidLinks);
+                graph = g;
+            }
+            return g;
+        }
+    }
+
+    /**
+     * @return this thread's Dijkstra workspace, ready to search the graph
+     */
+    protected ShortestPathSearch getSearch(CompactGraph g) {
+        ShortestPathSearch search = searches.get();
+        search.setGraph(g);
+        return search;
+    }
+
+    /**
+     * The original HashMap/PriorityQueue based implementation, kept as a
+     * reference for the compact graph search (see MultiPathRoutingBenchmark).
+     */
     public Route buildShortestPath(DatapathId srcDpid, DatapathId dstDpid, HashMap<DatapathId, HashSet<LinkWithCost>> links) {
     	HashMap<DatapathId, LinkWithCost> previous = new HashMap<DatapathId, LinkWithCost>();
     	previous = runDijkstra(srcDpid, dstDpid, links);
@@ -258,8 +674,12 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
     	DatapathId current = dstDpid;
     	LinkedList<NodePortTuple> switchPorts = new LinkedList<NodePortTuple>();
     	
-    	while( current != srcDpid){
+    	while( !current.equals(srcDpid)){
     		LinkWithCost link = previous.get(current);
+    		if (link == null) {
+    			// dstDpid is not reachable from srcDpid
+    			return null;
+    		}
     		NodePortTuple npt = new NodePortTuple(link.getDstDpid(), link.getDstPort());
             NodePortTuple npt2 = new NodePortTuple(link.getSrcDpid(), link.getSrcPort());
             switchPorts.addFirst(npt2);
@@ -273,23 +693,6 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
         return result;
     }
     
-    private HashMap<DatapathId, HashSet<LinkWithCost>> neglectLinks(HashMap<DatapathId, HashSet<LinkWithCost>> links, Route route1) {
-    	if(null != route1) {
-    		List<NodePortTuple> switchPorts = route1.getPath();
-    		for (int idx = switchPorts.size() - 1; idx > 0; idx -= 2) {
-    			// indx and indx-1 will always have the same switch DPID.
-    			DatapathId dstDpid = switchPorts.get(idx).getNodeId();
-    			DatapathId srcDpid = switchPorts.get(idx-1).getNodeId();
-    			for(LinkWithCost link: links.get(srcDpid)) {
-                    if (link.getSrcDpid() == srcDpid && link.getDstDpid() == dstDpid) {
-                        link.setCost(10);
-                    }
-    			}
-    		}
-    	}
-    	return links;
-    }
-    
 /*    public void generateMultiPath(MultiRoute routes, DatapathId srcDpid, DatapathId dstDpid, DatapathId current, HashMap<DatapathId, HashSet<LinkWithCost>> previous,LinkedList<NodePortTuple> switchPorts)
     {   if (pathCount >=ROUTE_LIMITATION) {
             return ;
@@ -316,15 +719,26 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
         return ;
     }*/
 
-    private void updateLinkCost(DatapathId srcDpid,DatapathId dstDpid,int cost) {
+    /**
+     * @return the links between the two switches whose cost was changed, as
+     * they were before the change
+     */
+    private synchronized List<LinkWithCost> updateLinkCost(DatapathId srcDpid,DatapathId dstDpid,int cost) {
+        List<LinkWithCost> changed = new ArrayList<LinkWithCost>();
         if (null != dpidLinks.get(srcDpid)) {
             for(LinkWithCost link: dpidLinks.get(srcDpid)) {
-                if (link.getSrcDpid() == srcDpid && link.getDstDpid() == dstDpid) {
-                    link.setCost(cost);
-                    return;
+                if (link.getSrcDpid().equals(srcDpid) && link.getDstDpid().equals(dstDpid)) {
+                    if (link.getCost() != cost) {
+                        changed.add(new LinkWithCost(link.getSrcDpid(), link.getSrcPort(),
+                                link.getDstDpid(), link.getDstPort(), link.getCost()));
+                        link.setCost(cost);
+                        topologyVersion.incrementAndGet();
+                    }
+                    break;
                 }
             }
         }
+        return changed;
     }
 
     //
@@ -359,50 +773,60 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
     public Route getBackupRoute(Route route1){
     	DatapathId srcDpid = route1.getId().getSrc();
     	DatapathId dstDpid = route1.getId().getDst();
-    	NodePortTuple ingress = route1.getPath().get(0);
-    	NodePortTuple egress = route1.getPath().get(route1.getPath().size() -1);
-    ///System.out.println("Inside getBAckupRoute function..." + route1.toString() +" ");
-    	List<NodePortTuple> nptList;
-    	Route backupRoute = null;
-    	// call getRoute again to get shortest route
-        MultiRoute multiRoute = getMultiRoute(srcDpid,dstDpid);
-        //System.out.println("The whole multiroute array: "+multiRoute.getRoutes().toString());
-        //System.out.println("The route count value " +multiRoute.getRouteCount());
-		 backupRoute = multiRoute.getRoute();
-		
-		//while(backupRoute == route1){
-			// call again when the first returned route is in use.
-			//backupRoute = multiRoute.getRoute();
-			//System.out.println("------Log------ Route in use, get another one.");
-		//}
-		
-		if (backupRoute != null) {
-			nptList= new ArrayList<NodePortTuple>(backupRoute.getPath());
-        } else {
-        	nptList = new ArrayList<NodePortTuple>();
+    	List<NodePortTuple> path = route1.getPath();
+    	if (srcDpid.equals(dstDpid) || path.size() < 4) {
+    		return null;
+    	}
+    	NodePortTuple ingress = path.get(0);
+    	NodePortTuple egress = path.get(path.size() -1);
+    	DisjointMode mode = disjointMode;
+
+    	Route backupRoute = computeBackupRoute(srcDpid, dstDpid, path.subList(1, path.size() - 1), mode);
+    	if (backupRoute == null) {
+    		logger.warn("No backup route ({} disjoint) for {}", mode, route1);
+    		return null;
+    	}
+
+    	List<NodePortTuple> nptList = new ArrayList<NodePortTuple>(backupRoute.getPath());
+    	nptList.add(0, new NodePortTuple(ingress.getNodeId(), ingress.getPortId()));
+    	nptList.add(new NodePortTuple(egress.getNodeId(), egress.getPortId()));
+    	return new Route(new RouteId(srcDpid,dstDpid), nptList);
+    }
+
+    /**
+     * @param inUse the switch-to-switch part of the route to protect
+     * @return the cheapest route between the switches that is disjoint from
+     * inUse as required by mode, or null if there is none
+     */
+    protected Route computeBackupRoute(DatapathId srcDpid, DatapathId dstDpid, List<NodePortTuple> inUse, DisjointMode mode) {
+        CompactGraph graph = getGraph();
+        int src = graph.getNodeIndex(srcDpid);
+        int dst = graph.getNodeIndex(dstDpid);
+        if (src < 0 || dst < 0) {
+            return null;
         }
-		
-		NodePortTuple npt = new NodePortTuple(ingress.getNodeId(), ingress.getPortId());
-        nptList.add(0, npt);
-        npt = new NodePortTuple(egress.getNodeId(), egress.getPortId());
-        nptList.add(npt);
 
-        backupRoute = new Route(new RouteId(srcDpid,dstDpid), nptList);
-        
-        //System.out.println("!!!!Route In Use!!!! "+route1.toString());
-       
-        while(backupRoute.equals(route1))
-        {
-        	System.out.println("###############While Loop Running############");
-        	backupRoute = multiRoute.getRoute();
-        	nptList= new ArrayList<NodePortTuple>(backupRoute.getPath());
-        	npt = new NodePortTuple(ingress.getNodeId(), ingress.getPortId());
-            nptList.add(0, npt);
-            npt = new NodePortTuple(egress.getNodeId(), egress.getPortId());
-            nptList.add(npt);
-            backupRoute = new Route(new RouteId(srcDpid,dstDpid), nptList);
-        }	
-		return backupRoute;
+        int[] avoid = new int[inUse.size() / 2];
+        int length = 0;
+        for (int idx = 0; idx + 1 < inUse.size(); idx += 2) {
+            NodePortTuple out = inUse.get(idx);
+            NodePortTuple in = inUse.get(idx + 1);
+            int e = graph.findEdge(out.getNodeId(), out.getPortId(), in.getNodeId(), in.getPortId());
+            // A link that is already gone can't be shared
+            if (e >= 0) {
+                avoid[length++] = e;
+            }
+        }
+
+        KPathEngine engine = new KPathEngine(graph, getSearch(graph));
+        int[] backup = engine.shortestPathAvoiding(src, dst, Arrays.copyOf(avoid, length), mode);
+        return backup == null ? null : graph.toRoute(backup, backup.length);
+    }
+
+    @Override
+    public void releaseRoute(DatapathId srcDpid, OFPort srcPort, DatapathId dstDpid, OFPort dstPort) {
+        // The removal listener takes care of routeFlows
+        flowcache.invalidate(new FlowId(srcDpid, srcPort, dstDpid, dstPort));
     }
 
 	@Override
@@ -416,7 +840,7 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
 		MultiRoute result = null;
 
 		try {
-			result = pathcache.get(rId);
+			result = getCachedMultiRoute(rId);
 		} catch (Exception e) {
 			logger.error("error {}", e.toString());
 		}
@@ -424,11 +848,33 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
 		return result;
 	}
 
+    @Override
+    public DisjointMode getDisjointMode() {
+        return disjointMode;
+    }
+
+    @Override
+    public void setDisjointMode(DisjointMode mode) {
+        if (mode != disjointMode) {
+            disjointMode = mode;
+            clearRoutingCache();
+        }
+    }
+
     @Override
     public void modifyLinkCost(DatapathId srcDpid,DatapathId dstDpid,short cost) {
-        updateLinkCost(srcDpid,dstDpid,cost);
-        updateLinkCost(dstDpid,srcDpid,cost);
-        clearRoutingCache();
+        List<LinkWithCost> changed = updateLinkCost(srcDpid,dstDpid,cost);
+        changed.addAll(updateLinkCost(dstDpid,srcDpid,cost));
+
+        for (LinkWithCost old : changed) {
+            // Paths over this link keep their shape but not their cost
+            invalidateRoutesUsing(old);
+            if (cost < old.getCost()) {
+                // ...and other paths may now want to use it
+                invalidateRoutesImprovedBy(new LinkWithCost(old.getSrcDpid(), old.getSrcPort(),
+                        old.getDstDpid(), old.getDstPort(), cost));
+            }
+        }
     }
 
 
@@ -461,6 +907,8 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
         new ArrayList<Class<? extends IFloodlightService>>();
         l.add(IFloodlightProviderService.class);
         l.add(ITopologyService.class);
+        l.add(IOFSwitchService.class);
+        l.add(IThreadPoolService.class);
 //      l.add(IRestApiService.class);
         return l;
     }
@@ -471,11 +919,59 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
         floodlightProvider = context.getServiceImpl(IFloodlightProviderService.class);
         topologyService    = context.getServiceImpl(ITopologyService.class);
         restApi = context.getServiceImpl(IRestApiService.class);
+        failoverLatency = context.getServiceImpl(IFailoverLatencyService.class);
+        switchService = context.getServiceImpl(IOFSwitchService.class);
+        threadPoolService = context.getServiceImpl(IThreadPoolService.class);
         logger = LoggerFactory.getLogger(MultiPathRouting.class);
+
+        Map<String, String> configParameters = context.getConfigParams(this);
+        String tmp = configParameters.get("disjoint-mode");
+        if (tmp != null) {
+            try {
+                disjointMode = DisjointMode.valueOf(tmp.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unknown disjoint-mode {}, expected none, link or node", tmp);
+            }
+        }
+        logger.info("Backup routes are {}-disjoint", disjointMode.toString().toLowerCase());
+        tmp = configParameters.get("path-selection");
+        if (tmp != null) {
+            try {
+                pathSelection = PathSelection.valueOf(tmp.trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unknown path-selection {}, expected round-robin, least-loaded or load-weighted", tmp);
+            }
+        }
+        tmp = configParameters.get("load-poll-interval-ms");
+        if (tmp != null) {
+            loadPollIntervalMs = Long.parseLong(tmp.trim());
+        }
+        tmp = configParameters.get("load-ewma-alpha");
+        if (tmp != null) {
+            loadEwmaAlpha = Double.parseDouble(tmp.trim());
+        }
+        if (pathSelection != PathSelection.ROUND_ROBIN) {
+            loadCollector = new LinkLoadCollector(switchService, loadEwmaAlpha);
+        }
+        logger.info("Paths for new flows are picked {}", pathSelection.toString().toLowerCase().replace('_', '-'));
         dpidLinks = new HashMap<DatapathId, HashSet<LinkWithCost>>();
+        linkRoutes = new ConcurrentHashMap<LinkWithCost, Set<RouteId>>();
+        routeFlows = new ConcurrentHashMap<RouteId, Set<FlowId>>();
+        routeCosts = new ConcurrentHashMap<RouteId, Integer>();
+        staleRoutes = Collections.newSetFromMap(new ConcurrentHashMap<RouteId, Boolean>());
 
         flowcache = CacheBuilder.newBuilder().concurrencyLevel(4)
                     .maximumSize(1000L)
+                    .removalListener(new RemovalListener<FlowId,Route>() {
+                        @Override
+                        public void onRemoval(RemovalNotification<FlowId,Route> notification) {
+                            FlowId fid = notification.getKey();
+                            Set<FlowId> fids = routeFlows.get(new RouteId(fid.getSrc(), fid.getDst()));
+                            if (fids != null) {
+                                fids.remove(fid);
+                            }
+                        }
+                    })
                     .build(
                             new CacheLoader<FlowId,Route>() {
                                 public Route load(FlowId fid) {
@@ -484,6 +980,12 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
                            });
         pathcache = CacheBuilder.newBuilder().concurrencyLevel(4)
                     .maximumSize(1000L)
+                    .removalListener(new RemovalListener<RouteId,MultiRoute>() {
+                        @Override
+                        public void onRemoval(RemovalNotification<RouteId,MultiRoute> notification) {
+                            unindexMultiRoute(notification.getKey(), notification.getValue());
+                        }
+                    })
                     .build(
                             new CacheLoader<RouteId,MultiRoute>() {
                                 public MultiRoute load(RouteId rid) {
@@ -495,6 +997,25 @@ public class MultiPathRouting implements IFloodlightModule ,ITopologyListener, I
     @Override
     public void startUp(FloodlightModuleContext context) {
         topologyService.addListener(this);
+        if (loadCollector != null) {
+            loadTask = new SingletonTask(threadPoolService.getScheduledExecutor(), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // Weigh links by what the previous poll brought in
+                        if (pathSelection == PathSelection.LOAD_WEIGHTED) {
+                            updateLoadCosts();
+                        }
+                        loadCollector.poll();
+                    } catch (Exception e) {
+                        logger.error("Exception polling link load", e);
+                    } finally {
+                        loadTask.reschedule(loadPollIntervalMs, TimeUnit.MILLISECONDS);
+                    }
+                }
+            });
+            loadTask.reschedule(loadPollIntervalMs, TimeUnit.MILLISECONDS);
+        }
         //restApi.addRestletRoutable(new MultiPathRoutingWebRoutable());
     }
 }
@@ -0,0 +1,153 @@
+package net.floodlightcontroller.multipathrouting;
+
+import java.util.Arrays;
+
+/**
+ * Reusable Dijkstra workspace over a {@link CompactGraph}.
+ *
+ * All per-node state lives in int arrays that are sized once for the
+ * largest graph seen and then reused. Instead of clearing them between
+ * runs, every run bumps an epoch and a node's state only counts if it was
+ * written in the current epoch, so a search costs O(E log V) for the part
+ * of the graph it actually visits and allocates nothing.
+ *
+ * Not thread-safe; keep one per thread.
+ */
+public class ShortestPathSearch {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private CompactGraph graph;
+    private int[] dist = new int[0];
+    private int[] prevEdge = new int[0];
+    private int[] stamp = new int[0];
+    private int epoch = 0;
+    private final IndexedMinHeap heap = new IndexedMinHeap(0);
+    private int[] path = new int[0];
+
+    /**
+     * Point the workspace at a graph, growing its arrays if needed.
+     */
+    public void setGraph(CompactGraph graph) {
+        this.graph = graph;
+        int n = graph.getNodeCount();
+        if (dist.length < n) {
+            dist = new int[n];
+            prevEdge = new int[n];
+            stamp = new int[n];
+            path = new int[n];
+            epoch = 0;
+        }
+        heap.ensureCapacity(n);
+    }
+
+    public CompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Run Dijkstra from src.
+     * @param src the dense index of the source node
+     * @param dst the dense index of the destination node, the search stops
+     * as soon as it is settled; -1 to compute costs to every node
+     * @param costs per-edge weights to use, or null for the graph's own
+     * costs. A negative weight removes the edge from the search.
+     * @return the cost of the cheapest path to dst, 0 if dst is -1, or
+     * {@link #UNREACHABLE}
+     */
+    public int run(int src, int dst, int[] costs) {
+        if (costs == null) {
+            costs = graph.getEdgeCosts();
+        }
+        nextEpoch();
+        heap.clear();
+
+        label(src, 0, -1);
+        heap.offer(src, 0);
+        while (!heap.isEmpty()) {
+            int node = heap.poll();
+            if (node == dst) {
+                break;
+            }
+            int d = dist[node];
+            for (int e = graph.getEdgeStart(node), end = graph.getEdgeEnd(node); e < end; e++) {
+                int c = costs[e];
+                if (c < 0) {
+                    continue;
+                }
+                int t = graph.getEdgeTarget(e);
+                int nd = d + c;
+                if (nd < 0) {
+                    nd = UNREACHABLE - 1;
+                }
+                if (stamp[t] != epoch) {
+                    label(t, nd, e);
+                    heap.offer(t, nd);
+                } else if (nd < dist[t] && (heap.contains(t))) {
+                    dist[t] = nd;
+                    prevEdge[t] = e;
+                    heap.offer(t, nd);
+                }
+            }
+        }
+        return dst < 0 ? 0 : getDistance(dst);
+    }
+
+    /**
+     * @return the cost of the cheapest path to a node found by the last run,
+     * or {@link #UNREACHABLE}
+     */
+    public int getDistance(int node) {
+        return stamp[node] == epoch ? dist[node] : UNREACHABLE;
+    }
+
+    /**
+     * @return the edge used to reach a node in the last run, -1 for the
+     * source or an unreached node
+     */
+    public int getPreviousEdge(int node) {
+        return stamp[node] == epoch ? prevEdge[node] : -1;
+    }
+
+    /**
+     * Walk the predecessor edges of the last run back from dst into the
+     * path buffer, see {@link #getPath()}.
+     * @return the number of edges on the path to dst, 0 if dst is the
+     * source, -1 if it was not reached
+     */
+    public int extractPath(int dst) {
+        if (stamp[dst] != epoch) {
+            return -1;
+        }
+        int length = 0;
+        for (int e = prevEdge[dst]; e >= 0; e = prevEdge[graph.getEdgeSource(e)]) {
+            path[length++] = e;
+        }
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            int tmp = path[i];
+            path[i] = path[j];
+            path[j] = tmp;
+        }
+        return length;
+    }
+
+    /**
+     * @return the buffer filled by {@link #extractPath(int)}, overwritten
+     * by the next call
+     */
+    public int[] getPath() {
+        return path;
+    }
+
+    private void label(int node, int d, int e) {
+        stamp[node] = epoch;
+        dist[node] = d;
+        prevEdge[node] = e;
+    }
+
+    private void nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            epoch = 1;
+        }
+    }
+}
@@ -11,6 +11,8 @@ public class LinkWithCost{
 	protected DatapathId dst;
     protected OFPort dstPort;
     protected int cost;
+    /* Added to the cost while the link is busy, see MultiPathRouting */
+    protected int loadCost;
 
     public LinkWithCost(DatapathId srcDpid, OFPort srcPort, DatapathId dstDpid, OFPort dstPort,int cost) {
         this.src = srcDpid;
@@ -40,6 +42,21 @@ public class LinkWithCost{
     public void setCost(int cost) {
         this.cost = cost;
     }
+
+    public int getLoadCost() {
+        return loadCost;
+    }
+
+    public void setLoadCost(int loadCost) {
+        this.loadCost = loadCost;
+    }
+
+    /**
+     * @return what paths over the link are charged: its cost plus its load cost
+     */
+    public int getWeight() {
+        return cost + loadCost;
+    }
     public String toString() {
         return "LinkWithCost [src=" + HexString.toHexString(this.src.getLong()) 
                 + " outPort="
@@ -49,9 +66,15 @@ public class LinkWithCost{
                 + (dstPort.getPortNumber() & 0xffff)
                 + ", cost ="
                 + cost
+                + (loadCost != 0 ? "+" + loadCost : "")
                 + "]";
     }
     
+    /*
+     * A link is identified by its endpoints only. The cost is a mutable
+     * attribute, so it must not take part in hashCode/equals or links
+     * would get lost in the hash sets and indices that hold them.
+     */
     public int hashCode() {
         final int prime = 56;
         int result = 1;
@@ -59,7 +82,6 @@ public class LinkWithCost{
         result = prime * result + dstPort.getPortNumber();
         result = prime * result + (int) (src.getLong() ^ (src.getLong() >>> 32));
         result = prime * result + srcPort.getPortNumber();
-        result = prime * result + cost;
         return result;
     }
 
@@ -72,15 +94,13 @@ public class LinkWithCost{
         if (getClass() != obj.getClass())
             return false;
         LinkWithCost other = (LinkWithCost)obj;
-        if (dst != other.dst)
-            return false;
-        if (dstPort != other.dstPort)
+        if (!dst.equals(other.dst))
             return false;
-        if (src != other.src)
+        if (!dstPort.equals(other.dstPort))
             return false;
-        if (srcPort != other.srcPort)
+        if (!src.equals(other.src))
             return false;
-        if (cost  != other.cost)
+        if (!srcPort.equals(other.srcPort))
             return false;
         return true;
     }
@@ -26,6 +26,23 @@ public class MultiRoute {
         return routes.get(routeCount);
     }
 
+    /**
+     * @param loads the load of every route, in the order of getRoutes()
+     * @return the least loaded route; equally loaded routes take turns, as
+     * with getRoute()
+     */
+    public Route getLeastLoadedRoute(int[] loads) {
+        int best = -1;
+        for (int i = 1; i <= routeSize; i++) {
+            int idx = (routeCount + i) % routeSize;
+            if (best < 0 || loads[idx] < loads[best]) {
+                best = idx;
+            }
+        }
+        routeCount = best;
+        return routes.get(best);
+    }
+
     public int getRouteCount() {
         return routeCount;
     }
@@ -0,0 +1,116 @@
+package net.floodlightcontroller.packet;
+
+import net.floodlightcontroller.core.FloodlightContextStore;
+
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.MacAddress;
+
+/**
+ * A read-only view of an Ethernet frame that reads header fields straight
+ * from the raw bytes, and only decodes the frame into an {@link Ethernet}
+ * packet tree when {@link #get()} is first called.
+ *
+ * Frames of 16 bytes or less are treated as {@link Ethernet#deserialize}
+ * treats them: their header fields are all null.
+ *
+ * Not thread-safe; a view belongs to the packet-in it was made for.
+ */
+public class EthernetView extends FloodlightContextStore.Lazy<Ethernet> {
+    private static final int ETHERTYPE_OFFSET = 12;
+    private static final int VLAN_TAG_LENGTH = 4;
+    private static final int MIN_LENGTH = 17;
+
+    private final byte[] data;
+    private Ethernet ethernet;
+
+    public EthernetView(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * @return the raw frame; not a copy, so don't change it
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    private boolean isValid() {
+        return data.length >= MIN_LENGTH;
+    }
+
+    private int getUnsignedShort(int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private long getMac(int offset) {
+        long mac = 0;
+        for (int i = 0; i < Ethernet.DATALAYER_ADDRESS_LENGTH; i++) {
+            mac = (mac << 8) | (data[offset + i] & 0xff);
+        }
+        return mac;
+    }
+
+    public MacAddress getDestinationMACAddress() {
+        return isValid() ? MacAddress.of(getMac(0)) : null;
+    }
+
+    public MacAddress getSourceMACAddress() {
+        return isValid() ? MacAddress.of(getMac(Ethernet.DATALAYER_ADDRESS_LENGTH)) : null;
+    }
+
+    /**
+     * @return whether the frame carries an 802.1Q tag
+     */
+    public boolean isTagged() {
+        return isValid() && getUnsignedShort(ETHERTYPE_OFFSET) == EthType.VLAN_FRAME.getValue();
+    }
+
+    /**
+     * @return the VLAN ID of the tag, {@link Ethernet#VLAN_UNTAGGED} if there is none
+     */
+    public short getVlanID() {
+        if (!isTagged()) {
+            return Ethernet.VLAN_UNTAGGED;
+        }
+        return (short) (getUnsignedShort(ETHERTYPE_OFFSET + 2) & 0x0fff);
+    }
+
+    /**
+     * @return the ethertype of the payload, behind the 802.1Q tag if any
+     */
+    public EthType getEtherType() {
+        int offset = getPayloadOffset() - 2;
+        if (!isValid() || offset + 2 > data.length) {
+            return null;
+        }
+        return EthType.of(getUnsignedShort(offset));
+    }
+
+    /**
+     * @return where the payload of the frame starts in {@link #getData()}
+     */
+    public int getPayloadOffset() {
+        return ETHERTYPE_OFFSET + 2 + (isTagged() ? VLAN_TAG_LENGTH : 0);
+    }
+
+    /**
+     * @return whether the packet tree has been decoded already
+     */
+    public boolean isDecoded() {
+        return ethernet != null;
+    }
+
+    /**
+     * @return the frame decoded into its packet tree, decoding it on the
+     * first call
+     */
+    @Override
+    public Ethernet get() {
+        if (ethernet == null) {
+            Ethernet eth = new Ethernet();
+            eth.deserialize(data, 0, data.length);
+            ethernet = eth;
+        }
+        return ethernet;
+    }
+}
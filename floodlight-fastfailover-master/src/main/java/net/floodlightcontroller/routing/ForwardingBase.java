@@ -424,14 +424,15 @@ public abstract class ForwardingBase implements IOFMessageListener {
 		pob.setInPort(inPort);
 
 		pob.setData(packetData);
+		OFPacketOut po = pob.build();
 
 		try {
 			if (log.isTraceEnabled()) {
 				log.trace("write broadcast packet on switch-id={} " +
 						"interfaces={} packet-out={}",
-						new Object[] {sw.getId(), outPorts, pob.build()});
+						new Object[] {sw.getId(), outPorts, po});
 			}
-			messageDamper.write(sw, pob.build());
+			messageDamper.write(sw, po);
 
 		} catch (IOException e) {
 			log.error("Failure writing packet out", e);
@@ -46,7 +46,7 @@ public interface IRoutingDecision {
     }
 
     public static final FloodlightContextStore<IRoutingDecision> rtStore =
-        new FloodlightContextStore<IRoutingDecision>();
+        new FloodlightContextStore<IRoutingDecision>(IRoutingDecision.CONTEXT_DECISION);
     public static final String CONTEXT_DECISION =
             "net.floodlightcontroller.routing.decision";
 
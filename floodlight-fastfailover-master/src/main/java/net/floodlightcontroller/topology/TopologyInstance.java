@@ -17,6 +17,8 @@
 package net.floodlightcontroller.topology;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -24,6 +26,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFPort;
@@ -31,9 +37,11 @@ import org.projectfloodlight.openflow.types.U64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 
 import net.floodlightcontroller.util.ClusterDFS;
 import net.floodlightcontroller.core.annotations.LogMessageCategory;
@@ -78,10 +86,18 @@ public class TopologyInstance {
     protected Set<Cluster> clusters;  // set of openflow domains
     protected Map<DatapathId, Cluster> switchClusterMap; // switch to OF domain map
 
-    // States for routing
-    protected Map<DatapathId, BroadcastTree> destinationRootedTrees;
-    protected Map<DatapathId, Set<NodePortTuple>> clusterBroadcastNodePorts;
-    protected Map<DatapathId, BroadcastTree> clusterBroadcastTrees;
+    // States for routing; replaced as a whole by compute, never modified.
+    // With lazy trees, destinationRootedTrees only has the cluster ids.
+    protected volatile Map<DatapathId, BroadcastTree> destinationRootedTrees;
+    protected volatile Map<DatapathId, Set<NodePortTuple>> clusterBroadcastNodePorts;
+    protected volatile Map<DatapathId, BroadcastTree> clusterBroadcastTrees;
+    // The link costs the destination rooted trees were computed with
+    protected Map<Link, Integer> linkCost;
+    // Where compute runs the trees of the clusters; null for the calling thread
+    protected ForkJoinPool computePool;
+    // With lazy trees, the trees of destinations other than the cluster
+    // ids, computed when first routed to; null if compute builds them all
+    protected LoadingCache<DatapathId, BroadcastTree> treeCache;
 
     protected class PathCacheLoader extends CacheLoader<RouteId, Route> {
         TopologyInstance ti;
@@ -165,7 +181,57 @@ public class TopologyInstance {
                             });
     }
 
+    /**
+     * Have compute build only the trees the broadcast trees are taken
+     * from, and build the tree of any other destination when a route to
+     * it is first asked for. This keeps memory from growing with the
+     * square of the number of switches when few of them are routed to.
+     * Must be called before compute.
+     * @param maxCachedNodes how many nodes the trees built on demand may
+     * hold between them before the least recently used are dropped
+     */
+    public void setLazyTrees(long maxCachedNodes) {
+        // One segment, so the bound holds for the whole cache rather than
+        // being split between segments; trees are built outside its lock
+        treeCache = CacheBuilder.newBuilder().concurrencyLevel(1)
+                .maximumWeight(maxCachedNodes)
+                .weigher(new Weigher<DatapathId, BroadcastTree>() {
+                    @Override
+                    public int weigh(DatapathId dst, BroadcastTree tree) {
+                        return tree.getLinks().size();
+                    }
+                })
+                .build(new CacheLoader<DatapathId, BroadcastTree>() {
+                    @Override
+                    public BroadcastTree load(DatapathId dst) {
+                        return dijkstra(switchClusterMap.get(dst), dst, linkCost, true);
+                    }
+                });
+    }
+
     public void compute() {
+        compute(null);
+    }
+
+    /**
+     * Compute the clusters and trees of this instance, reusing the
+     * destination rooted trees of a previous instance where the links
+     * they were computed from did not change.
+     * @param previous the instance this one replaces, or null to compute
+     * everything from scratch
+     */
+    public void compute(TopologyInstance previous) {
+        compute(previous, null);
+    }
+
+    /**
+     * Compute as {@link #compute(TopologyInstance)}, with the trees of the
+     * clusters computed in parallel.
+     * @param pool the pool that computes the trees, or null to compute them
+     * on the calling thread
+     */
+    public void compute(TopologyInstance previous, ForkJoinPool pool) {
+        this.computePool = pool;
 
         // Step 1: Compute clusters ignoring broadcast domain links
         // Create nodes for clusters in the higher level topology
@@ -179,7 +245,7 @@ public class TopologyInstance {
         // Step 2. Compute shortest path trees in each cluster for
         // unicast routing.  The trees are rooted at the destination.
         // Cost for tunnel links and direct links are the same.
-        calculateShortestPathTreeInClusters();
+        calculateShortestPathTreeInClusters(previous);
 
         // Step 3. Compute broadcast tree in each cluster.
         // Cost for tunnel links are high to discourage use of
@@ -541,10 +607,14 @@ public class TopologyInstance {
     }
 
     protected void calculateShortestPathTreeInClusters() {
+        calculateShortestPathTreeInClusters(null);
+    }
+
+    protected void calculateShortestPathTreeInClusters(TopologyInstance previous) {
         pathcache.invalidateAll();
-        destinationRootedTrees.clear();
+        if (treeCache != null) treeCache.invalidateAll();
 
-        Map<Link, Integer> linkCost = new HashMap<Link, Integer>();
+        linkCost = new HashMap<Link, Integer>();
         int tunnel_weight = switchPorts.size() + 1;
 
         for(NodePortTuple npt: tunnelPorts) {
@@ -555,46 +625,321 @@ public class TopologyInstance {
             }
         }
 
+        // Trees carried over as they are go straight in, the rest are
+        // computed by tasks that only read this instance
+        Map<DatapathId, BroadcastTree> trees = new HashMap<DatapathId, BroadcastTree>();
+        List<TreeTask> tasks = new ArrayList<TreeTask>();
+        int reused = 0;
         for(Cluster c: clusters) {
+            if (treeCache != null) {
+                // the rest are built on demand
+                tasks.add(new DijkstraTask(c, c.id));
+                continue;
+            }
+            if (previous != null && updateShortestPathTreesInCluster(c, previous, trees, tasks)) {
+                reused++;
+                continue;
+            }
             for (DatapathId node : c.links.keySet()) {
-                BroadcastTree tree = dijkstra(c, node, linkCost, true);
-                destinationRootedTrees.put(node, tree);
+                tasks.add(new DijkstraTask(c, node));
+            }
+        }
+        List<BroadcastTree> computed = invokeAll(tasks);
+        for (int i = 0; i < tasks.size(); i++) {
+            trees.put(tasks.get(i).root, computed.get(i));
+        }
+        destinationRootedTrees = Collections.unmodifiableMap(trees);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Updated the trees of {} of {} clusters from the previous instance, computed {} trees",
+                      new Object[] { reused, clusters.size(), tasks.size() });
+        }
+    }
+
+    /**
+     * Computes the destination rooted tree of one switch
+     */
+    protected abstract class TreeTask implements Callable<BroadcastTree> {
+        protected final Cluster c;
+        protected final DatapathId root;
+
+        TreeTask(Cluster c, DatapathId root) {
+            this.c = c;
+            this.root = root;
+        }
+    }
+
+    protected class DijkstraTask extends TreeTask {
+        DijkstraTask(Cluster c, DatapathId root) {
+            super(c, root);
+        }
+
+        @Override
+        public BroadcastTree call() {
+            return dijkstra(c, root, linkCost, true);
+        }
+    }
+
+    protected class AddLinksTask extends TreeTask {
+        private final BroadcastTree tree;
+        private final List<Link> added;
+
+        AddLinksTask(Cluster c, DatapathId root, BroadcastTree tree, List<Link> added) {
+            super(c, root);
+            this.tree = tree;
+            this.added = added;
+        }
+
+        @Override
+        public BroadcastTree call() {
+            return addLinksToTree(c, tree, added);
+        }
+    }
+
+    /**
+     * Run the tasks on the compute pool, or one after the other on this
+     * thread if there is none.
+     * @return the results, in the order of the tasks
+     */
+    protected <T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            if (computePool == null || tasks.size() < 2) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+            } else {
+                for (Future<T> result : computePool.invokeAll(tasks)) {
+                    results.add(result.get());
+                }
+            }
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted computing the topology", e);
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+        return results;
+    }
+
+    /**
+     * @return the tree of shortest paths to dst in its cluster, or null
+     * if dst is in no cluster
+     */
+    protected BroadcastTree getDestinationRootedTree(DatapathId dst) {
+        if (destinationRootedTrees == null) return null;
+        BroadcastTree tree = destinationRootedTrees.get(dst);
+        if (tree != null || treeCache == null) return tree;
+        Cluster c = switchClusterMap.get(dst);
+        if (c == null || !c.links.containsKey(dst)) return null;
+        return treeCache.getUnchecked(dst);
+    }
+
+    /**
+     * With lazy trees, build the trees of destinations about to be routed
+     * to, so the first routes to them don't wait for them. Does nothing
+     * if compute builds every tree.
+     */
+    public void prewarmTrees(Collection<DatapathId> destinations) {
+        if (treeCache == null) return;
+        List<TreeTask> tasks = new ArrayList<TreeTask>();
+        for (DatapathId dst : destinations) {
+            if (destinationRootedTrees.containsKey(dst)
+                    || treeCache.getIfPresent(dst) != null) continue;
+            Cluster c = switchClusterMap.get(dst);
+            if (c == null || !c.links.containsKey(dst)) continue;
+            tasks.add(new DijkstraTask(c, dst));
+        }
+        List<BroadcastTree> computed = invokeAll(tasks);
+        for (int i = 0; i < tasks.size(); i++) {
+            treeCache.put(tasks.get(i).root, computed.get(i));
+        }
+    }
+
+    private static int getLinkCost(Map<Link, Integer> linkCost, Link link) {
+        Integer w = linkCost.get(link);
+        return (w == null) ? 1 : w;
+    }
+
+    private static Set<Link> getClusterLinks(Cluster c) {
+        Set<Link> links = new HashSet<Link>();
+        for (Set<Link> nodeLinks : c.links.values()) {
+            links.addAll(nodeLinks);
+        }
+        return links;
+    }
+
+    /**
+     * Derive the destination rooted trees of a cluster from those of the
+     * same switches in the previous instance, if they formed a cluster
+     * there too. A tree that used a link since removed is computed again;
+     * the others stay shortest path trees with the links removed, and
+     * take in the links added by a decrease-only update. The tree of the
+     * cluster id, which the broadcast tree is taken from, is always
+     * computed again if any link changed, so that broadcast trees do not
+     * depend on the order of the updates.
+     * @param trees takes the trees carried over unchanged
+     * @param tasks takes the tasks that compute the others
+     * @return false if the trees could not be derived and must be
+     * computed from scratch
+     */
+    protected boolean updateShortestPathTreesInCluster(Cluster c, TopologyInstance previous,
+                                                       Map<DatapathId, BroadcastTree> trees,
+                                                       List<TreeTask> tasks) {
+        if (previous.switchClusterMap == null || previous.destinationRootedTrees == null
+                || previous.linkCost == null) {
+            return false;
+        }
+        Cluster old = previous.switchClusterMap.get(c.getId());
+        if (old == null || !old.getNodes().equals(c.getNodes())) {
+            return false;
+        }
+        for (DatapathId node : c.getNodes()) {
+            if (previous.destinationRootedTrees.get(node) == null) return false;
+        }
+
+        // A link whose cost changed counts as removed and added again
+        Set<Link> oldLinks = getClusterLinks(old);
+        Set<Link> newLinks = getClusterLinks(c);
+        List<Link> removed = new ArrayList<Link>();
+        List<Link> added = new ArrayList<Link>();
+        for (Link link : oldLinks) {
+            if (!newLinks.contains(link)
+                    || getLinkCost(previous.linkCost, link) != getLinkCost(linkCost, link)) {
+                removed.add(link);
+            }
+        }
+        for (Link link : newLinks) {
+            if (!oldLinks.contains(link)
+                    || getLinkCost(previous.linkCost, link) != getLinkCost(linkCost, link)) {
+                added.add(link);
+            }
+        }
+
+        for (DatapathId node : c.getNodes()) {
+            BroadcastTree tree = previous.destinationRootedTrees.get(node);
+            if (removed.isEmpty() && added.isEmpty()) {
+                trees.put(node, tree);
+            } else if (node.equals(c.getId()) || usesAnyLink(tree, removed)) {
+                tasks.add(new DijkstraTask(c, node));
+            } else {
+                tasks.add(new AddLinksTask(c, node, tree, added));
+            }
+        }
+        return true;
+    }
+
+    private static boolean usesAnyLink(BroadcastTree tree, List<Link> links) {
+        for (Link link : links) {
+            if (link.equals(tree.getTreeLink(link.getSrc()))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Update a destination rooted shortest path tree for links added to
+     * the cluster, propagating the costs they lower towards the sources.
+     * @return the tree if no cost went down, else an updated copy; trees
+     * are shared with the previous instance and never modified in place
+     */
+    protected BroadcastTree addLinksToTree(Cluster c, BroadcastTree tree, List<Link> added) {
+        HashMap<DatapathId, Link> nexthoplinks = tree.getLinks();
+        HashMap<DatapathId, Integer> cost = tree.getCosts();
+        boolean copied = false;
+        PriorityQueue<NodeDist> nodeq = new PriorityQueue<NodeDist>();
+
+        for (Link link : added) {
+            DatapathId src = link.getSrc();
+            if (src.equals(link.getDst())) continue;
+            int ndist = cost.get(link.getDst()) + getLinkCost(linkCost, link);
+            if (ndist >= cost.get(src)) continue;
+            if (!copied) {
+                nexthoplinks = new HashMap<DatapathId, Link>(nexthoplinks);
+                cost = new HashMap<DatapathId, Integer>(cost);
+                copied = true;
             }
+            cost.put(src, ndist);
+            nexthoplinks.put(src, link);
+            nodeq.add(new NodeDist(src, ndist));
         }
+        if (!copied) return tree;
+
+        while (nodeq.peek() != null) {
+            NodeDist n = nodeq.poll();
+            DatapathId cnode = n.getNode();
+            int cdist = n.getDist();
+            // a later entry for the node lowered its cost further
+            if (cdist > cost.get(cnode)) continue;
+
+            for (Link link: c.links.get(cnode)) {
+                DatapathId neighbor = link.getSrc();
+                // links directed away from cnode will result in this condition
+                if (neighbor.equals(cnode)) continue;
+
+                int ndist = cdist + getLinkCost(linkCost, link);
+                if (ndist < cost.get(neighbor)) {
+                    cost.put(neighbor, ndist);
+                    nexthoplinks.put(neighbor, link);
+                    nodeq.add(new NodeDist(neighbor, ndist));
+                }
+            }
+        }
+        return new BroadcastTree(nexthoplinks, cost);
     }
 
     protected void calculateBroadcastTreeInClusters() {
+        Map<DatapathId, BroadcastTree> broadcastTrees = new HashMap<DatapathId, BroadcastTree>();
         for(Cluster c: clusters) {
             // c.id is the smallest node that's in the cluster
             BroadcastTree tree = destinationRootedTrees.get(c.id);
-            clusterBroadcastTrees.put(c.id, tree);
+            broadcastTrees.put(c.id, tree);
         }
+        clusterBroadcastTrees = Collections.unmodifiableMap(broadcastTrees);
     }
 
     protected void calculateBroadcastNodePortsInClusters() {
 
-        clusterBroadcastTrees.clear();
-
         calculateBroadcastTreeInClusters();
 
+        List<DatapathId> clusterIds = new ArrayList<DatapathId>();
+        List<Callable<Set<NodePortTuple>>> tasks = new ArrayList<Callable<Set<NodePortTuple>>>();
         for(Cluster c: clusters) {
             // c.id is the smallest node that's in the cluster
-            BroadcastTree tree = clusterBroadcastTrees.get(c.id);
+            final BroadcastTree tree = clusterBroadcastTrees.get(c.id);
             //log.info("Broadcast Tree {}", tree);
+            if (tree.getLinks() == null) continue;
+            clusterIds.add(c.id);
+            tasks.add(new Callable<Set<NodePortTuple>>() {
+                @Override
+                public Set<NodePortTuple> call() {
+                    return getBroadcastNodePorts(tree);
+                }
+            });
+        }
 
-            Set<NodePortTuple> nptSet = new HashSet<NodePortTuple>();
-            Map<DatapathId, Link> links = tree.getLinks();
-            if (links == null) continue;
-            for(DatapathId nodeId: links.keySet()) {
-                Link l = links.get(nodeId);
-                if (l == null) continue;
-                NodePortTuple npt1 = new NodePortTuple(l.getSrc(), l.getSrcPort());
-                NodePortTuple npt2 = new NodePortTuple(l.getDst(), l.getDstPort());
-                nptSet.add(npt1);
-                nptSet.add(npt2);
-            }
-            clusterBroadcastNodePorts.put(c.id, nptSet);
+        List<Set<NodePortTuple>> nptSets = invokeAll(tasks);
+        Map<DatapathId, Set<NodePortTuple>> broadcastNodePorts =
+                new HashMap<DatapathId, Set<NodePortTuple>>();
+        for (int i = 0; i < clusterIds.size(); i++) {
+            broadcastNodePorts.put(clusterIds.get(i), nptSets.get(i));
+        }
+        clusterBroadcastNodePorts = Collections.unmodifiableMap(broadcastNodePorts);
+    }
+
+    private static Set<NodePortTuple> getBroadcastNodePorts(BroadcastTree tree) {
+        Set<NodePortTuple> nptSet = new HashSet<NodePortTuple>();
+        Map<DatapathId, Link> links = tree.getLinks();
+        for(DatapathId nodeId: links.keySet()) {
+            Link l = links.get(nodeId);
+            if (l == null) continue;
+            NodePortTuple npt1 = new NodePortTuple(l.getSrc(), l.getSrcPort());
+            NodePortTuple npt2 = new NodePortTuple(l.getDst(), l.getDstPort());
+            nptSet.add(npt1);
+            nptSet.add(npt2);
         }
+        return Collections.unmodifiableSet(nptSet);
     }
 
     protected Route buildroute(RouteId id) {
@@ -605,9 +950,10 @@ public class TopologyInstance {
         LinkedList<NodePortTuple> switchPorts = new LinkedList<NodePortTuple>();
 
         if (destinationRootedTrees == null) return null;
-        if (destinationRootedTrees.get(dstId) == null) return null;
+        BroadcastTree tree = getDestinationRootedTree(dstId);
+        if (tree == null) return null;
 
-        Map<DatapathId, Link> nexthoplinks = destinationRootedTrees.get(dstId).getLinks();
+        Map<DatapathId, Link> nexthoplinks = tree.getLinks();
 
         if (!switches.contains(srcId) || !switches.contains(dstId)) {
             // This is a switch that is not connected to any other switch
@@ -642,7 +988,7 @@ public class TopologyInstance {
     }
 
     protected int getCost(DatapathId srcId, DatapathId dstId) {
-        BroadcastTree bt = destinationRootedTrees.get(dstId);
+        BroadcastTree bt = getDestinationRootedTree(dstId);
         if (bt == null) return -1;
         return (bt.getCost(srcId));
     }
@@ -657,7 +1003,7 @@ public class TopologyInstance {
 
     // IRoutingEngineService interfaces
     protected boolean routeExists(DatapathId srcId, DatapathId dstId) {
-        BroadcastTree bt = destinationRootedTrees.get(dstId);
+        BroadcastTree bt = getDestinationRootedTree(dstId);
         if (bt == null) return false;
         Link link = bt.getLinks().get(srcId);
         if (link == null) return false;
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -45,6 +46,7 @@ import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.core.util.FrequencySketch;
 import net.floodlightcontroller.core.util.SingletonTask;
 import net.floodlightcontroller.debugcounter.IDebugCounter;
 import net.floodlightcontroller.debugcounter.IDebugCounterService;
@@ -160,6 +162,23 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 
 	protected int TOPOLOGY_COMPUTE_INTERVAL_MS = 500;
 
+	/* Computes the trees of new topology instances; null computes them on the topology thread */
+	protected ForkJoinPool computePool;
+
+	/*
+	 * With lazy trees, instances build the tree of a destination when it
+	 * is first routed to, and keep at most maxCachedTreeNodes tree nodes;
+	 * the prewarmTrees destinations most routed to lately are built with
+	 * each new instance.
+	 */
+	protected boolean lazyTrees = false;
+	protected static final long DEFAULT_MAX_CACHED_TREE_NODES = 1 << 20;
+	protected long maxCachedTreeNodes = DEFAULT_MAX_CACHED_TREE_NODES;
+	protected static final int DEFAULT_PREWARM_TREES = 64;
+	protected int prewarmTrees = DEFAULT_PREWARM_TREES;
+	/* Destinations of recent route requests */
+	protected FrequencySketch<DatapathId> routeRequests;
+
 	private IHAListener haListener;
 
 	/**
@@ -681,6 +700,7 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 	@Override
 	public Route getRoute(DatapathId src, DatapathId dst, U64 cookie, boolean tunnelEnabled) {
 		TopologyInstance ti = getCurrentInstance(tunnelEnabled);
+		if (routeRequests != null) routeRequests.increment(dst);
 		return ti.getRoute(src, dst, cookie);
 	}
 
@@ -693,6 +713,7 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 	public Route getRoute(DatapathId src, OFPort srcPort, DatapathId dst, OFPort dstPort, U64 cookie,
 			boolean tunnelEnabled) {
 		TopologyInstance ti = getCurrentInstance(tunnelEnabled);
+		if (routeRequests != null) routeRequests.increment(dst);
 		return ti.getRoute(null, src, srcPort, dst, dstPort, cookie);
 	}
 
@@ -860,6 +881,56 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 		haListener = new HAListenerDelegate();
 		registerTopologyDebugCounters();
 		registerTopologyDebugEvents();
+
+		/*
+		 * Threads computing the shortest path trees of a new topology;
+		 * 0 for the number of cores, 1 to compute them on the topology
+		 * thread alone.
+		 */
+		Map<String, String> configParams = context.getConfigParams(this);
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		String computeParallelism = configParams.get("computeParallelism");
+		if (computeParallelism != null && !computeParallelism.trim().isEmpty()) {
+			try {
+				int p = Integer.parseInt(computeParallelism.trim());
+				if (p < 0) {
+					throw new FloodlightModuleException("computeParallelism must not be negative, not " + computeParallelism);
+				}
+				if (p > 0) {
+					parallelism = p;
+				}
+			} catch (NumberFormatException e) {
+				throw new FloodlightModuleException("Invalid computeParallelism " + computeParallelism, e);
+			}
+		}
+		computePool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+		log.debug("Topology computed by {} threads", parallelism);
+
+		String lazy = configParams.get("lazyTrees");
+		if (lazy != null && !lazy.trim().isEmpty()) {
+			lazyTrees = Boolean.parseBoolean(lazy.trim());
+		}
+		if (lazyTrees) {
+			try {
+				String maxNodes = configParams.get("maxCachedTreeNodes");
+				if (maxNodes != null && !maxNodes.trim().isEmpty()) {
+					maxCachedTreeNodes = Long.parseLong(maxNodes.trim());
+				}
+				String prewarm = configParams.get("prewarmTrees");
+				if (prewarm != null && !prewarm.trim().isEmpty()) {
+					prewarmTrees = Integer.parseInt(prewarm.trim());
+				}
+			} catch (NumberFormatException e) {
+				throw new FloodlightModuleException("Invalid lazy tree option", e);
+			}
+			if (maxCachedTreeNodes < 0 || prewarmTrees < 0) {
+				throw new FloodlightModuleException("maxCachedTreeNodes and prewarmTrees must not be negative");
+			}
+			// Counts a few thousand destinations, halved every 100000 requests
+			routeRequests = new FrequencySketch<DatapathId>(4096, 100000);
+			log.info("Topology trees built on demand, at most {} nodes cached, {} prewarmed",
+					maxCachedTreeNodes, prewarmTrees);
+		}
 	}
 
 	protected void registerTopologyDebugEvents() throws FloodlightModuleException {
@@ -1225,7 +1296,14 @@ public class TopologyManager implements IFloodlightModule, ITopologyService, IRo
 				openflowLinks,
 				broadcastDomainPorts,
 				tunnelPorts);
-		nt.compute();
+		if (lazyTrees) {
+			nt.setLazyTrees(maxCachedTreeNodes);
+		}
+		// Only the clusters whose links changed need their trees computed
+		nt.compute(currentInstance, computePool);
+		if (lazyTrees && prewarmTrees > 0) {
+			nt.prewarmTrees(routeRequests.getHottest(nt.getSwitches(), prewarmTrees));
+		}
 		// We set the instances with and without tunnels to be identical.
 		// If needed, we may compute them differently.
 		currentInstance = nt;
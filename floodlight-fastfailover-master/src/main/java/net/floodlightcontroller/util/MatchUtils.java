@@ -1,7 +1,9 @@
 package net.floodlightcontroller.util;
 
 import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.projectfloodlight.openflow.protocol.OFFactories;
 import org.projectfloodlight.openflow.protocol.OFVersion;
@@ -213,6 +215,52 @@ public class MatchUtils {
 		return OFFactories.getFactory(m.getVersion()).buildMatch();
 	}
 
+	/* MatchFields that trade places when a flow is turned around */
+	private static final Map<MatchField<?>, MatchField<?>> reverseFields = new HashMap<MatchField<?>, MatchField<?>>();
+	static {
+		MatchField<?>[][] pairs = {
+				{ MatchField.ETH_SRC, MatchField.ETH_DST },
+				{ MatchField.IPV4_SRC, MatchField.IPV4_DST },
+				{ MatchField.IPV6_SRC, MatchField.IPV6_DST },
+				{ MatchField.TCP_SRC, MatchField.TCP_DST },
+				{ MatchField.UDP_SRC, MatchField.UDP_DST },
+				{ MatchField.SCTP_SRC, MatchField.SCTP_DST },
+				{ MatchField.ARP_SHA, MatchField.ARP_THA },
+				{ MatchField.ARP_SPA, MatchField.ARP_TPA }
+		};
+		for (MatchField<?>[] pair : pairs) {
+			reverseFields.put(pair[0], pair[1]);
+			reverseFields.put(pair[1], pair[0]);
+		}
+	}
+
+	/**
+	 * Create the match for the opposite direction of a flow. The source and
+	 * destination addresses and transport ports of Match m swap places, all
+	 * other MatchFields (including IN_PORT) are kept as they are.
+	 * 
+	 * @param m; the match of one direction of the flow
+	 * @return Match; the match of the other direction
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static Match createReverse(Match m) {
+		Match.Builder mb = createForgetfulBuilder(m);
+		Iterator<MatchField<?>> itr = m.getMatchFields().iterator(); // only get exact or masked fields (not fully wildcarded)
+		while(itr.hasNext()) {
+			MatchField mf = itr.next();
+			MatchField reverse = reverseFields.get(mf);
+			if (reverse == null) {
+				reverse = mf;
+			}
+			if (m.isExact(mf)) {
+				mb.setExact(reverse, m.get(mf));
+			} else if (m.isPartiallyMasked(mf)) {
+				mb.setMasked(reverse, m.getMasked(mf));
+			}
+		}
+		return mb.build();
+	}
+
 	/**
 	 * Create a duplicate Match object from Match m.
 	 * 
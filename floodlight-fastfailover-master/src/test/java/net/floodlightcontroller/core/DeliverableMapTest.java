@@ -0,0 +1,113 @@
+package net.floodlightcontroller.core;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DeliverableMapTest {
+    private static class TestDeliverable implements Deliverable<Object> {
+        @Override
+        public void deliver(Object msg) { }
+
+        @Override
+        public void deliverError(Throwable cause) { }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        DeliverableMap map = new DeliverableMap();
+        Deliverable<?> d1 = new TestDeliverable();
+        Deliverable<?> d2 = new TestDeliverable();
+        map.put(1, d1, DeliverableMap.NO_DEADLINE);
+        map.put(0, d2, DeliverableMap.NO_DEADLINE);
+        assertSame(d1, map.get(1));
+        assertSame(d2, map.get(0));
+        assertNull(map.get(2));
+        assertEquals(2, map.size());
+
+        // Same xid again replaces it
+        map.put(1, d2, DeliverableMap.NO_DEADLINE);
+        assertSame(d2, map.get(1));
+        assertEquals(2, map.size());
+
+        assertSame(d2, map.remove(1));
+        assertNull(map.remove(1));
+        assertNull(map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    /* Against a HashMap, so that growing and removing in clusters is covered */
+    @Test
+    public void testRandomOperations() {
+        DeliverableMap map = new DeliverableMap();
+        Map<Long, Deliverable<?>> expected = new HashMap<Long, Deliverable<?>>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long xid = random.nextInt(2000);
+            if (random.nextBoolean()) {
+                Deliverable<?> d = new TestDeliverable();
+                map.put(xid, d, DeliverableMap.NO_DEADLINE);
+                expected.put(xid, d);
+            } else {
+                assertSame(expected.remove(xid), map.remove(xid));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long xid = 0; xid < 2000; xid++) {
+            assertSame(expected.get(xid), map.get(xid));
+        }
+        assertEquals(expected.keySet(), map.getXids());
+        assertEquals(expected.size(), map.removeAll().size());
+        assertEquals(0, map.size());
+        assertTrue(map.getXids().isEmpty());
+    }
+
+    @Test
+    public void testRemoveExpired() {
+        DeliverableMap map = new DeliverableMap();
+        Map<Long, Deliverable<?>> live = new HashMap<Long, Deliverable<?>>();
+        for (long xid = 0; xid < 100; xid++) {
+            Deliverable<?> d = new TestDeliverable();
+            // Every third never expires, the others at 0, 10, 20 ...
+            long deadline = xid % 3 == 0 ? DeliverableMap.NO_DEADLINE : xid * 10;
+            map.put(xid, d, deadline);
+            if (xid % 3 == 0 || xid * 10 > 495) {
+                live.put(xid, d);
+            }
+        }
+
+        List<Long> xids = new ArrayList<Long>();
+        List<Deliverable<?>> expired = new ArrayList<Deliverable<?>>();
+        assertEquals(500, map.removeExpired(495, xids, expired));
+        assertEquals(xids.size(), expired.size());
+        assertEquals(100 - live.size(), expired.size());
+        for (int i = 0; i < xids.size(); i++) {
+            assertTrue(xids.get(i) % 3 != 0 && xids.get(i) * 10 <= 495);
+        }
+        assertEquals(live.keySet(), map.getXids());
+        for (Map.Entry<Long, Deliverable<?>> e : live.entrySet()) {
+            assertSame(e.getValue(), map.get(e.getKey()));
+        }
+
+        xids.clear();
+        expired.clear();
+        assertEquals(DeliverableMap.NO_DEADLINE, map.removeExpired(1000, xids, expired));
+        assertEquals(34, map.size());
+    }
+}
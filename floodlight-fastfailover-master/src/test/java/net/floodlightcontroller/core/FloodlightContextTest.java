@@ -0,0 +1,73 @@
+package net.floodlightcontroller.core;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class FloodlightContextTest {
+    private static final String KEY_A = "net.floodlightcontroller.core.test.a";
+    private static final String KEY_B = "net.floodlightcontroller.core.test.b";
+
+    private final FloodlightContextStore<String> store =
+            new FloodlightContextStore<String>(KEY_A);
+
+    @Test
+    public void testPutGetRemove() throws Exception {
+        FloodlightContext cntx = new FloodlightContext();
+        assertNull(store.get(cntx, KEY_A));
+        store.put(cntx, KEY_A, "a");
+        // A key the store wasn't created with
+        store.put(cntx, KEY_B, "b");
+        assertEquals("a", store.get(cntx, KEY_A));
+        assertEquals("b", store.get(cntx, KEY_B));
+        // Same key, different string instance
+        assertEquals("b", store.get(cntx, new String(KEY_B)));
+        assertEquals(2, cntx.getStorage().size());
+        assertEquals("a", cntx.getStorage().get(KEY_A));
+
+        store.remove(cntx, KEY_A);
+        assertNull(store.get(cntx, KEY_A));
+        assertEquals("b", store.get(cntx, KEY_B));
+
+        // Another context doesn't see the values
+        assertNull(store.get(new FloodlightContext(), KEY_B));
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        FloodlightContext cntx = new FloodlightContext();
+        store.put(cntx, KEY_A, "a");
+        store.put(cntx, KEY_B, "b");
+        cntx.clear();
+        assertNull(store.get(cntx, KEY_A));
+        assertNull(store.get(cntx, KEY_B));
+        assertTrue(cntx.getStorage().isEmpty());
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        final int[] calls = { 0 };
+        FloodlightContext cntx = new FloodlightContext();
+        store.putLazy(cntx, KEY_A, new FloodlightContextStore.Lazy<String>() {
+            @Override
+            public String get() {
+                calls[0]++;
+                return "a";
+            }
+        });
+        assertEquals(0, calls[0]);
+        assertEquals("a", store.get(cntx, KEY_A));
+        assertEquals(1, calls[0]);
+    }
+
+    @Test
+    public void testManyKeys() throws Exception {
+        FloodlightContext cntx = new FloodlightContext();
+        for (int i = 0; i < 100; i++) {
+            store.put(cntx, KEY_A + i, Integer.toString(i));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(i), store.get(cntx, KEY_A + i));
+        }
+    }
+}
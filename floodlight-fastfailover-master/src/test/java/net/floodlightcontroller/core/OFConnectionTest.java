@@ -8,6 +8,8 @@ import static org.junit.Assert.assertThat;
 
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
@@ -255,4 +257,77 @@ public class OFConnectionTest {
                 Matchers.<OFMessage> contains(hello, packetOut));
     }
 
+    private OFPacketOut packetOut(int port) {
+        return factory.buildPacketOut()
+                .setData(new byte[] { 0x01, 0x02, 0x03, 0x04 })
+                .setActions(ImmutableList.<OFAction>of( factory.actions().output(OFPort.of(port), 0)))
+                .build();
+    }
+
+    /** messages written in a batch go out together when it ends */
+    @Test(timeout = 5000)
+    public void testWriteBatch() throws InterruptedException, ExecutionException {
+        Capture<List<OFMessage>> cMsgList = prepareChannelForWriteList();
+
+        OFPacketOut po1 = packetOut(1);
+        OFPacketOut po2 = packetOut(2);
+        OFPacketOut po3 = packetOut(3);
+        OFConnection.beginWriteBatch();
+        try {
+            conn.write(po1);
+            OFConnection.beginWriteBatch();
+            conn.write(ImmutableList.<OFMessage>of(po2, po3));
+            OFConnection.endWriteBatch();
+            assertThat("Write should have been held back", cMsgList.hasCaptured(), equalTo(false));
+        } finally {
+            OFConnection.endWriteBatch();
+        }
+
+        assertThat("Should have captured MsgList", cMsgList.getValue(),
+                Matchers.<OFMessage> contains(po1, po2, po3));
+    }
+
+    /** a request written in a batch goes out at once, after what was held back */
+    @Test(timeout = 5000)
+    public void testWriteBatchRequest() throws InterruptedException, ExecutionException {
+        Capture<List<OFMessage>> cMsgList = prepareChannelForWriteList();
+
+        OFPacketOut po = packetOut(1);
+        OFEchoRequest echoRequest = factory.echoRequest(new byte[] {});
+        OFConnection.beginWriteBatch();
+        try {
+            conn.write(po);
+            conn.writeRequest(echoRequest);
+            assertThat("Should have captured MsgList", cMsgList.getValue(),
+                    Matchers.<OFMessage> contains(po, echoRequest));
+        } finally {
+            OFConnection.endWriteBatch();
+        }
+    }
+
+    /** a request with a timeout fails once it expires, others wait on */
+    @Test(timeout = 5000)
+    public void testWriteRequestTimeout() throws InterruptedException, ExecutionException {
+        EasyMock.expect(channel.isConnected()).andReturn(Boolean.TRUE).anyTimes();
+        expect(channel.write(EasyMock.anyObject())).andReturn(null).times(2);
+        replay(channel);
+
+        conn.setRequestTimeout(1, TimeUnit.HOURS);
+        OFFlowStatsRequest flowStatsRequest = factory.buildFlowStatsRequest().build();
+        ListenableFuture<List<OFFlowStatsReply>> statsFuture = conn.writeStatsRequest(flowStatsRequest);
+        OFEchoRequest echoRequest = factory.echoRequest(new byte[] {});
+        ListenableFuture<OFEchoReply> future = conn.writeRequest(echoRequest, 100, TimeUnit.MILLISECONDS);
+        assertThat("Connection should have 2 pending requests",
+                conn.getPendingRequestIds().size(), equalTo(2));
+
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // expected, checked below
+        }
+        FutureTestUtils.assertFutureFailedWithException(future, TimeoutException.class);
+        assertThat("Stats request should still be pending",
+                conn.getPendingRequestIds(), Matchers.contains(flowStatsRequest.getXid()));
+        assertThat(statsFuture.isDone(), equalTo(false));
+    }
 }
@@ -0,0 +1,76 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import net.floodlightcontroller.debugcounter.DebugCounterServiceImpl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HandshakeThrottleTest {
+    private SwitchManagerCounters counters;
+
+    @Before
+    public void setUp() throws Exception {
+        counters = new SwitchManagerCounters(new DebugCounterServiceImpl());
+    }
+
+    private OFSwitchHandshakeHandler createHandler(boolean begins) {
+        OFSwitchHandshakeHandler handler = createMock(OFSwitchHandshakeHandler.class);
+        if (begins) {
+            handler.beginHandshake();
+            expectLastCall().once();
+        }
+        replay(handler);
+        return handler;
+    }
+
+    @Test
+    public void testQueueBeyondLimit() throws Exception {
+        HandshakeThrottle throttle = new HandshakeThrottle(2, counters);
+        OFSwitchHandshakeHandler first = createHandler(true);
+        OFSwitchHandshakeHandler second = createHandler(true);
+        OFSwitchHandshakeHandler third = createHandler(false);
+
+        throttle.begin(first);
+        throttle.begin(second);
+        throttle.begin(third);
+        verify(first, second, third);
+        assertEquals(2, throttle.getRunning());
+        assertEquals(1, throttle.getWaiting());
+        assertEquals(1, counters.handshakeQueued.getCounterValue());
+
+        // The waiting handshake begins once a running one finishes
+        reset(third);
+        third.beginHandshake();
+        expectLastCall().once();
+        replay(third);
+        throttle.finished(first);
+        verify(third);
+        assertEquals(2, throttle.getRunning());
+        assertEquals(0, throttle.getWaiting());
+
+        // Reporting a handshake twice frees nothing
+        throttle.finished(first);
+        assertEquals(2, throttle.getRunning());
+    }
+
+    @Test
+    public void testWaitingClosed() throws Exception {
+        HandshakeThrottle throttle = new HandshakeThrottle(1, counters);
+        OFSwitchHandshakeHandler first = createHandler(true);
+        OFSwitchHandshakeHandler second = createHandler(false);
+
+        throttle.begin(first);
+        throttle.begin(second);
+        // The second connection closed before its handshake could begin
+        throttle.finished(second);
+        assertEquals(1, throttle.getRunning());
+        assertEquals(0, throttle.getWaiting());
+
+        throttle.finished(first);
+        verify(first, second);
+        assertEquals(0, throttle.getRunning());
+    }
+}
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import java.util.Date;
 import net.floodlightcontroller.core.IOFConnectionBackend;
@@ -107,12 +108,24 @@ public class MockOFConnection implements IOFConnectionBackend {
         return raf.getReplyFuture();
     }
 
+    @Override
+    public <R extends OFMessage> ListenableFuture<R>
+            writeRequest(OFRequest<R> request, long timeout, TimeUnit unit) {
+        return writeRequest(request);
+    }
+
     @Override
     public <REPLY extends OFStatsReply> ListenableFuture<List<REPLY>>
             writeStatsRequest(OFStatsRequest<REPLY> request) {
         return null;
     }
 
+    @Override
+    public <REPLY extends OFStatsReply> ListenableFuture<List<REPLY>>
+            writeStatsRequest(OFStatsRequest<REPLY> request, long timeout, TimeUnit unit) {
+        return writeStatsRequest(request);
+    }
+
     public void setConnectedSince(Date connectedSince) {
         this.connectedSince = connectedSince;
     }
@@ -179,6 +192,16 @@ public class MockOFConnection implements IOFConnectionBackend {
         return true;
     }
 
+    @Override
+    public void setReadable(boolean readable) {
+        // no op
+    }
+
+    @Override
+    public void setRequestTimeout(long timeout, TimeUnit unit) {
+        // no op
+    }
+
     @Override
     public boolean isConnected() {
         return this.connected;
@@ -359,6 +359,7 @@ public class OFChannelHandlerVer10Test {
                                 EasyMock.eq(PipelineHandler.SWITCH_HANDSHAKE_TIMEOUT),
                                 EasyMock.anyObject(HandshakeTimeoutHandler.class))).andReturn(newHandler)
                                                                           .once();
+        expect(pipeline.get(OFMessageEncoder.class)).andReturn(new OFMessageEncoder()).once();
 
         replay(pipeline);
 
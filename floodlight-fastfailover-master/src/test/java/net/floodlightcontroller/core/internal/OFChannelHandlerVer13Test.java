@@ -358,6 +358,7 @@ public class OFChannelHandlerVer13Test {
                                 EasyMock.eq(PipelineHandler.SWITCH_HANDSHAKE_TIMEOUT),
                                 EasyMock.anyObject(HandshakeTimeoutHandler.class))).andReturn(newHandler)
                                                                           .once();
+        expect(pipeline.get(OFMessageEncoder.class)).andReturn(new OFMessageEncoder()).once();
 
         replay(pipeline);
 
@@ -0,0 +1,139 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFConnection;
+import net.floodlightcontroller.core.IOFConnectionBackend;
+import net.floodlightcontroller.core.IOFSwitchBackend;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.debugcounter.MockDebugCounterService;
+
+import org.easymock.IAnswer;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.types.DatapathId;
+
+import com.google.common.collect.ImmutableList;
+
+public class OFMessageDispatcherTest {
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private IDebugCounterService debugCounterService;
+    private SwitchManagerCounters counters;
+
+    @Before
+    public void setUp() throws Exception {
+        debugCounterService = new MockDebugCounterService();
+        counters = new SwitchManagerCounters(debugCounterService);
+    }
+
+    private static IOFSwitchBackend createSwitch(long dpid, IOFConnection... connections) {
+        IOFSwitchBackend sw = createNiceMock(IOFSwitchBackend.class);
+        expect(sw.getId()).andReturn(DatapathId.of(dpid)).anyTimes();
+        expect(sw.getConnections()).andReturn(ImmutableList.copyOf(connections)).anyTimes();
+        replay(sw);
+        return sw;
+    }
+
+    private OFMessage echo(long xid) {
+        return factory.buildEchoRequest().setXid(xid).build();
+    }
+
+    /** Every switch's messages reach the listeners in the order they came in */
+    @Test
+    public void testPerSwitchOrder() throws Exception {
+        final int perSwitch = 200;
+        final List<IOFSwitchBackend> switches = new ArrayList<IOFSwitchBackend>();
+        for (long dpid = 1; dpid <= 4; dpid++) {
+            switches.add(createSwitch(dpid));
+        }
+        final List<List<Long>> received = new ArrayList<List<Long>>();
+        for (int i = 0; i < switches.size(); i++) {
+            received.add(Collections.synchronizedList(new ArrayList<Long>()));
+        }
+        final CountDownLatch done = new CountDownLatch(perSwitch * switches.size());
+
+        IFloodlightProviderService provider = createMock(IFloodlightProviderService.class);
+        provider.handleMessage(anyObject(IOFSwitchBackend.class), anyObject(OFMessage.class),
+                anyObject(FloodlightContext.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                IOFSwitchBackend sw = (IOFSwitchBackend) getCurrentArguments()[0];
+                OFMessage m = (OFMessage) getCurrentArguments()[1];
+                received.get(switches.indexOf(sw)).add(m.getXid());
+                done.countDown();
+                return null;
+            }
+        }).anyTimes();
+        replay(provider);
+
+        OFMessageDispatcher dispatcher = new OFMessageDispatcher(provider, debugCounterService,
+                counters, 3, OFMessageDispatcher.DEFAULT_QUEUE_CAPACITY);
+        dispatcher.start();
+        for (long xid = 0; xid < perSwitch; xid++) {
+            for (IOFSwitchBackend sw : switches) {
+                dispatcher.dispatch(sw, echo(xid), null);
+            }
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<Long> xids : received) {
+            assertEquals(perSwitch, xids.size());
+            for (int i = 0; i < perSwitch; i++) {
+                assertEquals(Long.valueOf(i), xids.get(i));
+            }
+        }
+    }
+
+    /** A switch that overfills its worker's queue isn't read from until it drains */
+    @Test
+    public void testBackpressure() throws Exception {
+        IOFConnectionBackend connection = createStrictMock(IOFConnectionBackend.class);
+        connection.setReadable(false);
+        connection.setReadable(true);
+        replay(connection);
+        IOFSwitchBackend sw = createSwitch(1, connection);
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(6);
+        IFloodlightProviderService provider = createMock(IFloodlightProviderService.class);
+        provider.handleMessage(anyObject(IOFSwitchBackend.class), anyObject(OFMessage.class),
+                anyObject(FloodlightContext.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                // A slow listener holds up the worker
+                blocked.await();
+                done.countDown();
+                return null;
+            }
+        }).anyTimes();
+        replay(provider);
+
+        OFMessageDispatcher dispatcher = new OFMessageDispatcher(provider, debugCounterService,
+                counters, 1, 4);
+        dispatcher.start();
+        for (long xid = 0; xid < 6; xid++) {
+            dispatcher.dispatch(sw, echo(xid), null);
+        }
+        assertTrue(dispatcher.getQueueDepth(sw) > 4);
+
+        blocked.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getQueueDepth(sw));
+        verify(connection);
+    }
+}
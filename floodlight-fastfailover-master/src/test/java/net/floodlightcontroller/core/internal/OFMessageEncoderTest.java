@@ -0,0 +1,96 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.CompositeChannelBuffer;
+import org.jboss.netty.handler.codec.embedder.EncoderEmbedder;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFAction;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class OFMessageEncoderTest {
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+
+    private OFMessage packetOut(int dataLength) {
+        byte[] data = new byte[dataLength];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        return factory.buildPacketOut()
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setInPort(OFPort.of(1))
+                .setActions(Collections.<OFAction>singletonList(
+                        factory.actions().output(OFPort.FLOOD, 0xffFF)))
+                .setData(data)
+                .build();
+    }
+
+    private ChannelBuffer encode(List<OFMessage> msgs) {
+        EncoderEmbedder<ChannelBuffer> embedder =
+                new EncoderEmbedder<ChannelBuffer>(new OFMessageEncoder());
+        embedder.offer(msgs);
+        ChannelBuffer buf = embedder.poll();
+        embedder.finish();
+        return buf;
+    }
+
+    private ChannelBuffer copied(List<OFMessage> msgs) {
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        for (OFMessage m : msgs) {
+            m.writeTo(buf);
+        }
+        return buf;
+    }
+
+    @Test
+    public void testSmallMessagesCopied() throws Exception {
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        msgs.add(factory.echoRequest(new byte[0]));
+        msgs.add(packetOut(64));
+        msgs.add(factory.barrierRequest());
+
+        ChannelBuffer buf = encode(msgs);
+        assertFalse(buf instanceof CompositeChannelBuffer);
+        assertEquals(copied(msgs), buf);
+    }
+
+    @Test
+    public void testPacketOutPayloadNotCopied() throws Exception {
+        List<OFMessage> msgs = new ArrayList<OFMessage>();
+        msgs.add(factory.echoRequest(new byte[0]));
+        msgs.add(packetOut(1500));
+        msgs.add(packetOut(1500));
+        msgs.add(factory.barrierRequest());
+
+        ChannelBuffer buf = encode(msgs);
+        assertTrue(buf instanceof CompositeChannelBuffer);
+        assertTrue(((CompositeChannelBuffer) buf).useGathering());
+        // The same bytes go out, including the length of each packet-out
+        assertEquals(copied(msgs), buf);
+        List<OFMessage> decoded = new ArrayList<OFMessage>();
+        for (;;) {
+            OFMessage m = factory.getReader().readFrom(buf);
+            if (m == null)
+                break;
+            decoded.add(m);
+        }
+        assertEquals(msgs, decoded);
+    }
+
+    @Test
+    public void testPacketOutPayloadOnly() throws Exception {
+        List<OFMessage> msgs = Collections.singletonList(packetOut(1500));
+        assertEquals(copied(msgs), encode(msgs));
+    }
+}
@@ -18,6 +18,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -303,6 +304,20 @@ public abstract class OFSwitchHandlerTestBase {
         assertThat(switchHandler.getStateForTesting(), CoreMatchers.instanceOf(OFSwitchHandshakeHandler.WaitDescriptionStatReplyState.class));
     }
 
+    /**
+     * Start over with a handshake that sends its requests all at once
+     * @return the requests it sent, in order
+     */
+    protected List<OFMessage> beginPipelinedHandshake() throws Exception {
+        switchHandler = new OFSwitchHandshakeHandler(connection, featuresReply, switchManager,
+                roleManager, timer, true, null);
+        switchHandler.beginHandshake();
+        List<OFMessage> msgs = new ArrayList<OFMessage>(connection.getMessages());
+        verifyUniqueXids(msgs);
+        connection.clearMessages();
+        return msgs;
+    }
+
     protected OFDescStatsReply createDescriptionStatsReply() {
         OFDescStatsReply statsReply = factory.buildDescStatsReply()
                 .setDpDesc("Datapath Description")
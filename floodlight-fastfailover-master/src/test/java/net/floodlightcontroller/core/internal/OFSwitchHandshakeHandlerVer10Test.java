@@ -9,9 +9,13 @@ import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import java.util.EnumSet;
+import java.util.List;
 
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.Matchers;
@@ -21,7 +25,10 @@ import net.floodlightcontroller.core.OFConnection;
 import net.floodlightcontroller.core.SwitchDescription;
 import net.floodlightcontroller.core.internal.OFSwitchAppHandshakePlugin.PluginResultType;
 import net.floodlightcontroller.core.internal.OFSwitchHandshakeHandler.WaitAppHandshakeState;
+import net.floodlightcontroller.core.internal.OFSwitchHandshakeHandler.WaitConfigReplyState;
+import net.floodlightcontroller.core.internal.OFSwitchHandshakeHandler.WaitDescriptionStatReplyState;
 import org.projectfloodlight.openflow.protocol.OFActionType;
+import org.projectfloodlight.openflow.protocol.OFBadRequestCode;
 import org.projectfloodlight.openflow.protocol.OFCapabilities;
 import org.projectfloodlight.openflow.protocol.OFControllerRole;
 import org.projectfloodlight.openflow.protocol.OFDescStatsReply;
@@ -73,7 +80,13 @@ public class OFSwitchHandshakeHandlerVer10Test extends OFSwitchHandlerTestBase {
     public void handleDescStatsAndCreateSwitch(boolean switchDriverComplete) throws Exception {
         // build the stats reply
         OFDescStatsReply sr = createDescriptionStatsReply();
+        expectSwitchInstantiation(sr, switchDriverComplete);
 
+        // send the description stats reply
+        switchHandler.processOFMessage(sr);
+    }
+
+    void expectSwitchInstantiation(OFDescStatsReply sr, boolean switchDriverComplete) throws Exception {
         reset(sw);
         SwitchDescription switchDescription = new SwitchDescription(sr);
         setupSwitchForInstantiationWithReset();
@@ -100,9 +113,6 @@ public class OFSwitchHandshakeHandlerVer10Test extends OFSwitchHandlerTestBase {
         switchManager.switchAdded(sw);
         expectLastCall().once();
         replay(switchManager);
-
-        // send the description stats reply
-        switchHandler.processOFMessage(sr);
     }
 
     @Test
@@ -114,6 +124,60 @@ public class OFSwitchHandshakeHandlerVer10Test extends OFSwitchHandlerTestBase {
                 CoreMatchers.instanceOf(WaitAppHandshakeState.class));
     }
 
+    @Test
+    public void testPipelinedHandshakeOutOfOrder() throws Exception {
+        List<OFMessage> msgs = beginPipelinedHandshake();
+        assertEquals(4, msgs.size());
+        assertEquals(OFType.SET_CONFIG, msgs.get(0).getType());
+        assertEquals(OFType.BARRIER_REQUEST, msgs.get(1).getType());
+        assertEquals(OFType.GET_CONFIG_REQUEST, msgs.get(2).getType());
+        assertEquals(OFType.STATS_REQUEST, msgs.get(3).getType());
+        assertThat(switchHandler.getStateForTesting(), instanceOf(WaitConfigReplyState.class));
+
+        OFDescStatsReply sr = createDescriptionStatsReply().createBuilder()
+                .setXid(msgs.get(3).getXid())
+                .build();
+        expectSwitchInstantiation(sr, true);
+
+        // The description overtakes the config; it waits for its state
+        switchHandler.processOFMessage(sr);
+        assertThat(switchHandler.getStateForTesting(), instanceOf(WaitConfigReplyState.class));
+        // The barrier of the set-config batch doesn't end the config state
+        switchHandler.processOFMessage(factory.buildBarrierReply()
+                .setXid(msgs.get(1).getXid())
+                .build());
+        assertThat(switchHandler.getStateForTesting(), instanceOf(WaitConfigReplyState.class));
+
+        switchHandler.processOFMessage(factory.buildGetConfigReply()
+                .setXid(msgs.get(2).getXid())
+                .setMissSendLen(0xffff)
+                .build());
+        assertThat(switchHandler.getStateForTesting(), instanceOf(WaitAppHandshakeState.class));
+        verify(sw, switchManager);
+    }
+
+    @Test
+    public void testPipelinedHandshakeErrorReply() throws Exception {
+        connection.setConnected(true);
+        List<OFMessage> msgs = beginPipelinedHandshake();
+
+        // The switch rejects the description request before the config
+        // reply; the error goes to the state that made the request
+        switchHandler.processOFMessage(factory.errorMsgs().buildBadRequestErrorMsg()
+                .setXid(msgs.get(3).getXid())
+                .setCode(OFBadRequestCode.BAD_STAT)
+                .build());
+        assertThat(switchHandler.getStateForTesting(), instanceOf(WaitConfigReplyState.class));
+        assertTrue(connection.isConnected());
+
+        switchHandler.processOFMessage(factory.buildGetConfigReply()
+                .setXid(msgs.get(2).getXid())
+                .setMissSendLen(0xffff)
+                .build());
+        assertThat(switchHandler.getStateForTesting(), instanceOf(WaitDescriptionStatReplyState.class));
+        assertFalse(connection.isConnected());
+    }
+
     @Override
     Class<?> getRoleRequestClass() {
         return OFNiciraControllerRoleRequest.class;
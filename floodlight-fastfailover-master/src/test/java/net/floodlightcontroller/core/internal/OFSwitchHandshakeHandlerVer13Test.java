@@ -1,6 +1,7 @@
 package net.floodlightcontroller.core.internal;
 
 import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
@@ -8,11 +9,13 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.reset;
 import static org.easymock.EasyMock.verify;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
 import java.util.EnumSet;
 import java.util.List;
 
+import org.easymock.Capture;
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.Matchers;
 import org.junit.Test;
@@ -23,6 +26,7 @@ import net.floodlightcontroller.core.SwitchDescription;
 import net.floodlightcontroller.core.internal.OFSwitchHandshakeHandler.WaitAppHandshakeState;
 import net.floodlightcontroller.core.internal.OFSwitchHandshakeHandler.WaitTableFeaturesReplyState;
 
+import org.projectfloodlight.openflow.protocol.OFBadRequestCode;
 import org.projectfloodlight.openflow.protocol.OFCapabilities;
 import org.projectfloodlight.openflow.protocol.OFControllerRole;
 import org.projectfloodlight.openflow.protocol.OFDescStatsReply;
@@ -35,8 +39,10 @@ import org.projectfloodlight.openflow.protocol.OFPortDescStatsReply;
 import org.projectfloodlight.openflow.protocol.OFPortDescStatsRequest;
 import org.projectfloodlight.openflow.protocol.OFRoleReply;
 import org.projectfloodlight.openflow.protocol.OFRoleRequest;
+import org.projectfloodlight.openflow.protocol.OFStatsReplyFlags;
 import org.projectfloodlight.openflow.protocol.OFTableFeaturesStatsReply;
 import org.projectfloodlight.openflow.protocol.OFTableFeaturesStatsRequest;
+import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.protocol.OFVersion;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.OFAuxId;
@@ -110,6 +116,19 @@ public class OFSwitchHandshakeHandlerVer13Test extends OFSwitchHandlerTestBase {
         expect(sw.getOFFactory()).andReturn(factory).once();
         replay(sw);
 
+        expectSwitchAdded(switchDescription);
+
+        // send the description stats reply
+        switchHandler.processOFMessage(sr);
+
+        OFMessage msg = connection.retrieveMessage();
+        assertThat(msg, CoreMatchers.instanceOf(OFTableFeaturesStatsRequest.class));
+        verifyUniqueXids(msg);
+        
+        verify(sw, switchManager);
+    }
+    
+    void expectSwitchAdded(SwitchDescription switchDescription) {
         reset(switchManager);
         expect(switchManager.getHandshakePlugins()).andReturn(plugins).anyTimes();
         expect(
@@ -121,17 +140,8 @@ public class OFSwitchHandshakeHandlerVer13Test extends OFSwitchHandlerTestBase {
         switchManager.switchAdded(sw);
         expectLastCall().once();
         replay(switchManager);
-
-        // send the description stats reply
-        switchHandler.processOFMessage(sr);
-
-        OFMessage msg = connection.retrieveMessage();
-        assertThat(msg, CoreMatchers.instanceOf(OFTableFeaturesStatsRequest.class));
-        verifyUniqueXids(msg);
-        
-        verify(sw, switchManager);
     }
-    
+
     public void handleTableFeatures(boolean subHandShakeComplete) throws Exception {
     	// build the table features stats reply
     	OFTableFeaturesStatsReply tf = createTableFeaturesStatsReply();
@@ -167,6 +177,106 @@ public class OFSwitchHandshakeHandlerVer13Test extends OFSwitchHandlerTestBase {
                    CoreMatchers.instanceOf(WaitAppHandshakeState.class));
     }
 
+    /*
+     * Expect the switch to be created and the driver handshake to be
+     * started, all while the pipelined replies are played back
+     */
+    private void expectPipelinedSwitchSetup(OFDescStatsReply sr) throws Exception {
+        setupSwitchForInstantiationWithReset();
+        sw.setPortDescStats(anyObject(OFPortDescStatsReply.class));
+        expectLastCall().once();
+        expect(sw.getOFFactory()).andReturn(factory).anyTimes();
+        expect(sw.getId()).andReturn(dpid).anyTimes();
+        sw.startDriverHandshake();
+        expectLastCall().once();
+        expect(sw.isDriverHandshakeComplete()).andReturn(true).once();
+        expectSwitchAdded(new SwitchDescription(sr));
+    }
+
+    @Test
+    public void testPipelinedHandshakeOutOfOrder() throws Exception {
+        List<OFMessage> msgs = beginPipelinedHandshake();
+        assertEquals(6, msgs.size());
+        assertThat(msgs.get(0), CoreMatchers.instanceOf(OFPortDescStatsRequest.class));
+        assertEquals(OFType.SET_CONFIG, msgs.get(1).getType());
+        assertEquals(OFType.BARRIER_REQUEST, msgs.get(2).getType());
+        assertEquals(OFType.GET_CONFIG_REQUEST, msgs.get(3).getType());
+        assertEquals(OFType.STATS_REQUEST, msgs.get(4).getType());
+        assertThat(msgs.get(5), CoreMatchers.instanceOf(OFTableFeaturesStatsRequest.class));
+
+        OFDescStatsReply sr = createDescriptionStatsReply().createBuilder()
+                .setXid(msgs.get(4).getXid())
+                .build();
+        expectPipelinedSwitchSetup(sr);
+        Capture<List<OFTableFeaturesStatsReply>> features = new Capture<List<OFTableFeaturesStatsReply>>();
+        sw.processOFTableFeatures(capture(features));
+        expectLastCall().once();
+        replay(sw);
+
+        // Everything but the port descriptions arrives first, the table
+        // features in two parts with the description in between
+        long tableFeaturesXid = msgs.get(5).getXid();
+        switchHandler.processOFMessage(createTableFeaturesStatsReply().createBuilder()
+                .setXid(tableFeaturesXid)
+                .setFlags(EnumSet.of(OFStatsReplyFlags.REPLY_MORE))
+                .build());
+        switchHandler.processOFMessage(sr);
+        switchHandler.processOFMessage(createTableFeaturesStatsReply().createBuilder()
+                .setXid(tableFeaturesXid)
+                .build());
+        switchHandler.processOFMessage(factory.buildBarrierReply()
+                .setXid(msgs.get(2).getXid())
+                .build());
+        switchHandler.processOFMessage(factory.buildGetConfigReply()
+                .setXid(msgs.get(3).getXid())
+                .setMissSendLen(0xffff)
+                .build());
+        assertThat(switchHandler.getStateForTesting(),
+                   CoreMatchers.instanceOf(OFSwitchHandshakeHandler.WaitPortDescStatsReplyState.class));
+
+        // Each state in turn handles the replies to its own request
+        switchHandler.processOFMessage(getPortDescStatsReply().createBuilder()
+                .setXid(msgs.get(0).getXid())
+                .build());
+        assertThat(switchHandler.getStateForTesting(), CoreMatchers.instanceOf(WaitAppHandshakeState.class));
+        assertEquals(2, features.getValue().size());
+        verify(sw, switchManager);
+    }
+
+    @Test
+    public void testPipelinedHandshakeErrorReply() throws Exception {
+        List<OFMessage> msgs = beginPipelinedHandshake();
+
+        OFDescStatsReply sr = createDescriptionStatsReply().createBuilder()
+                .setXid(msgs.get(4).getXid())
+                .build();
+        expectPipelinedSwitchSetup(sr);
+        replay(sw);
+
+        // The switch rejects the table features request straight away
+        switchHandler.processOFMessage(factory.errorMsgs().buildBadRequestErrorMsg()
+                .setXid(msgs.get(5).getXid())
+                .setCode(OFBadRequestCode.BAD_STAT)
+                .build());
+        assertThat(switchHandler.getStateForTesting(),
+                   CoreMatchers.instanceOf(OFSwitchHandshakeHandler.WaitPortDescStatsReplyState.class));
+
+        switchHandler.processOFMessage(getPortDescStatsReply().createBuilder()
+                .setXid(msgs.get(0).getXid())
+                .build());
+        switchHandler.processOFMessage(factory.buildBarrierReply()
+                .setXid(msgs.get(2).getXid())
+                .build());
+        switchHandler.processOFMessage(factory.buildGetConfigReply()
+                .setXid(msgs.get(3).getXid())
+                .setMissSendLen(0xffff)
+                .build());
+        // The table features state takes the error and carries on without them
+        switchHandler.processOFMessage(sr);
+        assertThat(switchHandler.getStateForTesting(), CoreMatchers.instanceOf(WaitAppHandshakeState.class));
+        verify(sw, switchManager);
+    }
+
     @Override
     Class<?> getRoleRequestClass() {
         return OFRoleRequest.class;
@@ -0,0 +1,166 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.debugcounter.DebugCounterServiceImpl;
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.util.FlowModUtils;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowAdd;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFPacketIn;
+import org.projectfloodlight.openflow.protocol.OFPacketInReason;
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFBufferId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class PacketInAdmissionTest {
+    private static final MacAddress HOST = MacAddress.of("00:00:00:00:00:0a");
+    private static final MacAddress SWITCH_PORT = MacAddress.of("00:00:00:00:01:01");
+
+    private final OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private SwitchManagerCounters counters;
+    private IOFSwitchService switchService;
+
+    @Before
+    public void setUp() throws Exception {
+        counters = new SwitchManagerCounters(new DebugCounterServiceImpl());
+    }
+
+    private IOFSwitch createSwitch(Capture<OFMessage> written) {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(DatapathId.of(1L)).anyTimes();
+        expect(sw.getOFFactory()).andReturn(factory).anyTimes();
+        OFPortDesc port = factory.buildPortDesc().setPortNo(OFPort.of(1)).setHwAddr(SWITCH_PORT).build();
+        expect(sw.getPorts()).andReturn(Collections.singletonList(port)).anyTimes();
+        sw.write(capture(written));
+        expectLastCall().anyTimes();
+        replay(sw);
+        switchService = createMock(IOFSwitchService.class);
+        expect(switchService.getAllSwitchMap()).andReturn(Collections.singletonMap(DatapathId.of(1L), sw)).anyTimes();
+        replay(switchService);
+        return sw;
+    }
+
+    private OFPacketIn packetIn(int port) {
+        return packetIn(port, HOST, EthType.of(0x1234));
+    }
+
+    private OFPacketIn packetIn(int port, MacAddress src, EthType ethType) {
+        byte[] data = new Ethernet()
+            .setDestinationMACAddress(MacAddress.BROADCAST)
+            .setSourceMACAddress(src)
+            .setEtherType(ethType)
+            .setPayload(new Data(new byte[46]))
+            .serialize();
+        return factory.buildPacketIn()
+                .setMatch(factory.buildMatch().setExact(MatchField.IN_PORT, OFPort.of(port)).build())
+                .setBufferId(OFBufferId.NO_BUFFER)
+                .setReason(OFPacketInReason.NO_MATCH)
+                .setData(data)
+                .setTotalLen(data.length)
+                .build();
+    }
+
+    @Test
+    public void testTokenBucket() throws Exception {
+        Capture<OFMessage> written = new Capture<OFMessage>(CaptureType.ALL);
+        IOFSwitch sw = createSwitch(written);
+        // 10/s, bursts of 5, no drop rules
+        PacketInAdmission admission = new PacketInAdmission(counters, switchService, 10, 5, 0);
+
+        long now = 0;
+        for (int i = 0; i < 5; i++) {
+            assertTrue(admission.admit(sw, packetIn(1), now));
+        }
+        assertFalse(admission.admit(sw, packetIn(1), now));
+        // Another port has a bucket of its own
+        assertTrue(admission.admit(sw, packetIn(2), now));
+
+        // A tenth of a second buys one more
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        assertTrue(admission.admit(sw, packetIn(1), now));
+        assertFalse(admission.admit(sw, packetIn(1), now));
+
+        // Idle for long enough refills the bucket, but never beyond the burst
+        now += TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(admission.admit(sw, packetIn(1), now));
+        }
+        assertFalse(admission.admit(sw, packetIn(1), now));
+
+        assertEquals(3, counters.packetInDropped.getCounterValue());
+        assertEquals(0, counters.packetInDropRules.getCounterValue());
+        assertFalse(written.hasCaptured());
+    }
+
+    @Test
+    public void testDropRule() throws Exception {
+        Capture<OFMessage> written = new Capture<OFMessage>(CaptureType.ALL);
+        IOFSwitch sw = createSwitch(written);
+        PacketInAdmission admission = new PacketInAdmission(counters, switchService, 10, 1, 30);
+
+        long now = 0;
+        assertTrue(admission.admit(sw, packetIn(1), now));
+        for (int i = 0; i < 10; i++) {
+            assertFalse(admission.admit(sw, packetIn(1), now));
+        }
+
+        // One rule for the storm, not one per dropped packet-in
+        assertEquals(1, written.getValues().size());
+        OFFlowAdd drop = (OFFlowAdd) written.getValue();
+        assertEquals(OFPort.of(1), drop.getMatch().get(MatchField.IN_PORT));
+        assertEquals(HOST, drop.getMatch().get(MatchField.ETH_SRC));
+        assertEquals(30, drop.getHardTimeout());
+        // Below the flow dispatcher's rules, never level with them
+        assertTrue(drop.getPriority() < FlowModUtils.PRIORITY_MAX);
+        assertTrue(drop.getInstructions().isEmpty());
+        assertEquals(1, counters.packetInDropRules.getCounterValue());
+
+        // Still at it once the rule has expired
+        now += TimeUnit.SECONDS.toNanos(30);
+        assertTrue(admission.admit(sw, packetIn(1), now));
+        assertFalse(admission.admit(sw, packetIn(1), now));
+        assertEquals(2, written.getValues().size());
+    }
+
+    @Test
+    public void testDiscoveryNeverLimited() throws Exception {
+        Capture<OFMessage> written = new Capture<OFMessage>(CaptureType.ALL);
+        IOFSwitch sw = createSwitch(written);
+        PacketInAdmission admission = new PacketInAdmission(counters, switchService, 10, 1, 30);
+
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            assertTrue(admission.admit(sw, packetIn(1, SWITCH_PORT, EthType.LLDP), now));
+            assertTrue(admission.admit(sw, packetIn(1, SWITCH_PORT, EthType.of(Ethernet.TYPE_BSN & 0xffff)), now));
+        }
+        // ...nor do they use up the port's bucket
+        assertTrue(admission.admit(sw, packetIn(1), now));
+        assertEquals(0, counters.packetInDropped.getCounterValue());
+
+        // A storm from a switch port's address is dropped at the controller
+        // only, as a drop rule would catch that port's discovery frames too
+        for (int i = 0; i < 10; i++) {
+            assertFalse(admission.admit(sw, packetIn(1, SWITCH_PORT, EthType.of(0x1234)), now));
+        }
+        assertFalse(written.hasCaptured());
+    }
+}
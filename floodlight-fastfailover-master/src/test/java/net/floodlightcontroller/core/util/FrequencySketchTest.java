@@ -0,0 +1,55 @@
+package net.floodlightcontroller.core.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void testEstimate() throws Exception {
+        FrequencySketch<Integer> sketch = new FrequencySketch<Integer>(1024, 1000000);
+        for (int key = 0; key < 100; key++) {
+            for (int i = 0; i < key; i++) {
+                sketch.increment(key);
+            }
+        }
+        for (int key = 0; key < 100; key++) {
+            // Collisions may only push estimates up
+            assertTrue(sketch.estimate(key) >= key);
+        }
+        assertEquals(99, sketch.estimate(99));
+        assertEquals(0, sketch.estimate(1000));
+    }
+
+    @Test
+    public void testHottest() throws Exception {
+        FrequencySketch<String> sketch = new FrequencySketch<String>(64, 1000000);
+        for (int i = 0; i < 30; i++) sketch.increment("a");
+        for (int i = 0; i < 20; i++) sketch.increment("b");
+        for (int i = 0; i < 10; i++) sketch.increment("c");
+
+        List<String> keys = Arrays.asList("c", "d", "b", "a");
+        assertEquals(Arrays.asList("a", "b"), sketch.getHottest(keys, 2));
+        // Keys never seen are left out
+        assertEquals(Arrays.asList("a", "b", "c"), sketch.getHottest(keys, 10));
+    }
+
+    @Test
+    public void testOldCountsFade() throws Exception {
+        FrequencySketch<String> sketch = new FrequencySketch<String>(64, 100);
+        for (int i = 0; i < 99; i++) sketch.increment("old");
+        // The 100th count halves everything
+        sketch.increment("new");
+        assertEquals(49, sketch.estimate("old"));
+        assertEquals(0, sketch.estimate("new"));
+
+        List<String> keys = new ArrayList<String>(Arrays.asList("old", "new"));
+        for (int i = 0; i < 60; i++) sketch.increment("new");
+        assertEquals(Arrays.asList("new", "old"), sketch.getHottest(keys, 2));
+    }
+}
@@ -0,0 +1,65 @@
+package net.floodlightcontroller.core.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimeoutWheelTest {
+
+    @Test
+    public void testRemoveDue() throws Exception {
+        // 1s ticks, 8 buckets
+        TimeoutWheel<String> wheel = new TimeoutWheel<String>(1000, 8, 0);
+        wheel.schedule("a", 2500);
+        wheel.schedule("b", 5000);
+        // Comes round to the bucket of "a" before it is due
+        wheel.schedule("c", 10500);
+        assertEquals(3, wheel.size());
+
+        assertTrue(wheel.removeDue(1999).isEmpty());
+        assertEquals(Collections.singletonList("a"), wheel.removeDue(2000));
+        assertTrue(wheel.removeDue(4999).isEmpty());
+        assertEquals(Collections.singletonList("b"), wheel.removeDue(9000));
+        assertEquals(Collections.singletonList("c"), wheel.removeDue(10000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testReschedule() throws Exception {
+        TimeoutWheel<String> wheel = new TimeoutWheel<String>(1000, 8, 0);
+        wheel.schedule("a", 5000);
+        // Later times leave the key where it is
+        wheel.schedule("a", 7000);
+        assertEquals(Collections.singletonList("a"), wheel.removeDue(5000));
+
+        // Earlier ones move it
+        wheel.schedule("b", 7000);
+        wheel.schedule("b", 6000);
+        assertEquals(1, wheel.size());
+        assertEquals(Collections.singletonList("b"), wheel.removeDue(6000));
+
+        // So does a time in the past, to the next look
+        wheel.schedule("c", 1000);
+        assertEquals(Collections.singletonList("c"), wheel.removeDue(6000));
+
+        wheel.schedule("d", 7000);
+        wheel.remove("d");
+        assertTrue(wheel.removeDue(20000).isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testWentRound() throws Exception {
+        TimeoutWheel<String> wheel = new TimeoutWheel<String>(1000, 4, 0);
+        wheel.schedule("a", 1000);
+        wheel.schedule("b", 3000);
+        wheel.schedule("c", 9000);
+        List<String> due = wheel.removeDue(100000);
+        Collections.sort(due);
+        assertEquals(Arrays.asList("a", "b", "c"), due);
+    }
+}
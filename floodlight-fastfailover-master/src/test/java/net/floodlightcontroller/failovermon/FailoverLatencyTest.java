@@ -0,0 +1,222 @@
+package net.floodlightcontroller.failovermon;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.failovermon.IFailoverLatencyService.Stage;
+import net.floodlightcontroller.flowdispatchero.FlowDispatcher;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.multipathrouting.IMultiPathRoutingService;
+import net.floodlightcontroller.multipathrouting.MultiPathRouting;
+import net.floodlightcontroller.routing.Route;
+import net.floodlightcontroller.test.FloodlightTestCase;
+import net.floodlightcontroller.topology.ITopologyService;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFRequest;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+import com.google.common.util.concurrent.Futures;
+
+public class FailoverLatencyTest extends FloodlightTestCase {
+    private static final DatapathId SW1 = DatapathId.of(1L);
+    private static final DatapathId SW2 = DatapathId.of(2L);
+    private static final DatapathId SW3 = DatapathId.of(3L);
+
+    /* What a fast failover has to stay within */
+    private static final long FAILOVER_BUDGET_MS = 50;
+
+    private TestFailoverLatency failoverLatency;
+
+    /** Replays recorded timestamps instead of reading the clock */
+    protected static class TestFailoverLatency extends FailoverLatency {
+        long nowNs = -1;
+
+        @Override
+        protected long now() {
+            return nowNs < 0 ? super.now() : nowNs;
+        }
+
+        void at(long us) {
+            nowNs = TimeUnit.MICROSECONDS.toNanos(us);
+        }
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        failoverLatency = new TestFailoverLatency();
+        failoverLatency.init(new FloodlightModuleContext());
+    }
+
+    private static long micros(LatencyHistogram h) {
+        return TimeUnit.NANOSECONDS.toMicros(h.getMaxNs());
+    }
+
+    @Test
+    public void testReplayLinkFailure() throws Exception {
+        // sw1:2 - sw2:1 is cut, both switches report their port down
+        failoverLatency.at(1000);
+        failoverLatency.recordPortDown(SW1, OFPort.of(2));
+        failoverLatency.at(1300);
+        failoverLatency.recordPortDown(SW2, OFPort.of(1));
+        failoverLatency.at(3000);
+        failoverLatency.recordReaction(Stage.LINK_REMOVED, SW1, OFPort.of(2), SW2, OFPort.of(1));
+        failoverLatency.at(3100);
+        failoverLatency.recordReaction(Stage.LINK_REMOVED, SW2, OFPort.of(1), SW1, OFPort.of(2));
+        failoverLatency.at(4000);
+        failoverLatency.recordReaction(Stage.ROUTES_INVALIDATED, SW1, OFPort.of(2), SW2, OFPort.of(1));
+        failoverLatency.at(13000);
+        failoverLatency.recordReaction(Stage.FLOWS_REPROGRAMMED, SW1, OFPort.of(2), SW2, OFPort.of(1));
+        failoverLatency.at(14000);
+        failoverLatency.recordReaction(Stage.FLOWS_REPROGRAMMED, SW2, OFPort.of(1), SW1, OFPort.of(2));
+
+        // One failure, timed from the first port reported down
+        Map<Stage, LatencyHistogram> histograms = failoverLatency.getHistograms();
+        for (LatencyHistogram h : histograms.values()) {
+            assertEquals(1, h.getCount());
+        }
+        assertEquals(2000, micros(histograms.get(Stage.LINK_REMOVED)));
+        assertEquals(3000, micros(histograms.get(Stage.ROUTES_INVALIDATED)));
+        assertEquals(12000, micros(histograms.get(Stage.FLOWS_REPROGRAMMED)));
+        assertTrue(failoverLatency.events.isEmpty());
+    }
+
+    @Test
+    public void testReactionsWithoutFailureIgnored() throws Exception {
+        failoverLatency.at(1000);
+        failoverLatency.recordReaction(Stage.LINK_REMOVED, SW1, OFPort.of(2), SW2, OFPort.of(1));
+        failoverLatency.recordReaction(Stage.FLOWS_REPROGRAMMED, SW1, OFPort.of(2), SW2, OFPort.of(1));
+
+        // A port elsewhere going down doesn't make these reactions to it
+        failoverLatency.recordPortDown(SW3, OFPort.of(1));
+        failoverLatency.at(2000);
+        failoverLatency.recordReaction(Stage.ROUTES_INVALIDATED, SW1, OFPort.of(2), SW2, OFPort.of(1));
+        for (LatencyHistogram h : failoverLatency.getHistograms().values()) {
+            assertEquals(0, h.getCount());
+        }
+    }
+
+    @Test
+    public void testEventWindow() throws Exception {
+        failoverLatency.at(0);
+        failoverLatency.recordPortDown(SW1, OFPort.of(2));
+        failoverLatency.at(TimeUnit.NANOSECONDS.toMicros(failoverLatency.eventWindowNs) + 1);
+        failoverLatency.recordReaction(Stage.LINK_REMOVED, SW1, OFPort.of(2), SW2, OFPort.of(1));
+        assertEquals(0, failoverLatency.getHistograms().get(Stage.LINK_REMOVED).getCount());
+        assertTrue(failoverLatency.events.isEmpty());
+    }
+
+    @Test
+    public void testHistogram() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentileNs(0.99));
+        for (int i = 0; i < 99; i++) {
+            h.add(TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        h.add(TimeUnit.MILLISECONDS.toNanos(70));
+        assertEquals(100, h.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(3), h.getMinNs());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(70), h.getMaxNs());
+        // Percentiles are only as good as the bucket bounds
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), h.getPercentileNs(0.99));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(70), h.getPercentileNs(1.0));
+
+        LatencyHistogram copy = h.copy();
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(100, copy.getCount());
+    }
+
+    /*
+     * Replays a failure through the modules that react to it, with mock
+     * switches that answer every barrier at once, and checks that none of
+     * them takes the controller past the failover budget.
+     */
+    @Test
+    public void testModulesReactWithinBudget() throws Exception {
+        OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+        List<IOFSwitch> switches = new ArrayList<IOFSwitch>();
+        IOFSwitchService switchService = createMock(IOFSwitchService.class);
+        for (DatapathId id : new DatapathId[] { SW1, SW2, SW3 }) {
+            IOFSwitch sw = createNiceMock(IOFSwitch.class);
+            expect(sw.getId()).andReturn(id).anyTimes();
+            expect(sw.getOFFactory()).andReturn(factory).anyTimes();
+            expect(sw.writeRequest(anyObject(OFRequest.class), anyLong(), anyObject(TimeUnit.class)))
+                    .andReturn(Futures.immediateFuture(factory.buildBarrierReply().build())).anyTimes();
+            expect(switchService.getSwitch(id)).andReturn(sw).anyTimes();
+            switches.add(sw);
+        }
+        replay(switchService);
+        replay(switches.toArray());
+
+        FloodlightModuleContext fmc = new FloodlightModuleContext();
+        fmc.addService(IFailoverLatencyService.class, failoverLatency);
+        fmc.addService(IFloodlightProviderService.class, getMockFloodlightProvider());
+        fmc.addService(ITopologyService.class, createMock(ITopologyService.class));
+        fmc.addService(IOFSwitchService.class, switchService);
+        MultiPathRouting mpr = new MultiPathRouting();
+        mpr.init(fmc);
+        fmc.addService(IMultiPathRoutingService.class, mpr);
+        FlowDispatcher dispatcher = new FlowDispatcher();
+        dispatcher.init(fmc);
+
+        // Triangle: sw1:2 - sw2:1, sw1:3 - sw3:1, sw3:2 - sw2:2
+        List<LDUpdate> links = new ArrayList<LDUpdate>();
+        links.add(link(SW1, 2, SW2, 1, ILinkDiscovery.UpdateOperation.LINK_UPDATED));
+        links.add(link(SW1, 3, SW3, 1, ILinkDiscovery.UpdateOperation.LINK_UPDATED));
+        links.add(link(SW3, 2, SW2, 2, ILinkDiscovery.UpdateOperation.LINK_UPDATED));
+        mpr.topologyChanged(links);
+        mpr.getRoute(SW1, OFPort.of(10), SW2, OFPort.of(10));
+
+        // The switch manager reports sw1:2 down, link discovery deletes the link
+        failoverLatency.recordPortDown(SW1, OFPort.of(2));
+        failoverLatency.recordReaction(Stage.LINK_REMOVED, SW1, OFPort.of(2), SW2, OFPort.of(1));
+        mpr.topologyChanged(Collections.singletonList(
+                link(SW1, 2, SW2, 1, ILinkDiscovery.UpdateOperation.LINK_REMOVED)));
+        Route route = mpr.getRoute(SW1, OFPort.of(10), SW2, OFPort.of(10));
+        assertEquals(new NodePortTuple(SW3, OFPort.of(1)), route.getPath().get(2));
+
+        Match match = factory.buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(10))
+                .setExact(MatchField.ETH_SRC, MacAddress.of(1))
+                .setExact(MatchField.ETH_DST, MacAddress.of(2))
+                .build();
+        assertTrue(dispatcher.pushRoutes(route, null, match, false, false).get());
+
+        for (Map.Entry<Stage, LatencyHistogram> entry : failoverLatency.getHistograms().entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            assertEquals(entry.getKey().toString(), 1, h.getCount());
+            assertTrue(entry.getKey() + " took " + micros(h) + " us",
+                    h.getMaxNs() < TimeUnit.MILLISECONDS.toNanos(FAILOVER_BUDGET_MS));
+        }
+        assertTrue(failoverLatency.events.isEmpty());
+    }
+
+    private static LDUpdate link(DatapathId src, int srcPort, DatapathId dst, int dstPort,
+            ILinkDiscovery.UpdateOperation op) {
+        return new LDUpdate(src, OFPort.of(srcPort), dst, OFPort.of(dstPort),
+                ILinkDiscovery.LinkType.DIRECT_LINK, op);
+    }
+}
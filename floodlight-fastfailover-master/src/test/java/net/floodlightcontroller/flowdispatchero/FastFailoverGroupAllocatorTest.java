@@ -0,0 +1,117 @@
+package net.floodlightcontroller.flowdispatchero;
+
+import static org.junit.Assert.*;
+
+import net.floodlightcontroller.flowdispatchero.FastFailoverGroupAllocator.FailoverGroup;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFGroup;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class FastFailoverGroupAllocatorTest {
+    private static final DatapathId SW1 = DatapathId.of(1L);
+    private static final DatapathId SW2 = DatapathId.of(2L);
+
+    private FastFailoverGroupAllocator allocator;
+
+    @Before
+    public void setUp() {
+        allocator = new FastFailoverGroupAllocator();
+    }
+
+    @Test
+    public void testSharedPortPairSharesGroup() {
+        FailoverGroup a = allocator.acquire(SW1, OFPort.of(1), OFPort.of(2));
+        FailoverGroup b = allocator.acquire(SW1, OFPort.of(1), OFPort.of(2));
+
+        assertTrue(a.isNew());
+        assertFalse(b.isNew());
+        assertEquals(a, b);
+        assertEquals(1, allocator.getGroupCount(SW1));
+
+        // First release leaves the group in place for the other flow
+        assertFalse(allocator.release(a));
+        assertEquals(1, allocator.getGroupCount(SW1));
+        assertTrue(allocator.release(b));
+        assertEquals(0, allocator.getGroupCount(SW1));
+    }
+
+    @Test
+    public void testDistinctPortPairsGetDistinctGroups() {
+        FailoverGroup a = allocator.acquire(SW1, OFPort.of(1), OFPort.of(2));
+        FailoverGroup b = allocator.acquire(SW1, OFPort.of(1), OFPort.of(3));
+        FailoverGroup c = allocator.acquire(SW1, OFPort.of(2), OFPort.of(1));
+
+        assertTrue(a.isNew());
+        assertTrue(b.isNew());
+        assertTrue(c.isNew());
+        assertFalse(a.getGroup().equals(b.getGroup()));
+        assertFalse(a.getGroup().equals(c.getGroup()));
+        assertFalse(b.getGroup().equals(c.getGroup()));
+        assertEquals(3, allocator.getGroupCount(SW1));
+        assertFalse(allocator.getGroups(SW1).contains(OFGroup.ZERO));
+    }
+
+    @Test
+    public void testGroupIdsArePerSwitch() {
+        FailoverGroup a = allocator.acquire(SW1, OFPort.of(1), OFPort.of(2));
+        FailoverGroup b = allocator.acquire(SW2, OFPort.of(1), OFPort.of(2));
+
+        assertTrue(b.isNew());
+        assertEquals(a.getGroup(), b.getGroup());
+        assertFalse(a.equals(b));
+    }
+
+    @Test
+    public void testReleasedIdIsRecycled() {
+        FailoverGroup a = allocator.acquire(SW1, OFPort.of(1), OFPort.of(2));
+        allocator.acquire(SW1, OFPort.of(1), OFPort.of(3));
+        assertTrue(allocator.release(a));
+
+        FailoverGroup c = allocator.acquire(SW1, OFPort.of(4), OFPort.of(5));
+        assertTrue(c.isNew());
+        assertEquals(a.getGroup(), c.getGroup());
+    }
+
+    @Test
+    public void testReleaseSwitch() {
+        FailoverGroup a = allocator.acquire(SW1, OFPort.of(1), OFPort.of(2));
+        allocator.acquire(SW2, OFPort.of(1), OFPort.of(2));
+
+        allocator.releaseSwitch(SW1);
+        assertEquals(0, allocator.getGroupCount(SW1));
+        assertEquals(1, allocator.getGroupCount(SW2));
+
+        // A stale release for the forgotten switch is harmless
+        assertFalse(allocator.release(a));
+        FailoverGroup b = allocator.acquire(SW1, OFPort.of(1), OFPort.of(2));
+        assertTrue(b.isNew());
+    }
+
+    @Test
+    public void testReassign() {
+        FailoverGroup a = allocator.acquire(SW1, OFPort.of(1), OFPort.of(2));
+        allocator.acquire(SW1, OFPort.of(1), OFPort.of(2));
+        FailoverGroup other = allocator.acquire(SW1, OFPort.of(3), OFPort.of(4));
+        assertEquals(2, allocator.getUsers(a));
+
+        // Can't take over the ports of another group
+        assertNull(allocator.reassign(a, OFPort.of(3), OFPort.of(4)));
+
+        FailoverGroup moved = allocator.reassign(a, OFPort.of(2), OFPort.of(5));
+        assertNotNull(moved);
+        assertFalse(moved.isNew());
+        assertEquals(a.getGroup(), moved.getGroup());
+        assertEquals(2, allocator.getUsers(moved));
+        assertEquals(0, allocator.getUsers(a));
+        assertEquals(2, allocator.getGroupCount(SW1));
+
+        // The old ports are free again, the group keeps its references
+        assertTrue(allocator.acquire(SW1, OFPort.of(1), OFPort.of(2)).isNew());
+        assertFalse(allocator.release(moved));
+        assertTrue(allocator.release(moved));
+        assertTrue(allocator.release(other));
+    }
+}
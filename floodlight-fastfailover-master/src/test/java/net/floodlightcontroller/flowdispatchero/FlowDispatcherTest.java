@@ -0,0 +1,363 @@
+package net.floodlightcontroller.flowdispatchero;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.core.util.AppCookie;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.multipathrouting.IMultiPathRoutingService;
+import net.floodlightcontroller.routing.Route;
+import net.floodlightcontroller.routing.RouteId;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowAdd;
+import org.projectfloodlight.openflow.protocol.OFFlowDelete;
+import org.projectfloodlight.openflow.protocol.OFFlowModFlags;
+import org.projectfloodlight.openflow.protocol.OFFlowModifyStrict;
+import org.projectfloodlight.openflow.protocol.OFGroupAdd;
+import org.projectfloodlight.openflow.protocol.OFGroupDelete;
+import org.projectfloodlight.openflow.protocol.OFGroupModify;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFRequest;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.action.OFActionGroup;
+import org.projectfloodlight.openflow.protocol.match.Match;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFGroup;
+import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.U64;
+
+import com.google.common.util.concurrent.Futures;
+
+public class FlowDispatcherTest {
+    private static final DatapathId SW1 = DatapathId.of(1L);
+    private static final DatapathId SW2 = DatapathId.of(2L);
+    private static final DatapathId SW3 = DatapathId.of(3L);
+    private static final DatapathId SW4 = DatapathId.of(4L);
+    private static final MacAddress MAC1 = MacAddress.of("00:00:00:00:00:01");
+    private static final MacAddress MAC2 = MacAddress.of("00:00:00:00:00:02");
+
+    private OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private FlowDispatcher dispatcher;
+    private IOFSwitchService switchService;
+    private IMultiPathRoutingService multipath;
+    private IOFSwitch sw1;
+    private IOFSwitch sw2;
+    private IOFSwitch sw3;
+    private IOFSwitch sw4;
+    private Capture<Iterable<OFMessage>> sw1Batches;
+    private Capture<Iterable<OFMessage>> sw2Batches;
+    private Capture<Iterable<OFMessage>> sw4Batches;
+    private Capture<OFMessage> sw1Writes;
+    private Capture<OFMessage> sw2Writes;
+
+    private IOFSwitch mockSwitch(DatapathId id, Capture<Iterable<OFMessage>> batches, Capture<OFMessage> writes) {
+        IOFSwitch sw = createMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(id).anyTimes();
+        expect(sw.getOFFactory()).andReturn(factory).anyTimes();
+        sw.write(capture(batches));
+        expectLastCall().anyTimes();
+        sw.write(capture(writes));
+        expectLastCall().anyTimes();
+        expect(sw.writeRequest(anyObject(OFRequest.class), anyLong(), anyObject(TimeUnit.class)))
+                .andReturn(Futures.immediateFuture(factory.buildBarrierReply().build())).anyTimes();
+        return sw;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        sw1Batches = new Capture<Iterable<OFMessage>>(CaptureType.ALL);
+        sw2Batches = new Capture<Iterable<OFMessage>>(CaptureType.ALL);
+        sw1Writes = new Capture<OFMessage>(CaptureType.ALL);
+        sw2Writes = new Capture<OFMessage>(CaptureType.ALL);
+        sw1 = mockSwitch(SW1, sw1Batches, sw1Writes);
+        sw2 = mockSwitch(SW2, sw2Batches, sw2Writes);
+        sw4Batches = new Capture<Iterable<OFMessage>>(CaptureType.ALL);
+        sw3 = mockSwitch(SW3, new Capture<Iterable<OFMessage>>(CaptureType.ALL), new Capture<OFMessage>(CaptureType.ALL));
+        sw4 = mockSwitch(SW4, sw4Batches, new Capture<OFMessage>(CaptureType.ALL));
+
+        switchService = createMock(IOFSwitchService.class);
+        expect(switchService.getSwitch(SW1)).andReturn(sw1).anyTimes();
+        expect(switchService.getSwitch(SW2)).andReturn(sw2).anyTimes();
+        expect(switchService.getSwitch(SW3)).andReturn(sw3).anyTimes();
+        expect(switchService.getSwitch(SW4)).andReturn(sw4).anyTimes();
+        multipath = createMock(IMultiPathRoutingService.class);
+
+        FloodlightModuleContext fmc = new FloodlightModuleContext();
+        fmc.addService(IOFSwitchService.class, switchService);
+        fmc.addService(IMultiPathRoutingService.class, multipath);
+        dispatcher = new FlowDispatcher();
+        dispatcher.init(fmc);
+    }
+
+    /* Host 1 on sw1 port 1, host 2 on sw2 port 3, sw1 port 2 linked to sw2 port 1 */
+    private Route route() {
+        List<NodePortTuple> path = new ArrayList<NodePortTuple>();
+        path.add(new NodePortTuple(SW1, OFPort.of(1)));
+        path.add(new NodePortTuple(SW1, OFPort.of(2)));
+        path.add(new NodePortTuple(SW2, OFPort.of(1)));
+        path.add(new NodePortTuple(SW2, OFPort.of(3)));
+        Route route = new Route(SW1, SW2);
+        route.setPath(path);
+        return route;
+    }
+
+    private static NodePortTuple npt(DatapathId sw, int port) {
+        return new NodePortTuple(sw, OFPort.of(port));
+    }
+
+    private static Route routeOver(NodePortTuple... path) {
+        return new Route(new RouteId(SW1, SW2), Arrays.asList(path));
+    }
+
+    private Match flowMatch(OFPort inPort) {
+        return factory.buildMatch()
+                .setExact(MatchField.IN_PORT, inPort)
+                .setExact(MatchField.ETH_SRC, MAC1)
+                .setExact(MatchField.ETH_DST, MAC2)
+                .setExact(MatchField.ETH_TYPE, EthType.IPv4)
+                .setExact(MatchField.IPV4_SRC, IPv4Address.of("10.0.0.1"))
+                .setExact(MatchField.IPV4_DST, IPv4Address.of("10.0.0.2"))
+                .build();
+    }
+
+    private static <T extends OFMessage> List<T> sent(Capture<Iterable<OFMessage>> batches, Class<T> type) {
+        List<T> result = new ArrayList<T>();
+        for (Iterable<OFMessage> batch : batches.getValues()) {
+            for (OFMessage m : batch) {
+                if (type.isInstance(m)) {
+                    result.add(type.cast(m));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static List<OFFlowAdd> flowAdds(Capture<Iterable<OFMessage>> batches) {
+        return sent(batches, OFFlowAdd.class);
+    }
+
+    private static OFFlowAdd ruleFor(List<OFFlowAdd> rules, int inPort) {
+        for (OFFlowAdd fa : rules) {
+            if (fa.getMatch().get(MatchField.IN_PORT).equals(OFPort.of(inPort))) {
+                return fa;
+            }
+        }
+        fail("No rule for in_port " + inPort);
+        return null;
+    }
+
+    @Test
+    public void testRulesMatchTheFlow() throws Exception {
+        replay(sw1, sw2, switchService, multipath);
+        assertTrue(dispatcher.pushRoutes(route(), null, flowMatch(OFPort.of(1)), false, true).get());
+
+        List<OFFlowAdd> rules1 = flowAdds(sw1Batches);
+        List<OFFlowAdd> rules2 = flowAdds(sw2Batches);
+        assertEquals(2, rules1.size());
+        assertEquals(2, rules2.size());
+
+        // Every rule carries the flow's own cookie
+        U64 cookie = rules1.get(0).getCookie();
+        assertEquals(FlowDispatcher.FLOWDISPATCHER_APP_ID, AppCookie.extractApp(cookie));
+        for (OFFlowAdd fa : Arrays.asList(rules1.get(1), rules2.get(0), rules2.get(1))) {
+            assertEquals(cookie, fa.getCookie());
+        }
+
+        // The host's rule matches the flow and expires when it goes idle...
+        OFFlowAdd entry = ruleFor(rules1, 1);
+        assertEquals(MAC1, entry.getMatch().get(MatchField.ETH_SRC));
+        assertEquals(MAC2, entry.getMatch().get(MatchField.ETH_DST));
+        assertEquals(IPv4Address.of("10.0.0.2"), entry.getMatch().get(MatchField.IPV4_DST));
+        assertTrue(entry.getIdleTimeout() > 0);
+        assertTrue(entry.getFlags().contains(OFFlowModFlags.SEND_FLOW_REM));
+
+        // ...the rule for the way back matches the reverse direction
+        OFFlowAdd back = ruleFor(rules1, 2);
+        assertEquals(MAC2, back.getMatch().get(MatchField.ETH_SRC));
+        assertEquals(MAC1, back.getMatch().get(MatchField.ETH_DST));
+        assertEquals(IPv4Address.of("10.0.0.1"), back.getMatch().get(MatchField.IPV4_DST));
+        assertEquals(0, back.getIdleTimeout());
+
+        // Nothing was deleted along the way
+        assertFalse(sw1Writes.hasCaptured());
+        assertFalse(sw2Writes.hasCaptured());
+    }
+
+    @Test
+    public void testFlowRemovedWhenIdleBothWays() throws Exception {
+        multipath.releaseRoute(SW1, OFPort.of(1), SW2, OFPort.of(3));
+        expectLastCall().once();
+        replay(sw1, sw2, switchService, multipath);
+
+        assertTrue(dispatcher.pushRoutes(route(), null, flowMatch(OFPort.of(1)), false, true).get());
+        U64 cookie = flowAdds(sw1Batches).get(0).getCookie();
+
+        dispatcher.receive(sw1, factory.buildFlowRemoved().setCookie(cookie).setMatch(flowMatch(OFPort.of(1))).build(), null);
+        assertFalse(sw1Writes.hasCaptured());
+
+        // Someone else's rule going away doesn't matter
+        dispatcher.receive(sw2, factory.buildFlowRemoved().setCookie(U64.of(42)).build(), null);
+        assertFalse(sw2Writes.hasCaptured());
+
+        dispatcher.receive(sw2, factory.buildFlowRemoved().setCookie(cookie).build(), null);
+        for (Capture<OFMessage> writes : Arrays.asList(sw1Writes, sw2Writes)) {
+            assertEquals(1, writes.getValues().size());
+            OFFlowDelete delete = (OFFlowDelete) writes.getValue();
+            assertEquals(cookie, delete.getCookie());
+            assertEquals(U64.NO_MASK, delete.getCookieMask());
+        }
+
+        // Late notifications for the flow are ignored
+        dispatcher.receive(sw1, factory.buildFlowRemoved().setCookie(cookie).build(), null);
+        assertEquals(1, sw1Writes.getValues().size());
+        verify(multipath);
+    }
+
+    @Test
+    public void testRepushReplacesFlow() throws Exception {
+        replay(sw1, sw2, switchService, multipath);
+
+        assertTrue(dispatcher.pushRoutes(route(), null, flowMatch(OFPort.of(1)), false, true).get());
+        U64 first = flowAdds(sw1Batches).get(0).getCookie();
+        // The same flow, punted again from another port before its rules took over
+        assertTrue(dispatcher.pushRoutes(route(), null, flowMatch(OFPort.of(7)), false, true).get());
+        List<OFFlowAdd> rules = flowAdds(sw1Batches);
+        U64 second = rules.get(rules.size() - 1).getCookie();
+        assertFalse(first.equals(second));
+
+        // The old cookie's leftovers are deleted, the route stays in use
+        OFFlowDelete delete = (OFFlowDelete) sw1Writes.getValue();
+        assertEquals(first, delete.getCookie());
+        verify(multipath);
+    }
+
+    /* Primary sw1:2 - sw2:1, backup over sw3, new backup over sw4 */
+    private static final Route PRIMARY = routeOver(npt(SW1, 1), npt(SW1, 2), npt(SW2, 1), npt(SW2, 3));
+    private static final Route BACKUP = routeOver(npt(SW1, 1), npt(SW1, 3), npt(SW3, 1),
+            npt(SW3, 2), npt(SW2, 2), npt(SW2, 3));
+    private static final Route NEW_BACKUP = routeOver(npt(SW1, 1), npt(SW1, 4), npt(SW4, 1),
+            npt(SW4, 2), npt(SW2, 4), npt(SW2, 3));
+
+    private static List<LDUpdate> primaryLinkDown() {
+        return Collections.singletonList(new LDUpdate(SW1, OFPort.of(2), SW2, OFPort.of(1),
+                ILinkDiscovery.LinkType.DIRECT_LINK, ILinkDiscovery.UpdateOperation.LINK_REMOVED));
+    }
+
+    private static OFGroup groupOn(Capture<Iterable<OFMessage>> batches, int watchPort) {
+        for (OFGroupAdd ga : sent(batches, OFGroupAdd.class)) {
+            if (ga.getBuckets().get(0).getWatchPort().equals(OFPort.of(watchPort))) {
+                return ga.getGroup();
+            }
+        }
+        fail("No group watching port " + watchPort);
+        return null;
+    }
+
+    private static void assertWatches(OFGroupModify gm, int primaryPort, int backupPort) {
+        assertEquals(2, gm.getBuckets().size());
+        assertEquals(OFPort.of(primaryPort), gm.getBuckets().get(0).getWatchPort());
+        assertEquals(OFPort.of(backupPort), gm.getBuckets().get(1).getWatchPort());
+    }
+
+    @Test
+    public void testReprotectionRewritesGroups() throws Exception {
+        expect(multipath.getBackupRoute(anyObject(Route.class))).andReturn(NEW_BACKUP).once();
+        replay(sw1, sw2, sw3, sw4, switchService, multipath);
+
+        assertTrue(dispatcher.pushRoutes(PRIMARY, BACKUP, flowMatch(OFPort.of(1)), true, true).get());
+        OFGroup group1 = groupOn(sw1Batches, 2);
+        OFGroup group2 = groupOn(sw2Batches, 1);
+        U64 cookie = flowAdds(sw1Batches).get(0).getCookie();
+
+        dispatcher.topologyChanged(primaryLinkDown());
+
+        // The flow is now on its old backup; the new backup goes through sw4...
+        List<OFFlowAdd> rules4 = flowAdds(sw4Batches);
+        assertEquals(2, rules4.size());
+        assertEquals(cookie, rules4.get(0).getCookie());
+
+        // ...and the groups at either end are rewritten in place
+        List<OFGroupModify> modified1 = sent(sw1Batches, OFGroupModify.class);
+        assertEquals(1, modified1.size());
+        assertEquals(group1, modified1.get(0).getGroup());
+        assertWatches(modified1.get(0), 3, 4);
+        List<OFGroupModify> modified2 = sent(sw2Batches, OFGroupModify.class);
+        assertEquals(1, modified2.size());
+        assertEquals(group2, modified2.get(0).getGroup());
+        assertWatches(modified2.get(0), 2, 4);
+
+        // Nothing else changed
+        assertTrue(sent(sw1Batches, OFFlowModifyStrict.class).isEmpty());
+        assertFalse(sw1Writes.hasCaptured());
+        assertFalse(sw2Writes.hasCaptured());
+
+        // A later failure elsewhere doesn't touch the flow
+        dispatcher.topologyChanged(Collections.singletonList(new LDUpdate(SW3, OFPort.of(9), SW4, OFPort.of(9),
+                ILinkDiscovery.LinkType.DIRECT_LINK, ILinkDiscovery.UpdateOperation.LINK_REMOVED)));
+        assertEquals(1, sent(sw1Batches, OFGroupModify.class).size());
+        verify(multipath);
+    }
+
+    @Test
+    public void testReprotectionMovesFlowToSharedGroup() throws Exception {
+        expect(multipath.getBackupRoute(anyObject(Route.class))).andReturn(NEW_BACKUP).once();
+        replay(sw1, sw2, sw3, sw4, switchService, multipath);
+
+        // Another flow already protects sw3 with sw4 at both ends
+        Match other = factory.buildMatch()
+                .setExact(MatchField.IN_PORT, OFPort.of(5))
+                .setExact(MatchField.ETH_SRC, MacAddress.of("00:00:00:00:00:05"))
+                .setExact(MatchField.ETH_DST, MacAddress.of("00:00:00:00:00:06"))
+                .build();
+        assertTrue(dispatcher.pushRoutes(
+                routeOver(npt(SW1, 5), npt(SW1, 3), npt(SW3, 1), npt(SW3, 2), npt(SW2, 2), npt(SW2, 6)),
+                routeOver(npt(SW1, 5), npt(SW1, 4), npt(SW4, 1), npt(SW4, 2), npt(SW2, 4), npt(SW2, 6)),
+                other, true, true).get());
+        OFGroup shared1 = groupOn(sw1Batches, 3);
+        OFGroup shared2 = groupOn(sw2Batches, 2);
+
+        assertTrue(dispatcher.pushRoutes(PRIMARY, BACKUP, flowMatch(OFPort.of(1)), true, true).get());
+        OFGroup group1 = groupOn(sw1Batches, 2);
+        dispatcher.topologyChanged(primaryLinkDown());
+
+        // The flow's entry rules now lead into the other flow's groups...
+        List<OFFlowModifyStrict> modified1 = sent(sw1Batches, OFFlowModifyStrict.class);
+        assertEquals(1, modified1.size());
+        assertEquals(OFPort.of(1), modified1.get(0).getMatch().get(MatchField.IN_PORT));
+        assertEquals(MAC1, modified1.get(0).getMatch().get(MatchField.ETH_SRC));
+        assertEquals(shared1, ((OFActionGroup) modified1.get(0).getActions().get(0)).getGroup());
+        List<OFFlowModifyStrict> modified2 = sent(sw2Batches, OFFlowModifyStrict.class);
+        assertEquals(1, modified2.size());
+        assertEquals(OFPort.of(3), modified2.get(0).getMatch().get(MatchField.IN_PORT));
+        assertEquals(MAC2, modified2.get(0).getMatch().get(MatchField.ETH_SRC));
+        assertEquals(shared2, ((OFActionGroup) modified2.get(0).getActions().get(0)).getGroup());
+        assertTrue(sent(sw1Batches, OFGroupModify.class).isEmpty());
+
+        // ...and its old groups are gone
+        assertEquals(group1, ((OFGroupDelete) sw1Writes.getValue()).getGroup());
+        assertEquals(1, sw2Writes.getValues().size());
+        assertTrue(sw2Writes.getValue() instanceof OFGroupDelete);
+        verify(multipath);
+    }
+}
@@ -0,0 +1,188 @@
+package net.floodlightcontroller.flowdispatchero;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.internal.IOFSwitchService;
+
+import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.protocol.OFBarrierReply;
+import org.projectfloodlight.openflow.protocol.OFFactories;
+import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFMessage;
+import org.projectfloodlight.openflow.protocol.OFRequest;
+import org.projectfloodlight.openflow.protocol.OFVersion;
+import org.projectfloodlight.openflow.protocol.match.MatchField;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class FlowInstallTransactionTest {
+    private static final DatapathId SW1 = DatapathId.of(1L);
+    private static final DatapathId SW2 = DatapathId.of(2L);
+
+    private OFFactory factory = OFFactories.getFactory(OFVersion.OF_13);
+    private IOFSwitch sw1;
+    private IOFSwitch sw2;
+    private IOFSwitchService switchService;
+    private Capture<Iterable<OFMessage>> sw1Writes;
+    private Capture<Iterable<OFMessage>> sw2Writes;
+
+    @Before
+    public void setUp() {
+        sw1 = createMock(IOFSwitch.class);
+        sw2 = createMock(IOFSwitch.class);
+        expect(sw1.getOFFactory()).andReturn(factory).anyTimes();
+        expect(sw2.getOFFactory()).andReturn(factory).anyTimes();
+        sw1Writes = new Capture<Iterable<OFMessage>>(CaptureType.ALL);
+        sw2Writes = new Capture<Iterable<OFMessage>>(CaptureType.ALL);
+        switchService = createMock(IOFSwitchService.class);
+    }
+
+    private OFMessage flow(int inPort) {
+        return factory.buildFlowAdd()
+                .setMatch(factory.buildMatch().setExact(MatchField.IN_PORT, OFPort.of(inPort)).build())
+                .build();
+    }
+
+    private OFBarrierReply barrierReply() {
+        return factory.buildBarrierReply().build();
+    }
+
+    @Test
+    public void testStagesAreFenced() throws Exception {
+        SettableFuture<OFBarrierReply> sw1Path = SettableFuture.create();
+        SettableFuture<OFBarrierReply> sw1Entry = SettableFuture.create();
+        SettableFuture<OFBarrierReply> sw2Path = SettableFuture.create();
+
+        expect(switchService.getSwitch(SW1)).andReturn(sw1).anyTimes();
+        expect(switchService.getSwitch(SW2)).andReturn(sw2).anyTimes();
+        sw1.write(capture(sw1Writes));
+        expectLastCall().times(2);
+        expect(sw1.writeRequest(anyObject(OFRequest.class), anyLong(), anyObject(TimeUnit.class))).andReturn(sw1Path).andReturn(sw1Entry);
+        sw2.write(capture(sw2Writes));
+        expectLastCall().once();
+        expect(sw2.writeRequest(anyObject(OFRequest.class), anyLong(), anyObject(TimeUnit.class))).andReturn(sw2Path);
+        replay(sw1, sw2, switchService);
+
+        FlowInstallTransaction tx = new FlowInstallTransaction();
+        tx.add(FlowInstallTransaction.STAGE_ENTRY, SW1, flow(3));
+        tx.add(FlowInstallTransaction.STAGE_PATH, SW1, flow(1));
+        tx.add(FlowInstallTransaction.STAGE_PATH, SW1, flow(2));
+        tx.add(FlowInstallTransaction.STAGE_PATH, SW2, flow(1));
+        assertEquals(4, tx.getMessageCount());
+        assertTrue(tx.contains(SW2));
+
+        ListenableFuture<Boolean> result = tx.commit(switchService);
+
+        // The path stage goes out as one batch per switch...
+        assertEquals(1, sw1Writes.getValues().size());
+        assertEquals(Arrays.asList(flow(1), flow(2)), sw1Writes.getValues().get(0));
+        assertEquals(1, sw2Writes.getValues().size());
+
+        // ...and the entry stage waits for every barrier of the path stage
+        sw1Path.set(barrierReply());
+        assertEquals(1, sw1Writes.getValues().size());
+        sw2Path.set(barrierReply());
+        List<Iterable<OFMessage>> writes = sw1Writes.getValues();
+        assertEquals(2, writes.size());
+        assertEquals(Arrays.asList(flow(3)), writes.get(1));
+        assertFalse(result.isDone());
+
+        sw1Entry.set(barrierReply());
+        assertTrue(result.get());
+        verify(sw1, sw2, switchService);
+    }
+
+    @Test
+    public void testDisconnectedSwitchAborts() throws Exception {
+        SettableFuture<OFBarrierReply> sw1Path = SettableFuture.create();
+
+        expect(switchService.getSwitch(SW1)).andReturn(sw1).anyTimes();
+        expect(switchService.getSwitch(SW2)).andReturn(null).anyTimes();
+        sw1.write(capture(sw1Writes));
+        expectLastCall().once();
+        expect(sw1.writeRequest(anyObject(OFRequest.class), anyLong(), anyObject(TimeUnit.class))).andReturn(sw1Path);
+        replay(sw1, sw2, switchService);
+
+        FlowInstallTransaction tx = new FlowInstallTransaction();
+        tx.add(FlowInstallTransaction.STAGE_PATH, SW1, flow(1));
+        tx.add(FlowInstallTransaction.STAGE_ENTRY, SW2, flow(1));
+        ListenableFuture<Boolean> result = tx.commit(switchService);
+
+        sw1Path.set(barrierReply());
+        assertFalse(result.get());
+        verify(sw1, sw2, switchService);
+    }
+
+    @Test
+    public void testFailedBarrierAborts() throws Exception {
+        SettableFuture<OFBarrierReply> sw1Path = SettableFuture.create();
+
+        expect(switchService.getSwitch(SW1)).andReturn(sw1).anyTimes();
+        sw1.write(capture(sw1Writes));
+        expectLastCall().once();
+        expect(sw1.writeRequest(anyObject(OFRequest.class), anyLong(), anyObject(TimeUnit.class))).andReturn(sw1Path);
+        replay(sw1, sw2, switchService);
+
+        FlowInstallTransaction tx = new FlowInstallTransaction();
+        tx.add(FlowInstallTransaction.STAGE_PATH, SW1, flow(1));
+        tx.add(FlowInstallTransaction.STAGE_ENTRY, SW1, flow(2));
+        ListenableFuture<Boolean> result = tx.commit(switchService);
+
+        sw1Path.setException(new Exception("disconnected"));
+        assertFalse(result.get());
+        // The entry stage never went out
+        assertEquals(1, sw1Writes.getValues().size());
+        verify(sw1, sw2, switchService);
+    }
+
+    @Test
+    public void testUnansweredBarrierAborts() throws Exception {
+        SettableFuture<OFBarrierReply> sw1Path = SettableFuture.create();
+
+        expect(switchService.getSwitch(SW1)).andReturn(sw1).anyTimes();
+        sw1.write(capture(sw1Writes));
+        expectLastCall().once();
+        // The barrier is sent with the timeout asked for
+        expect(sw1.writeRequest(anyObject(OFRequest.class), eq(200L), eq(TimeUnit.MILLISECONDS)))
+                .andReturn(sw1Path);
+        replay(sw1, sw2, switchService);
+
+        FlowInstallTransaction tx = new FlowInstallTransaction();
+        tx.add(FlowInstallTransaction.STAGE_PATH, SW1, flow(1));
+        tx.add(FlowInstallTransaction.STAGE_ENTRY, SW1, flow(2));
+        ListenableFuture<Boolean> result = tx.commit(switchService, 200);
+
+        // What the connection does once the timeout passes
+        sw1Path.setException(new TimeoutException());
+        assertFalse(result.get());
+        assertEquals(1, sw1Writes.getValues().size());
+        verify(sw1, sw2, switchService);
+    }
+
+    @Test
+    public void testEmptyTransaction() throws Exception {
+        replay(sw1, sw2, switchService);
+        FlowInstallTransaction tx = new FlowInstallTransaction();
+        assertTrue(tx.isEmpty());
+        assertTrue(tx.commit(switchService).get());
+        try {
+            tx.add(FlowInstallTransaction.STAGE_PATH, SW1, flow(1));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
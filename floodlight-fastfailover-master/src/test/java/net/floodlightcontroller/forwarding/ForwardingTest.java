@@ -41,6 +41,8 @@ import net.floodlightcontroller.devicemanager.test.MockDeviceManager;
 import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.devicemanager.IDeviceService;
 import net.floodlightcontroller.devicemanager.IEntityClassifierService;
+import net.floodlightcontroller.flowdispatchero.IFlowDispatcherService;
+import net.floodlightcontroller.multipathrouting.IMultiPathRoutingService;
 import net.floodlightcontroller.packet.Data;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPacket;
@@ -85,6 +87,8 @@ import org.projectfloodlight.openflow.protocol.action.OFActionOutput;
 import org.sdnplatform.sync.ISyncService;
 import org.sdnplatform.sync.test.MockSyncService;
 
+import com.google.common.util.concurrent.SettableFuture;
+
 public class ForwardingTest extends FloodlightTestCase {
     protected FloodlightContext cntx;
     protected MockDeviceManager deviceManager;
@@ -433,6 +437,101 @@ public class ForwardingTest extends FloodlightTestCase {
         assertTrue(OFMessageUtils.equalsIgnoreXid(wc2.getValue(), packetOut));
     }
 
+    @Test
+    public void testPacketInsWaitForPendingInstall() throws Exception {
+        learnDevices(DestDeviceToLearn.DEVICE1);
+
+        Route route = new Route(DatapathId.of(1L), DatapathId.of(2L));
+        List<NodePortTuple> nptList = new ArrayList<NodePortTuple>();
+        nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(1)));
+        nptList.add(new NodePortTuple(DatapathId.of(1L), OFPort.of(3)));
+        nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(1)));
+        nptList.add(new NodePortTuple(DatapathId.of(2L), OFPort.of(3)));
+        route.setPath(nptList);
+
+        // The route is computed and pushed once for the whole burst
+        IMultiPathRoutingService multipath = createMock(IMultiPathRoutingService.class);
+        expect(multipath.getRoute(DatapathId.of(1L), OFPort.of(1), DatapathId.of(2L), OFPort.of(3))).andReturn(route).once();
+        expect(multipath.getBackupRoute(route)).andReturn(null).once();
+        IFlowDispatcherService dispatcher = createMock(IFlowDispatcherService.class);
+        SettableFuture<Boolean> install = SettableFuture.create();
+        expect(dispatcher.pushRoutes(eq(route), isNull(Route.class), anyObject(Match.class), eq(true), eq(true))).andReturn(install).once();
+        forwarding.multipathService = multipath;
+        forwarding.flowdispatcherService = dispatcher;
+
+        Capture<OFMessage> wc1 = new Capture<OFMessage>(CaptureType.ALL);
+        sw1.write(capture(wc1));
+        expectLastCall().anyTimes();
+
+        reset(topology);
+        expect(topology.getL2DomainId(DatapathId.of(1L))).andReturn(DatapathId.of(1L)).anyTimes();
+        expect(topology.getL2DomainId(DatapathId.of(2L))).andReturn(DatapathId.of(1L)).anyTimes();
+        expect(topology.isAttachmentPointPort(DatapathId.of(1L),  OFPort.of(1))).andReturn(true).anyTimes();
+        expect(topology.isAttachmentPointPort(DatapathId.of(2L),  OFPort.of(3))).andReturn(true).anyTimes();
+        expect(topology.isIncomingBroadcastAllowed(DatapathId.of(anyLong()), OFPort.of(anyShort()))).andReturn(true).anyTimes();
+
+        replay(sw1, sw2, topology, multipath, dispatcher);
+        forwarding.receive(sw1, this.packetIn, cntx);
+        forwarding.receive(sw1, this.packetIn, cntx);
+        forwarding.receive(sw1, this.packetIn, cntx);
+        assertFalse(wc1.hasCaptured());
+        assertEquals(1, forwarding.pendingInstalls.size());
+
+        // The controller reuses the context once dispatch returns
+        cntx.clear();
+
+        // Every held packet goes back through the table once the flows are in
+        install.set(true);
+        verify(sw1, sw2, multipath, dispatcher);
+        assertEquals(3, wc1.getValues().size());
+        for (OFMessage m : wc1.getValues()) {
+            assertTrue(m instanceof OFPacketOut);
+            assertEquals(OFPort.TABLE, ((OFActionOutput) ((OFPacketOut) m).getActions().get(0)).getPort());
+        }
+        assertTrue(forwarding.pendingInstalls.isEmpty());
+    }
+
+    @Test
+    public void testPendingInstallCompletesOnFailure() throws Exception {
+        learnDevices(DestDeviceToLearn.DEVICE1);
+
+        Route route = new Route(DatapathId.of(1L), DatapathId.of(2L));
+        IMultiPathRoutingService multipath = createMock(IMultiPathRoutingService.class);
+        // No route yet, then one that cannot be pushed
+        expect(multipath.getRoute(DatapathId.of(1L), OFPort.of(1), DatapathId.of(2L), OFPort.of(3))).andReturn(null).once();
+        expect(multipath.getRoute(DatapathId.of(1L), OFPort.of(1), DatapathId.of(2L), OFPort.of(3))).andReturn(route).once();
+        expect(multipath.getBackupRoute(route)).andReturn(null).once();
+        IFlowDispatcherService dispatcher = createMock(IFlowDispatcherService.class);
+        expect(dispatcher.pushRoutes(eq(route), isNull(Route.class), anyObject(Match.class), eq(true), eq(true)))
+        .andThrow(new IllegalStateException()).once();
+        forwarding.multipathService = multipath;
+        forwarding.flowdispatcherService = dispatcher;
+
+        sw1.write(anyObject(OFMessage.class));
+        expectLastCall().anyTimes();
+
+        reset(topology);
+        expect(topology.getL2DomainId(DatapathId.of(1L))).andReturn(DatapathId.of(1L)).anyTimes();
+        expect(topology.getL2DomainId(DatapathId.of(2L))).andReturn(DatapathId.of(1L)).anyTimes();
+        expect(topology.isAttachmentPointPort(DatapathId.of(1L),  OFPort.of(1))).andReturn(true).anyTimes();
+        expect(topology.isAttachmentPointPort(DatapathId.of(2L),  OFPort.of(3))).andReturn(true).anyTimes();
+        expect(topology.isIncomingBroadcastAllowed(DatapathId.of(anyLong()), OFPort.of(anyShort()))).andReturn(true).anyTimes();
+
+        replay(sw1, sw2, topology, multipath, dispatcher);
+        forwarding.receive(sw1, this.packetIn, cntx);
+        assertTrue(forwarding.pendingInstalls.isEmpty());
+
+        try {
+            forwarding.receive(sw1, this.packetIn, cntx);
+            fail("Expected the push to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // The next packet-in of the flow must not wait on the failed push
+        assertTrue(forwarding.pendingInstalls.isEmpty());
+        verify(multipath, dispatcher);
+    }
+
     /*TODO OFMessageDamper broken due to XID variability in OFMessages... need to fix @Test */
     public void testFlowModDampening() throws Exception {
         learnDevices(DestDeviceToLearn.DEVICE2);
@@ -0,0 +1,87 @@
+package net.floodlightcontroller.linkdiscovery.internal;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import net.floodlightcontroller.packet.BSN;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.LLDP;
+import net.floodlightcontroller.packet.LLDPTLV;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.MacAddress;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class LLDPTemplateTest {
+    static final LLDPTLV CONTROLLER_TLV = new LLDPTLV().setType((byte) 0x0c)
+            .setLength((short) 8)
+            .setValue(new byte[] { 0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef });
+
+    /* The frame as link discovery used to serialize it for every port */
+    static byte[] serialize(DatapathId dpid, OFPort port, MacAddress srcMac,
+            boolean isStandard, boolean isReverse) {
+        byte[] dpidArray = ByteBuffer.allocate(8).putLong(dpid.getLong()).array();
+        byte[] chassisId = new byte[] { 4, 0, 0, 0, 0, 0, 0 };
+        System.arraycopy(dpidArray, 2, chassisId, 1, 6);
+        byte[] portId = new byte[] { 2, 0, 0 };
+        ByteBuffer.wrap(portId, 1, 2).putShort(port.getShortPortNumber());
+        byte[] dpidTLVValue = new byte[] { 0x0, 0x26, (byte) 0xe1, 0, 0, 0,
+                0, 0, 0, 0, 0, 0 };
+        System.arraycopy(dpidArray, 0, dpidTLVValue, 4, 8);
+
+        LLDP lldp = new LLDP();
+        lldp.setChassisId(new LLDPTLV().setType((byte) 1).setLength((short) 7).setValue(chassisId));
+        lldp.setPortId(new LLDPTLV().setType((byte) 2).setLength((short) 3).setValue(portId));
+        lldp.setTtl(new LLDPTLV().setType((byte) 3).setLength((short) 2).setValue(new byte[] { 0, 0x78 }));
+        lldp.getOptionalTLVList().add(new LLDPTLV().setType((byte) 127).setLength((short) 12).setValue(dpidTLVValue));
+        lldp.getOptionalTLVList().add(CONTROLLER_TLV);
+        lldp.getOptionalTLVList().add(new LLDPTLV().setType((byte) 0x73).setLength((short) 1)
+                .setValue(new byte[] { (byte) (isReverse ? 0x02 : 0x01) }));
+
+        Ethernet ethernet = new Ethernet().setSourceMACAddress(srcMac);
+        if (isStandard) {
+            ethernet.setDestinationMACAddress("01:80:c2:00:00:0e")
+                    .setEtherType(EthType.LLDP);
+            ethernet.setPayload(lldp);
+        } else {
+            BSN bsn = new BSN(BSN.BSN_TYPE_BDDP);
+            bsn.setPayload(lldp);
+            ethernet.setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+                    .setEtherType(EthType.of(Ethernet.TYPE_BSN & 0xffff));
+            ethernet.setPayload(bsn);
+        }
+        return ethernet.serialize();
+    }
+
+    @Test
+    public void testSameAsSerialized() throws Exception {
+        LLDPTemplate template = new LLDPTemplate(CONTROLLER_TLV);
+        DatapathId[] dpids = { DatapathId.of(1L), DatapathId.of(0x0102030405060708L), DatapathId.of(-1L) };
+        OFPort[] ports = { OFPort.of(1), OFPort.of(48), OFPort.of(0xff00) };
+        MacAddress srcMac = MacAddress.of("5c:16:c7:00:00:01");
+
+        for (DatapathId dpid : dpids) {
+            for (OFPort port : ports) {
+                for (boolean isStandard : new boolean[] { true, false }) {
+                    for (boolean isReverse : new boolean[] { true, false }) {
+                        assertArrayEquals(serialize(dpid, port, srcMac, isStandard, isReverse),
+                                template.build(dpid, port, srcMac, isStandard, isReverse));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFramesIndependent() throws Exception {
+        LLDPTemplate template = new LLDPTemplate(CONTROLLER_TLV);
+        MacAddress srcMac = MacAddress.of("5c:16:c7:00:00:01");
+        byte[] first = template.build(DatapathId.of(1L), OFPort.of(1), srcMac, true, false);
+        byte[] copy = first.clone();
+        template.build(DatapathId.of(2L), OFPort.of(2), srcMac, true, true);
+        assertArrayEquals(copy, first);
+    }
+}
@@ -46,6 +46,7 @@ import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.debugcounter.MockDebugCounterService;
 import net.floodlightcontroller.debugevent.IDebugEventService;
 import net.floodlightcontroller.debugevent.MockDebugEventService;
+import net.floodlightcontroller.failovermon.IFailoverLatencyService;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryListener;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
 import net.floodlightcontroller.linkdiscovery.LinkInfo;
@@ -211,6 +212,24 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         assertTrue(linkDiscovery.links.isEmpty());
     }
 
+    @Test
+    public void testDeleteLinkOnPortRecordsFailover() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        IFailoverLatencyService failoverLatency = createMock(IFailoverLatencyService.class);
+        linkDiscovery.failoverLatency = failoverLatency;
+
+        Link lt = new Link(DatapathId.of(1L), OFPort.of(2), DatapathId.of(2L), OFPort.of(1));
+        linkDiscovery.addOrUpdateLink(lt, new LinkInfo(new Date(), new Date(), null));
+
+        failoverLatency.recordReaction(IFailoverLatencyService.Stage.LINK_REMOVED,
+                DatapathId.of(1L), OFPort.of(2), DatapathId.of(2L), OFPort.of(1));
+        expectLastCall().once();
+        replay(failoverLatency);
+        linkDiscovery.deleteLinksOnPort(new NodePortTuple(DatapathId.of(1L), OFPort.of(2)), "Test");
+        verify(failoverLatency);
+        assertTrue(linkDiscovery.links.isEmpty());
+    }
+
     @Test
     public void testAddOrUpdateLinkToSelf() throws Exception {
         LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
@@ -401,6 +420,25 @@ public class LinkDiscoveryManagerTest extends FloodlightTestCase {
         linkDiscovery.addOrUpdateLink(lt, info);
     }
 
+    @Test
+    public void testTimeoutRefreshedLinks() throws Exception {
+        LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
+        Link lt = new Link(DatapathId.of(1L), OFPort.of(1), DatapathId.of(2L), OFPort.of(1));
+        long now = System.currentTimeMillis();
+
+        // Close to expiring, but not yet
+        linkDiscovery.addOrUpdateLink(lt, new LinkInfo(now - 30000, now - 30000, LinkInfo.NO_TIME));
+        linkDiscovery.timeoutLinks();
+        assertTrue(linkDiscovery.links.containsKey(lt));
+        assertEquals(1, linkDiscovery.linkTimeouts.size());
+
+        // A stale LLDP schedules the link earlier
+        linkDiscovery.addOrUpdateLink(lt, new LinkInfo(now - 40000, now - 40000, LinkInfo.NO_TIME));
+        linkDiscovery.timeoutLinks();
+        assertFalse(linkDiscovery.links.containsKey(lt));
+        assertEquals(0, linkDiscovery.linkTimeouts.size());
+    }
+
     @Test
     public void testHARoleChange() throws Exception {
         LinkDiscoveryManager linkDiscovery = getLinkDiscoveryManager();
@@ -0,0 +1,284 @@
+package net.floodlightcontroller.multipathrouting;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import net.floodlightcontroller.multipathrouting.IMultiPathRoutingService.DisjointMode;
+import net.floodlightcontroller.multipathrouting.types.LinkWithCost;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class KPathEngineTest {
+
+    private HashMap<DatapathId, HashSet<LinkWithCost>> links = new HashMap<DatapathId, HashSet<LinkWithCost>>();
+    private int nextPort = 1;
+
+    private void addLink(long src, long dst, int cost) {
+        LinkWithCost link = new LinkWithCost(DatapathId.of(src), OFPort.of(nextPort++),
+                DatapathId.of(dst), OFPort.of(nextPort++), cost);
+        for (LinkWithCost l : Arrays.asList(link, link.getInverse())) {
+            HashSet<LinkWithCost> out = links.get(l.getSrcDpid());
+            if (out == null) {
+                out = new HashSet<LinkWithCost>();
+                links.put(l.getSrcDpid(), out);
+            }
+            out.add(l);
+        }
+    }
+
+    private KPathEngine engine(CompactGraph g) {
+        ShortestPathSearch search = new ShortestPathSearch();
+        return new KPathEngine(g, search);
+    }
+
+    private static int node(CompactGraph g, long dpid) {
+        return g.getNodeIndex(DatapathId.of(dpid));
+    }
+
+    private static List<Long> switches(CompactGraph g, int[] path) {
+        List<Long> result = new ArrayList<Long>();
+        result.add(g.getNode(g.getEdgeSource(path[0])).getLong());
+        for (int e : path) {
+            result.add(g.getNode(g.getEdgeTarget(e)).getLong());
+        }
+        return result;
+    }
+
+    /*
+     * Every loopless path from src to dst, by depth first search
+     */
+    private static List<int[]> allPaths(CompactGraph g, int src, int dst) {
+        List<int[]> result = new ArrayList<int[]>();
+        allPaths(g, src, dst, new boolean[g.getNodeCount()], new int[g.getNodeCount()], 0, result);
+        return result;
+    }
+
+    private static void allPaths(CompactGraph g, int at, int dst, boolean[] visited, int[] path,
+            int length, List<int[]> result) {
+        if (at == dst) {
+            result.add(Arrays.copyOf(path, length));
+            return;
+        }
+        visited[at] = true;
+        for (int e = g.getEdgeStart(at); e < g.getEdgeEnd(at); e++) {
+            if (!visited[g.getEdgeTarget(e)]) {
+                path[length] = e;
+                allPaths(g, g.getEdgeTarget(e), dst, visited, path, length + 1, result);
+            }
+        }
+        visited[at] = false;
+    }
+
+    private static boolean disjoint(CompactGraph g, int[] a, int[] b, DisjointMode mode) {
+        Set<Integer> used = new HashSet<Integer>();
+        Set<Integer> nodes = new HashSet<Integer>();
+        for (int i = 0; i < a.length; i++) {
+            used.add(a[i]);
+            used.add(g.getEdgeReverse(a[i]));
+            if (i > 0) {
+                nodes.add(g.getEdgeSource(a[i]));
+            }
+        }
+        for (int i = 0; i < b.length; i++) {
+            if (used.contains(b[i])) {
+                return false;
+            }
+            if (mode == DisjointMode.NODE && i > 0 && nodes.contains(g.getEdgeSource(b[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void assertLoopless(CompactGraph g, int src, int dst, int[] path) {
+        Set<Integer> visited = new HashSet<Integer>();
+        int at = src;
+        visited.add(at);
+        for (int e : path) {
+            assertEquals(at, g.getEdgeSource(e));
+            at = g.getEdgeTarget(e);
+            assertTrue(visited.add(at));
+        }
+        assertEquals(dst, at);
+    }
+
+    @Test
+    public void testShortestPathsInOrder() {
+        // Three ways from 1 to 4 costing 2, 3 and 5
+        addLink(1, 2, 1);
+        addLink(2, 4, 1);
+        addLink(1, 3, 1);
+        addLink(3, 4, 2);
+        addLink(1, 4, 5);
+
+        CompactGraph g = CompactGraph.build(0, links);
+        KPathEngine engine = engine(g);
+        List<int[]> paths = engine.shortestPaths(node(g, 1), node(g, 4), 10);
+        assertEquals(3, paths.size());
+        assertEquals(Arrays.asList(1L, 2L, 4L), switches(g, paths.get(0)));
+        assertEquals(Arrays.asList(1L, 3L, 4L), switches(g, paths.get(1)));
+        assertEquals(Arrays.asList(1L, 4L), switches(g, paths.get(2)));
+
+        assertEquals(2, engine.shortestPaths(node(g, 1), node(g, 4), 2).size());
+        assertTrue(engine.shortestPaths(node(g, 1), node(g, 1), 2).isEmpty());
+    }
+
+    @Test
+    public void testDisjointPairAvoidsTrap() {
+        // The shortest path 1-2-3-4 leaves no disjoint partner, but the
+        // pair 1-2-4 / 1-3-4 is disjoint
+        addLink(1, 2, 1);
+        addLink(2, 3, 1);
+        addLink(3, 4, 1);
+        addLink(1, 3, 3);
+        addLink(2, 4, 3);
+
+        CompactGraph g = CompactGraph.build(0, links);
+        KPathEngine engine = engine(g);
+        int src = node(g, 1);
+        int dst = node(g, 4);
+
+        int[] shortest = engine.shortestPaths(src, dst, 1).get(0);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), switches(g, shortest));
+        assertNull(engine.shortestPathAvoiding(src, dst, shortest, DisjointMode.LINK));
+        assertNotNull(engine.shortestPathAvoiding(src, dst, shortest, DisjointMode.NONE));
+
+        List<int[]> pair = engine.disjointPaths(src, dst, DisjointMode.LINK);
+        assertEquals(2, pair.size());
+        assertTrue(disjoint(g, pair.get(0), pair.get(1), DisjointMode.NODE));
+        assertEquals(8, engine.pathCost(pair.get(0)) + engine.pathCost(pair.get(1)));
+        assertEquals(pair.get(1).length, engine.shortestPathAvoiding(src, dst, pair.get(0), DisjointMode.LINK).length);
+    }
+
+    @Test
+    public void testNodeDisjoint() {
+        // Both cheap paths cross switch 4; only the detour via 8 avoids it
+        addLink(1, 2, 1);
+        addLink(1, 3, 1);
+        addLink(2, 4, 1);
+        addLink(3, 4, 1);
+        addLink(4, 6, 1);
+        addLink(6, 5, 1);
+        addLink(4, 7, 1);
+        addLink(7, 5, 1);
+
+        CompactGraph g = CompactGraph.build(0, links);
+        KPathEngine engine = engine(g);
+        int src = node(g, 1);
+        int dst = node(g, 5);
+
+        List<int[]> pair = engine.disjointPaths(src, dst, DisjointMode.LINK);
+        assertEquals(2, pair.size());
+        assertTrue(disjoint(g, pair.get(0), pair.get(1), DisjointMode.LINK));
+        assertTrue(switches(g, pair.get(0)).contains(4L));
+        assertTrue(switches(g, pair.get(1)).contains(4L));
+
+        // No node-disjoint pair: fall back to the shortest path alone
+        assertEquals(1, engine.disjointPaths(src, dst, DisjointMode.NODE).size());
+
+        addLink(1, 8, 5);
+        addLink(8, 5, 5);
+        g = CompactGraph.build(1, links);
+        engine = engine(g);
+        pair = engine.disjointPaths(node(g, 1), node(g, 5), DisjointMode.NODE);
+        assertEquals(2, pair.size());
+        assertEquals(Arrays.asList(1L, 8L, 5L), switches(g, pair.get(1)));
+    }
+
+    @Test
+    public void testUnreachable() {
+        addLink(1, 2, 1);
+        addLink(3, 4, 1);
+
+        CompactGraph g = CompactGraph.build(0, links);
+        KPathEngine engine = engine(g);
+        assertTrue(engine.shortestPaths(node(g, 1), node(g, 4), 5).isEmpty());
+        assertTrue(engine.disjointPaths(node(g, 1), node(g, 4), DisjointMode.LINK).isEmpty());
+        assertNull(engine.shortestPathAvoiding(node(g, 1), node(g, 4), new int[0], DisjointMode.LINK));
+    }
+
+    @Test
+    public void testRandomGraphsAgainstBruteForce() {
+        Random rand = new Random(7);
+        for (int round = 0; round < 100; round++) {
+            links.clear();
+            int n = 3 + rand.nextInt(5);
+            for (int i = 0; i < n + rand.nextInt(2 * n); i++) {
+                int a = 1 + rand.nextInt(n);
+                int b = 1 + rand.nextInt(n);
+                if (a != b) {
+                    addLink(a, b, 1 + rand.nextInt(5));
+                }
+            }
+            if (links.size() < 2) {
+                continue;
+            }
+
+            CompactGraph g = CompactGraph.build(round, links);
+            KPathEngine engine = engine(g);
+            int src = rand.nextInt(g.getNodeCount());
+            int dst = rand.nextInt(g.getNodeCount());
+            if (src == dst) {
+                continue;
+            }
+
+            List<int[]> all = allPaths(g, src, dst);
+            List<Integer> allCosts = new ArrayList<Integer>();
+            for (int[] p : all) {
+                allCosts.add(engine.pathCost(p));
+            }
+            Collections.sort(allCosts);
+
+            // Yen finds the k cheapest loopless paths
+            int k = 1 + rand.nextInt(8);
+            List<int[]> paths = engine.shortestPaths(src, dst, k);
+            assertEquals(Math.min(k, all.size()), paths.size());
+            Set<List<Integer>> distinct = new HashSet<List<Integer>>();
+            for (int i = 0; i < paths.size(); i++) {
+                assertLoopless(g, src, dst, paths.get(i));
+                assertEquals(allCosts.get(i).intValue(), engine.pathCost(paths.get(i)));
+                List<Integer> key = new ArrayList<Integer>();
+                for (int e : paths.get(i)) {
+                    key.add(e);
+                }
+                assertTrue(distinct.add(key));
+            }
+
+            // Suurballe finds the cheapest disjoint pair, if there is one
+            for (DisjointMode mode : Arrays.asList(DisjointMode.LINK, DisjointMode.NODE)) {
+                int best = Integer.MAX_VALUE;
+                for (int i = 0; i < all.size(); i++) {
+                    for (int j = i + 1; j < all.size(); j++) {
+                        if (disjoint(g, all.get(i), all.get(j), mode)) {
+                            best = Math.min(best, engine.pathCost(all.get(i)) + engine.pathCost(all.get(j)));
+                        }
+                    }
+                }
+                List<int[]> pair = engine.disjointPaths(src, dst, mode);
+                if (all.isEmpty()) {
+                    assertTrue(pair.isEmpty());
+                } else if (best == Integer.MAX_VALUE) {
+                    assertEquals(1, pair.size());
+                    assertEquals(allCosts.get(0).intValue(), engine.pathCost(pair.get(0)));
+                } else {
+                    assertEquals(2, pair.size());
+                    assertLoopless(g, src, dst, pair.get(0));
+                    assertLoopless(g, src, dst, pair.get(1));
+                    assertTrue(disjoint(g, pair.get(0), pair.get(1), mode));
+                    assertEquals(best, engine.pathCost(pair.get(0)) + engine.pathCost(pair.get(1)));
+                    assertTrue(engine.pathCost(pair.get(0)) <= engine.pathCost(pair.get(1)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.floodlightcontroller.multipathrouting;
+
+import static org.junit.Assert.*;
+
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class LinkLoadCollectorTest {
+    private static final DatapathId SW1 = DatapathId.of(1);
+    private static final DatapathId SW2 = DatapathId.of(2);
+    private static final long SECOND = 1000000000L;
+    /* 1 Mb/s, so a second at full speed is 125000 bytes */
+    private static final long SPEED_KBPS = 1000;
+
+    @Test
+    public void testEwma() throws Exception {
+        LinkLoadCollector collector = new LinkLoadCollector(null, 0.5);
+        assertEquals(0, collector.getUtilization(SW1, OFPort.of(1)), 0);
+
+        collector.update(SW1, OFPort.of(1), 1000, SPEED_KBPS, 0);
+        assertEquals(0, collector.getUtilization(SW1, OFPort.of(1)), 0);
+        collector.update(SW1, OFPort.of(1), 1000 + 125000, SPEED_KBPS, SECOND);
+        assertEquals(0.5, collector.getUtilization(SW1, OFPort.of(1)), 1e-9);
+        collector.update(SW1, OFPort.of(1), 1000 + 250000, SPEED_KBPS, 2 * SECOND);
+        assertEquals(0.75, collector.getUtilization(SW1, OFPort.of(1)), 1e-9);
+        // Idle for two seconds
+        collector.update(SW1, OFPort.of(1), 1000 + 250000, SPEED_KBPS, 4 * SECOND);
+        assertEquals(0.375, collector.getUtilization(SW1, OFPort.of(1)), 1e-9);
+    }
+
+    @Test
+    public void testCounterReset() throws Exception {
+        LinkLoadCollector collector = new LinkLoadCollector(null, 1);
+        collector.update(SW1, OFPort.of(1), 500000, SPEED_KBPS, 0);
+        collector.update(SW1, OFPort.of(1), 625000, SPEED_KBPS, SECOND);
+        assertEquals(1, collector.getUtilization(SW1, OFPort.of(1)), 1e-9);
+
+        // The switch restarted; the next reading only sets a new baseline
+        collector.update(SW1, OFPort.of(1), 100, SPEED_KBPS, 2 * SECOND);
+        assertEquals(1, collector.getUtilization(SW1, OFPort.of(1)), 1e-9);
+        collector.update(SW1, OFPort.of(1), 100 + 62500, SPEED_KBPS, 3 * SECOND);
+        assertEquals(0.5, collector.getUtilization(SW1, OFPort.of(1)), 1e-9);
+    }
+
+    @Test
+    public void testLinkTakesBusierDirection() throws Exception {
+        LinkLoadCollector collector = new LinkLoadCollector(null, 1);
+        collector.update(SW1, OFPort.of(1), 0, SPEED_KBPS, 0);
+        collector.update(SW1, OFPort.of(1), 12500, SPEED_KBPS, SECOND);
+        collector.update(SW2, OFPort.of(3), 0, SPEED_KBPS, 0);
+        collector.update(SW2, OFPort.of(3), 100000, SPEED_KBPS, SECOND);
+
+        NodePortTuple a = new NodePortTuple(SW1, OFPort.of(1));
+        NodePortTuple b = new NodePortTuple(SW2, OFPort.of(3));
+        assertEquals(0.8, collector.getUtilization(a, b), 1e-9);
+        assertEquals(0.8, collector.getUtilization(b, a), 1e-9);
+    }
+}
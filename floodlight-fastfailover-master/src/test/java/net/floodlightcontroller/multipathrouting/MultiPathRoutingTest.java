@@ -0,0 +1,242 @@
+package net.floodlightcontroller.multipathrouting;
+
+import static org.easymock.EasyMock.createMock;
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.module.FloodlightModuleContext;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.multipathrouting.IMultiPathRoutingService.DisjointMode;
+import net.floodlightcontroller.multipathrouting.MultiPathRouting.PathSelection;
+import net.floodlightcontroller.multipathrouting.types.FlowId;
+import net.floodlightcontroller.multipathrouting.types.MultiRoute;
+import net.floodlightcontroller.routing.Route;
+import net.floodlightcontroller.routing.RouteId;
+import net.floodlightcontroller.test.FloodlightTestCase;
+import net.floodlightcontroller.topology.ITopologyService;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class MultiPathRoutingTest extends FloodlightTestCase {
+    protected FloodlightModuleContext fmc;
+    protected MultiPathRouting mpr;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        fmc = new FloodlightModuleContext();
+        fmc.addService(IFloodlightProviderService.class, getMockFloodlightProvider());
+        fmc.addService(ITopologyService.class, createMock(ITopologyService.class));
+        mpr = new MultiPathRouting();
+        mpr.init(fmc);
+        addLinks();
+    }
+
+    /*
+     * Diamond 1-2-4 / 1-3-4, plus an unrelated island 5-6
+     */
+    protected void addLinks() {
+        addLink(1, 1, 2, 1);
+        addLink(2, 2, 4, 1);
+        addLink(1, 2, 3, 1);
+        addLink(3, 2, 4, 2);
+        addLink(5, 1, 6, 1);
+    }
+
+    protected void addLink(long src, int srcPort, long dst, int dstPort) {
+        linkUpdate(src, srcPort, dst, dstPort, ILinkDiscovery.UpdateOperation.LINK_UPDATED);
+    }
+
+    protected void removeLink(long src, int srcPort, long dst, int dstPort) {
+        linkUpdate(src, srcPort, dst, dstPort, ILinkDiscovery.UpdateOperation.LINK_REMOVED);
+    }
+
+    private void linkUpdate(long src, int srcPort, long dst, int dstPort, ILinkDiscovery.UpdateOperation op) {
+        LDUpdate update = new LDUpdate(DatapathId.of(src), OFPort.of(srcPort),
+                DatapathId.of(dst), OFPort.of(dstPort), ILinkDiscovery.LinkType.DIRECT_LINK, op);
+        mpr.topologyChanged(Collections.singletonList(update));
+    }
+
+    private boolean isCached(long src, long dst) {
+        return mpr.pathcache.asMap().containsKey(new RouteId(DatapathId.of(src), DatapathId.of(dst)));
+    }
+
+    @Test
+    public void testLinkRemovalOnlyInvalidatesAffectedRoutes() throws Exception {
+        assertNotNull(mpr.getMultiRoute(DatapathId.of(1), DatapathId.of(4)));
+        assertNotNull(mpr.getMultiRoute(DatapathId.of(5), DatapathId.of(6)));
+        Route flow = mpr.getRoute(DatapathId.of(1), OFPort.of(10), DatapathId.of(4), OFPort.of(10));
+        assertNotNull(flow);
+        FlowId fid = new FlowId(DatapathId.of(1), OFPort.of(10), DatapathId.of(4), OFPort.of(10));
+        assertTrue(mpr.flowcache.asMap().containsKey(fid));
+
+        removeLink(2, 2, 4, 1);
+        assertFalse(isCached(1, 4));
+        assertFalse(mpr.flowcache.asMap().containsKey(fid));
+        assertTrue(isCached(5, 6));
+
+        removeLink(5, 1, 6, 1);
+        assertFalse(isCached(5, 6));
+    }
+
+    @Test
+    public void testKnownLinkUpdateKeepsCache() throws Exception {
+        mpr.getMultiRoute(DatapathId.of(1), DatapathId.of(4));
+        mpr.getMultiRoute(DatapathId.of(5), DatapathId.of(6));
+
+        // Link discovery refreshes an existing link
+        addLink(1, 1, 2, 1);
+        assertTrue(isCached(1, 4));
+        assertTrue(isCached(5, 6));
+    }
+
+    @Test
+    public void testLinkAdditionOnlyInvalidatesImprovableRoutes() throws Exception {
+        mpr.getMultiRoute(DatapathId.of(1), DatapathId.of(4));
+        mpr.getMultiRoute(DatapathId.of(5), DatapathId.of(6));
+
+        // A link elsewhere in the fabric can't shorten anything we've cached
+        addLink(7, 1, 8, 1);
+        assertTrue(isCached(1, 4));
+        assertTrue(isCached(5, 6));
+
+        // A shortcut between 1 and 4 can
+        addLink(1, 3, 4, 3);
+        assertFalse(isCached(1, 4));
+        assertTrue(isCached(5, 6));
+    }
+
+    @Test
+    public void testLinkAdditionInvalidatesUnreachableRoutes() throws Exception {
+        assertEquals(0, mpr.getMultiRoute(DatapathId.of(4), DatapathId.of(5)).getRouteSize());
+
+        addLink(4, 5, 5, 5);
+        assertFalse(isCached(4, 5));
+        assertTrue(mpr.getMultiRoute(DatapathId.of(4), DatapathId.of(5)).getRouteSize() > 0);
+    }
+
+    @Test
+    public void testBackupRouteIsDisjoint() throws Exception {
+        Route flow = mpr.getRoute(DatapathId.of(1), OFPort.of(10), DatapathId.of(4), OFPort.of(10));
+        Route backup = mpr.getBackupRoute(flow);
+        assertNotNull(backup);
+        List<NodePortTuple> path = flow.getPath();
+        List<NodePortTuple> backupPath = backup.getPath();
+        assertEquals(path.get(0), backupPath.get(0));
+        assertEquals(path.get(path.size() - 1), backupPath.get(backupPath.size() - 1));
+        // One takes the branch through 2, the other the one through 3
+        assertFalse(path.get(2).getNodeId().equals(backupPath.get(2).getNodeId()));
+
+        // A single link has nothing to fail over to
+        flow = mpr.getRoute(DatapathId.of(5), OFPort.of(10), DatapathId.of(6), OFPort.of(10));
+        assertNull(mpr.getBackupRoute(flow));
+        mpr.setDisjointMode(DisjointMode.NONE);
+        assertNull(mpr.getBackupRoute(flow));
+    }
+
+    /* Have switch 1 send over port 1, towards 2, at 30% of its speed */
+    private void loadLinkTo2() {
+        mpr.loadCollector.update(DatapathId.of(1), OFPort.of(1), 0, 1000, 0);
+        mpr.loadCollector.update(DatapathId.of(1), OFPort.of(1), 125000, 1000, 1000000000L);
+        assertEquals(0.3, mpr.loadCollector.getUtilization(DatapathId.of(1), OFPort.of(1)), 1e-9);
+    }
+
+    @Test
+    public void testLeastLoadedRoute() throws Exception {
+        loadLinkTo2();
+        // Every new flow between 1 and 4 goes through 3 while 1-2 is busy
+        for (int port = 10; port < 14; port++) {
+            Route flow = mpr.getRoute(DatapathId.of(1), OFPort.of(port), DatapathId.of(4), OFPort.of(port));
+            assertEquals(new NodePortTuple(DatapathId.of(1), OFPort.of(2)), flow.getPath().get(1));
+        }
+    }
+
+    @Test
+    public void testLoadWeightedCosts() throws Exception {
+        mpr.pathSelection = PathSelection.LOAD_WEIGHTED;
+        mpr.getMultiRoute(DatapathId.of(1), DatapathId.of(4));
+        mpr.getMultiRoute(DatapathId.of(5), DatapathId.of(6));
+
+        loadLinkTo2();
+        mpr.updateLoadCosts();
+        assertFalse(isCached(1, 4));
+        assertTrue(isCached(5, 6));
+        CompactGraph g = mpr.getGraph();
+        int[] costs = mpr.computeCosts(g, g.getNodeIndex(DatapathId.of(1)));
+        // Going round through 3 and 4 is now cheaper than the busy link
+        assertEquals(3, costs[g.getNodeIndex(DatapathId.of(2))]);
+
+        // Nothing changed since, so nothing is dropped
+        mpr.getMultiRoute(DatapathId.of(1), DatapathId.of(4));
+        mpr.updateLoadCosts();
+        assertTrue(isCached(1, 4));
+    }
+
+    private boolean crosses(MultiRoute routes, long dpid) {
+        for (Route r : routes.getRoutes()) {
+            for (NodePortTuple npt : r.getPath()) {
+                if (npt.getNodeId().equals(DatapathId.of(dpid))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testLinkRemovedDuringSearch() throws Exception {
+        mpr = new MultiPathRouting() {
+            boolean raced;
+
+            @Override
+            public MultiRoute computeMultiPath(RouteId rid) {
+                MultiRoute routes = super.computeMultiPath(rid);
+                if (!raced) {
+                    raced = true;
+                    MultiPathRoutingTest.this.removeLink(2, 2, 4, 1);
+                }
+                return routes;
+            }
+        };
+        mpr.init(fmc);
+        addLinks();
+
+        // The search is run again on the new topology
+        MultiRoute routes = mpr.getMultiRoute(DatapathId.of(1), DatapathId.of(4));
+        assertTrue(routes.getRouteSize() > 0);
+        assertFalse(crosses(routes, 2));
+    }
+
+    @Test
+    public void testLinkRemovedBeforeRouteStored() throws Exception {
+        mpr = new MultiPathRouting() {
+            boolean raced;
+
+            @Override
+            protected void indexMultiRoute(RouteId rid, MultiRoute routes) {
+                if (!raced) {
+                    raced = true;
+                    MultiPathRoutingTest.this.removeLink(2, 2, 4, 1);
+                }
+                super.indexMultiRoute(rid, routes);
+            }
+        };
+        mpr.init(fmc);
+        addLinks();
+
+        // The route found before the removal is dropped and loaded again
+        MultiRoute routes = mpr.getMultiRoute(DatapathId.of(1), DatapathId.of(4));
+        assertTrue(routes.getRouteSize() > 0);
+        assertFalse(crosses(routes, 2));
+        assertTrue(mpr.staleRoutes.isEmpty());
+    }
+}
@@ -0,0 +1,159 @@
+package net.floodlightcontroller.multipathrouting;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import net.floodlightcontroller.multipathrouting.types.LinkWithCost;
+import net.floodlightcontroller.routing.Route;
+import net.floodlightcontroller.topology.NodePortTuple;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.OFPort;
+
+public class ShortestPathSearchTest {
+
+    private static void addLink(HashMap<DatapathId, HashSet<LinkWithCost>> links,
+            long src, int srcPort, long dst, int dstPort, int cost) {
+        LinkWithCost link = new LinkWithCost(DatapathId.of(src), OFPort.of(srcPort),
+                DatapathId.of(dst), OFPort.of(dstPort), cost);
+        for (LinkWithCost l : Arrays.asList(link, link.getInverse())) {
+            HashSet<LinkWithCost> out = links.get(l.getSrcDpid());
+            if (out == null) {
+                out = new HashSet<LinkWithCost>();
+                links.put(l.getSrcDpid(), out);
+            }
+            out.add(l);
+        }
+    }
+
+    /*
+     * Bellman-Ford over the snapshot, as an independent reference
+     */
+    private static int[] referenceCosts(CompactGraph g, int src) {
+        int[] d = new int[g.getNodeCount()];
+        Arrays.fill(d, ShortestPathSearch.UNREACHABLE);
+        d[src] = 0;
+        for (int round = 0; round < g.getNodeCount(); round++) {
+            for (int e = 0; e < g.getEdgeCount(); e++) {
+                int s = g.getEdgeSource(e);
+                if (d[s] != ShortestPathSearch.UNREACHABLE && d[s] + g.getEdgeCost(e) < d[g.getEdgeTarget(e)]) {
+                    d[g.getEdgeTarget(e)] = d[s] + g.getEdgeCost(e);
+                }
+            }
+        }
+        return d;
+    }
+
+    @Test
+    public void testSimplePath() {
+        HashMap<DatapathId, HashSet<LinkWithCost>> links = new HashMap<DatapathId, HashSet<LinkWithCost>>();
+        addLink(links, 1, 1, 2, 1, 1);
+        addLink(links, 2, 2, 3, 1, 1);
+        addLink(links, 1, 2, 3, 2, 5);
+
+        CompactGraph g = CompactGraph.build(0, links);
+        assertEquals(3, g.getNodeCount());
+        assertEquals(6, g.getEdgeCount());
+        for (int e = 0; e < g.getEdgeCount(); e++) {
+            assertEquals(e, g.getEdgeReverse(g.getEdgeReverse(e)));
+        }
+
+        ShortestPathSearch search = new ShortestPathSearch();
+        search.setGraph(g);
+        int src = g.getNodeIndex(DatapathId.of(1));
+        int dst = g.getNodeIndex(DatapathId.of(3));
+        assertEquals(2, search.run(src, dst, null));
+        int length = search.extractPath(dst);
+        assertEquals(2, length);
+
+        Route r = g.toRoute(search.getPath(), length);
+        List<NodePortTuple> expected = Arrays.asList(
+                new NodePortTuple(DatapathId.of(1), OFPort.of(1)),
+                new NodePortTuple(DatapathId.of(2), OFPort.of(1)),
+                new NodePortTuple(DatapathId.of(2), OFPort.of(2)),
+                new NodePortTuple(DatapathId.of(3), OFPort.of(1)));
+        assertEquals(expected, r.getPath());
+        assertEquals(DatapathId.of(1), r.getId().getSrc());
+        assertEquals(DatapathId.of(3), r.getId().getDst());
+
+        // Knock out the cheap path through 2 via the cost override
+        int[] costs = g.copyEdgeCosts();
+        costs[search.getPath()[0]] = -1;
+        assertEquals(5, search.run(src, dst, costs));
+        assertEquals(1, search.extractPath(dst));
+        // ...without touching the snapshot
+        assertEquals(2, search.run(src, dst, null));
+    }
+
+    @Test
+    public void testUnreachable() {
+        HashMap<DatapathId, HashSet<LinkWithCost>> links = new HashMap<DatapathId, HashSet<LinkWithCost>>();
+        addLink(links, 1, 1, 2, 1, 1);
+        addLink(links, 3, 1, 4, 1, 1);
+
+        CompactGraph g = CompactGraph.build(0, links);
+        ShortestPathSearch search = new ShortestPathSearch();
+        search.setGraph(g);
+        int dst = g.getNodeIndex(DatapathId.of(4));
+        assertEquals(ShortestPathSearch.UNREACHABLE, search.run(g.getNodeIndex(DatapathId.of(1)), dst, null));
+        assertEquals(-1, search.extractPath(dst));
+        assertEquals(-1, g.getNodeIndex(DatapathId.of(5)));
+    }
+
+    @Test
+    public void testRandomGraphsAgainstReference() {
+        Random rand = new Random(42);
+        ShortestPathSearch search = new ShortestPathSearch();
+        for (int round = 0; round < 50; round++) {
+            int n = 2 + rand.nextInt(40);
+            HashMap<DatapathId, HashSet<LinkWithCost>> links = new HashMap<DatapathId, HashSet<LinkWithCost>>();
+            int port = 1;
+            for (int i = 0; i < n * 2; i++) {
+                int a = 1 + rand.nextInt(n);
+                int b = 1 + rand.nextInt(n);
+                if (a != b) {
+                    addLink(links, a, port++, b, port++, 1 + rand.nextInt(10));
+                }
+            }
+            if (links.isEmpty()) {
+                continue;
+            }
+
+            // The same workspace is reused across graphs of different sizes
+            CompactGraph g = CompactGraph.build(round, links);
+            search.setGraph(g);
+            for (int src = 0; src < g.getNodeCount(); src++) {
+                int[] expected = referenceCosts(g, src);
+                search.run(src, -1, null);
+                for (int dst = 0; dst < g.getNodeCount(); dst++) {
+                    assertEquals(expected[dst], search.getDistance(dst));
+                    int length = search.extractPath(dst);
+                    if (expected[dst] == ShortestPathSearch.UNREACHABLE) {
+                        assertEquals(-1, length);
+                        continue;
+                    }
+                    // The extracted path is connected and adds up to the distance
+                    int cost = 0;
+                    int at = src;
+                    for (int i = 0; i < length; i++) {
+                        int e = search.getPath()[i];
+                        assertEquals(at, g.getEdgeSource(e));
+                        cost += g.getEdgeCost(e);
+                        at = g.getEdgeTarget(e);
+                    }
+                    assertEquals(dst, at);
+                    assertEquals(expected[dst], cost);
+                }
+                // Early exit agrees with the full run
+                int dst = rand.nextInt(g.getNodeCount());
+                assertEquals(expected[dst], search.run(src, dst, null));
+            }
+        }
+    }
+}
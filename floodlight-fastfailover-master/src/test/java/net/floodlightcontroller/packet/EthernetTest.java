@@ -21,12 +21,15 @@
 package net.floodlightcontroller.packet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 
 import org.junit.Test;
 import org.projectfloodlight.openflow.types.EthType;
+import org.projectfloodlight.openflow.types.IpProtocol;
 
 /**
  * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -73,4 +76,62 @@ public class EthernetTest {
                 Ethernet.toLong(new byte[] { (byte) 0x80, (byte) 0x80,
                         (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80 }));
     }
+
+    private static Ethernet udpPacket() {
+        return (Ethernet) new Ethernet()
+            .setDestinationMACAddress("00:11:22:33:44:55")
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setEtherType(EthType.IPv4)
+            .setPayload(new IPv4()
+                .setTtl((byte) 128)
+                .setSourceAddress("192.168.1.1")
+                .setDestinationAddress("192.168.1.2")
+                .setProtocol(IpProtocol.UDP)
+                .setPayload(new UDP()
+                    .setSourcePort((short) 5000)
+                    .setDestinationPort((short) 5001)
+                    .setPayload(new Data(new byte[] { 0x01 }))));
+    }
+
+    @Test
+    public void testView() {
+        Ethernet expected = udpPacket();
+        EthernetView view = new EthernetView(expected.serialize());
+        assertEquals(expected.getDestinationMACAddress(), view.getDestinationMACAddress());
+        assertEquals(expected.getSourceMACAddress(), view.getSourceMACAddress());
+        assertEquals(EthType.IPv4, view.getEtherType());
+        assertFalse(view.isTagged());
+        assertEquals(Ethernet.VLAN_UNTAGGED, view.getVlanID());
+        assertEquals(14, view.getPayloadOffset());
+
+        // Reading the header doesn't decode the rest
+        assertFalse(view.isDecoded());
+        Ethernet eth = view.get();
+        assertTrue(view.isDecoded());
+        assertTrue(eth.getPayload() instanceof IPv4);
+        assertTrue(eth.getPayload().getPayload() instanceof UDP);
+        assertTrue(eth == view.get());
+    }
+
+    @Test
+    public void testViewTagged() {
+        Ethernet expected = udpPacket();
+        expected.setVlanID((short) 42);
+        expected.setPriorityCode((byte) 3);
+        EthernetView view = new EthernetView(expected.serialize());
+        assertTrue(view.isTagged());
+        assertEquals(42, view.getVlanID());
+        assertEquals(EthType.IPv4, view.getEtherType());
+        assertEquals(18, view.getPayloadOffset());
+        assertEquals(42, view.get().getVlanID());
+    }
+
+    @Test
+    public void testViewTruncated() {
+        EthernetView view = new EthernetView(new byte[16]);
+        assertNull(view.getDestinationMACAddress());
+        assertNull(view.getSourceMACAddress());
+        assertNull(view.getEtherType());
+        assertNull(view.get().getEtherType());
+    }
 }
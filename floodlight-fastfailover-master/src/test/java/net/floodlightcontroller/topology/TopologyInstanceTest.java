@@ -18,9 +18,14 @@ package net.floodlightcontroller.topology;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.junit.Assert.*;
 import net.floodlightcontroller.core.IFloodlightProviderService;
@@ -33,6 +38,8 @@ import net.floodlightcontroller.debugevent.IDebugEventService;
 import net.floodlightcontroller.debugevent.MockDebugEventService;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscovery;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
+import net.floodlightcontroller.routing.BroadcastTree;
+import net.floodlightcontroller.routing.Link;
 import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.topology.NodePortTuple;
 import net.floodlightcontroller.topology.TopologyInstance;
@@ -475,4 +482,211 @@ public class TopologyInstanceTest {
                 verifyClusters(expectedClusters);
         }
     }
+
+    /* One port per neighbor: switch a reaches b through port b */
+    static Link link(int a, int b) {
+        return new Link(DatapathId.of(a), OFPort.of(b), DatapathId.of(b), OFPort.of(a));
+    }
+
+    static TopologyInstance createInstance(int switchCount, Set<Link> links,
+                                           TopologyInstance previous) {
+        return createInstance(switchCount, links, previous, null);
+    }
+
+    static TopologyInstance createInstance(int switchCount, Set<Link> links,
+                                           TopologyInstance previous, ForkJoinPool pool) {
+        TopologyInstance ti = newInstance(switchCount, links);
+        ti.compute(previous, pool);
+        return ti;
+    }
+
+    /* Not yet computed */
+    static TopologyInstance newInstance(int switchCount, Set<Link> links) {
+        Map<DatapathId, Set<OFPort>> switchPorts = new HashMap<DatapathId, Set<OFPort>>();
+        Map<NodePortTuple, Set<Link>> switchPortLinks = new HashMap<NodePortTuple, Set<Link>>();
+        for (int i = 1; i <= switchCount; i++) {
+            switchPorts.put(DatapathId.of(i), new HashSet<OFPort>());
+        }
+        for (Link l : links) {
+            NodePortTuple src = new NodePortTuple(l.getSrc(), l.getSrcPort());
+            NodePortTuple dst = new NodePortTuple(l.getDst(), l.getDstPort());
+            switchPorts.get(l.getSrc()).add(l.getSrcPort());
+            switchPorts.get(l.getDst()).add(l.getDstPort());
+            for (NodePortTuple npt : Arrays.asList(src, dst)) {
+                if (!switchPortLinks.containsKey(npt)) {
+                    switchPortLinks.put(npt, new HashSet<Link>());
+                }
+                switchPortLinks.get(npt).add(l);
+            }
+        }
+        return new TopologyInstance(switchPorts,
+                Collections.<NodePortTuple>emptySet(), switchPortLinks,
+                Collections.<NodePortTuple>emptySet(), Collections.<NodePortTuple>emptySet());
+    }
+
+    /* The incremental instance must agree with a full recomputation */
+    private static void verifySameAsFull(TopologyInstance incremental, TopologyInstance full) {
+        assertEquals(full.getClusters().size(), incremental.getClusters().size());
+        for (DatapathId sw : full.getSwitches()) {
+            assertEquals(full.getSwitchesInOpenflowDomain(sw),
+                         incremental.getSwitchesInOpenflowDomain(sw));
+            assertEquals(full.getBroadcastNodePortsInCluster(sw),
+                         incremental.getBroadcastNodePortsInCluster(sw));
+        }
+        for (Cluster c : incremental.getClusters()) {
+            Set<Link> clusterLinks = new HashSet<Link>();
+            for (Set<Link> nodeLinks : c.getLinks().values()) {
+                clusterLinks.addAll(nodeLinks);
+            }
+            for (DatapathId dst : c.getNodes()) {
+                BroadcastTree tree = incremental.destinationRootedTrees.get(dst);
+                for (DatapathId src : c.getNodes()) {
+                    // Ties may be broken differently, costs may not differ
+                    assertEquals(full.getCost(src, dst), incremental.getCost(src, dst));
+                    Link l = tree.getTreeLink(src);
+                    if (src.equals(dst)) {
+                        assertNull(l);
+                        continue;
+                    }
+                    assertNotNull(l);
+                    assertEquals(src, l.getSrc());
+                    assertTrue(clusterLinks.contains(l));
+                    assertEquals(tree.getCost(src), tree.getCost(l.getDst()) + 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalMatchesFullRecompute() throws Exception {
+        final int switchCount = 16;
+        Random random = new Random(4242);
+        Set<Link> links = new HashSet<Link>();
+        for (int i = 0; i < 24; i++) {
+            int a = 1 + random.nextInt(switchCount);
+            int b = 1 + random.nextInt(switchCount);
+            if (a == b) continue;
+            links.add(link(a, b));
+            links.add(link(b, a));
+        }
+
+        TopologyInstance incremental = createInstance(switchCount, links, null);
+        for (int round = 0; round < 300; round++) {
+            // A few links fail or come up, sometimes only one way
+            int changes = 1 + random.nextInt(3);
+            for (int i = 0; i < changes; i++) {
+                int a = 1 + random.nextInt(switchCount);
+                int b = 1 + random.nextInt(switchCount);
+                if (a == b) continue;
+                boolean add = random.nextBoolean();
+                boolean bothWays = random.nextInt(4) != 0;
+                if (add) {
+                    links.add(link(a, b));
+                    if (bothWays) links.add(link(b, a));
+                } else {
+                    links.remove(link(a, b));
+                    if (bothWays) links.remove(link(b, a));
+                }
+            }
+            incremental = createInstance(switchCount, links, incremental);
+            verifySameAsFull(incremental, createInstance(switchCount, links, null));
+        }
+    }
+
+    @Test
+    public void testUnchangedClusterReusesTrees() throws Exception {
+        Set<Link> links = new HashSet<Link>();
+        // Two rings of three
+        for (int[] pair : new int[][] { {1, 2}, {2, 3}, {3, 1}, {4, 5}, {5, 6}, {6, 4} }) {
+            links.add(link(pair[0], pair[1]));
+            links.add(link(pair[1], pair[0]));
+        }
+        TopologyInstance first = createInstance(6, links, null);
+
+        // A chord in the second ring leaves the first alone
+        links.add(link(4, 5));
+        links.remove(link(5, 6));
+        TopologyInstance second = createInstance(6, links, first);
+        for (int i = 1; i <= 3; i++) {
+            assertSame(first.destinationRootedTrees.get(DatapathId.of(i)),
+                       second.destinationRootedTrees.get(DatapathId.of(i)));
+        }
+        verifySameAsFull(second, createInstance(6, links, null));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        final int switchCount = 40;
+        Random random = new Random(77);
+        Set<Link> links = new HashSet<Link>();
+        for (int i = 0; i < 80; i++) {
+            int a = 1 + random.nextInt(switchCount);
+            int b = 1 + random.nextInt(switchCount);
+            if (a == b) continue;
+            links.add(link(a, b));
+            if (random.nextInt(4) != 0) links.add(link(b, a));
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            TopologyInstance sequential = createInstance(switchCount, links, null);
+            TopologyInstance parallel = createInstance(switchCount, links, null, pool);
+            assertEquals(sequential.destinationRootedTrees.keySet(),
+                         parallel.destinationRootedTrees.keySet());
+            assertEquals(sequential.clusterBroadcastNodePorts,
+                         parallel.clusterBroadcastNodePorts);
+            verifySameAsFull(parallel, sequential);
+
+            // and when updating the previous instance
+            links.remove(links.iterator().next());
+            links.add(link(1, 2));
+            links.add(link(2, 1));
+            verifySameAsFull(createInstance(switchCount, links, parallel, pool),
+                             createInstance(switchCount, links, null));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLazyTrees() throws Exception {
+        final int switchCount = 30;
+        Random random = new Random(5);
+        Set<Link> links = new HashSet<Link>();
+        for (int a = 1; a <= switchCount; a++) {
+            int b = (a % switchCount) + 1;
+            links.add(link(a, b));
+            links.add(link(b, a));
+            int c = 1 + random.nextInt(switchCount);
+            if (c != a) links.add(link(a, c));
+        }
+        TopologyInstance eager = createInstance(switchCount, links, null);
+        TopologyInstance lazy = newInstance(switchCount, links);
+        // Room for two trees of the one cluster
+        lazy.setLazyTrees(2 * switchCount);
+        lazy.compute();
+
+        // Only the broadcast tree is built up front
+        assertEquals(1, lazy.getClusters().size());
+        assertEquals(1, lazy.destinationRootedTrees.size());
+        assertEquals(0, lazy.treeCache.size());
+        assertEquals(eager.clusterBroadcastNodePorts, lazy.clusterBroadcastNodePorts);
+
+        for (int dst = 1; dst <= switchCount; dst++) {
+            for (int src = 1; src <= switchCount; src++) {
+                assertEquals(eager.getCost(DatapathId.of(src), DatapathId.of(dst)),
+                             lazy.getCost(DatapathId.of(src), DatapathId.of(dst)));
+            }
+            assertTrue(lazy.routeExists(DatapathId.of((dst % switchCount) + 1), DatapathId.of(dst)));
+        }
+        assertTrue(lazy.treeCache.size() <= 2);
+
+        lazy.prewarmTrees(Arrays.asList(DatapathId.of(7), DatapathId.of(8)));
+        assertNotNull(lazy.treeCache.getIfPresent(DatapathId.of(7)));
+        assertNotNull(lazy.treeCache.getIfPresent(DatapathId.of(8)));
+
+        // A lazy previous instance has no trees to update from
+        links.add(link(3, 17));
+        TopologyInstance next = createInstance(switchCount, links, lazy);
+        verifySameAsFull(next, createInstance(switchCount, links, null));
+    }
 }
@@ -24,6 +24,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import net.floodlightcontroller.core.IOFConnection;
 import net.floodlightcontroller.core.IOFSwitch;
@@ -313,6 +314,12 @@ public class OFMessageDamperMockSwitch implements IOFSwitch {
 		return null;
 	}
 
+	@Override
+	public <R extends OFMessage> ListenableFuture<R> writeRequest(
+			OFRequest<R> request, long timeout, TimeUnit unit) {
+		return null;
+	}
+
 	@Override
 	public Collection<OFPortDesc> getEnabledPorts() {
 		// TODO Auto-generated method stub